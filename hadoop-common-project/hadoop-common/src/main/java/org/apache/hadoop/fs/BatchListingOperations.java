@@ -0,0 +1,58 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+
+/**
+ * FileSystems implement this interface to indicate that they can list many
+ * directories with fewer calls than listing them one at a time.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Unstable
+public interface BatchListingOperations {
+  /**
+   * List the statuses of the files/directories in the given directories.
+   * The listings are returned in the order of the given paths; the listing
+   * of a large directory may be split into several consecutive
+   * {@link PartialListing}s. A directory that cannot be listed does not end
+   * the iteration: its {@link PartialListing#get()} throws the error.
+   *
+   * @param paths the directories to list
+   * @return an iterator over the partial listings of the directories
+   * @throws IOException if the listing fails as a whole
+   */
+  RemoteIterator<PartialListing<FileStatus>> batchedListStatusIterator(
+      List<Path> paths) throws IOException;
+
+  /**
+   * List the statuses and block locations of the files/directories in the
+   * given directories, like {@link #batchedListStatusIterator(List)}.
+   *
+   * @param paths the directories to list
+   * @return an iterator over the partial listings of the directories
+   * @throws IOException if the listing fails as a whole
+   */
+  RemoteIterator<PartialListing<LocatedFileStatus>>
+      batchedListLocatedStatusIterator(List<Path> paths) throws IOException;
+}
@@ -0,0 +1,85 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.ipc.RemoteException;
+
+/**
+ * A partial listing of one of the directories of a batched listing, see
+ * {@link BatchListingOperations}. It holds either some of the statuses in
+ * the directory or the error raised while listing it.
+ *
+ * @param <T> the type of the file status
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Unstable
+public class PartialListing<T extends FileStatus> {
+  private final Path listedPath;
+  private final List<T> partialListing;
+  private final RemoteException exception;
+
+  public PartialListing(Path listedPath, List<T> partialListing) {
+    this(listedPath, partialListing, null);
+  }
+
+  public PartialListing(Path listedPath, RemoteException exception) {
+    this(listedPath, null, exception);
+  }
+
+  private PartialListing(Path listedPath, List<T> partialListing,
+      RemoteException exception) {
+    if ((partialListing == null) == (exception == null)) {
+      throw new IllegalArgumentException("Exactly one of partial listing "
+          + "and exception should be set");
+    }
+    this.listedPath = listedPath;
+    this.partialListing = partialListing;
+    this.exception = exception;
+  }
+
+  /**
+   * @return the listed directory
+   */
+  public Path getListedPath() {
+    return listedPath;
+  }
+
+  /**
+   * @return some of the statuses in the listed directory
+   * @throws IOException the error raised while listing the directory
+   */
+  public List<T> get() throws IOException {
+    if (exception != null) {
+      throw exception.unwrapRemoteException();
+    }
+    return partialListing;
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "[" + listedPath + ": "
+        + (exception != null ? exception.getClassName()
+            : partialListing.size() + " entries") + "]";
+  }
+}
@@ -0,0 +1,62 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ipc;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcRequestHeaderProto;
+import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcResponseHeaderProto;
+
+/**
+ * Carries a state ID between the clients and the servers of a protocol, so
+ * that a server which may lag behind, such as a StandbyNode serving reads,
+ * can make a call wait until it has caught up with the state the client has
+ * already seen. Servers send their state ID with every response, and clients
+ * send the highest one they have received with every request. An
+ * implementation used on one side only makes the methods of the other side
+ * no-ops.
+ */
+@InterfaceAudience.LimitedPrivate({"HDFS"})
+@InterfaceStability.Evolving
+public interface AlignmentContext {
+
+  /**
+   * Server side: set the current state ID of the server in the header of a
+   * response.
+   */
+  void updateResponseState(RpcResponseHeaderProto.Builder header);
+
+  /**
+   * Server side: whether calls of the given method wait for the server to
+   * reach the state ID of the client. Only these calls get a client state ID,
+   * see {@link Server#getClientStateId()}.
+   */
+  boolean isCoordinatedCall(String protocolName, String methodName);
+
+  /**
+   * Client side: set the last state ID seen by the client in the header of a
+   * request.
+   */
+  void updateRequestState(RpcRequestHeaderProto.Builder header);
+
+  /**
+   * Client side: learn the state ID of a server from the header of its
+   * response.
+   */
+  void receiveResponseState(RpcResponseHeaderProto header);
+}
@@ -35,6 +35,8 @@ private RpcConstants() {
   public static final byte[] DUMMY_CLIENT_ID = new byte[0];
   
   public static final int INVALID_RETRY_COUNT = -1;
+
+  public static final long INVALID_STATE_ID = Long.MIN_VALUE;
   
   /**
    * The first four bytes of Hadoop RPC connections
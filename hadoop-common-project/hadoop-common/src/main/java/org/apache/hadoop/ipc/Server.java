@@ -89,6 +89,7 @@
 import org.apache.hadoop.ipc.metrics.RpcDetailedMetrics;
 import org.apache.hadoop.ipc.metrics.RpcMetrics;
 import org.apache.hadoop.ipc.protobuf.IpcConnectionContextProtos.IpcConnectionContextProto;
+import org.apache.hadoop.ipc.protobuf.ProtobufRpcEngineProtos.RequestHeaderProto;
 import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcKindProto;
 import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcRequestHeaderProto;
 import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcResponseHeaderProto;
@@ -393,6 +394,16 @@ public static boolean isRpcInvocation() {
     return CurCall.get() != null;
   }
 
+  /**
+   * Returns the state ID the client of the current RPC call has seen, if the
+   * server has an {@link AlignmentContext} that coordinates the call.
+   * Returns {@link RpcConstants#INVALID_STATE_ID} otherwise.
+   */
+  public static long getClientStateId() {
+    Call call = CurCall.get();
+    return call != null ? call.clientStateId : RpcConstants.INVALID_STATE_ID;
+  }
+
   private String bindAddress; 
   private int port;                               // port we listen on
   private int handlerCount;                       // number of handler threads
@@ -416,6 +427,7 @@ public static boolean isRpcInvocation() {
 
   volatile private boolean running = true;         // true while server runs
   private CallQueueManager<Call> callQueue;
+  private volatile AlignmentContext alignmentContext; // null if none
 
   // maintains the set of client connections and handles idle timeouts
   private ConnectionManager connectionManager;
@@ -619,6 +631,8 @@ public static class Call implements Schedulable {
     private final RPC.RpcKind rpcKind;
     private final byte[] clientId;
     private final TraceScope traceScope; // the HTrace scope on the server side
+    private AlignmentContext alignmentContext; // state to send with response
+    private long clientStateId = RpcConstants.INVALID_STATE_ID;
 
     private Call(Call call) {
       this(call.callId, call.retryCount, call.rpcRequest, call.connection,
@@ -2075,6 +2089,19 @@ private void processRpcRequest(RpcRequestHeaderProto header,
           rpcRequest, this, ProtoUtil.convert(header.getRpcKind()),
           header.getClientId().toByteArray(), traceScope);
 
+      AlignmentContext context = alignmentContext;
+      if (context != null) {
+        call.alignmentContext = context;
+        RequestHeaderProto requestHeader =
+            ProtobufRpcEngine.getRequestHeader(rpcRequest);
+        if (header.hasStateId() && requestHeader != null &&
+            context.isCoordinatedCall(
+                requestHeader.getDeclaringClassProtocolName(),
+                requestHeader.getMethodName())) {
+          call.clientStateId = header.getStateId();
+        }
+      }
+
       if (callQueue.isClientBackoffEnabled()) {
         // if RPC queue is full, we will ask the RPC client to back off by
         // throwing RetriableException. Whether RPC client will honor
@@ -2547,6 +2574,9 @@ private static void setupResponse(ByteArrayOutputStream responseBuf,
     headerBuilder.setRetryCount(call.retryCount);
     headerBuilder.setStatus(status);
     headerBuilder.setServerIpcVersionNum(CURRENT_VERSION);
+    if (call.alignmentContext != null) {
+      call.alignmentContext.updateResponseState(headerBuilder);
+    }
 
     if (status == RpcStatusProto.SUCCESS) {
       RpcResponseHeaderProto header = headerBuilder.build();
@@ -2665,6 +2695,14 @@ public void setTracer(Tracer t) {
     this.tracer = t;
   }
 
+  /**
+   * Set the {@link AlignmentContext} which carries the state of this server
+   * to its clients, and theirs to it.
+   */
+  public void setAlignmentContext(AlignmentContext alignmentContext) {
+    this.alignmentContext = alignmentContext;
+  }
+
   /** Starts the service.  Must be called before any calls will be handled. */
   public synchronized void start() {
     responder.start();
@@ -302,11 +302,28 @@ public <T> ProtocolProxy<T> getProxy(Class<T> protocol, long clientVersion,
                          int rpcTimeout, RetryPolicy connectionRetryPolicy,
                          AtomicBoolean fallbackToSimpleAuth)
     throws IOException {    
+    return getProxy(protocol, clientVersion, addr, ticket, conf, factory,
+        rpcTimeout, connectionRetryPolicy, fallbackToSimpleAuth, null);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T> ProtocolProxy<T> getProxy(Class<T> protocol, long clientVersion,
+                         InetSocketAddress addr, UserGroupInformation ticket,
+                         Configuration conf, SocketFactory factory,
+                         int rpcTimeout, RetryPolicy connectionRetryPolicy,
+                         AtomicBoolean fallbackToSimpleAuth,
+                         AlignmentContext alignmentContext)
+    throws IOException {
 
     if (connectionRetryPolicy != null) {
       throw new UnsupportedOperationException(
           "Not supported: connectionRetryPolicy=" + connectionRetryPolicy);
     }
+    if (alignmentContext != null) {
+      throw new UnsupportedOperationException(
+          "Not supported: alignmentContext=" + alignmentContext);
+    }
 
     T proxy = (T) Proxy.newProxyInstance(protocol.getClassLoader(),
         new Class[] { protocol }, new Invoker(protocol, addr, ticket, conf,
@@ -21,7 +21,9 @@
 import java.util.List;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.TreeMap;
 import java.util.concurrent.locks.ReadWriteLock;
@@ -1028,6 +1030,50 @@ public void sortByDistance(Node reader, Node[] nodes, int activeLen) {
     for (int i=0; i<activeLen; i++) {
       weights[i] = getWeight(reader, nodes[i]);
     }
+    sortByWeight(nodes, weights, activeLen);
+  }
+
+  /**
+   * Sort the nodes of each array by network distance to <i>reader</i>, in
+   * the same way as {@link #sortByDistance(Node, Node[], int)}. The weight of
+   * a node is computed only once for all the arrays, which pays off when they
+   * hold the replica locations of the blocks of a file.
+   *
+   * @param reader     Node where data will be read
+   * @param nodesList  Available replicas of each block
+   * @param activeLens Number of active nodes at the front of each array
+   */
+  public void sortByDistance(Node reader, List<? extends Node[]> nodesList,
+      int[] activeLens) {
+    Preconditions.checkArgument(nodesList.size() == activeLens.length,
+        "Number of arrays and of active lengths differ");
+    Map<Node, Integer> weightCache = new HashMap<Node, Integer>();
+    netlock.readLock().lock();
+    try {
+      for (int i = 0; i < activeLens.length; i++) {
+        Node[] nodes = nodesList.get(i);
+        int[] weights = new int[activeLens[i]];
+        for (int j = 0; j < activeLens[i]; j++) {
+          Integer weight = weightCache.get(nodes[j]);
+          if (weight == null) {
+            weight = getWeight(reader, nodes[j]);
+            weightCache.put(nodes[j], weight);
+          }
+          weights[j] = weight;
+        }
+        sortByWeight(nodes, weights, activeLens[i]);
+      }
+    } finally {
+      netlock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Sort the first activeLen nodes by ascending weight, randomizing the nodes
+   * of the same weight.
+   */
+  private static void sortByWeight(Node[] nodes, int[] weights,
+      int activeLen) {
     // Add weight/node pairs to a TreeMap to sort
     TreeMap<Integer, List<Node>> tree = new TreeMap<Integer, List<Node>>();
     for (int i=0; i<activeLen; i++) {
@@ -17,6 +17,8 @@
  */
 package org.apache.hadoop.net;
 
+import java.util.List;
+
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
 
@@ -299,6 +301,21 @@ public void sortByDistance(Node reader, Node[] nodes, int activeLen) {
     super.sortByDistance(reader, nodes, activeLen);
   }
 
+  @Override
+  public void sortByDistance(Node reader, List<? extends Node[]> nodesList,
+      int[] activeLens) {
+    // replace a reader which is not a datanode only once for all the arrays
+    if (reader != null && !this.contains(reader)) {
+      Node nodeGroup = getNode(reader.getNetworkLocation());
+      if (nodeGroup != null && nodeGroup instanceof InnerNode) {
+        reader = ((InnerNode) nodeGroup).getLeaf(0, null);
+      } else {
+        return;
+      }
+    }
+    super.sortByDistance(reader, nodesList, activeLens);
+  }
+
   /** InnerNodeWithNodeGroup represents a switch/router of a data center, rack
    * or physical host. Different from a leaf node, it has non-null children.
    */
@@ -785,6 +785,15 @@ public void testTimeDuration() {
     conf.set("test.time.X", "30");
     assertEquals(30L, conf.getTimeDuration("test.time.X", 40, SECONDS));
 
+    // check a default unit which differs from the returned one
+    assertEquals(30000L,
+        conf.getTimeDuration("test.time.X", 40, SECONDS, MILLISECONDS));
+    assertEquals(40000L,
+        conf.getTimeDuration("test.time.Y", 40, SECONDS, MILLISECONDS));
+    conf.set("test.time.Y", "100ms");
+    assertEquals(100L,
+        conf.getTimeDuration("test.time.Y", 40, SECONDS, MILLISECONDS));
+
     for (Configuration.ParsedTimeDuration ptd :
          Configuration.ParsedTimeDuration.values()) {
       conf.setTimeDuration("test.time.unit", 1, ptd.unit());
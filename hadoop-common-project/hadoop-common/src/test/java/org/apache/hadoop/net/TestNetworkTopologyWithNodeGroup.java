@@ -22,6 +22,7 @@
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -138,6 +139,21 @@ public void testSortByDistance() throws Exception {
     assertTrue(testNodes[1] == dataNodes[2]);
   }
 
+  @Test
+  public void testSortByDistanceOfSeveralArrays() throws Exception {
+    NodeBase[] first = { dataNodes[6], dataNodes[2], dataNodes[0] };
+    // the last node is inactive and should stay in place
+    NodeBase[] second = { dataNodes[3], dataNodes[1], dataNodes[7] };
+    cluster.sortByDistance(computeNode, Arrays.asList(first, second),
+        new int[] { first.length, second.length - 1 });
+    assertTrue(first[0] == dataNodes[0]);
+    assertTrue(first[1] == dataNodes[2]);
+    assertTrue(first[2] == dataNodes[6]);
+    assertTrue(second[0] == dataNodes[1]);
+    assertTrue(second[1] == dataNodes[3]);
+    assertTrue(second[2] == dataNodes[7]);
+  }
+
   /**
    * This picks a large number of nodes at random in order to ensure coverage
    * 
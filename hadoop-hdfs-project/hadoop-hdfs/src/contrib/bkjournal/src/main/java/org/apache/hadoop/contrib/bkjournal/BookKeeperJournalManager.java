@@ -548,6 +548,15 @@ public void selectInputStreams(Collection<EditLogInputStream> streams,
     }
   }
 
+  @Override
+  public void selectInputStreams(Collection<EditLogInputStream> streams,
+      long fromTxId, boolean inProgressOk, boolean onlyDurableTxns)
+      throws IOException {
+    // In-progress ledgers are read up to the last entry confirmed by a quorum
+    // of bookies, so all the transactions returned are durable.
+    selectInputStreams(streams, fromTxId, inProgressOk);
+  }
+
   long getNumberOfTransactions(long fromTxId, boolean inProgressOk)
       throws IOException {
     long count = 0;
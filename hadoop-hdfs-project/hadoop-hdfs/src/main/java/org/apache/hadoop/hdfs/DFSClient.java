@@ -125,6 +125,7 @@
 import org.apache.hadoop.fs.FsTracer;
 import org.apache.hadoop.fs.HdfsBlockLocation;
 import org.apache.hadoop.fs.InvalidPathException;
+import org.apache.hadoop.fs.InvalidRequestException;
 import org.apache.hadoop.fs.MD5MD5CRC32CastagnoliFileChecksum;
 import org.apache.hadoop.fs.MD5MD5CRC32FileChecksum;
 import org.apache.hadoop.fs.MD5MD5CRC32GzipFileChecksum;
@@ -148,6 +149,7 @@
 import org.apache.hadoop.hdfs.ReplicaAccessorBuilder;
 import org.apache.hadoop.hdfs.net.TcpPeerServer;
 import org.apache.hadoop.hdfs.protocol.AclException;
+import org.apache.hadoop.hdfs.protocol.BatchedDirectoryListing;
 import org.apache.hadoop.hdfs.protocol.BlockStoragePolicy;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveEntry;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveInfo;
@@ -182,6 +184,7 @@
 import org.apache.hadoop.hdfs.protocol.RollingUpgradeInfo;
 import org.apache.hadoop.hdfs.protocol.SnapshotAccessControlException;
 import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport;
+import org.apache.hadoop.hdfs.protocol.SnapshotDiffReportListing;
 import org.apache.hadoop.hdfs.protocol.SnapshottableDirectoryStatus;
 import org.apache.hadoop.hdfs.protocol.UnresolvedPathException;
 import org.apache.hadoop.hdfs.protocol.ZoneReencryptionStatus;
@@ -2153,6 +2156,31 @@ public DirectoryListing listPaths(String src,  byte[] startAfter,
     }
   }
 
+  /**
+   * Get a partial listing of many directories at once
+   *
+   * Use HdfsFileStatus.EMPTY_NAME as startAfter for the first page, and
+   * the position returned with the previous page for the next ones.
+   *
+   * @see ClientProtocol#getBatchedListing(String[], byte[], boolean)
+   */
+  public BatchedDirectoryListing batchedListPaths(String[] srcs,
+      byte[] startAfter, boolean needLocation) throws IOException {
+    checkOpen();
+    TraceScope scope = newPathTraceScope("batchedListPaths",
+        srcs.length > 0 ? srcs[0] : null);
+    try {
+      return namenode.getBatchedListing(srcs, startAfter, needLocation);
+    } catch(RemoteException re) {
+      throw re.unwrapRemoteException(AccessControlException.class,
+                                     InvalidRequestException.class,
+                                     FileNotFoundException.class,
+                                     UnresolvedPathException.class);
+    } finally {
+      if (scope != null) scope.close();
+    }
+  }
+
   /**
    * Get the file info for a specific file or directory.
    * @param src The string representation of the path to the file
@@ -2845,6 +2873,29 @@ public SnapshotDiffReport getSnapshotDiffReport(String snapshotDir,
     }
   }
 
+  /**
+   * Get one page of the difference between two snapshots, or between a
+   * snapshot and the current tree of a directory.
+   * @see ClientProtocol#getSnapshotDiffReportListing
+   */
+  public SnapshotDiffReportListing getSnapshotDiffReportListing(
+      String snapshotDir, String fromSnapshot, String toSnapshot,
+      byte[] startPath, int index) throws IOException {
+    checkOpen();
+    TraceScope scope = null;
+    if (tracer != null) {
+      scope = tracer.newScope("getSnapshotDiffReportListing");
+    }
+    try {
+      return namenode.getSnapshotDiffReportListing(snapshotDir,
+          fromSnapshot, toSnapshot, startPath, index);
+    } catch(RemoteException re) {
+      throw re.unwrapRemoteException();
+    } finally {
+      if (scope != null) scope.close();
+    }
+  }
+
   public long addCacheDirective(
       CacheDirectiveInfo info, EnumSet<CacheFlag> flags) throws IOException {
     checkOpen();
@@ -125,6 +125,8 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final int     DFS_CLIENT_FAILOVER_CONNECTION_RETRIES_DEFAULT = 0;
   public static final String  DFS_CLIENT_FAILOVER_CONNECTION_RETRIES_ON_SOCKET_TIMEOUTS_KEY = "dfs.client.failover.connection.retries.on.timeouts";
   public static final int     DFS_CLIENT_FAILOVER_CONNECTION_RETRIES_ON_SOCKET_TIMEOUTS_DEFAULT = 0;
+  public static final String  DFS_CLIENT_FAILOVER_STANDBY_READS_BACKOFF_MS_KEY = "dfs.client.failover.standby-reads.backoff.ms";
+  public static final long    DFS_CLIENT_FAILOVER_STANDBY_READS_BACKOFF_MS_DEFAULT = 10000;
   public static final String  DFS_CLIENT_RETRY_MAX_ATTEMPTS_KEY = "dfs.client.retry.max.attempts";
   public static final int     DFS_CLIENT_RETRY_MAX_ATTEMPTS_DEFAULT = 10;
 
@@ -177,6 +179,10 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   // This setting is for testing/internal use only.
   public static final String  DFS_DATANODE_DUPLICATE_REPLICA_DELETION = "dfs.datanode.duplicate.replica.deletion";
   public static final boolean DFS_DATANODE_DUPLICATE_REPLICA_DELETION_DEFAULT = true;
+  public static final String  DFS_DATANODE_REPLICA_CACHE_ENABLED_KEY = "dfs.datanode.replica.cache.enabled";
+  public static final boolean DFS_DATANODE_REPLICA_CACHE_ENABLED_DEFAULT = false;
+  public static final String  DFS_DATANODE_REPLICA_CACHE_EXPIRY_MS_KEY = "dfs.datanode.replica.cache.expiry.ms";
+  public static final long    DFS_DATANODE_REPLICA_CACHE_EXPIRY_MS_DEFAULT = 5 * 60 * 1000L;
 
   public static final String DFS_DATA_TRANSFER_CLIENT_TCPNODELAY_KEY =
       "dfs.data.transfer.client.tcpnodelay";
@@ -249,6 +255,8 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final int     DFS_NAMENODE_REPLICATION_MAX_STREAMS_DEFAULT = 2;
   public static final String  DFS_NAMENODE_REPLICATION_STREAMS_HARD_LIMIT_KEY = "dfs.namenode.replication.max-streams-hard-limit";
   public static final int     DFS_NAMENODE_REPLICATION_STREAMS_HARD_LIMIT_DEFAULT = 4;
+  public static final String  DFS_NAMENODE_REPLICATION_TARGET_CHOOSER_THREADS_KEY = "dfs.namenode.replication.target-chooser.threads";
+  public static final int     DFS_NAMENODE_REPLICATION_TARGET_CHOOSER_THREADS_DEFAULT = 4;
   public static final String DFS_NAMENODE_STORAGEINFO_DEFRAGMENT_INTERVAL_MS_KEY
       = "dfs.namenode.storageinfo.defragment.interval.ms";
   public static final int
@@ -276,6 +284,8 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final boolean DFS_PERMISSIONS_ENABLED_DEFAULT = true;
   public static final String  DFS_PERMISSIONS_SUPERUSERGROUP_KEY = "dfs.permissions.superusergroup";
   public static final String  DFS_PERMISSIONS_SUPERUSERGROUP_DEFAULT = "supergroup";
+  public static final String  DFS_NAMENODE_PERMISSION_TRAVERSE_CACHE_SIZE_KEY = "dfs.namenode.permission.traverse.cache.size";
+  public static final int     DFS_NAMENODE_PERMISSION_TRAVERSE_CACHE_SIZE_DEFAULT = 100000;
   public static final String  DFS_NAMENODE_ACLS_ENABLED_KEY = "dfs.namenode.acls.enabled";
   public static final boolean DFS_NAMENODE_ACLS_ENABLED_DEFAULT = false;
   public static final String DFS_NAMENODE_POSIX_ACL_INHERITANCE_ENABLED_KEY =
@@ -317,6 +327,30 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
 
   public static final String  DFS_NAMENODE_LAZY_PERSIST_FILE_SCRUB_INTERVAL_SEC = "dfs.namenode.lazypersist.file.scrub.interval.sec";
   public static final int     DFS_NAMENODE_LAZY_PERSIST_FILE_SCRUB_INTERVAL_SEC_DEFAULT = 5 * 60;
+  public static final String  DFS_NAMENODE_HOT_FILE_REPLICATION_ENABLED_KEY = "dfs.namenode.hot-file.replication.enabled";
+  public static final boolean DFS_NAMENODE_HOT_FILE_REPLICATION_ENABLED_DEFAULT = false;
+  public static final String  DFS_NAMENODE_HOT_FILE_REPLICATION_KEY = "dfs.namenode.hot-file.replication";
+  public static final int     DFS_NAMENODE_HOT_FILE_REPLICATION_DEFAULT = 10;
+  public static final String  DFS_NAMENODE_HOT_FILE_THRESHOLD_KEY = "dfs.namenode.hot-file.threshold";
+  public static final int     DFS_NAMENODE_HOT_FILE_THRESHOLD_DEFAULT = 1000;
+  public static final String  DFS_NAMENODE_HOT_FILE_COOL_THRESHOLD_KEY = "dfs.namenode.hot-file.cool.threshold";
+  public static final int     DFS_NAMENODE_HOT_FILE_COOL_THRESHOLD_DEFAULT = 100;
+  public static final String  DFS_NAMENODE_HOT_FILE_MAX_FILES_KEY = "dfs.namenode.hot-file.max.files";
+  public static final int     DFS_NAMENODE_HOT_FILE_MAX_FILES_DEFAULT = 1000;
+  public static final String  DFS_NAMENODE_HOT_FILE_INTERVAL_MS_KEY = "dfs.namenode.hot-file.interval.ms";
+  public static final long    DFS_NAMENODE_HOT_FILE_INTERVAL_MS_DEFAULT = 60 * 1000;
+  public static final String  DFS_NAMENODE_STORAGE_TIERING_ENABLED_KEY = "dfs.namenode.storage-tiering.enabled";
+  public static final boolean DFS_NAMENODE_STORAGE_TIERING_ENABLED_DEFAULT = false;
+  public static final String  DFS_NAMENODE_STORAGE_TIERING_PATHS_KEY = "dfs.namenode.storage-tiering.paths";
+  public static final String  DFS_NAMENODE_STORAGE_TIERING_RULES_KEY = "dfs.namenode.storage-tiering.rules";
+  public static final String  DFS_NAMENODE_STORAGE_TIERING_INTERVAL_MS_KEY = "dfs.namenode.storage-tiering.interval.ms";
+  public static final long    DFS_NAMENODE_STORAGE_TIERING_INTERVAL_MS_DEFAULT = 10 * 60 * 1000;
+  public static final String  DFS_NAMENODE_STORAGE_TIERING_BATCH_SIZE_KEY = "dfs.namenode.storage-tiering.batch.size";
+  public static final int     DFS_NAMENODE_STORAGE_TIERING_BATCH_SIZE_DEFAULT = 1000;
+  public static final String  DFS_NAMENODE_STORAGE_TIERING_MAX_MOVES_KEY = "dfs.namenode.storage-tiering.max.moves";
+  public static final int     DFS_NAMENODE_STORAGE_TIERING_MAX_MOVES_DEFAULT = 1000;
+  public static final String  DFS_NAMENODE_METRICS_SNAPSHOT_INTERVAL_MS_KEY = "dfs.namenode.metrics.snapshot.interval.ms";
+  public static final long    DFS_NAMENODE_METRICS_SNAPSHOT_INTERVAL_MS_DEFAULT = 0;
   
   public static final String  DFS_NAMENODE_EDITS_NOEDITLOGCHANNELFLUSH = "dfs.namenode.edits.noeditlogchannelflush";
   public static final boolean DFS_NAMENODE_EDITS_NOEDITLOGCHANNELFLUSH_DEFAULT = false;
@@ -324,17 +358,29 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String  DFS_NAMENODE_EDITS_ASYNC_LOGGING =
       "dfs.namenode.edits.asynclogging";
   public static final boolean DFS_NAMENODE_EDITS_ASYNC_LOGGING_DEFAULT = true;
+  public static final String
+      DFS_NAMENODE_EDITS_ASYNC_LOGGING_PENDING_QUEUE_SIZE =
+      "dfs.namenode.edits.asynclogging.pending.queue.size";
+  public static final int
+      DFS_NAMENODE_EDITS_ASYNC_LOGGING_PENDING_QUEUE_SIZE_DEFAULT = 4096;
 
   public static final String  DFS_LIST_LIMIT = "dfs.ls.limit";
   public static final int     DFS_LIST_LIMIT_DEFAULT = 1000;
+  public static final String  DFS_NAMENODE_BATCHED_LISTING_LIMIT = "dfs.batched.ls.limit";
+  public static final int     DFS_NAMENODE_BATCHED_LISTING_LIMIT_DEFAULT = 100;
   public static final String  DFS_CONTENT_SUMMARY_LIMIT_KEY = "dfs.content-summary.limit";
   public static final int     DFS_CONTENT_SUMMARY_LIMIT_DEFAULT = 5000;
   public static final String  DFS_CONTENT_SUMMARY_SLEEP_MICROSEC_KEY = "dfs.content-summary.sleep-microsec";
   public static final long    DFS_CONTENT_SUMMARY_SLEEP_MICROSEC_DEFAULT = 500;
+  public static final String  DFS_NAMENODE_CONTENT_SUMMARY_TRACKED_DIRS_KEY = "dfs.namenode.content-summary.tracked-dirs";
   public static final String  DFS_DATANODE_FAILED_VOLUMES_TOLERATED_KEY = "dfs.datanode.failed.volumes.tolerated";
   public static final int     DFS_DATANODE_FAILED_VOLUMES_TOLERATED_DEFAULT = 0;
   public static final String  DFS_DATANODE_SYNCONCLOSE_KEY = "dfs.datanode.synconclose";
   public static final boolean DFS_DATANODE_SYNCONCLOSE_DEFAULT = false;
+  public static final String  DFS_DATANODE_SYNC_GROUP_COMMIT_ENABLED_KEY = "dfs.datanode.sync.group-commit.enabled";
+  public static final boolean DFS_DATANODE_SYNC_GROUP_COMMIT_ENABLED_DEFAULT = false;
+  public static final String  DFS_DATANODE_SYNC_GROUP_COMMIT_INTERVAL_MS_KEY = "dfs.datanode.sync.group-commit.interval.ms";
+  public static final long    DFS_DATANODE_SYNC_GROUP_COMMIT_INTERVAL_MS_DEFAULT = 0;
   public static final String  DFS_DATANODE_SOCKET_REUSE_KEEPALIVE_KEY = "dfs.datanode.socket.reuse.keepalive";
   public static final int     DFS_DATANODE_SOCKET_REUSE_KEEPALIVE_DEFAULT = 4000;
   public static final String  DFS_DATANODE_OOB_TIMEOUT_KEY = "dfs.datanode.oob.timeout-ms";
@@ -358,6 +404,9 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String  DFS_NAMENODE_PATH_BASED_CACHE_REFRESH_INTERVAL_MS =
       "dfs.namenode.path.based.cache.refresh.interval.ms";
   public static final long    DFS_NAMENODE_PATH_BASED_CACHE_REFRESH_INTERVAL_MS_DEFAULT = 30000L;
+  public static final String  DFS_NAMENODE_PATH_BASED_CACHE_FULL_RESCAN_INTERVAL_MS =
+      "dfs.namenode.path.based.cache.full.rescan.interval.ms";
+  public static final long    DFS_NAMENODE_PATH_BASED_CACHE_FULL_RESCAN_INTERVAL_MS_DEFAULT = 0L;
 
   /** Pending period of block deletion since NameNode startup */
   public static final String  DFS_NAMENODE_STARTUP_DELAY_BLOCK_DELETION_SEC_KEY = "dfs.namenode.startup.delay.block.deletion.sec";
@@ -377,6 +426,10 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final boolean
       DFS_NAMENODE_SNAPSHOT_DIFF_ALLOW_SNAP_ROOT_DESCENDANT_DEFAULT =
       true;
+  public static final String DFS_NAMENODE_SNAPSHOT_DIFF_LISTING_LIMIT =
+      "dfs.namenode.snapshotdiff.listing.limit";
+  public static final int DFS_NAMENODE_SNAPSHOT_DIFF_LISTING_LIMIT_DEFAULT =
+      1000;
 
   // Whether to enable datanode's stale state detection and usage for reads
   public static final String DFS_NAMENODE_AVOID_STALE_DATANODE_FOR_READ_KEY = "dfs.namenode.avoid.read.stale.datanode";
@@ -396,6 +449,10 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   // allow writing to stale nodes to prevent hotspots.
   public static final String DFS_NAMENODE_USE_STALE_DATANODE_FOR_WRITE_RATIO_KEY = "dfs.namenode.write.stale.datanode.ratio";
   public static final float DFS_NAMENODE_USE_STALE_DATANODE_FOR_WRITE_RATIO_DEFAULT = 0.5f;
+  // Number of resolved network locations of clients which are not datanodes
+  // kept for sorting block locations by distance.
+  public static final String DFS_NAMENODE_CLIENT_NODE_CACHE_SIZE_KEY = "dfs.namenode.client-node.cache.size";
+  public static final int DFS_NAMENODE_CLIENT_NODE_CACHE_SIZE_DEFAULT = 10000;
 
   // Number of blocks to rescan for each iteration of postponedMisreplicatedBlocks.
   public static final String DFS_NAMENODE_BLOCKS_PER_POSTPONEDBLOCKS_RESCAN_KEY = "dfs.namenode.blocks.per.postponedblocks.rescan";
@@ -446,6 +503,16 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String DFS_NAMENODE_FSLOCK_FAIR_KEY =
       "dfs.namenode.fslock.fair";
   public static final boolean DFS_NAMENODE_FSLOCK_FAIR_DEFAULT = true;
+  public static final String DFS_NAMENODE_FSLOCK_PARTITIONED_KEY =
+      "dfs.namenode.fslock.partitioned";
+  public static final boolean DFS_NAMENODE_FSLOCK_PARTITIONED_DEFAULT = false;
+  public static final String DFS_NAMENODE_FSLOCK_PARTITIONS_KEY =
+      "dfs.namenode.fslock.partitions";
+  public static final int DFS_NAMENODE_FSLOCK_PARTITIONS_DEFAULT = 64;
+  public static final String DFS_NAMENODE_LOCK_DETAILED_METRICS_KEY =
+      "dfs.namenode.lock.detailed-metrics.enabled";
+  public static final boolean DFS_NAMENODE_LOCK_DETAILED_METRICS_DEFAULT =
+      false;
 
   // Threshold for how long namenode locks must be held for the
   // event to be logged
@@ -496,6 +563,21 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final boolean DFS_NAMENODE_AUDIT_LOG_ASYNC_DEFAULT = false;
   public static final String DFS_NAMENODE_AUTHORIZATION_PROVIDER_KEY = "dfs.namenode.authorization.provider.class";
   public static final String  DFS_NAMENODE_AUDIT_LOG_DEBUG_CMDLIST = "dfs.namenode.audit.log.debug.cmdlist";
+  public static final String  DFS_NAMENODE_BATCHED_AUDIT_LOGGER_NAME = "batched";
+  public static final String  DFS_NAMENODE_AUDIT_LOG_BATCHED_FILE_KEY = "dfs.namenode.audit.log.batched.file";
+  public static final String  DFS_NAMENODE_AUDIT_LOG_BATCHED_FILE_DEFAULT = "hdfs-audit-batched.log";
+  public static final String  DFS_NAMENODE_AUDIT_LOG_BATCHED_FORMAT_KEY = "dfs.namenode.audit.log.batched.format";
+  public static final String  DFS_NAMENODE_AUDIT_LOG_BATCHED_FORMAT_DEFAULT = "text";
+  public static final String  DFS_NAMENODE_AUDIT_LOG_BATCHED_QUEUE_SIZE_KEY = "dfs.namenode.audit.log.batched.queue.size";
+  public static final int     DFS_NAMENODE_AUDIT_LOG_BATCHED_QUEUE_SIZE_DEFAULT = 65536;
+  public static final String  DFS_NAMENODE_AUDIT_LOG_BATCHED_BATCH_SIZE_KEY = "dfs.namenode.audit.log.batched.batch.size";
+  public static final int     DFS_NAMENODE_AUDIT_LOG_BATCHED_BATCH_SIZE_DEFAULT = 1024;
+  public static final String  DFS_NAMENODE_AUDIT_LOG_BATCHED_FLUSH_INTERVAL_MS_KEY = "dfs.namenode.audit.log.batched.flush.interval.ms";
+  public static final long    DFS_NAMENODE_AUDIT_LOG_BATCHED_FLUSH_INTERVAL_MS_DEFAULT = 100;
+  public static final String  DFS_NAMENODE_AUDIT_LOG_BATCHED_MAX_FILE_SIZE_KEY = "dfs.namenode.audit.log.batched.max.file.size";
+  public static final long    DFS_NAMENODE_AUDIT_LOG_BATCHED_MAX_FILE_SIZE_DEFAULT = 256L * 1024 * 1024;
+  public static final String  DFS_NAMENODE_AUDIT_LOG_BATCHED_MAX_BACKUPS_KEY = "dfs.namenode.audit.log.batched.max.backups";
+  public static final int     DFS_NAMENODE_AUDIT_LOG_BATCHED_MAX_BACKUPS_DEFAULT = 10;
   public static final String  DFS_NAMENODE_AUTHORIZATION_PROVIDER_BYPASS_USERS_KEY = "dfs.namenode.authorization.provider.bypass.users";
   public static final String  DFS_NAMENODE_AUTHORIZATION_PROVIDER_BYPASS_USERS_DEFAULT = "";
 
@@ -558,6 +640,8 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String  DFS_DATANODE_DNS_NAMESERVER_DEFAULT = "default";
   public static final String  DFS_DATANODE_DU_RESERVED_KEY = "dfs.datanode.du.reserved";
   public static final long    DFS_DATANODE_DU_RESERVED_DEFAULT = 0;
+  public static final String  DFS_DATANODE_DU_RECONCILE_INTERVAL_MS_KEY = "dfs.datanode.du.reconcile.interval.ms";
+  public static final long    DFS_DATANODE_DU_RECONCILE_INTERVAL_MS_DEFAULT = 24 * 60 * 60 * 1000L;
   public static final String  DFS_DATANODE_HANDLER_COUNT_KEY = "dfs.datanode.handler.count";
   public static final int     DFS_DATANODE_HANDLER_COUNT_DEFAULT = 10;
   public static final String  DFS_DATANODE_HTTP_ADDRESS_KEY = "dfs.datanode.http.address";
@@ -565,6 +649,10 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String  DFS_DATANODE_HTTP_ADDRESS_DEFAULT = "0.0.0.0:" + DFS_DATANODE_HTTP_DEFAULT_PORT;
   public static final String  DFS_DATANODE_MAX_RECEIVER_THREADS_KEY = "dfs.datanode.max.transfer.threads";
   public static final int     DFS_DATANODE_MAX_RECEIVER_THREADS_DEFAULT = 4096;
+  public static final String  DFS_DATANODE_TRANSFER_WORKER_THREADS_KEY = "dfs.datanode.transfer.worker.threads";
+  public static final int     DFS_DATANODE_TRANSFER_WORKER_THREADS_DEFAULT = 0;
+  public static final String  DFS_DATANODE_TRANSFER_MAX_IDLE_PEERS_KEY = "dfs.datanode.transfer.max.idle.peers";
+  public static final int     DFS_DATANODE_TRANSFER_MAX_IDLE_PEERS_DEFAULT = 1024;
   public static final String  DFS_DATANODE_SCAN_PERIOD_HOURS_KEY = "dfs.datanode.scan.period.hours";
   public static final int     DFS_DATANODE_SCAN_PERIOD_HOURS_DEFAULT = 21 * 24;  // 3 weeks.
   public static final String  DFS_BLOCK_SCANNER_VOLUME_BYTES_PER_SECOND = "dfs.block.scanner.volume.bytes.per.second";
@@ -633,6 +721,8 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final int     DFS_NAMENODE_MAX_FULL_BLOCK_REPORT_LEASES_DEFAULT = 6;
   public static final String  DFS_NAMENODE_FULL_BLOCK_REPORT_LEASE_LENGTH_MS = "dfs.namenode.full.block.report.lease.length.ms";
   public static final long    DFS_NAMENODE_FULL_BLOCK_REPORT_LEASE_LENGTH_MS_DEFAULT = 5L * 60L * 1000L;
+  public static final String  DFS_NAMENODE_BLOCKREPORT_BATCH_SIZE_KEY = "dfs.namenode.blockreport.batch.size";
+  public static final int     DFS_NAMENODE_BLOCKREPORT_BATCH_SIZE_DEFAULT = 10000;
   public static final String  DFS_CACHEREPORT_INTERVAL_MSEC_KEY = "dfs.cachereport.intervalMsec";
   public static final long    DFS_CACHEREPORT_INTERVAL_MSEC_DEFAULT = 10 * 1000;
   public static final String  DFS_BLOCK_INVALIDATE_LIMIT_KEY = "dfs.block.invalidate.limit";
@@ -673,6 +763,23 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String DFS_IMAGE_COMPRESSION_CODEC_DEFAULT =
                                    "org.apache.hadoop.io.compress.DefaultCodec";
 
+  // property for parallel fsimage loading
+  public static final String DFS_IMAGE_PARALLEL_LOAD_KEY =
+      "dfs.image.parallel.load";
+  public static final boolean DFS_IMAGE_PARALLEL_LOAD_DEFAULT = false;
+  public static final String DFS_IMAGE_PARALLEL_TARGET_SECTIONS_KEY =
+      "dfs.image.parallel.target.sections";
+  public static final int DFS_IMAGE_PARALLEL_TARGET_SECTIONS_DEFAULT = 12;
+  public static final String DFS_IMAGE_PARALLEL_INODE_THRESHOLD_KEY =
+      "dfs.image.parallel.inode.threshold";
+  public static final int DFS_IMAGE_PARALLEL_INODE_THRESHOLD_DEFAULT = 1000000;
+  public static final String DFS_IMAGE_PARALLEL_THREADS_KEY =
+      "dfs.image.parallel.threads";
+  public static final int DFS_IMAGE_PARALLEL_THREADS_DEFAULT = 4;
+  public static final String DFS_IMAGE_PARALLEL_SAVE_THREADS_KEY =
+      "dfs.image.parallel.save.threads";
+  public static final int DFS_IMAGE_PARALLEL_SAVE_THREADS_DEFAULT = 4;
+
   public static final String DFS_IMAGE_TRANSFER_RATE_KEY =
                                            "dfs.image.transfer.bandwidthPerSec";
   public static final long DFS_IMAGE_TRANSFER_RATE_DEFAULT = 0;  //no throttling
@@ -773,6 +880,14 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String DFS_HA_TAILEDITS_ROLLEDITS_TIMEOUT_KEY =
       "dfs.ha.tail-edits.rolledits.timeout";
   public static final int DFS_HA_TAILEDITS_ROLLEDITS_TIMEOUT_DEFAULT = 60; // 1m
+  public static final String DFS_HA_TAILEDITS_INPROGRESS_KEY = "dfs.ha.tail-edits.in-progress";
+  public static final boolean DFS_HA_TAILEDITS_INPROGRESS_DEFAULT = false;
+  public static final String DFS_HA_TAILEDITS_INPROGRESS_MAX_TXNS_KEY = "dfs.ha.tail-edits.in-progress.max-txns";
+  public static final int DFS_HA_TAILEDITS_INPROGRESS_MAX_TXNS_DEFAULT = 5000;
+  public static final String DFS_HA_STANDBY_READS_ENABLED_KEY = "dfs.ha.standby.reads.enabled";
+  public static final boolean DFS_HA_STANDBY_READS_ENABLED_DEFAULT = false;
+  public static final String DFS_HA_STANDBY_READS_MAX_WAIT_MS_KEY = "dfs.ha.standby.reads.max-wait.ms";
+  public static final long DFS_HA_STANDBY_READS_MAX_WAIT_MS_DEFAULT = 2000;
   public static final String DFS_HA_LOGROLL_RPC_TIMEOUT_KEY = "dfs.ha.log-roll.rpc.timeout";
   public static final int DFS_HA_LOGROLL_RPC_TIMEOUT_DEFAULT = 20000; // 20s
   public static final String DFS_HA_FENCE_METHODS_KEY = "dfs.ha.fencing.methods";
@@ -835,6 +950,8 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String  DFS_JOURNALNODE_KEYTAB_FILE_KEY = "dfs.journalnode.keytab.file";
   public static final String  DFS_JOURNALNODE_KERBEROS_PRINCIPAL_KEY = "dfs.journalnode.kerberos.principal";
   public static final String  DFS_JOURNALNODE_KERBEROS_INTERNAL_SPNEGO_PRINCIPAL_KEY = "dfs.journalnode.kerberos.internal.spnego.principal";
+  public static final String  DFS_JOURNALNODE_EDIT_CACHE_SIZE_KEY = "dfs.journalnode.edit-cache-size.bytes";
+  public static final int     DFS_JOURNALNODE_EDIT_CACHE_SIZE_DEFAULT = 1024 * 1024;
 
   // Journal-node related configs for the client side.
   public static final String  DFS_QJOURNAL_QUEUE_SIZE_LIMIT_KEY = "dfs.qjournal.queued-edits.limit.mb";
@@ -31,6 +31,7 @@
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BatchListingOperations;
 import org.apache.hadoop.fs.BlockLocation;
 import org.apache.hadoop.fs.BlockStorageLocation;
 import org.apache.hadoop.fs.CacheFlag;
@@ -55,6 +56,7 @@
 import org.apache.hadoop.fs.XAttrSetFlag;
 import org.apache.hadoop.fs.Options.ChecksumOpt;
 import org.apache.hadoop.fs.ParentNotDirectoryException;
+import org.apache.hadoop.fs.PartialListing;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.PathFilter;
 import org.apache.hadoop.fs.RemoteIterator;
@@ -68,6 +70,7 @@
 import org.apache.hadoop.hdfs.client.HdfsAdmin;
 import org.apache.hadoop.hdfs.client.HdfsDataOutputStream;
 import org.apache.hadoop.hdfs.DFSOpsCountStatistics.OpType;
+import org.apache.hadoop.hdfs.protocol.BatchedDirectoryListing;
 import org.apache.hadoop.hdfs.protocol.BlockStoragePolicy;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveEntry;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveInfo;
@@ -82,17 +85,20 @@
 import org.apache.hadoop.hdfs.protocol.HdfsConstants.RollingUpgradeAction;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants.SafeModeAction;
 import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+import org.apache.hadoop.hdfs.protocol.HdfsPartialListing;
 import org.apache.hadoop.hdfs.protocol.HdfsLocatedFileStatus;
 import org.apache.hadoop.hdfs.protocol.OpenFileEntry;
 import org.apache.hadoop.hdfs.protocol.OpenFilesIterator.OpenFilesType;
 import org.apache.hadoop.hdfs.protocol.RollingUpgradeInfo;
 import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport;
+import org.apache.hadoop.hdfs.protocol.SnapshotDiffReportListing;
 import org.apache.hadoop.hdfs.protocol.SnapshottableDirectoryStatus;
 import org.apache.hadoop.hdfs.protocol.ZoneReencryptionStatus;
 import org.apache.hadoop.hdfs.security.token.block.InvalidBlockTokenException;
 import org.apache.hadoop.hdfs.security.token.delegation.DelegationTokenIdentifier;
 import org.apache.hadoop.hdfs.server.namenode.NameNode;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.ipc.RpcNoSuchMethodException;
 import org.apache.hadoop.net.NetUtils;
 import org.apache.hadoop.security.AccessControlException;
 import org.apache.hadoop.security.Credentials;
@@ -111,7 +117,8 @@
  *****************************************************************/
 @InterfaceAudience.LimitedPrivate({ "MapReduce", "HBase" })
 @InterfaceStability.Unstable
-public class DistributedFileSystem extends FileSystem {
+public class DistributedFileSystem extends FileSystem
+    implements BatchListingOperations {
   private Path workingDir;
   private URI uri;
   private String homeDirPrefix =
@@ -961,6 +968,114 @@ public T next() throws IOException {
       throw new java.util.NoSuchElementException("No more entry in " + p);
     }
   }
+
+  /**
+   * List many directories with one call per page of entries instead of one
+   * call per directory. Symlinks in the given paths are not resolved: the
+   * listing of such a path fails with an {@link UnresolvedLinkException}.
+   */
+  @Override
+  public RemoteIterator<PartialListing<FileStatus>> batchedListStatusIterator(
+      List<Path> paths) throws IOException {
+    return new BatchedListingIterator<FileStatus>(paths, false);
+  }
+
+  /**
+   * List many directories with block locations, see
+   * {@link #batchedListStatusIterator(List)}.
+   */
+  @Override
+  public RemoteIterator<PartialListing<LocatedFileStatus>>
+      batchedListLocatedStatusIterator(List<Path> paths) throws IOException {
+    return new BatchedListingIterator<LocatedFileStatus>(paths, true);
+  }
+
+  /**
+   * This class defines an iterator that returns the partial listings of a
+   * batch of directories. The directories are listed in chunks of at most
+   * {@link DFSConfigKeys#DFS_NAMENODE_BATCHED_LISTING_LIMIT} paths, and the
+   * next page is fetched on demand.
+   *
+   * if needLocation, status contains block location if it is a file
+   *
+   * @param <T> the type of the file status
+   */
+  private class BatchedListingIterator<T extends FileStatus>
+      implements RemoteIterator<PartialListing<T>> {
+    private final List<Path> paths;
+    private final boolean needLocation;
+    private final int chunkSize;
+    /** Index in paths of the first directory of the current chunk. */
+    private int chunkStart = 0;
+    private String[] srcs;
+    private BatchedDirectoryListing thisListing;
+    private int i;
+
+    private BatchedListingIterator(List<Path> paths, boolean needLocation) {
+      this.paths = new ArrayList<Path>(paths.size());
+      for (Path p : paths) {
+        this.paths.add(fixRelativePart(p));
+      }
+      this.needLocation = needLocation;
+      this.chunkSize = Math.max(1, getConf().getInt(
+          DFSConfigKeys.DFS_NAMENODE_BATCHED_LISTING_LIMIT,
+          DFSConfigKeys.DFS_NAMENODE_BATCHED_LISTING_LIMIT_DEFAULT));
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+      while (thisListing == null || i >= thisListing.getListings().length) {
+        if (thisListing != null && thisListing.hasMore()) {
+          // current page is exhausted & fetch the next page of the chunk
+          thisListing = dfs.batchedListPaths(srcs,
+              thisListing.getStartAfter(), needLocation);
+        } else {
+          if (thisListing != null) {
+            chunkStart += srcs.length;
+          }
+          if (chunkStart >= paths.size()) {
+            return false;
+          }
+          srcs = new String[Math.min(chunkSize, paths.size() - chunkStart)];
+          for (int j = 0; j < srcs.length; j++) {
+            srcs[j] = getPathName(paths.get(chunkStart + j));
+          }
+          thisListing = dfs.batchedListPaths(srcs, HdfsFileStatus.EMPTY_NAME,
+              needLocation);
+        }
+        statistics.incrementReadOps(1);
+        storageStatistics.incrementOpCounter(needLocation ?
+            OpType.LIST_LOCATED_STATUS : OpType.LIST_STATUS);
+        i = 0;
+      }
+      return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public PartialListing<T> next() throws IOException {
+      if (!hasNext()) {
+        throw new java.util.NoSuchElementException(
+            "No more entry in the batch");
+      }
+      final HdfsPartialListing listing = thisListing.getListings()[i++];
+      final Path parent = paths.get(chunkStart + listing.getParentIdx());
+      if (listing.getException() != null) {
+        return new PartialListing<T>(parent, listing.getException());
+      }
+      final HdfsFileStatus[] partialListing = listing.getPartialListing();
+      final List<T> stats = new ArrayList<T>(partialListing.length);
+      for (HdfsFileStatus fileStat : partialListing) {
+        if (needLocation) {
+          stats.add((T)((HdfsLocatedFileStatus)fileStat)
+              .makeQualifiedLocated(getUri(), parent));
+        } else {
+          stats.add((T)fileStat.makeQualified(getUri(), parent));
+        }
+      }
+      return new PartialListing<T>(parent, stats);
+    }
+  }
   
   /**
    * Create a directory, only when the parent directories exist.
@@ -1717,9 +1832,10 @@ public Void next(final FileSystem fs, final Path p)
 
   /**
    * Get the difference between two snapshots, or between a snapshot and the
-   * current tree of a directory.
+   * current tree of a directory. The difference is fetched in pages, so that
+   * the NameNode lock is not held for the whole of a large diff.
    * 
-   * @see DFSClient#getSnapshotDiffReport(String, String, String)
+   * @see DFSClient#getSnapshotDiffReportListing
    */
   public SnapshotDiffReport getSnapshotDiffReport(final Path snapshotDir,
       final String fromSnapshot, final String toSnapshot) throws IOException {
@@ -1728,7 +1844,7 @@ public SnapshotDiffReport getSnapshotDiffReport(final Path snapshotDir,
       @Override
       public SnapshotDiffReport doCall(final Path p)
           throws IOException, UnresolvedLinkException {
-        return dfs.getSnapshotDiffReport(getPathName(p), fromSnapshot,
+        return getSnapshotDiffReportInternal(getPathName(p), fromSnapshot,
             toSnapshot);
       }
 
@@ -1737,16 +1853,39 @@ public SnapshotDiffReport next(final FileSystem fs, final Path p)
           throws IOException {
         if (fs instanceof DistributedFileSystem) {
           DistributedFileSystem myDfs = (DistributedFileSystem)fs;
-          myDfs.getSnapshotDiffReport(p, fromSnapshot, toSnapshot);
+          return myDfs.getSnapshotDiffReport(p, fromSnapshot, toSnapshot);
         } else {
           throw new UnsupportedOperationException("Cannot perform snapshot"
               + " operations on a symlink to a non-DistributedFileSystem: "
               + snapshotDir + " -> " + p);
         }
-        return null;
       }
     }.resolve(this, absF);
   }
+
+  private SnapshotDiffReport getSnapshotDiffReportInternal(
+      final String snapshotDir, final String fromSnapshot,
+      final String toSnapshot) throws IOException {
+    SnapshotDiffReportGenerator generator = new SnapshotDiffReportGenerator(
+        snapshotDir, fromSnapshot, toSnapshot);
+    byte[] startPath = DFSUtil.EMPTY_BYTES;
+    int index = 0;
+    SnapshotDiffReportListing page;
+    do {
+      try {
+        page = dfs.getSnapshotDiffReportListing(snapshotDir, fromSnapshot,
+            toSnapshot, startPath, index);
+      } catch (RpcNoSuchMethodException e) {
+        // the NameNode does not support listing the diff in pages yet
+        return dfs.getSnapshotDiffReport(snapshotDir, fromSnapshot,
+            toSnapshot);
+      }
+      generator.addPage(page);
+      startPath = page.getLastPath();
+      index = page.getLastIndex();
+    } while (page.hasMore());
+    return generator.generateReport();
+  }
  
   /**
    * Get the close status of a file
@@ -0,0 +1,159 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport;
+import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport.DiffReportEntry;
+import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport.DiffType;
+import org.apache.hadoop.hdfs.protocol.SnapshotDiffReportListing;
+import org.apache.hadoop.hdfs.protocol.SnapshotDiffReportListing.DiffReportListingEntry;
+import org.apache.hadoop.util.ChunkedArrayList;
+
+/**
+ * Builds a {@link SnapshotDiffReport} out of the pages of a snapshot diff
+ * listing. Renames can only be told apart from creations and deletions once
+ * both their source and their target have been seen, which may be on
+ * different pages, so the report is generated after all the pages have been
+ * added.
+ */
+@InterfaceAudience.Private
+class SnapshotDiffReportGenerator {
+  private static class RenameEntry {
+    private byte[][] sourcePath;
+    private byte[][] targetPath;
+
+    boolean isRename() {
+      return sourcePath != null && targetPath != null;
+    }
+  }
+
+  private final String snapshotRoot;
+  private final String fromSnapshot;
+  private final String toSnapshot;
+  private boolean isFromEarlier = true;
+
+  private final List<DiffReportListingEntry> modifiedList =
+      new ChunkedArrayList<DiffReportListingEntry>();
+  /** Created and deleted children, by the id of their directory */
+  private final Map<Long, List<DiffReportListingEntry>> createdMap =
+      new HashMap<Long, List<DiffReportListingEntry>>();
+  private final Map<Long, List<DiffReportListingEntry>> deletedMap =
+      new HashMap<Long, List<DiffReportListingEntry>>();
+  private final Map<Long, RenameEntry> renameMap =
+      new HashMap<Long, RenameEntry>();
+
+  SnapshotDiffReportGenerator(String snapshotRoot, String fromSnapshot,
+      String toSnapshot) {
+    this.snapshotRoot = snapshotRoot;
+    this.fromSnapshot = fromSnapshot;
+    this.toSnapshot = toSnapshot;
+  }
+
+  /** Add the entries of a page of the listing, in the listing order. */
+  void addPage(SnapshotDiffReportListing page) {
+    isFromEarlier = page.getIsFromEarlier();
+    modifiedList.addAll(page.getModifyList());
+    for (DiffReportListingEntry created : page.getCreateList()) {
+      getChildren(createdMap, created.getDirId()).add(created);
+      if (created.isReference()) {
+        RenameEntry entry = getEntry(created.getFileId());
+        if (entry.targetPath == null) {
+          entry.targetPath = created.getSourcePath();
+        }
+      }
+    }
+    for (DiffReportListingEntry deleted : page.getDeleteList()) {
+      getChildren(deletedMap, deleted.getDirId()).add(deleted);
+      if (deleted.isReference()) {
+        RenameEntry entry = getEntry(deleted.getFileId());
+        entry.sourcePath = deleted.getSourcePath();
+        // the target found by the NameNode wins over the created references
+        if (deleted.getTargetPath() != null) {
+          entry.targetPath = deleted.getTargetPath();
+        }
+      }
+    }
+  }
+
+  private static List<DiffReportListingEntry> getChildren(
+      Map<Long, List<DiffReportListingEntry>> map, long dirId) {
+    List<DiffReportListingEntry> children = map.get(dirId);
+    if (children == null) {
+      children = new ChunkedArrayList<DiffReportListingEntry>();
+      map.put(dirId, children);
+    }
+    return children;
+  }
+
+  private RenameEntry getEntry(long inodeId) {
+    RenameEntry entry = renameMap.get(inodeId);
+    if (entry == null) {
+      entry = new RenameEntry();
+      renameMap.put(inodeId, entry);
+    }
+    return entry;
+  }
+
+  /**
+   * Generate a {@link SnapshotDiffReport} of all the added pages.
+   * @return A {@link SnapshotDiffReport} describing the difference
+   */
+  SnapshotDiffReport generateReport() {
+    List<DiffReportEntry> diffReportList =
+        new ChunkedArrayList<DiffReportEntry>();
+    for (DiffReportListingEntry modified : modifiedList) {
+      diffReportList.add(new DiffReportEntry(DiffType.MODIFY,
+          modified.getSourcePath(), null));
+      // the children of a directory are reported once, after its first
+      // modification entry
+      List<DiffReportListingEntry> created =
+          createdMap.remove(modified.getDirId());
+      List<DiffReportListingEntry> deleted =
+          deletedMap.remove(modified.getDirId());
+      if (created != null) {
+        for (DiffReportListingEntry cnode : created) {
+          RenameEntry entry = renameMap.get(cnode.getFileId());
+          if (entry == null || !entry.isRename()) {
+            diffReportList.add(new DiffReportEntry(isFromEarlier ?
+                DiffType.CREATE : DiffType.DELETE, cnode.getSourcePath()));
+          }
+        }
+      }
+      if (deleted != null) {
+        for (DiffReportListingEntry dnode : deleted) {
+          RenameEntry entry = renameMap.get(dnode.getFileId());
+          if (entry != null && entry.isRename()) {
+            diffReportList.add(new DiffReportEntry(DiffType.RENAME,
+                isFromEarlier ? entry.sourcePath : entry.targetPath,
+                isFromEarlier ? entry.targetPath : entry.sourcePath));
+          } else {
+            diffReportList.add(new DiffReportEntry(isFromEarlier ?
+                DiffType.DELETE : DiffType.CREATE, dnode.getSourcePath()));
+          }
+        }
+      }
+    }
+    return new SnapshotDiffReport(snapshotRoot, fromSnapshot, toSnapshot,
+        diffReportList);
+  }
+}
@@ -22,6 +22,7 @@
 import java.io.OutputStream;
 import java.net.Socket;
 import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
 
 import org.apache.hadoop.net.SocketInputStream;
 import org.apache.hadoop.net.SocketOutputStream;
@@ -58,6 +59,10 @@ public ReadableByteChannel getInputStreamChannel() {
     return in;
   }
 
+  SocketChannel getSocketChannel() {
+    return socket.getChannel();
+  }
+
   @Override
   public void setReadTimeout(int timeoutMs) throws IOException {
     in.setTimeout(timeoutMs);
@@ -78,6 +78,15 @@ public static Peer peerFromSocket(Socket socket)
     }
   }
 
+  /**
+   * @return the socket channel of a peer, or null if the peer does not use
+   *         non-blocking I/O on a socket.
+   */
+  public static SocketChannel getSocketChannel(Peer peer) {
+    return (peer instanceof NioInetPeer) ?
+        ((NioInetPeer) peer).getSocketChannel() : null;
+  }
+
   public static Peer peerFromSocketAndKey(
         SaslDataTransferClient saslClient, Socket s,
         DataEncryptionKeyFactory keyFactory,
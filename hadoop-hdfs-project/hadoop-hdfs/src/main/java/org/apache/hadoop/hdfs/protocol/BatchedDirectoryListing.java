@@ -0,0 +1,80 @@
+/* Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.protocol;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+
+/**
+ * This class defines a partial listing of a batch of directories to support
+ * iterative listing of many directories with one call per page. A directory
+ * may be split over several consecutive {@link HdfsPartialListing}s, and over
+ * several pages.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Evolving
+public class BatchedDirectoryListing {
+  private final HdfsPartialListing[] listings;
+  private final boolean hasMore;
+  private final byte[] startAfter;
+
+  /**
+   * constructor
+   * @param listings the partial listings of the directories in this page
+   * @param hasMore whether there are more entries to be listed
+   * @param startAfter the position to continue listing from, to be passed
+   *                   back with the same directories for the next page
+   */
+  public BatchedDirectoryListing(HdfsPartialListing[] listings,
+      boolean hasMore, byte[] startAfter) {
+    if (listings == null) {
+      throw new IllegalArgumentException("listings should not be null");
+    }
+    if (hasMore && startAfter == null) {
+      throw new IllegalArgumentException("More entries to be listed but "
+          + "no position to continue from");
+    }
+    this.listings = listings;
+    this.hasMore = hasMore;
+    this.startAfter = startAfter;
+  }
+
+  /**
+   * Get the partial listings of the directories in this page
+   * @return the partial listings
+   */
+  public HdfsPartialListing[] getListings() {
+    return listings;
+  }
+
+  /**
+   * Check if there are more entries that are left to be listed
+   * @return true if there are more entries that are left to be listed;
+   *         return false otherwise.
+   */
+  public boolean hasMore() {
+    return hasMore;
+  }
+
+  /**
+   * Get the position to continue listing from. It is opaque to the client.
+   * @return the position to pass with the next call
+   */
+  public byte[] getStartAfter() {
+    return startAfter;
+  }
+}
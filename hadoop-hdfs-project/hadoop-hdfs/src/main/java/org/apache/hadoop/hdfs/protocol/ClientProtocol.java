@@ -32,6 +32,7 @@
 import org.apache.hadoop.fs.FileAlreadyExistsException;
 import org.apache.hadoop.fs.FsServerDefaults;
 import org.apache.hadoop.fs.InvalidPathException;
+import org.apache.hadoop.fs.InvalidRequestException;
 import org.apache.hadoop.fs.Options;
 import org.apache.hadoop.fs.Options.Rename;
 import org.apache.hadoop.fs.ParentNotDirectoryException;
@@ -53,6 +54,7 @@
 import org.apache.hadoop.hdfs.security.token.delegation.DelegationTokenSelector;
 import org.apache.hadoop.hdfs.server.namenode.NotReplicatedYetException;
 import org.apache.hadoop.hdfs.server.namenode.SafeModeException;
+import org.apache.hadoop.hdfs.server.namenode.ha.ReadOnly;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeStorageReport;
 import org.apache.hadoop.io.EnumSetWritable;
 import org.apache.hadoop.io.Text;
@@ -128,6 +130,7 @@ public interface ClientProtocol {
    * @throws IOException If an I/O error occurred
    */
   @Idempotent
+  @ReadOnly
   public LocatedBlocks getBlockLocations(String src,
                                          long offset,
                                          long length) 
@@ -267,6 +270,7 @@ public boolean setReplication(String src, short replication)
    * @return All the in-use block storage policies currently.
    */
   @Idempotent
+  @ReadOnly
   public BlockStoragePolicy[] getStoragePolicies() throws IOException;
 
   /**
@@ -597,11 +601,34 @@ public boolean mkdirs(String src, FsPermission masked, boolean createParent)
    * @throws IOException If an I/O error occurred
    */
   @Idempotent
+  @ReadOnly
   public DirectoryListing getListing(String src,
                                      byte[] startAfter,
                                      boolean needLocation)
       throws AccessControlException, FileNotFoundException,
       UnresolvedLinkException, IOException;
+
+  /**
+   * Get a partial listing of many directories at once. The listing is paged
+   * across the whole batch: a page may end in the middle of a directory and
+   * may hold the listings of several directories. A directory that cannot be
+   * listed does not fail the call; its exception is returned in the listing.
+   *
+   * @param srcs the directory names
+   * @param startAfter empty for the first page, otherwise the position
+   *                   returned with the previous page of the same srcs
+   * @param needLocation if the FileStatus should contain block locations
+   *
+   * @return a partial listing of the directories starting at startAfter
+   *
+   * @throws InvalidRequestException if srcs is empty or longer than the
+   *         configured batch limit, or startAfter belongs to other srcs
+   * @throws IOException If an I/O error occurred
+   */
+  @Idempotent
+  @ReadOnly
+  public BatchedDirectoryListing getBatchedListing(String[] srcs,
+      byte[] startAfter, boolean needLocation) throws IOException;
   
   /**
    * Get listing of all the snapshottable directories
@@ -610,6 +637,7 @@ public DirectoryListing getListing(String src,
    * @throws IOException If an I/O error occurred
    */
   @Idempotent
+  @ReadOnly
   public SnapshottableDirectoryStatus[] getSnapshottableDirListing()
       throws IOException;
 
@@ -704,6 +732,7 @@ public DatanodeStorageReport[] getDatanodeStorageReport(
    * @throws UnresolvedLinkException if the path contains a symlink. 
    */
   @Idempotent
+  @ReadOnly
   public long getPreferredBlockSize(String filename) 
       throws IOException, UnresolvedLinkException;
 
@@ -873,6 +902,7 @@ public CorruptFileBlocks listCorruptFileBlocks(String path, String cookie)
    * @throws IOException If an I/O error occurred        
    */
   @Idempotent
+  @ReadOnly
   public HdfsFileStatus getFileInfo(String src) throws AccessControlException,
       FileNotFoundException, UnresolvedLinkException, IOException;
   
@@ -887,6 +917,7 @@ public HdfsFileStatus getFileInfo(String src) throws AccessControlException,
    * @throws IOException If an I/O error occurred     
    */
   @Idempotent
+  @ReadOnly
   public boolean isFileClosed(String src) throws AccessControlException,
       FileNotFoundException, UnresolvedLinkException, IOException;
   
@@ -903,6 +934,7 @@ public boolean isFileClosed(String src) throws AccessControlException,
    * @throws IOException If an I/O error occurred        
    */
   @Idempotent
+  @ReadOnly
   public HdfsFileStatus getFileLinkInfo(String src)
       throws AccessControlException, UnresolvedLinkException, IOException;
   
@@ -916,6 +948,7 @@ public HdfsFileStatus getFileLinkInfo(String src)
    * @throws IOException If an I/O error occurred
    */
   @Idempotent
+  @ReadOnly
   public ContentSummary getContentSummary(String path)
       throws AccessControlException, FileNotFoundException,
       UnresolvedLinkException, IOException;
@@ -1027,6 +1060,7 @@ public void createSymlink(String target, String link, FsPermission dirPerm,
    *           or an I/O error occurred
    */
   @Idempotent
+  @ReadOnly
   public String getLinkTarget(String path) throws AccessControlException,
       FileNotFoundException, IOException; 
   
@@ -1166,9 +1200,39 @@ public void disallowSnapshot(String snapshotRoot)
    * @throws IOException on error
    */
   @Idempotent
+  @ReadOnly
   public SnapshotDiffReport getSnapshotDiffReport(String snapshotRoot,
       String fromSnapshot, String toSnapshot) throws IOException;
 
+  /**
+   * Get one page of the difference between two snapshots, or between a
+   * snapshot and the current tree of a directory. Large diffs are listed
+   * over several calls, each of them returning a bounded number of entries
+   * and continuing from the position returned by the previous one.
+   *
+   * @param snapshotRoot
+   *          full path of the directory where snapshots are taken
+   * @param fromSnapshot
+   *          snapshot name of the from point. Null indicates the current
+   *          tree
+   * @param toSnapshot
+   *          snapshot name of the to point. Null indicates the current
+   *          tree.
+   * @param startPath
+   *          path to continue listing from, relative to the snapshot root;
+   *          empty for the first call
+   * @param index
+   *          index of the next entry of startPath; 0 for the first call
+   * @return The page of the difference represented as a
+   *         {@link SnapshotDiffReportListing}.
+   * @throws IOException on error
+   */
+  @Idempotent
+  @ReadOnly
+  public SnapshotDiffReportListing getSnapshotDiffReportListing(
+      String snapshotRoot, String fromSnapshot, String toSnapshot,
+      byte[] startPath, int index) throws IOException;
+
   /**
    * Add a CacheDirective to the CacheManager.
    * 
@@ -1298,6 +1362,7 @@ public void removeAclEntries(String src, List<AclEntry> aclSpec)
    * Gets the ACLs of files and directories.
    */
   @Idempotent
+  @ReadOnly
   public AclStatus getAclStatus(String src) throws IOException;
   
   /**
@@ -1311,6 +1376,7 @@ public void createEncryptionZone(String src, String keyName)
    * Get the encryption zone for a path.
    */
   @Idempotent
+  @ReadOnly
   public EncryptionZone getEZForPath(String src)
     throws IOException;
 
@@ -1379,6 +1445,7 @@ public void setXAttr(String src, XAttr xAttr, EnumSet<XAttrSetFlag> flag)
    * @throws IOException
    */
   @Idempotent
+  @ReadOnly
   public List<XAttr> getXAttrs(String src, List<XAttr> xAttrs) 
       throws IOException;
 
@@ -1394,6 +1461,7 @@ public List<XAttr> getXAttrs(String src, List<XAttr> xAttrs)
    * @throws IOException
    */
   @Idempotent
+  @ReadOnly
   public List<XAttr> listXAttrs(String src)
       throws IOException;
   
@@ -1427,6 +1495,7 @@ public List<XAttr> listXAttrs(String src)
    * @throws IOException see specific implementation
    */
   @Idempotent
+  @ReadOnly
   public void checkAccess(String path, FsAction mode) throws IOException;
 
   /**
@@ -0,0 +1,88 @@
+/* Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.protocol;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.ipc.RemoteException;
+
+/**
+ * This class defines a partial listing of one of the directories of a
+ * {@link BatchedDirectoryListing}. It holds either file statuses of the
+ * directory or the exception raised while listing it.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Evolving
+public class HdfsPartialListing {
+  private final HdfsFileStatus[] partialListing;
+  private final int parentIdx;
+  private final RemoteException exception;
+
+  /**
+   * constructor
+   * @param parentIdx index of the directory in the batch
+   * @param partialListing a partial listing of the directory
+   */
+  public HdfsPartialListing(int parentIdx, HdfsFileStatus[] partialListing) {
+    this(parentIdx, partialListing, null);
+  }
+
+  /**
+   * constructor
+   * @param parentIdx index of the directory in the batch
+   * @param exception the exception raised while listing the directory
+   */
+  public HdfsPartialListing(int parentIdx, RemoteException exception) {
+    this(parentIdx, null, exception);
+  }
+
+  private HdfsPartialListing(int parentIdx, HdfsFileStatus[] partialListing,
+      RemoteException exception) {
+    if ((partialListing == null) == (exception == null)) {
+      throw new IllegalArgumentException("Exactly one of partial listing "
+          + "and exception should be set");
+    }
+    this.parentIdx = parentIdx;
+    this.partialListing = partialListing;
+    this.exception = exception;
+  }
+
+  /**
+   * Get the index of the listed directory in the batch
+   * @return the index of the listed directory in the batch
+   */
+  public int getParentIdx() {
+    return parentIdx;
+  }
+
+  /**
+   * Get the partial listing of file status
+   * @return the partial listing of file status, or null if listing the
+   *         directory failed
+   */
+  public HdfsFileStatus[] getPartialListing() {
+    return partialListing;
+  }
+
+  /**
+   * Get the exception raised while listing the directory
+   * @return the exception, or null if listing the directory succeeded
+   */
+  public RemoteException getException() {
+    return exception;
+  }
+}
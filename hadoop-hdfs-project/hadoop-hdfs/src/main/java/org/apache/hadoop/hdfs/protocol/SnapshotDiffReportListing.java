@@ -0,0 +1,164 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.protocol;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.hdfs.DFSUtil;
+
+/**
+ * One page of the difference between two snapshots of a directory, as
+ * returned by {@link ClientProtocol#getSnapshotDiffReportListing}. Unlike
+ * {@link SnapshotDiffReport}, the entries are not interpreted yet: the source
+ * and the target of a rename may be listed on different pages, so the client
+ * matches them up once all the pages have been fetched.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Evolving
+public class SnapshotDiffReportListing {
+  /** Index of the position of a completed listing */
+  public static final int NO_MORE_ENTRIES = -1;
+
+  /**
+   * A modified inode, or a child created in or deleted from a directory.
+   */
+  public static class DiffReportListingEntry {
+    /** The directory whose children changed, or the modified inode itself */
+    private final long dirId;
+    private final long fileId;
+    /** Path relative to the snapshot diff scope */
+    private final byte[][] sourcePath;
+    private final boolean isReference;
+    /** Rename target of a deleted reference, null if not known here */
+    private final byte[][] targetPath;
+
+    public DiffReportListingEntry(long dirId, long fileId,
+        byte[][] sourcePath, boolean isReference, byte[][] targetPath) {
+      this.dirId = dirId;
+      this.fileId = fileId;
+      this.sourcePath = sourcePath;
+      this.isReference = isReference;
+      this.targetPath = targetPath;
+    }
+
+    public long getDirId() {
+      return dirId;
+    }
+
+    public long getFileId() {
+      return fileId;
+    }
+
+    public byte[][] getSourcePath() {
+      return sourcePath;
+    }
+
+    public boolean isReference() {
+      return isReference;
+    }
+
+    public byte[][] getTargetPath() {
+      return targetPath;
+    }
+
+    @Override
+    public String toString() {
+      return DFSUtil.bytes2String(DFSUtil.byteArray2bytes(sourcePath))
+          + (targetPath == null ? "" : " -> "
+              + DFSUtil.bytes2String(DFSUtil.byteArray2bytes(targetPath)));
+    }
+  }
+
+  private final List<DiffReportListingEntry> modifiedEntries;
+  private final List<DiffReportListingEntry> createdEntries;
+  private final List<DiffReportListingEntry> deletedEntries;
+  private final boolean isFromEarlier;
+  private final byte[] lastPath;
+  private final int lastIndex;
+
+  /**
+   * constructor
+   * @param modifiedEntries the modified files and directories of this page
+   * @param createdEntries the children created in the listed directories
+   * @param deletedEntries the children deleted from the listed directories
+   * @param isFromEarlier whether the from snapshot is the earlier one
+   * @param lastPath the path to continue listing from, relative to the
+   *                 snapshot diff scope
+   * @param lastIndex the index of the next entry of lastPath, or
+   *                  {@link #NO_MORE_ENTRIES} if the listing is complete
+   */
+  public SnapshotDiffReportListing(List<DiffReportListingEntry> modifiedEntries,
+      List<DiffReportListingEntry> createdEntries,
+      List<DiffReportListingEntry> deletedEntries, boolean isFromEarlier,
+      byte[] lastPath, int lastIndex) {
+    this.modifiedEntries = modifiedEntries == null ?
+        Collections.<DiffReportListingEntry>emptyList() : modifiedEntries;
+    this.createdEntries = createdEntries == null ?
+        Collections.<DiffReportListingEntry>emptyList() : createdEntries;
+    this.deletedEntries = deletedEntries == null ?
+        Collections.<DiffReportListingEntry>emptyList() : deletedEntries;
+    this.isFromEarlier = isFromEarlier;
+    this.lastPath = lastPath == null ? DFSUtil.EMPTY_BYTES : lastPath;
+    this.lastIndex = lastIndex;
+  }
+
+  public List<DiffReportListingEntry> getModifyList() {
+    return modifiedEntries;
+  }
+
+  public List<DiffReportListingEntry> getCreateList() {
+    return createdEntries;
+  }
+
+  public List<DiffReportListingEntry> getDeleteList() {
+    return deletedEntries;
+  }
+
+  public boolean getIsFromEarlier() {
+    return isFromEarlier;
+  }
+
+  /**
+   * Check if there are more entries that are left to be listed
+   * @return true if there are more entries that are left to be listed;
+   *         return false otherwise.
+   */
+  public boolean hasMore() {
+    return lastIndex != NO_MORE_ENTRIES;
+  }
+
+  /**
+   * Get the path to continue listing from, to be passed back with the next
+   * call along with {@link #getLastIndex()}.
+   * @return the path relative to the snapshot diff scope
+   */
+  public byte[] getLastPath() {
+    return lastPath;
+  }
+
+  /**
+   * Get the index of the next entry of {@link #getLastPath()}.
+   * @return the index, or {@link #NO_MORE_ENTRIES}
+   */
+  public int getLastIndex() {
+    return lastIndex;
+  }
+}
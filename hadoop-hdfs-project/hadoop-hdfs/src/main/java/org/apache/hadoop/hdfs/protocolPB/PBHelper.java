@@ -79,6 +79,7 @@
 import org.apache.hadoop.hdfs.protocol.HdfsConstants.RollingUpgradeAction;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants.SafeModeAction;
 import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+import org.apache.hadoop.hdfs.protocol.HdfsPartialListing;
 import org.apache.hadoop.hdfs.protocol.HdfsLocatedFileStatus;
 import org.apache.hadoop.hdfs.protocol.LocatedBlock;
 import org.apache.hadoop.hdfs.protocol.LocatedBlocks;
@@ -89,6 +90,8 @@
 import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport;
 import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport.DiffReportEntry;
 import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport.DiffType;
+import org.apache.hadoop.hdfs.protocol.SnapshotDiffReportListing;
+import org.apache.hadoop.hdfs.protocol.SnapshotDiffReportListing.DiffReportListingEntry;
 import org.apache.hadoop.hdfs.protocol.SnapshottableDirectoryStatus;
 import org.apache.hadoop.hdfs.protocol.ZoneReencryptionStatus;
 import org.apache.hadoop.hdfs.protocol.proto.AclProtos.AclEntryProto;
@@ -137,6 +140,7 @@
 import org.apache.hadoop.hdfs.protocol.proto.EncryptionZonesProtos.ReencryptionStateProto;
 import org.apache.hadoop.hdfs.protocol.proto.EncryptionZonesProtos.ZoneReencryptionStatusProto;
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos;
+import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.BatchedDirectoryListingProto;
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.BlockKeyProto;
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.BlockProto;
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.BlockStoragePolicyProto;
@@ -171,11 +175,15 @@
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.NamespaceInfoProto;
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.RecoveringBlockProto;
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.RemoteEditLogManifestProto;
+import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.RemoteExceptionProto;
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.RemoteEditLogProto;
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.ReplicaStateProto;
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.ReencryptionInfoProto;
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.RollingUpgradeStatusProto;
+import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.SnapshotDiffReportCursorProto;
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.SnapshotDiffReportEntryProto;
+import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.SnapshotDiffReportListingEntryProto;
+import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.SnapshotDiffReportListingProto;
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.SnapshotDiffReportProto;
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.SnapshottableDirectoryListingProto;
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.SnapshottableDirectoryStatusProto;
@@ -239,6 +247,7 @@
 import org.apache.hadoop.hdfs.util.ExactSizeInputStream;
 import org.apache.hadoop.io.EnumSetWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.ipc.RemoteException;
 import org.apache.hadoop.security.proto.SecurityProtos.TokenProto;
 import org.apache.hadoop.security.token.Token;
 import org.apache.hadoop.util.ChunkedArrayList;
@@ -1592,6 +1601,47 @@ public static DirectoryListingProto convert(DirectoryListing d) {
         build();
   }
 
+  public static HdfsPartialListing convert(BatchedDirectoryListingProto l) {
+    if (l.hasException()) {
+      final RemoteExceptionProto e = l.getException();
+      return new HdfsPartialListing(l.getParentIdx(), new RemoteException(
+          e.getClassName(), e.hasMessage() ? e.getMessage() : null));
+    }
+    List<HdfsFileStatusProto> partList = l.getPartialListingList();
+    return new HdfsPartialListing(l.getParentIdx(),
+        partList.isEmpty() ? new HdfsFileStatus[0]
+          : PBHelper.convert(
+              partList.toArray(new HdfsFileStatusProto[partList.size()])));
+  }
+
+  public static BatchedDirectoryListingProto convert(HdfsPartialListing l) {
+    final BatchedDirectoryListingProto.Builder builder =
+        BatchedDirectoryListingProto.newBuilder()
+            .setParentIdx(l.getParentIdx());
+    if (l.getException() != null) {
+      final RemoteExceptionProto.Builder e = RemoteExceptionProto.newBuilder()
+          .setClassName(l.getException().getClassName());
+      if (l.getException().getMessage() != null) {
+        e.setMessage(l.getException().getMessage());
+      }
+      builder.setException(e);
+    } else {
+      builder.addAllPartialListing(Arrays.asList(
+          PBHelper.convert(l.getPartialListing())));
+    }
+    return builder.build();
+  }
+
+  public static HdfsPartialListing[] convertPartialListings(
+      List<BatchedDirectoryListingProto> listings) {
+    final HdfsPartialListing[] result =
+        new HdfsPartialListing[listings.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = convert(listings.get(i));
+    }
+    return result;
+  }
+
   public static long[] convert(GetFsStatsResponseProto res) {
     long[] result = new long[7];
     result[ClientProtocol.GET_STATS_CAPACITY_IDX] = res.getCapacity();
@@ -2107,6 +2157,96 @@ public static SnapshotDiffReportProto convert(SnapshotDiffReport report) {
     return reportProto;
   }
 
+  public static DiffReportListingEntry convert(
+      SnapshotDiffReportListingEntryProto entry) {
+    if (entry == null) {
+      return null;
+    }
+    return new DiffReportListingEntry(entry.getDirId(), entry.getFileId(),
+        convertRelativePath(entry.getFullpath()), entry.getIsReference(),
+        entry.hasTargetPath() ?
+            convertRelativePath(entry.getTargetPath()) : null);
+  }
+
+  public static SnapshotDiffReportListingEntryProto convert(
+      DiffReportListingEntry entry) {
+    if (entry == null) {
+      return null;
+    }
+    SnapshotDiffReportListingEntryProto.Builder builder =
+        SnapshotDiffReportListingEntryProto.newBuilder()
+        .setFullpath(ByteString.copyFrom(
+            DFSUtil.byteArray2bytes(entry.getSourcePath())))
+        .setDirId(entry.getDirId())
+        .setFileId(entry.getFileId())
+        .setIsReference(entry.isReference());
+    if (entry.getTargetPath() != null) {
+      builder.setTargetPath(ByteString.copyFrom(
+          DFSUtil.byteArray2bytes(entry.getTargetPath())));
+    }
+    return builder.build();
+  }
+
+  /** A relative path of a snapshot diff listing, empty for the scope dir */
+  private static byte[][] convertRelativePath(ByteString path) {
+    return path.isEmpty() ? new byte[0][] :
+        DFSUtil.bytes2byteArray(path.toByteArray(),
+            (byte) Path.SEPARATOR_CHAR);
+  }
+
+  private static List<DiffReportListingEntry> convertListingEntries(
+      List<SnapshotDiffReportListingEntryProto> protos) {
+    List<DiffReportListingEntry> entries =
+        new ChunkedArrayList<DiffReportListingEntry>();
+    for (SnapshotDiffReportListingEntryProto proto : protos) {
+      entries.add(convert(proto));
+    }
+    return entries;
+  }
+
+  private static List<SnapshotDiffReportListingEntryProto>
+      convertListingEntryProtos(List<DiffReportListingEntry> entries) {
+    List<SnapshotDiffReportListingEntryProto> protos =
+        new ChunkedArrayList<SnapshotDiffReportListingEntryProto>();
+    for (DiffReportListingEntry entry : entries) {
+      protos.add(convert(entry));
+    }
+    return protos;
+  }
+
+  public static SnapshotDiffReportListing convert(
+      SnapshotDiffReportListingProto reportProto) {
+    if (reportProto == null) {
+      return null;
+    }
+    SnapshotDiffReportCursorProto cursor = reportProto.getCursor();
+    return new SnapshotDiffReportListing(
+        convertListingEntries(reportProto.getModifiedEntriesList()),
+        convertListingEntries(reportProto.getCreatedEntriesList()),
+        convertListingEntries(reportProto.getDeletedEntriesList()),
+        reportProto.getIsFromEarlier(),
+        cursor.getStartPath().toByteArray(),
+        reportProto.hasCursor() ? cursor.getIndex()
+            : SnapshotDiffReportListing.NO_MORE_ENTRIES);
+  }
+
+  public static SnapshotDiffReportListingProto convert(
+      SnapshotDiffReportListing report) {
+    if (report == null) {
+      return null;
+    }
+    SnapshotDiffReportCursorProto cursor = SnapshotDiffReportCursorProto
+        .newBuilder()
+        .setStartPath(ByteString.copyFrom(report.getLastPath()))
+        .setIndex(report.getLastIndex()).build();
+    return SnapshotDiffReportListingProto.newBuilder()
+        .addAllModifiedEntries(convertListingEntryProtos(report.getModifyList()))
+        .addAllCreatedEntries(convertListingEntryProtos(report.getCreateList()))
+        .addAllDeletedEntries(convertListingEntryProtos(report.getDeleteList()))
+        .setIsFromEarlier(report.getIsFromEarlier())
+        .setCursor(cursor).build();
+  }
+
   public static DataChecksum.Type convert(HdfsProtos.ChecksumTypeProto type) {
     return DataChecksum.Type.valueOf(type.getNumber());
   }
@@ -21,6 +21,7 @@
 import java.net.URL;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.qjournal.protocol.JournaledEdits;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocol;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.GetJournalStateResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.NewEpochResponseProto;
@@ -113,6 +114,13 @@ public ListenableFuture<Void> finalizeLogSegment(
   public ListenableFuture<RemoteEditLogManifest> getEditLogManifest(
       long fromTxnId, boolean inProgressOk);
 
+  /**
+   * Fetch the edits starting at the given txid from the in-memory cache of
+   * the remote node.
+   */
+  public ListenableFuture<JournaledEdits> getJournaledEdits(
+      long fromTxnId, int maxTxns);
+
   /**
    * Prepare recovery. See the HDFS-3077 design document for details.
    */
@@ -25,6 +25,7 @@
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hdfs.qjournal.protocol.JournaledEdits;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.GetJournalStateResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.NewEpochResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.PrepareRecoveryResponseProto;
@@ -274,6 +275,18 @@ public QuorumCall<AsyncLogger, RemoteEditLogManifest> getEditLogManifest(
     return QuorumCall.create(calls);
   }
 
+  public QuorumCall<AsyncLogger, JournaledEdits> getJournaledEdits(
+      long fromTxnId, int maxTxns) {
+    Map<AsyncLogger, ListenableFuture<JournaledEdits>> calls
+        = Maps.newHashMap();
+    for (AsyncLogger logger : loggers) {
+      ListenableFuture<JournaledEdits> future =
+          logger.getJournaledEdits(fromTxnId, maxTxns);
+      calls.put(logger, future);
+    }
+    return QuorumCall.create(calls);
+  }
+
   QuorumCall<AsyncLogger, PrepareRecoveryResponseProto>
       prepareRecovery(long segmentTxId) {
     Map<AsyncLogger,
@@ -35,10 +35,12 @@
 import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
 import org.apache.hadoop.hdfs.protocolPB.PBHelper;
+import org.apache.hadoop.hdfs.qjournal.protocol.JournaledEdits;
 import org.apache.hadoop.hdfs.qjournal.protocol.JournalOutOfSyncException;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocol;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.GetEditLogManifestResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.GetJournalStateResponseProto;
+import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.GetJournaledEditsResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.NewEpochResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.PrepareRecoveryResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.SegmentStateProto;
@@ -563,6 +565,20 @@ public RemoteEditLogManifest call() throws IOException {
     });
   }
 
+  @Override
+  public ListenableFuture<JournaledEdits> getJournaledEdits(
+      final long fromTxnId, final int maxTxns) {
+    return parallelExecutor.submit(new Callable<JournaledEdits>() {
+      @Override
+      public JournaledEdits call() throws IOException {
+        GetJournaledEditsResponseProto ret = getProxy().getJournaledEdits(
+            journalId, fromTxnId, maxTxns);
+        return new JournaledEdits(ret.getTxnCount(),
+            ret.getEditLog().toByteArray());
+      }
+    });
+  }
+
   @Override
   public ListenableFuture<PrepareRecoveryResponseProto> prepareRecovery(
       final long segmentTxId) {
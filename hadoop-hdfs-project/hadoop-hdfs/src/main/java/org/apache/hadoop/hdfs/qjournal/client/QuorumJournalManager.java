@@ -36,6 +36,7 @@
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.DFSUtil;
+import org.apache.hadoop.hdfs.qjournal.protocol.JournaledEdits;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.GetJournalStateResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.NewEpochResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.PrepareRecoveryResponseProto;
@@ -77,6 +78,7 @@ public class QuorumJournalManager implements JournalManager {
   private final int getJournalStateTimeoutMs;
   private final int newEpochTimeoutMs;
   private final int writeTxnsTimeoutMs;
+  private final int inProgressTailingMaxTxns;
 
   // Since these don't occur during normal operation, we can
   // use rather lengthy timeouts, and don't need to make them
@@ -143,6 +145,9 @@ public QuorumJournalManager(Configuration conf,
     this.writeTxnsTimeoutMs = conf.getInt(
         DFSConfigKeys.DFS_QJOURNAL_WRITE_TXNS_TIMEOUT_KEY,
         DFSConfigKeys.DFS_QJOURNAL_WRITE_TXNS_TIMEOUT_DEFAULT);
+    this.inProgressTailingMaxTxns = conf.getInt(
+        DFSConfigKeys.DFS_HA_TAILEDITS_INPROGRESS_MAX_TXNS_KEY,
+        DFSConfigKeys.DFS_HA_TAILEDITS_INPROGRESS_MAX_TXNS_DEFAULT);
   }
   
   protected List<AsyncLogger> createLoggers(
@@ -470,6 +475,35 @@ public void close() throws IOException {
   @Override
   public void selectInputStreams(Collection<EditLogInputStream> streams,
       long fromTxnId, boolean inProgressOk) throws IOException {
+    selectInputStreams(streams, fromTxnId, inProgressOk, false);
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * When only durable transactions are wanted, the in-progress edits are read
+   * from the in-memory caches of the JournalNodes, up to the last transaction
+   * which a quorum of them has. If that fails, for instance because the
+   * edits were evicted from the caches, only finalized segments are read.
+   */
+  @Override
+  public void selectInputStreams(Collection<EditLogInputStream> streams,
+      long fromTxnId, boolean inProgressOk, boolean onlyDurableTxns)
+      throws IOException {
+    if (inProgressOk && onlyDurableTxns) {
+      try {
+        selectCachedInputStreams(streams, fromTxnId);
+        return;
+      } catch (IOException ioe) {
+        LOG.warn("Unable to read edits from txid " + fromTxnId +
+            " out of the JournalNode caches, reading finalized segments " +
+            "instead: " + ioe.getMessage());
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Failure reading edits from the JournalNode caches", ioe);
+        }
+      }
+      inProgressOk = false;
+    }
 
     QuorumCall<AsyncLogger, RemoteEditLogManifest> q =
         loggers.getEditLogManifest(fromTxnId, inProgressOk);
@@ -499,6 +533,42 @@ public void selectInputStreams(Collection<EditLogInputStream> streams,
     JournalSet.chainAndMakeRedundantStreams(streams, allStreams, fromTxnId);
   }
   
+  private void selectCachedInputStreams(Collection<EditLogInputStream> streams,
+      long fromTxnId) throws IOException {
+    QuorumCall<AsyncLogger, JournaledEdits> q =
+        loggers.getJournaledEdits(fromTxnId, inProgressTailingMaxTxns);
+    Map<AsyncLogger, JournaledEdits> resps =
+        loggers.waitForWriteQuorum(q, selectInputStreamsTimeoutMs,
+            "selectCachedInputStreams");
+
+    // The edits a quorum of JournalNodes has are durable.
+    List<Integer> txnCounts = Lists.newArrayListWithCapacity(resps.size());
+    for (JournaledEdits edits : resps.values()) {
+      txnCounts.add(edits.getTxnCount());
+    }
+    Collections.sort(txnCounts);
+    int durableTxns = txnCounts.get(
+        txnCounts.size() - loggers.getMajoritySize());
+    if (durableTxns == 0) {
+      return;
+    }
+    long lastTxnId = fromTxnId + durableTxns - 1;
+
+    final PriorityQueue<EditLogInputStream> allStreams =
+        new PriorityQueue<EditLogInputStream>(64,
+            JournalSet.EDIT_LOG_INPUT_STREAM_COMPARATOR);
+    for (Map.Entry<AsyncLogger, JournaledEdits> e : resps.entrySet()) {
+      if (e.getValue().getTxnCount() < durableTxns) {
+        continue;
+      }
+      // The stream stops at lastTxnId, even if the log goes further.
+      allStreams.add(EditLogFileInputStream.fromByteArray(
+          e.getValue().getEditLog(), "cached edits from " + e.getKey(),
+          fromTxnId, lastTxnId, true));
+    }
+    JournalSet.chainAndMakeRedundantStreams(streams, allStreams, fromTxnId);
+  }
+
   @Override
   public String toString() {
     return "QJM to " + loggers;
@@ -0,0 +1,51 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.qjournal.protocol;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+/**
+ * Edits served by a JournalNode from its in-memory cache, starting at a
+ * requested transaction ID.
+ */
+@InterfaceAudience.Private
+public class JournaledEdits {
+  private final int txnCount;
+  private final byte[] editLog;
+
+  public JournaledEdits(int txnCount, byte[] editLog) {
+    this.txnCount = txnCount;
+    this.editLog = editLog;
+  }
+
+  /**
+   * @return the number of edits, starting at the requested transaction ID,
+   *         in the edit log
+   */
+  public int getTxnCount() {
+    return txnCount;
+  }
+
+  /**
+   * @return the edits as a complete edit log, header included. The log may
+   *         start with a few edits before the requested transaction ID.
+   */
+  public byte[] getEditLog() {
+    return editLog;
+  }
+}
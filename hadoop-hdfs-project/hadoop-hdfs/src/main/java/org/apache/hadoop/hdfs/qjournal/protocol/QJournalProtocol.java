@@ -25,6 +25,7 @@
 import org.apache.hadoop.hdfs.qjournal.client.QuorumJournalManager;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.GetEditLogManifestResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.GetJournalStateResponseProto;
+import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.GetJournaledEditsResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.NewEpochResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.PrepareRecoveryResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.SegmentStateProto;
@@ -133,6 +134,19 @@ public void purgeLogsOlderThan(RequestInfo requestInfo, long minTxIdToKeep)
   public GetEditLogManifestResponseProto getEditLogManifest(String jid,
       long sinceTxId, boolean inProgressOk)
       throws IOException;
+
+  /**
+   * Fetch the edits starting at the given txid from the in-memory cache of
+   * the journal, including the edits of the in-progress segment.
+   *
+   * @param jid the journal from which to fetch edits
+   * @param sinceTxId the first transaction which the client cares about
+   * @param maxTxns the maximum number of transactions to fetch
+   * @return the number of transactions fetched and the edit log holding them
+   * @throws IOException if the edits are not in the cache
+   */
+  public GetJournaledEditsResponseProto getJournaledEdits(String jid,
+      long sinceTxId, int maxTxns) throws IOException;
   
   /**
    * Begin the recovery process for a given segment. See the HDFS-3077
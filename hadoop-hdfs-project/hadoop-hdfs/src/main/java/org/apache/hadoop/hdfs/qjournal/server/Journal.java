@@ -33,7 +33,9 @@
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
+import org.apache.hadoop.hdfs.qjournal.protocol.JournaledEdits;
 import org.apache.hadoop.hdfs.qjournal.protocol.JournalNotFormattedException;
 import org.apache.hadoop.hdfs.qjournal.protocol.JournalOutOfSyncException;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocol;
@@ -83,6 +85,7 @@ public class Journal implements Closeable {
   // Current writing state
   private EditLogOutputStream curSegment;
   private long curSegmentTxId = HdfsConstants.INVALID_TXID;
+  private int curSegmentLayoutVersion = 0;
   private long nextTxId = HdfsConstants.INVALID_TXID;
   private long highestWrittenTxId = 0;
   
@@ -133,6 +136,12 @@ public class Journal implements Closeable {
 
   private final JournalMetrics metrics;
 
+  /**
+   * The most recently written edits, for readers tailing the in-progress
+   * segment. Null if disabled.
+   */
+  private final JournaledEditsCache cache;
+
   /**
    * Time threshold for sync calls, beyond which a warning should be logged to the console.
    */
@@ -149,6 +158,11 @@ public class Journal implements Closeable {
     this.fjm = storage.getJournalManager();
     
     this.metrics = JournalMetrics.create(this);
+
+    int cacheSize = conf.getInt(
+        DFSConfigKeys.DFS_JOURNALNODE_EDIT_CACHE_SIZE_KEY,
+        DFSConfigKeys.DFS_JOURNALNODE_EDIT_CACHE_SIZE_DEFAULT);
+    this.cache = cacheSize > 0 ? new JournaledEditsCache(cacheSize) : null;
     
     EditLogFile latest = scanStorageForLatestEdits();
     if (latest != null) {
@@ -217,6 +231,9 @@ void format(NamespaceInfo nsInfo) throws IOException {
         nsInfo);
     storage.format(nsInfo);
     refreshCachedData();
+    if (cache != null) {
+      cache.invalidate();
+    }
   }
 
   /**
@@ -308,6 +325,10 @@ synchronized NewEpochResponseProto newEpoch(
     
     updateLastPromisedEpoch(epoch);
     abortCurSegment();
+    // The new writer may overwrite edits which never reached a quorum.
+    if (cache != null) {
+      cache.invalidate();
+    }
     
     NewEpochResponseProto.Builder builder =
         NewEpochResponseProto.newBuilder();
@@ -412,6 +433,11 @@ synchronized void journal(RequestInfo reqInfo,
     
     updateHighestWrittenTxId(lastTxnId);
     nextTxId = lastTxnId + 1;
+
+    if (cache != null) {
+      cache.storeEdits(records, firstTxnId, lastTxnId,
+          curSegmentLayoutVersion);
+    }
   }
 
   public void heartbeat(RequestInfo reqInfo) throws IOException {
@@ -558,6 +584,7 @@ public synchronized void startLogSegment(RequestInfo reqInfo, long txid,
     
     curSegment = fjm.startLogSegment(txid, layoutVersion);
     curSegmentTxId = txid;
+    curSegmentLayoutVersion = layoutVersion;
     nextTxId = txid;
   }
   
@@ -674,6 +701,25 @@ public RemoteEditLogManifest getEditLogManifest(long sinceTxId,
     return new RemoteEditLogManifest(logs);
   }
 
+  /**
+   * Get the edits starting at the given txid from the in-memory cache.
+   * Unlike the edits in the manifest, these may not have been committed by
+   * the writer yet; readers have to check that a quorum has them.
+   *
+   * @see JournaledEditsCache#retrieveEdits(long, int)
+   */
+  public JournaledEdits getJournaledEdits(long sinceTxId, int maxTxns)
+      throws IOException {
+    // No need to checkRequest() here - anyone may read the edits. This does
+    // not synchronize on the Journal either, so that readers do not wait for
+    // the writer to sync; only a formatted journal fills the cache anyway.
+    if (cache == null) {
+      throw new JournaledEditsCache.CacheMissException(
+          "The edit cache is disabled on this JournalNode");
+    }
+    return cache.retrieveEdits(sinceTxId, maxTxns);
+  }
+
   /**
    * @return the current state of the given segment, or null if the
    * segment does not exist.
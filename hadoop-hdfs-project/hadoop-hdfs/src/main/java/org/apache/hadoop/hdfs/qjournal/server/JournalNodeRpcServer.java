@@ -27,9 +27,11 @@
 import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.HDFSPolicyProvider;
 import org.apache.hadoop.hdfs.protocolPB.PBHelper;
+import org.apache.hadoop.hdfs.qjournal.protocol.JournaledEdits;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocol;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.GetEditLogManifestResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.GetJournalStateResponseProto;
+import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.GetJournaledEditsResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.NewEpochResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.PrepareRecoveryResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.QJournalProtocolService;
@@ -46,6 +48,7 @@
 import org.apache.hadoop.net.NetUtils;
 
 import com.google.protobuf.BlockingService;
+import com.google.protobuf.ByteString;
 
 class JournalNodeRpcServer implements QJournalProtocol {
 
@@ -193,6 +196,18 @@ public GetEditLogManifestResponseProto getEditLogManifest(String jid,
         .build();
   }
 
+  @Override
+  public GetJournaledEditsResponseProto getJournaledEdits(String jid,
+      long sinceTxId, int maxTxns) throws IOException {
+    JournaledEdits edits = jn.getOrCreateJournal(jid)
+        .getJournaledEdits(sinceTxId, maxTxns);
+
+    return GetJournaledEditsResponseProto.newBuilder()
+        .setTxnCount(edits.getTxnCount())
+        .setEditLog(ByteString.copyFrom(edits.getEditLog()))
+        .build();
+  }
+
   @Override
   public PrepareRecoveryResponseProto prepareRecovery(RequestInfo reqInfo,
       long segmentTxId) throws IOException {
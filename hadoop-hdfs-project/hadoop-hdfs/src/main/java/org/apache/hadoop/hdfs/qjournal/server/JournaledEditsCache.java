@@ -0,0 +1,208 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.qjournal.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.hadoop.hdfs.qjournal.protocol.JournaledEdits;
+import org.apache.hadoop.hdfs.server.namenode.EditLogFileOutputStream;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * An in-memory cache of the edits most recently written to a
+ * {@link Journal}, which lets readers tail the in-progress segment without
+ * going to disk.
+ * <p>
+ * Edits are kept in the batches the writer sent them in. The cached batches
+ * are contiguous: a batch which does not directly follow the last cached one,
+ * or which has a different layout version, replaces the whole content of the
+ * cache. The oldest batches are evicted once the cache grows past its
+ * capacity.
+ * <p>
+ * This class is thread-safe.
+ */
+class JournaledEditsCache {
+
+  /**
+   * Thrown when the requested edits are no longer, or not yet, in the cache.
+   */
+  static class CacheMissException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    CacheMissException(String msg) {
+      super(msg);
+    }
+  }
+
+  private static class Batch {
+    private final long lastTxId;
+    private final byte[] data;
+
+    Batch(long lastTxId, byte[] data) {
+      this.lastTxId = lastTxId;
+      this.data = data;
+    }
+  }
+
+  private static final int INVALID_LAYOUT_VERSION = 0;
+
+  private final int capacity;
+
+  /** Batches keyed by their first txid. Guarded by lock. */
+  private final NavigableMap<Long, Batch> batches = new TreeMap<Long, Batch>();
+  private long size = 0;
+  private int layoutVersion = INVALID_LAYOUT_VERSION;
+  /** The edit log header for layoutVersion. */
+  private byte[] layoutHeader;
+
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+  /**
+   * @param capacity the maximum number of bytes of edits to keep
+   */
+  JournaledEditsCache(int capacity) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * Add a batch of edits to the cache.
+   *
+   * @param data the serialized edits
+   * @param firstTxId the txid of the first edit in data
+   * @param lastTxId the txid of the last edit in data
+   * @param newLayoutVersion the layout version of the segment being written
+   */
+  void storeEdits(byte[] data, long firstTxId, long lastTxId,
+      int newLayoutVersion) {
+    lock.writeLock().lock();
+    try {
+      if (newLayoutVersion != layoutVersion) {
+        clear();
+        layoutHeader = createLayoutHeader(newLayoutVersion);
+        layoutVersion = newLayoutVersion;
+      } else if (!batches.isEmpty() &&
+          batches.lastEntry().getValue().lastTxId + 1 != firstTxId) {
+        clear();
+      }
+      if (data.length > capacity) {
+        // Keeping older batches would leave a gap before the next one.
+        clear();
+        return;
+      }
+      batches.put(firstTxId, new Batch(lastTxId, data));
+      size += data.length;
+      while (size > capacity) {
+        size -= batches.pollFirstEntry().getValue().data.length;
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Get the cached edits starting at the given txid. The returned data is a
+   * complete edit log, header included. It starts at the beginning of the
+   * batch holding fromTxId, so it may hold a few edits before it, and it
+   * ends at the end of the batch which reaches maxTxns.
+   *
+   * @param fromTxId the txid of the first edit wanted
+   * @param maxTxns the number of edits wanted, starting at fromTxId
+   * @return the edits, with a count of 0 if fromTxId has not been written
+   * @throws CacheMissException if the cache does not hold fromTxId
+   */
+  JournaledEdits retrieveEdits(long fromTxId, int maxTxns)
+      throws IOException {
+    lock.readLock().lock();
+    try {
+      if (batches.isEmpty()) {
+        throw new CacheMissException("The cache is empty");
+      }
+      long lowestTxId = batches.firstKey();
+      long highestTxId = batches.lastEntry().getValue().lastTxId;
+      if (fromTxId < lowestTxId) {
+        throw new CacheMissException("Requested txid " + fromTxId +
+            " is below the lowest cached txid " + lowestTxId);
+      }
+      if (fromTxId > highestTxId) {
+        return new JournaledEdits(0, new byte[0]);
+      }
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      out.write(layoutHeader);
+      long lastTxId = fromTxId - 1;
+      for (Map.Entry<Long, Batch> e :
+          batches.tailMap(batches.floorKey(fromTxId), true).entrySet()) {
+        Batch batch = e.getValue();
+        out.write(batch.data);
+        lastTxId = batch.lastTxId;
+        if (lastTxId - fromTxId + 1 >= maxTxns) {
+          break;
+        }
+      }
+      return new JournaledEdits((int) (lastTxId - fromTxId + 1),
+          out.toByteArray());
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Drop all the cached edits.
+   */
+  void invalidate() {
+    lock.writeLock().lock();
+    try {
+      clear();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @VisibleForTesting
+  long getSize() {
+    lock.readLock().lock();
+    try {
+      return size;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private void clear() {
+    batches.clear();
+    size = 0;
+  }
+
+  private static byte[] createLayoutHeader(int layoutVersion) {
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      EditLogFileOutputStream.writeHeader(layoutVersion,
+          new DataOutputStream(bytes));
+      return bytes.toByteArray();
+    } catch (IOException e) {
+      // Writing to a byte array never fails.
+      throw new RuntimeException(e);
+    }
+  }
+}
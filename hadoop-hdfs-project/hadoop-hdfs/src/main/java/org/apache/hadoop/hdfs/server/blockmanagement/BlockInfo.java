@@ -42,24 +42,41 @@ public class BlockInfo extends Block implements LightWeightGSet.LinkedElement {
   /** For implementing {@link LightWeightGSet.LinkedElement} interface */
   private LightWeightGSet.LinkedElement nextLinkedElement;
 
-  // Storages this block is replicated on
-  private DatanodeStorageInfo[] storages;
+  /**
+   * Number of storages held in fields of the BlockInfo itself. Blocks with
+   * up to this many replicas, which is nearly all of them, need no separate
+   * storage array. That saves an object and its header per block, which
+   * adds up on a NameNode holding hundreds of millions of blocks.
+   */
+  static final int INLINE_STORAGES = 3;
+
+  // Storages this block is replicated on. The first INLINE_STORAGES are
+  // kept in fields, the rest in moreStorages, which is null unless needed.
+  private DatanodeStorageInfo storage0;
+  private DatanodeStorageInfo storage1;
+  private DatanodeStorageInfo storage2;
+  private DatanodeStorageInfo[] moreStorages;
 
   /**
    * Construct an entry for blocksmap
    * @param replication the block's replication factor
    */
   public BlockInfo(short replication) {
-    this.storages = new DatanodeStorageInfo[replication];
+    this.moreStorages = newMoreStorages(replication);
     this.bc = null;
   }
   
   public BlockInfo(Block blk, short replication) {
     super(blk);
-    this.storages = new DatanodeStorageInfo[replication];
+    this.moreStorages = newMoreStorages(replication);
     this.bc = null;
   }
 
+  private static DatanodeStorageInfo[] newMoreStorages(int capacity) {
+    return capacity > INLINE_STORAGES
+        ? new DatanodeStorageInfo[capacity - INLINE_STORAGES] : null;
+  }
+
   /**
    * Copy construction.
    * This is used to convert BlockInfoUnderConstruction
@@ -88,8 +105,23 @@ public DatanodeDescriptor getDatanode(int index) {
   }
 
   DatanodeStorageInfo getStorageInfo(int index) {
-    assert this.storages != null : "BlockInfo is not initialized";
-    return storages[index];
+    switch (index) {
+    case 0:
+      return storage0;
+    case 1:
+      return storage1;
+    case 2:
+      return storage2;
+    default:
+      return getMoreStorages(index)[index - INLINE_STORAGES];
+    }
+  }
+
+  private DatanodeStorageInfo[] getMoreStorages(int index) {
+    if (index < 0 || moreStorages == null) {
+      throw new ArrayIndexOutOfBoundsException(index);
+    }
+    return moreStorages;
   }
 
   public Iterator<DatanodeStorageInfo> getStorageInfos() {
@@ -99,7 +131,7 @@ public Iterator<DatanodeStorageInfo> getStorageInfos() {
 
       @Override
       public boolean hasNext() {
-        return index < storages.length && storages[index] != null;
+        return index < getCapacity() && getStorageInfo(index) != null;
       }
 
       @Override
@@ -107,7 +139,7 @@ public DatanodeStorageInfo next() {
         if (!hasNext()) {
           throw new NoSuchElementException();
         }
-        return storages[index++];
+        return getStorageInfo(index++);
       }
 
       @Override
@@ -118,13 +150,24 @@ public void remove() {
   }
 
   private void setStorageInfo(int index, DatanodeStorageInfo storage) {
-    assert this.storages != null : "BlockInfo is not initialized";
-    this.storages[index] = storage;
+    switch (index) {
+    case 0:
+      storage0 = storage;
+      break;
+    case 1:
+      storage1 = storage;
+      break;
+    case 2:
+      storage2 = storage;
+      break;
+    default:
+      getMoreStorages(index)[index - INLINE_STORAGES] = storage;
+    }
   }
 
   public int getCapacity() {
-    assert this.storages != null : "BlockInfo is not initialized";
-    return storages.length;
+    return moreStorages == null
+        ? INLINE_STORAGES : INLINE_STORAGES + moreStorages.length;
   }
 
   /**
@@ -132,25 +175,38 @@ public int getCapacity() {
    * @return first free storage index.
    */
   private int ensureCapacity(int num) {
-    assert this.storages != null : "BlockInfo is not initialized";
     int last = numNodes();
-    if(storages.length >= (last+num))
+    if(getCapacity() >= (last+num))
       return last;
     /* Not enough space left. Create a new array. Should normally 
      * happen only when replication is manually increased by the user. */
-    DatanodeStorageInfo[] old = storages;
-    storages = new DatanodeStorageInfo[(last+num)];
-    System.arraycopy(old, 0, storages, 0, last);
+    DatanodeStorageInfo[] old = moreStorages;
+    moreStorages = newMoreStorages(last + num);
+    if (old != null) {
+      System.arraycopy(old, 0, moreStorages, 0, last - INLINE_STORAGES);
+    }
     return last;
   }
 
+  /**
+   * Release the overflow storage array once it is empty, unless the
+   * replication of the block still calls for it. Over-replication during
+   * decommissioning or balancing would otherwise leave it allocated for
+   * the lifetime of the block.
+   */
+  private void trimCapacity() {
+    if (moreStorages != null && moreStorages[0] == null &&
+        (bc == null || bc.getBlockReplication() <= INLINE_STORAGES)) {
+      moreStorages = null;
+    }
+  }
+
   /**
    * Count the number of data-nodes the block belongs to.
    */
   public int numNodes() {
-    assert this.storages != null : "BlockInfo is not initialized";
     for(int idx = getCapacity()-1; idx >= 0; idx--) {
-      if(getDatanode(idx) != null)
+      if(getStorageInfo(idx) != null)
         return idx+1;
     }
     return 0;
@@ -179,6 +235,7 @@ boolean removeStorage(DatanodeStorageInfo storage) {
     setStorageInfo(dnIndex, getStorageInfo(lastNode));
     // set the last entry to null
     setStorageInfo(lastNode, null);
+    trimCapacity();
     return true;
   }
 
@@ -19,6 +19,7 @@
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.hadoop.HadoopIllegalArgumentException;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.conf.Configuration;
@@ -248,6 +249,12 @@ public int getPendingDataNodeMessageCount() {
 
   final float blocksInvalidateWorkPct;
   final int blocksReplWorkMultiplier;
+
+  /**
+   * Thread pool choosing replication targets in parallel, or null to choose
+   * them in the replication monitor thread.
+   */
+  private final ThreadPoolExecutor replicationTargetChooser;
   
   // whether or not to issue block encryption keys.
   final boolean encryptDataTransfer;
@@ -274,6 +281,11 @@ public int getPendingDataNodeMessageCount() {
    * processed again after aquiring lock again.
    */
   private int numBlocksPerIteration;
+  /**
+   * Maximum number of replicas of a full block report reconciled per
+   * namesystem write lock hold.
+   */
+  private final int blockReportBatchSize;
   /**
    * Progress of the Replication queues initialisation.
    */
@@ -357,6 +369,19 @@ public BlockManager(final Namesystem namesystem, final FSClusterStats stats,
 
     this.blocksInvalidateWorkPct = DFSUtil.getInvalidateWorkPctPerIteration(conf);
     this.blocksReplWorkMultiplier = DFSUtil.getReplWorkMultiplier(conf);
+    final int targetChooserThreads = conf.getInt(
+        DFSConfigKeys.DFS_NAMENODE_REPLICATION_TARGET_CHOOSER_THREADS_KEY,
+        DFSConfigKeys.DFS_NAMENODE_REPLICATION_TARGET_CHOOSER_THREADS_DEFAULT);
+    if (targetChooserThreads > 1) {
+      this.replicationTargetChooser = new ThreadPoolExecutor(
+          targetChooserThreads, targetChooserThreads, 60, TimeUnit.SECONDS,
+          new LinkedBlockingQueue<Runnable>(),
+          new ThreadFactoryBuilder().setDaemon(true)
+              .setNameFormat("ReplicationTargetChooser-%d").build());
+      this.replicationTargetChooser.allowCoreThreadTimeOut(true);
+    } else {
+      this.replicationTargetChooser = null;
+    }
 
     this.replicationRecheckInterval = 
       conf.getInt(DFSConfigKeys.DFS_NAMENODE_REPLICATION_INTERVAL_KEY,
@@ -385,6 +410,10 @@ public BlockManager(final Namesystem namesystem, final FSClusterStats stats,
     this.numBlocksPerIteration = conf.getInt(
         DFSConfigKeys.DFS_BLOCK_MISREPLICATION_PROCESSING_LIMIT,
         DFSConfigKeys.DFS_BLOCK_MISREPLICATION_PROCESSING_LIMIT_DEFAULT);
+    final int batchSize = conf.getInt(
+        DFSConfigKeys.DFS_NAMENODE_BLOCKREPORT_BATCH_SIZE_KEY,
+        DFSConfigKeys.DFS_NAMENODE_BLOCKREPORT_BATCH_SIZE_DEFAULT);
+    this.blockReportBatchSize = batchSize > 0 ? batchSize : Integer.MAX_VALUE;
 
     final int minMaintenanceR = conf.getInt(
         DFSConfigKeys.DFS_NAMENODE_MAINTENANCE_REPLICATION_MIN_KEY,
@@ -416,6 +445,7 @@ public BlockManager(final Namesystem namesystem, final FSClusterStats stats,
     LOG.info("maxReplication             = " + maxReplication);
     LOG.info("minReplication             = " + minReplication);
     LOG.info("maxReplicationStreams      = " + maxReplicationStreams);
+    LOG.info("targetChooserThreads       = " + targetChooserThreads);
     LOG.info("replicationRecheckInterval = " + replicationRecheckInterval);
     LOG.info("encryptDataTransfer        = " + encryptDataTransfer);
     LOG.info("maxNumBlocksToLog          = " + maxNumBlocksToLog);
@@ -528,6 +558,9 @@ public void close() {
       blockReportThread.join(3000);
     } catch (InterruptedException ie) {
     }
+    if (replicationTargetChooser != null) {
+      replicationTargetChooser.shutdownNow();
+    }
     datanodeManager.close();
     pendingReplications.stop();
     blocksMap.close();
@@ -1151,7 +1184,7 @@ public BlocksWithLocations getBlocks(DatanodeID datanode, long size
       namesystem.checkOperation(OperationCategory.READ);
       return getBlocksWithLocations(datanode, size);  
     } finally {
-      namesystem.readUnlock();
+      namesystem.readUnlock("getBlocks");
     }
   }
 
@@ -1477,7 +1510,7 @@ int computeReplicationWork(int blocksToProcess) {
       blocksToReplicate = neededReplications
           .chooseUnderReplicatedBlocks(blocksToProcess);
     } finally {
-      namesystem.writeUnlock();
+      namesystem.writeUnlock("computeReplicationWork");
     }
     return computeReplicationWorkForBlocks(blocksToReplicate);
   }
@@ -1553,20 +1586,16 @@ int computeReplicationWorkForBlocks(List<List<BlockInfo>> blocksToReplicate) {
         }
       }
     } finally {
-      namesystem.writeUnlock();
+      namesystem.writeUnlock("computeReplicationWorkForBlocks");
     }
 
-    final Set<Node> excludedNodes = new HashSet<Node>();
-    for(ReplicationWork rw : work){
-      // Exclude all of the containing nodes from being targets.
-      // This list includes decommissioning or corrupt nodes.
-      excludedNodes.clear();
-      for (DatanodeDescriptor dn : rw.containingNodes) {
-        excludedNodes.add(dn);
+    // choose replication targets: NOT HOLDING THE GLOBAL LOCK
+    try {
+      chooseReplicationTargets(work);
+    } finally {
+      for (ReplicationWork rw : work) {
+        rw.srcNode.decrementPendingReplicationWithoutTargets();
       }
-
-      // choose replication targets: NOT HOLDING THE GLOBAL LOCK
-      rw.chooseTargets(blockplacement, storagePolicySuite, excludedNodes);
     }
 
     namesystem.writeLock();
@@ -1634,7 +1663,7 @@ int computeReplicationWorkForBlocks(List<List<BlockInfo>> blocksToReplicate) {
         }
       }
     } finally {
-      namesystem.writeUnlock();
+      namesystem.writeUnlock("computeReplicationWorkForBlocks");
     }
 
     if (blockLog.isInfoEnabled()) {
@@ -1745,6 +1774,58 @@ List<DatanodeDescriptor> getDatanodeDescriptors(List<String> nodes) {
     return datanodeDescriptors;
   }
 
+  /**
+   * Choose the targets of the given replication work. With more than one
+   * target chooser thread the work is spread over the thread pool, since
+   * placement only reads the cluster topology and the datanode statistics.
+   * Targets that could not be chosen are left null.
+   */
+  private void chooseReplicationTargets(List<ReplicationWork> work) {
+    if (replicationTargetChooser == null || work.size() <= 1) {
+      for (ReplicationWork rw : work) {
+        rw.chooseTargets(blockplacement, storagePolicySuite);
+      }
+      return;
+    }
+
+    final List<Callable<Void>> tasks =
+        new ArrayList<Callable<Void>>(work.size());
+    for (final ReplicationWork rw : work) {
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          rw.chooseTargets(blockplacement, storagePolicySuite);
+          return null;
+        }
+      });
+    }
+    final List<Future<Void>> futures;
+    try {
+      futures = replicationTargetChooser.invokeAll(tasks);
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+    for (Future<Void> f : futures) {
+      try {
+        f.get();
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (CancellationException ce) {
+        // the targets of the work remain null
+      } catch (ExecutionException ee) {
+        final Throwable cause = ee.getCause();
+        if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+          throw (Error) cause;
+        }
+        throw new IllegalStateException(cause);
+      }
+    }
+  }
+
   /**
    * Parse the data-nodes the block belongs to and choose one,
    * which will be the replication source.
@@ -1826,12 +1907,15 @@ else if (node.isDecommissionInProgress()) {
       // If so, do not select the node as src node
       if ((nodesCorrupt != null) && nodesCorrupt.contains(node))
         continue;
+      // Count the transfers the node is still running as well as the ones
+      // queued for it, so that slow nodes are not handed more work
+      final int outstandingWork = node.getOutstandingReplicationWork();
       if(priority != UnderReplicatedBlocks.QUEUE_HIGHEST_PRIORITY
           && !node.isDecommissionInProgress() && !node.isEnteringMaintenance()
-          && node.getNumberOfBlocksToBeReplicated() >= maxReplicationStreams) {
+          && outstandingWork >= maxReplicationStreams) {
         continue; // already reached replication limit
       }
-      if (node.getNumberOfBlocksToBeReplicated() >= replicationStreamsHardLimit)
+      if (outstandingWork >= replicationStreamsHardLimit)
       {
         continue;
       }
@@ -1859,10 +1943,16 @@ else if (node.isDecommissionInProgress()) {
         srcNode = node;
         continue;
       }
-      // switch to a different node randomly
+      // prefer the node with the least outstanding replication work
+      final int srcWork = srcNode.getOutstandingReplicationWork();
+      if (outstandingWork < srcWork) {
+        srcNode = node;
+        continue;
+      }
+      // switch to a different, equally loaded node randomly
       // this to prevent from deterministically selecting the same node even
       // if the node failed to replicate the block on previous iterations
-      if(DFSUtil.getRandom().nextBoolean())
+      if(outstandingWork == srcWork && DFSUtil.getRandom().nextBoolean())
         srcNode = node;
     }
     if(numReplicas != null)
@@ -1901,7 +1991,7 @@ void processPendingReplications() {
           }
         }
       } finally {
-        namesystem.writeUnlock();
+        namesystem.writeUnlock("processPendingReplications");
       }
       /* If we know the target datanodes where the replication timedout,
        * we could invoke decBlocksScheduled() on it. Its ok for now.
@@ -2006,6 +2096,7 @@ public boolean processReport(final DatanodeID nodeID,
     namesystem.writeLock();
     final long startTime = Time.monotonicNow(); //after acquiring write lock
     final long endTime;
+    final BlockReportLockHold lockHold = new BlockReportLockHold(startTime);
     DatanodeDescriptor node;
     Collection<Block> invalidatedBlocks = Collections.emptyList();
     String strBlockReportId =
@@ -2052,13 +2143,15 @@ public boolean processReport(final DatanodeID nodeID,
             nodeID.getDatanodeUuid());
         processFirstBlockReport(storageInfo, newReport);
       } else {
-        invalidatedBlocks = processReport(storageInfo, newReport, context);
+        invalidatedBlocks = processReport(storageInfo, newReport, context,
+            lockHold);
       }
       
       storageInfo.receivedBlockReport();
     } finally {
       endTime = Time.monotonicNow();
-      namesystem.writeUnlock();
+      lockHold.released(endTime);
+      namesystem.writeUnlock("processReport");
     }
 
     for (Block b : invalidatedBlocks) {
@@ -2070,13 +2163,15 @@ public boolean processReport(final DatanodeID nodeID,
     final NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
     if (metrics != null) {
       metrics.addBlockReport((int) (endTime - startTime));
+      metrics.addBlockReportLockHold(lockHold.held);
     }
     blockLog.info("BLOCK* processReport 0x{}: from storage {} node {}, " +
         "blocks: {}, hasStaleStorage: {}, processing time: {} msecs, " +
-        "invalidatedBlocks: {}", strBlockReportId, storage.getStorageID(),
+        "lock hold time: {} msecs in {} batches, invalidatedBlocks: {}",
+        strBlockReportId, storage.getStorageID(),
         nodeID, newReport.getNumberOfBlocks(),
         node.hasStaleStorages(), (endTime - startTime),
-        invalidatedBlocks.size());
+        lockHold.held, lockHold.yields + 1, invalidatedBlocks.size());
     return !node.hasStaleStorages();
   }
 
@@ -2097,7 +2192,7 @@ public void removeBRLeaseIfNeeded(final DatanodeID nodeID,
             context.getTotalRpcs(), Long.toHexString(context.getReportId()));
       }
     } finally {
-      namesystem.writeUnlock();
+      namesystem.writeUnlock("removeBRLeaseIfNeeded");
     }
   }
 
@@ -2139,7 +2234,7 @@ void rescanPostponedMisreplicatedBlocks() {
       postponedMisreplicatedBlocks.addAll(rescannedMisreplicatedBlocks);
       rescannedMisreplicatedBlocks.clear();
       long endSize = postponedMisreplicatedBlocks.size();
-      namesystem.writeUnlock();
+      namesystem.writeUnlock("rescanPostponedMisreplicatedBlocks");
       LOG.info("Rescan of postponedMisreplicatedBlocks completed in " +
           (Time.monotonicNow() - startTime) + " msecs. " +
           endSize + " blocks are left. " +
@@ -2150,17 +2245,12 @@ void rescanPostponedMisreplicatedBlocks() {
   private Collection<Block> processReport(
       final DatanodeStorageInfo storageInfo,
       final BlockListAsLongs report,
-      BlockReportContext context) throws IOException {
+      BlockReportContext context,
+      BlockReportLockHold lockHold) throws IOException {
     // Normal case:
     // Modify the (block-->datanode) map, according to the difference
     // between the old and new block report.
     //
-    Collection<BlockInfo> toAdd = new LinkedList<BlockInfo>();
-    Collection<Block> toRemove = new TreeSet<Block>();
-    Collection<Block> toInvalidate = new LinkedList<Block>();
-    Collection<BlockToMarkCorrupt> toCorrupt = new LinkedList<BlockToMarkCorrupt>();
-    Collection<StatefulBlockInfo> toUC = new LinkedList<StatefulBlockInfo>();
-
     boolean sorted = false;
     String strBlockReportId = "";
     if (context != null) {
@@ -2187,34 +2277,153 @@ private Collection<Block> processReport(
       sortedReport = report;
     }
 
-    reportDiffSorted(storageInfo, sortedReport,
-                     toAdd, toRemove, toInvalidate, toCorrupt, toUC);
-
-    DatanodeDescriptor node = storageInfo.getDatanodeDescriptor();
-    // Process the blocks on each queue
-    for (StatefulBlockInfo b : toUC) { 
-      addStoredBlockUnderConstruction(b, storageInfo);
-    }
-    for (Block b : toRemove) {
-      removeStoredBlock(b, node);
-    }
+    // The report is reconciled in batches of blockReportBatchSize replicas.
+    // The write lock is released between batches so that client operations
+    // are not stalled for the whole report; the storage is re-read from the
+    // last reconciled block ID once the lock is reacquired.
+    final ReportCursor cursor = new ReportCursor(sortedReport.iterator());
+    final Collection<Block> invalidated = new LinkedList<Block>();
+    final DatanodeDescriptor node = storageInfo.getDatanodeDescriptor();
     int numBlocksLogged = 0;
-    for (BlockInfo b : toAdd) {
-      addStoredBlock(b, storageInfo, null, numBlocksLogged < maxNumBlocksToLog);
-      numBlocksLogged++;
+    while (true) {
+      Collection<BlockInfo> toAdd = new LinkedList<BlockInfo>();
+      Collection<Block> toRemove = new TreeSet<Block>();
+      Collection<Block> toInvalidate = new LinkedList<Block>();
+      Collection<BlockToMarkCorrupt> toCorrupt =
+          new LinkedList<BlockToMarkCorrupt>();
+      Collection<StatefulBlockInfo> toUC = new LinkedList<StatefulBlockInfo>();
+
+      boolean done = reportDiffSorted(storageInfo, cursor,
+          blockReportBatchSize, toAdd, toRemove, toInvalidate, toCorrupt,
+          toUC);
+
+      // Process the blocks on each queue
+      for (StatefulBlockInfo b : toUC) {
+        addStoredBlockUnderConstruction(b, storageInfo);
+      }
+      for (Block b : toRemove) {
+        removeStoredBlock(b, node);
+      }
+      for (BlockInfo b : toAdd) {
+        addStoredBlock(b, storageInfo, null,
+            numBlocksLogged < maxNumBlocksToLog);
+        numBlocksLogged++;
+      }
+      for (Block b : toInvalidate) {
+        addToInvalidates(b, node);
+      }
+      for (BlockToMarkCorrupt b : toCorrupt) {
+        markBlockAsCorrupt(b, storageInfo, node);
+      }
+      invalidated.addAll(toInvalidate);
+
+      if (done) {
+        break;
+      }
+      yieldBlockReportLock(storageInfo, strBlockReportId, lockHold);
     }
     if (numBlocksLogged > maxNumBlocksToLog) {
       blockLog.info("BLOCK* processReport 0x{}: logged info for {} of {} " +
           "reported.", strBlockReportId, maxNumBlocksToLog, numBlocksLogged);
     }
-    for (Block b : toInvalidate) {
-      addToInvalidates(b, node);
+
+    return invalidated;
+  }
+
+  /**
+   * Release the write lock between two batches of a full block report, and
+   * verify once it is reacquired that the reporting storage is still the one
+   * registered for its datanode.
+   */
+  private void yieldBlockReportLock(final DatanodeStorageInfo storageInfo,
+      final String strBlockReportId, final BlockReportLockHold lockHold)
+      throws IOException {
+    lockHold.released(Time.monotonicNow());
+    namesystem.writeUnlock("processReport");
+    namesystem.writeLock();
+    lockHold.reacquired(Time.monotonicNow());
+    final NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+    if (metrics != null) {
+      metrics.incrBlockReportLockYields();
+    }
+
+    final DatanodeDescriptor node = storageInfo.getDatanodeDescriptor();
+    if (datanodeManager.getDatanode(node.getDatanodeUuid()) != node
+        || !node.isRegistered()
+        || node.getStorageInfo(storageInfo.getStorageID()) != storageInfo) {
+      throw new IOException("processReport 0x" + strBlockReportId
+          + ": storage " + storageInfo.getStorageID() + " of datanode "
+          + node + " was removed while processing the block report");
+    }
+  }
+
+  /**
+   * Write lock hold time of a full block report whose processing may
+   * release and reacquire the lock between batches.
+   */
+  private static class BlockReportLockHold {
+    private long acquired;
+    private long held = 0;
+    private int yields = 0;
+
+    BlockReportLockHold(long acquired) {
+      this.acquired = acquired;
+    }
+
+    void released(long now) {
+      held += now - acquired;
+    }
+
+    void reacquired(long now) {
+      acquired = now;
+      yields++;
+    }
+  }
+
+  /**
+   * Position of a sorted full block report being reconciled in batches: the
+   * replicas left to process and the highest block ID already reconciled
+   * against the blocks of the storage.
+   */
+  private static class ReportCursor {
+    private final Iterator<BlockReportReplica> replicas;
+    // a replica whose batch ran out before it was fully reconciled
+    private BlockReportReplica pending;
+    private boolean started = false;
+    private long lastBlockId;
+
+    ReportCursor(Iterator<BlockReportReplica> replicas) {
+      this.replicas = replicas;
+    }
+
+    /** @return the next replica to reconcile, or null if there is none. */
+    BlockReportReplica peekReplica() {
+      if (pending == null && replicas.hasNext()) {
+        pending = replicas.next();
+      }
+      return pending;
+    }
+
+    /** The replica returned by {@link #peekReplica()} is reconciled. */
+    void consumeReplica() {
+      pending = null;
     }
-    for (BlockToMarkCorrupt b : toCorrupt) {
-      markBlockAsCorrupt(b, storageInfo, node);
+
+    /** @return the storage blocks that have not been reconciled yet. */
+    Iterator<BlockInfo> storageBlocks(DatanodeStorageInfo storageInfo) {
+      if (!started) {
+        return storageInfo.getBlockIterator();
+      }
+      if (lastBlockId == Long.MAX_VALUE) {
+        return Collections.<BlockInfo>emptyIterator();
+      }
+      return storageInfo.getBlockIterator(lastBlockId + 1);
     }
 
-    return toInvalidate;
+    void reconciled(long blockId) {
+      started = true;
+      lastBlockId = blockId;
+    }
   }
 
   /**
@@ -2332,8 +2541,15 @@ private void processFirstBlockReport(
     }
   }
 
-  private void reportDiffSorted(DatanodeStorageInfo storageInfo,
-      Iterable<BlockReportReplica> newReport,
+  /**
+   * Diff a sorted block report against the blocks of the storage, starting
+   * where the previous batch of the same report stopped. A batch handles at
+   * most maxReplicas reported replicas and stored blocks in total.
+   * @return true if the whole report and all the blocks of the storage have
+   *         been reconciled, false if another batch is needed.
+   */
+  private boolean reportDiffSorted(DatanodeStorageInfo storageInfo,
+      ReportCursor cursor, int maxReplicas,
       Collection<BlockInfo> toAdd,              // add to DatanodeDescriptor
       Collection<Block> toRemove,           // remove from DatanodeDescriptor
       Collection<Block> toInvalidate,       // should be removed from DN
@@ -2341,23 +2557,25 @@ private void reportDiffSorted(DatanodeStorageInfo storageInfo,
       Collection<StatefulBlockInfo> toUC) { // add to under-construction list
 
     // The blocks must be sorted and the storagenodes blocks must be sorted
-    Iterator<BlockInfo> storageBlocksIterator = storageInfo.getBlockIterator();
+    Iterator<BlockInfo> storageBlocksIterator =
+        cursor.storageBlocks(storageInfo);
     DatanodeDescriptor dn = storageInfo.getDatanodeDescriptor();
     BlockInfo storageBlock = null;
+    int processed = 0;
 
-    for (BlockReportReplica replica : newReport) {
+    BlockReportReplica replica;
+    while ((replica = cursor.peekReplica()) != null) {
+      if (processed >= maxReplicas) {
+        return false;
+      }
 
       long replicaID = replica.getBlockId();
       ReplicaState reportedState = replica.getState();
 
-      if (LOG.isDebugEnabled()) {
-        LOG.debug("Reported block " + replica
-                  + " on " + dn + " size " + replica.getNumBytes()
-                  + " replicaState = " + reportedState);
-      }
-
       if (shouldPostponeBlocksFromFuture
           && namesystem.isGenStampInFuture(replica)) {
+        processed++;
+        cursor.consumeReplica();
         queueReportedBlock(storageInfo, replica, reportedState,
                            QUEUE_REASON_FUTURE_GENSTAMP);
         continue;
@@ -2367,42 +2585,67 @@ private void reportDiffSorted(DatanodeStorageInfo storageInfo,
         storageBlock = storageBlocksIterator.next();
       }
 
-      do {
-        int cmp;
-        if (storageBlock == null ||
-            (cmp = Long.compare(replicaID, storageBlock.getBlockId())) < 0) {
-          // Check if block is available in NN but not yet on this storage
-          BlockInfo nnBlock = getStoredBlock(replica);
-          if (nnBlock != null) {
-            reportDiffSortedInner(storageInfo, replica, reportedState,
-                                  nnBlock, toAdd, toCorrupt, toUC);
-          } else {
-            // Replica not found anywhere so it should be invalidated
-            toInvalidate.add(new Block(replica));
-          }
-          break;
-        } else if (cmp == 0) {
-          // Replica matched current storageblock
+      // Remove all stored blocks with IDs lower than the replica. They
+      // count toward the batch too; if it runs out, the replica is
+      // reconciled by the next batch, which resumes after the last removed
+      // block.
+      while (storageBlock != null &&
+             Long.compare(replicaID, storageBlock.getBlockId()) > 0) {
+        if (processed++ >= maxReplicas) {
+          return false;
+        }
+        toRemove.add(storageBlock);
+        cursor.reconciled(storageBlock.getBlockId());
+        storageBlock = storageBlocksIterator.hasNext()
+                       ? storageBlocksIterator.next() : null;
+      }
+
+      processed++;
+      cursor.consumeReplica();
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Reported block " + replica
+                  + " on " + dn + " size " + replica.getNumBytes()
+                  + " replicaState = " + reportedState);
+      }
+
+      if (storageBlock != null && replicaID == storageBlock.getBlockId()) {
+        // Replica matched current storageblock
+        reportDiffSortedInner(storageInfo, replica, reportedState,
+                              storageBlock, toAdd, toCorrupt, toUC);
+        storageBlock = null;
+      } else {
+        // Check if block is available in NN but not yet on this storage
+        BlockInfo nnBlock = getStoredBlock(replica);
+        if (nnBlock != null) {
           reportDiffSortedInner(storageInfo, replica, reportedState,
-                                storageBlock, toAdd, toCorrupt, toUC);
-          storageBlock = null;
+                                nnBlock, toAdd, toCorrupt, toUC);
         } else {
-          // replica has higher ID than storedBlock
-          // Remove all stored blocks with IDs lower than replica
-          do {
-            toRemove.add(storageBlock);
-            storageBlock = storageBlocksIterator.hasNext()
-                           ? storageBlocksIterator.next() : null;
-          } while (storageBlock != null &&
-                   Long.compare(replicaID, storageBlock.getBlockId()) > 0);
+          // Replica not found anywhere so it should be invalidated
+          toInvalidate.add(new Block(replica));
         }
-      } while (storageBlock != null);
+      }
+      // Stored blocks up to the replica are reconciled; a pending
+      // storageBlock has a higher ID and is picked up again by the next batch
+      cursor.reconciled(replicaID);
     }
 
     // Iterate any remaing blocks that have not been reported and remove them
+    if (storageBlock != null) {
+      if (processed++ >= maxReplicas) {
+        return false;
+      }
+      toRemove.add(storageBlock);
+      cursor.reconciled(storageBlock.getBlockId());
+    }
     while (storageBlocksIterator.hasNext()) {
-      toRemove.add(storageBlocksIterator.next());
+      if (processed++ >= maxReplicas) {
+        return false;
+      }
+      storageBlock = storageBlocksIterator.next();
+      toRemove.add(storageBlock);
+      cursor.reconciled(storageBlock.getBlockId());
     }
+    return true;
   }
 
   private void reportDiffSortedInner(
@@ -2960,7 +3203,7 @@ private void processMisReplicatesAsync() throws InterruptedException {
           break;
         }
       } finally {
-        namesystem.writeUnlock();
+        namesystem.writeUnlock("processMisReplicatesAsync");
         // Make sure it is out of the write lock for sufficiently long time.
         Thread.sleep(sleepDuration);
       }
@@ -3180,6 +3423,7 @@ public void removeStoredBlock(Block block, DatanodeDescriptor node) {
       CachedBlock cblock = namesystem.getCacheManager().getCachedBlocks()
           .get(new CachedBlock(block.getBlockId(), (short) 0, false));
       if (cblock != null) {
+        namesystem.getCacheManager().markBlockChanged(cblock);
         boolean removed = false;
         removed |= node.getPendingCached().remove(cblock);
         removed |= node.getCached().remove(cblock);
@@ -3610,6 +3854,12 @@ public void removeBlock(BlockInfo block) {
     block.setNumBytes(BlockCommand.NO_ACK);
     addToInvalidates(block);
     removeBlockFromMap(block);
+    // Let the next caching scan uncache the block if it is cached
+    CachedBlock cblock = namesystem.getCacheManager().getCachedBlocks()
+        .get(new CachedBlock(block.getBlockId(), (short) 0, false));
+    if (cblock != null) {
+      namesystem.getCacheManager().markBlockChanged(cblock);
+    }
     // Remove the block from pendingReplications and neededReplications
     pendingReplications.remove(block);
     neededReplications.remove(block, UnderReplicatedBlocks.LEVEL);
@@ -3650,8 +3900,83 @@ private void updateNeededReplications(final BlockInfo block,
             repl.outOfServiceReplicas(), oldExpectedReplicas);
       }
     } finally {
-      namesystem.writeUnlock();
+      namesystem.writeUnlock("updateNeededReplications");
+    }
+  }
+
+  /**
+   * Schedule the transfer of a replica of a block to a storage of a type
+   * required by the storage policy of its file, if a replica is stored on a
+   * type the policy does not require. Once the new replica is reported, the
+   * block is over-replicated and the usual excess replica handling removes
+   * a replica of the type the policy does not require.
+   *
+   * @return true if a transfer was scheduled
+   */
+  public boolean scheduleStorageMove(BlockInfo block) {
+    assert namesystem.hasWriteLock();
+    final BlockCollection bc = blocksMap.getBlockCollection(block);
+    if (bc == null || !block.isComplete()
+        || pendingReplications.getNumReplicas(block) > 0) {
+      return false;
+    }
+    final short replication = bc.getBlockReplication();
+    final Collection<DatanodeDescriptor> corruptNodes =
+        corruptReplicas.getNodes(block);
+    final List<DatanodeStorageInfo> live = new ArrayList<DatanodeStorageInfo>();
+    final List<DatanodeDescriptor> containing =
+        new ArrayList<DatanodeDescriptor>();
+    for (DatanodeStorageInfo storage : blocksMap.getStorages(block)) {
+      final DatanodeDescriptor node = storage.getDatanodeDescriptor();
+      containing.add(node);
+      final LightWeightLinkedSet<Block> excessBlocks =
+          excessReplicateMap.get(node.getDatanodeUuid());
+      if (storage.getState() == State.NORMAL && node.isInService()
+          && (corruptNodes == null || !corruptNodes.contains(node))
+          && (excessBlocks == null || !excessBlocks.contains(block))) {
+        live.add(storage);
+      }
+    }
+    // missing replicas are the business of the replication monitor
+    if (live.size() < replication) {
+      return false;
+    }
+    final BlockStoragePolicy policy =
+        storagePolicySuite.getPolicy(bc.getStoragePolicyID());
+    final List<StorageType> excessTypes = policy.chooseExcess(replication,
+        DatanodeStorageInfo.toStorageTypes(live));
+    if (excessTypes.isEmpty()) {
+      return false;
+    }
+
+    // prefer a source holding the replica that will be removed
+    DatanodeDescriptor srcNode = null;
+    for (DatanodeStorageInfo storage : live) {
+      final DatanodeDescriptor node = storage.getDatanodeDescriptor();
+      if (node.getOutstandingReplicationWork() >= maxReplicationStreams) {
+        continue;
+      }
+      if (srcNode == null || excessTypes.contains(storage.getStorageType())) {
+        srcNode = node;
+      }
+    }
+    if (srcNode == null) {
+      return false;
+    }
+    final DatanodeStorageInfo[] targets = blockplacement.chooseTarget(
+        bc.getName(), 1, srcNode, live, false,
+        new HashSet<Node>(containing), block.getNumBytes(), policy, null);
+    if (targets == null || targets.length == 0
+        || excessTypes.contains(targets[0].getStorageType())) {
+      return false;
     }
+    srcNode.addBlockToBeReplicated(block, targets);
+    DatanodeStorageInfo.incrementBlocksScheduled(targets);
+    pendingReplications.increment(block,
+        DatanodeStorageInfo.toDatanodeDescriptors(targets));
+    blockLog.debug("BLOCK* scheduleStorageMove: {} from {} to {}", block,
+        srcNode, targets[0]);
+    return true;
   }
 
   /**
@@ -3717,7 +4042,7 @@ private int invalidateWorkForOneNode(DatanodeInfo dn) {
         return 0;
       }
     } finally {
-      namesystem.writeUnlock();
+      namesystem.writeUnlock("invalidateWorkForOneNode");
     }
     if (blockLog.isInfoEnabled()) {
       blockLog.info("BLOCK* " + getClass().getSimpleName()
@@ -3964,7 +4289,7 @@ private void scanAndCompactStorages() throws InterruptedException {
                      (ratio < storageInfoDefragmentRatio)
                      ? " (queued for defragmentation)" : "");
           } finally {
-            namesystem.readUnlock();
+            namesystem.readUnlock("scanAndCompactStorages");
           }
         }
       }
@@ -3992,7 +4317,7 @@ private void scanAndCompactStorages() throws InterruptedException {
                        aborted ? " (aborted)" : "");
             }
           } finally {
-            namesystem.writeUnlock();
+            namesystem.writeUnlock("scanAndCompactStorages");
           }
           // Wait between each iteration
           Thread.sleep(1000);
@@ -4031,7 +4356,7 @@ int computeDatanodeWork() {
       this.updateState();
       this.scheduledReplicationBlocksCount = workFound;
     } finally {
-      namesystem.writeUnlock();
+      namesystem.writeUnlock("computeDatanodeWork");
     }
     workFound += this.computeInvalidateWork(nodesToProcess);
     return workFound;
@@ -4083,16 +4408,14 @@ public ReplicationWork(BlockInfo block,
     }
 
     private void chooseTargets(BlockPlacementPolicy blockplacement,
-        BlockStoragePolicySuite storagePolicySuite,
-        Set<Node> excludedNodes) {
-      try {
-        targets = blockplacement.chooseTarget(getSrcPath(),
-            additionalReplRequired, srcNode, liveReplicaStorages, false,
-            excludedNodes, blockSize,
-            storagePolicySuite.getPolicy(getStoragePolicyID()), null);
-      } finally {
-        srcNode.decrementPendingReplicationWithoutTargets();
-      }
+        BlockStoragePolicySuite storagePolicySuite) {
+      // Exclude all of the containing nodes from being targets.
+      // This list includes decommissioning or corrupt nodes.
+      final Set<Node> excludedNodes = new HashSet<Node>(containingNodes);
+      targets = blockplacement.chooseTarget(getSrcPath(),
+          additionalReplRequired, srcNode, liveReplicaStorages, false,
+          excludedNodes, blockSize,
+          storagePolicySuite.getPolicy(getStoragePolicyID()), null);
     }
 
     private String getSrcPath() {
@@ -4156,7 +4479,17 @@ public void enqueueBlockOp(final Runnable action) throws IOException {
   // sync batch processing for a full BR.
   public <T> T runBlockOp(final Callable<T> action)
       throws IOException {
-    final FutureTask<T> future = new FutureTask<T>(action);
+    return runBlockOp(new FutureTask<T>(action));
+  }
+
+  // sync processing of an action that takes the namesystem lock itself, so
+  // it may release it midway. Used for full BRs of a storage.
+  public <T> T runUnlockedBlockOp(final Callable<T> action)
+      throws IOException {
+    return runBlockOp(new UnlockedBlockOp<T>(action));
+  }
+
+  private <T> T runBlockOp(final FutureTask<T> future) throws IOException {
     enqueueBlockOp(future);
     try {
       return future.get();
@@ -4208,6 +4541,16 @@ public int getBlockOpQueueLength() {
     return blockReportThread.queue.size();
   }
 
+  /**
+   * A block op that the block report thread runs without holding the
+   * namesystem write lock on its behalf.
+   */
+  private static class UnlockedBlockOp<T> extends FutureTask<T> {
+    UnlockedBlockOp(Callable<T> action) {
+      super(action);
+    }
+  }
+
   private class BlockReportProcessingThread extends Thread {
     private static final long MAX_LOCK_HOLD_MS = 4;
     private long lastFull = 0;
@@ -4235,8 +4578,14 @@ private void processQueue() {
         NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
         try {
           Runnable action = queue.take();
+          if (action instanceof UnlockedBlockOp) {
+            metrics.setBlockOpsQueued(queue.size() + 1);
+            action.run();
+            continue;
+          }
           // batch as many operations in the write lock until the queue
-          // runs dry, or the max lock hold is reached.
+          // runs dry, the max lock hold is reached, or an op that manages
+          // the lock itself is next.
           int processed = 0;
           namesystem.writeLock();
           metrics.setBlockOpsQueued(queue.size() + 1);
@@ -4245,13 +4594,14 @@ private void processQueue() {
             do {
               processed++;
               action.run();
-              if (Time.monotonicNow() - start > MAX_LOCK_HOLD_MS) {
+              if (Time.monotonicNow() - start > MAX_LOCK_HOLD_MS
+                  || queue.peek() instanceof UnlockedBlockOp) {
                 break;
               }
               action = queue.poll();
             } while (action != null);
           } finally {
-            namesystem.writeUnlock();
+            namesystem.writeUnlock("processQueue");
             metrics.addBlockOpsBatched(processed - 1);
           }
         } catch (InterruptedException e) {
@@ -34,6 +34,13 @@
  * This class maintains the map from a block to its metadata.
  * block's metadata currently includes blockCollection it belongs to and
  * the datanodes that store the block.
+ *
+ * The map and its {@link BlockInfo} entries live on the heap; there is no
+ * off-heap store behind this class. The files, the block lists of the
+ * storages and the replication queues keep references to the BlockInfo
+ * objects themselves, so the entries cannot become records in direct memory
+ * without changing all of them. The heap used per block is kept down
+ * instead, see {@link BlockInfo#INLINE_STORAGES}.
  */
 class BlocksMap {
 
@@ -24,6 +24,7 @@
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -63,6 +64,15 @@
  *
  * The CacheReplicationMonitor does a full scan when the NameNode first
  * starts up, and at configurable intervals afterwards.
+ *
+ * If a full rescan interval larger than the scan interval is configured,
+ * the scans in between full rescans are incremental. They only process the
+ * directives and cached blocks that the {@link CacheManager} recorded as
+ * changed since the previous scan: directives that were added, directives
+ * covering files that were closed, concatenated or renamed into place, and
+ * blocks whose cached or stored replicas changed. Changes that can make
+ * blocks no longer needed, such as removing a directive, fall back to a full
+ * rescan.
  */
 @InterfaceAudience.LimitedPrivate({"HDFS"})
 public class CacheReplicationMonitor extends Thread implements Closeable {
@@ -88,6 +98,25 @@ public class CacheReplicationMonitor extends Thread implements Closeable {
    */
   private final long intervalMs;
 
+  /**
+   * The interval at which we do a full scan of the namesystem. The scans in
+   * between are incremental. Incremental scans are disabled when this is not
+   * larger than intervalMs.
+   */
+  private final long fullRescanIntervalMs;
+
+  /**
+   * Monotonic time at which the previous full scan started.
+   */
+  private long lastFullRescanMs;
+
+  /**
+   * The earliest expiry time of a directive which had not expired at the
+   * previous scan, or Long.MAX_VALUE if none expires. An incremental scan
+   * does not handle expiry, so reaching this time forces a full scan.
+   */
+  private long nextExpiryTime = Long.MAX_VALUE;
+
   /**
    * The CacheReplicationMonitor (CRM) lock. Used to synchronize starting and
    * waiting for rescan operations.
@@ -141,13 +170,26 @@ public class CacheReplicationMonitor extends Thread implements Closeable {
    */
   private long scannedBlocks;
 
+  /**
+   * Whether the previous scan was a full scan.
+   */
+  private boolean fullScan;
+
+  /**
+   * The cached blocks reached by the directives of the current incremental
+   * scan, or null during a full scan.
+   */
+  private Set<CachedBlock> touchedBlocks;
+
   public CacheReplicationMonitor(FSNamesystem namesystem,
-      CacheManager cacheManager, long intervalMs, ReentrantLock lock) {
+      CacheManager cacheManager, long intervalMs, long fullRescanIntervalMs,
+      ReentrantLock lock) {
     this.namesystem = namesystem;
     this.blockManager = namesystem.getBlockManager();
     this.cacheManager = cacheManager;
     this.cachedBlocks = cacheManager.getCachedBlocks();
     this.intervalMs = intervalMs;
+    this.fullRescanIntervalMs = fullRescanIntervalMs;
     this.lock = lock;
     this.doRescan = this.lock.newCondition();
     this.scanFinished = this.lock.newCondition();
@@ -159,7 +201,9 @@ public void run() {
     Thread.currentThread().setName("CacheReplicationMonitor(" +
         System.identityHashCode(this) + ")");
     LOG.info("Starting CacheReplicationMonitor with interval " +
-             intervalMs + " milliseconds");
+             intervalMs + " milliseconds" + (isIncremental() ?
+             " and full rescan interval " + fullRescanIntervalMs +
+             " milliseconds" : ""));
     try {
       long curTimeMs = Time.monotonicNow();
       while (true) {
@@ -187,7 +231,6 @@ public void run() {
           lock.unlock();
         }
         startTimeMs = curTimeMs;
-        mark = !mark;
         rescan();
         curTimeMs = Time.monotonicNow();
         // Update synchronization-related variables.
@@ -201,7 +244,7 @@ public void run() {
         }
         LOG.info("Scanned " + scannedDirectives + " directive(s) and " +
             scannedBlocks + " block(s) in " + (curTimeMs - startTimeMs) + " " +
-            "millisecond(s).");
+            "millisecond(s)" + (fullScan ? "." : " incrementally."));
       }
     } catch (InterruptedException e) {
       LOG.info("Shutting down CacheReplicationMonitor.");
@@ -284,6 +327,10 @@ public void close() throws IOException {
     }
   }
 
+  private boolean isIncremental() {
+    return fullRescanIntervalMs > intervalMs;
+  }
+
   private void rescan() throws InterruptedException {
     scannedDirectives = 0;
     scannedBlocks = 0;
@@ -300,15 +347,75 @@ private void rescan() throws InterruptedException {
         lock.unlock();
       }
 
-      resetStatistics();
-      rescanCacheDirectives();
-      rescanCachedBlockMap();
-      blockManager.getDatanodeManager().resetLastCachingDirectiveSentTime();
+      final long nowMs = Time.monotonicNow();
+      fullScan = !isIncremental() || cacheManager.needsFullRescan() ||
+          nowMs - lastFullRescanMs >= fullRescanIntervalMs ||
+          new Date().getTime() >= nextExpiryTime;
+      if (fullScan) {
+        lastFullRescanMs = nowMs;
+        cacheManager.clearChanges();
+        mark = !mark;
+        resetStatistics();
+        rescanCacheDirectives();
+        rescanCachedBlockMap();
+        blockManager.getDatanodeManager().resetLastCachingDirectiveSentTime();
+      } else if (rescanChanges()) {
+        blockManager.getDatanodeManager().resetLastCachingDirectiveSentTime();
+      }
     } finally {
-      namesystem.writeUnlock();
+      namesystem.writeUnlock("cacheReplicationMonitorRescan");
     }
   }
 
+  /**
+   * Rescan the directives and cached blocks recorded as changed since the
+   * previous scan. The mark is not flipped, so blocks reached by the
+   * previous full scan stay needed.
+   *
+   * @return true if there was anything to rescan.
+   */
+  private boolean rescanChanges() {
+    final TreeMap<Long, CacheDirective> directives =
+        new TreeMap<Long, CacheDirective>();
+    final Set<CachedBlock> blocks = new HashSet<CachedBlock>();
+    cacheManager.takeChanges(directives, blocks);
+    // The cached statistics of the directives covering a block change with
+    // the block's cached replicas
+    for (CachedBlock cblock : blocks) {
+      BlockInfo blockInfo =
+          blockManager.getStoredBlock(new Block(cblock.getBlockId()));
+      if (blockInfo != null && blockInfo.getBlockCollection() != null) {
+        cacheManager.getDirectivesCovering(
+            blockInfo.getBlockCollection().getName(), directives);
+      }
+    }
+    if (directives.isEmpty() && blocks.isEmpty()) {
+      return false;
+    }
+
+    FSDirectory fsDir = namesystem.getFSDirectory();
+    final long now = new Date().getTime();
+    touchedBlocks = blocks;
+    try {
+      for (CacheDirective directive : directives.values()) {
+        directive.addBytesNeeded(-directive.getBytesNeeded());
+        directive.addBytesCached(-directive.getBytesCached());
+        directive.addFilesNeeded(-directive.getFilesNeeded());
+        directive.addFilesCached(-directive.getFilesCached());
+        rescanCacheDirective(fsDir, directive, now);
+      }
+    } finally {
+      touchedBlocks = null;
+    }
+    for (CachedBlock cblock : blocks) {
+      scannedBlocks++;
+      if (rescanCachedBlock(cblock)) {
+        cachedBlocks.remove(cblock);
+      }
+    }
+    return true;
+  }
+
   private void resetStatistics() {
     for (CachePool pool: cacheManager.getCachePools()) {
       pool.resetStatistics();
@@ -325,43 +432,55 @@ private void resetStatistics() {
   private void rescanCacheDirectives() {
     FSDirectory fsDir = namesystem.getFSDirectory();
     final long now = new Date().getTime();
+    nextExpiryTime = Long.MAX_VALUE;
     for (CacheDirective directive : cacheManager.getCacheDirectives()) {
-      scannedDirectives++;
-      // Skip processing this entry if it has expired
-      if (directive.getExpiryTime() > 0 && directive.getExpiryTime() <= now) {
-        LOG.debug("Directive {}: the directive expired at {} (now = {})",
-             directive.getId(), directive.getExpiryTime(), now);
-        continue;
-      }
-      String path = directive.getPath();
-      INode node;
-      try {
-        node = fsDir.getINode(path);
-      } catch (UnresolvedLinkException e) {
-        // We don't cache through symlinks
-        LOG.debug("Directive {}: got UnresolvedLinkException while resolving "
-                + "path {}", directive.getId(), path
-        );
-        continue;
-      }
-      if (node == null)  {
-        LOG.debug("Directive {}: No inode found at {}", directive.getId(),
-            path);
-      } else if (node.isDirectory()) {
-        INodeDirectory dir = node.asDirectory();
-        ReadOnlyList<INode> children = dir
-            .getChildrenList(Snapshot.CURRENT_STATE_ID);
-        for (INode child : children) {
-          if (child.isFile()) {
-            rescanFile(directive, child.asFile());
-          }
+      rescanCacheDirective(fsDir, directive, now);
+    }
+  }
+
+  /**
+   * Scan the files of a single CacheDirective.
+   */
+  private void rescanCacheDirective(FSDirectory fsDir,
+      CacheDirective directive, long now) {
+    scannedDirectives++;
+    // Skip processing this entry if it has expired
+    if (directive.getExpiryTime() > 0 && directive.getExpiryTime() <= now) {
+      LOG.debug("Directive {}: the directive expired at {} (now = {})",
+           directive.getId(), directive.getExpiryTime(), now);
+      return;
+    }
+    if (directive.getExpiryTime() > 0) {
+      nextExpiryTime = Math.min(nextExpiryTime, directive.getExpiryTime());
+    }
+    String path = directive.getPath();
+    INode node;
+    try {
+      node = fsDir.getINode(path);
+    } catch (UnresolvedLinkException e) {
+      // We don't cache through symlinks
+      LOG.debug("Directive {}: got UnresolvedLinkException while resolving "
+              + "path {}", directive.getId(), path
+      );
+      return;
+    }
+    if (node == null)  {
+      LOG.debug("Directive {}: No inode found at {}", directive.getId(),
+          path);
+    } else if (node.isDirectory()) {
+      INodeDirectory dir = node.asDirectory();
+      ReadOnlyList<INode> children = dir
+          .getChildrenList(Snapshot.CURRENT_STATE_ID);
+      for (INode child : children) {
+        if (child.isFile()) {
+          rescanFile(directive, child.asFile());
         }
-      } else if (node.isFile()) {
-        rescanFile(directive, node.asFile());
-      } else {
-        LOG.debug("Directive {}: ignoring non-directive, non-file inode {} ",
-            directive.getId(), node);
       }
+    } else if (node.isFile()) {
+      rescanFile(directive, node.asFile());
+    } else {
+      LOG.debug("Directive {}: ignoring non-directive, non-file inode {} ",
+          directive.getId(), node);
     }
   }
   
@@ -443,6 +562,9 @@ private void rescanFile(CacheDirective directive, INodeFile file) {
           ocblock.setReplicationAndMark(directive.getReplication(), mark);
         }
       }
+      if (touchedBlocks != null) {
+        touchedBlocks.add(ocblock);
+      }
       LOG.trace("Directive {}: setting replication for block {} to {}",
           directive.getId(), blockInfo, ocblock.getReplication());
     }
@@ -526,88 +648,101 @@ private void rescanCachedBlockMap() {
         cbIter.hasNext(); ) {
       scannedBlocks++;
       CachedBlock cblock = cbIter.next();
-      List<DatanodeDescriptor> pendingCached =
-          cblock.getDatanodes(Type.PENDING_CACHED);
-      List<DatanodeDescriptor> cached =
-          cblock.getDatanodes(Type.CACHED);
-      List<DatanodeDescriptor> pendingUncached =
-          cblock.getDatanodes(Type.PENDING_UNCACHED);
-      // Remove nodes from PENDING_UNCACHED if they were actually uncached.
-      for (Iterator<DatanodeDescriptor> iter = pendingUncached.iterator();
-          iter.hasNext(); ) {
-        DatanodeDescriptor datanode = iter.next();
-        if (!cblock.isInList(datanode.getCached())) {
-          LOG.trace("Block {}: removing from PENDING_UNCACHED for node {} "
-              + "because the DataNode uncached it.", cblock.getBlockId(),
-              datanode.getDatanodeUuid());
-          datanode.getPendingUncached().remove(cblock);
-          iter.remove();
-        }
-      }
-      BlockInfo blockInfo = blockManager.
-            getStoredBlock(new Block(cblock.getBlockId()));
-      String reason = findReasonForNotCaching(cblock, blockInfo);
-      int neededCached = 0;
-      if (reason != null) {
-        LOG.trace("Block {}: can't cache block because it is {}",
-            cblock.getBlockId(), reason);
-      } else {
-        neededCached = cblock.getReplication();
-      }
-      int numCached = cached.size();
-      if (numCached >= neededCached) {
-        // If we have enough replicas, drop all pending cached.
-        for (Iterator<DatanodeDescriptor> iter = pendingCached.iterator();
-            iter.hasNext(); ) {
-          DatanodeDescriptor datanode = iter.next();
-          datanode.getPendingCached().remove(cblock);
-          iter.remove();
-          LOG.trace("Block {}: removing from PENDING_CACHED for node {} "
-                  + "because we already have {} cached replicas and we only" +
-                  " need {}",
-              cblock.getBlockId(), datanode.getDatanodeUuid(), numCached,
-              neededCached
-          );
-        }
+      if (rescanCachedBlock(cblock)) {
+        cbIter.remove();
       }
-      if (numCached < neededCached) {
-        // If we don't have enough replicas, drop all pending uncached.
-        for (Iterator<DatanodeDescriptor> iter = pendingUncached.iterator();
-            iter.hasNext(); ) {
-          DatanodeDescriptor datanode = iter.next();
-          datanode.getPendingUncached().remove(cblock);
-          iter.remove();
-          LOG.trace("Block {}: removing from PENDING_UNCACHED for node {} "
-                  + "because we only have {} cached replicas and we need " +
-                  "{}", cblock.getBlockId(), datanode.getDatanodeUuid(),
-              numCached, neededCached
-          );
-        }
+    }
+  }
+
+  /**
+   * Update the pending cached and pending uncached lists of a single block.
+   *
+   * @return true if there is nothing more to do with the block and it
+   *         should be removed from the cached block map.
+   */
+  private boolean rescanCachedBlock(CachedBlock cblock) {
+    List<DatanodeDescriptor> pendingCached =
+        cblock.getDatanodes(Type.PENDING_CACHED);
+    List<DatanodeDescriptor> cached =
+        cblock.getDatanodes(Type.CACHED);
+    List<DatanodeDescriptor> pendingUncached =
+        cblock.getDatanodes(Type.PENDING_UNCACHED);
+    // Remove nodes from PENDING_UNCACHED if they were actually uncached.
+    for (Iterator<DatanodeDescriptor> iter = pendingUncached.iterator();
+        iter.hasNext(); ) {
+      DatanodeDescriptor datanode = iter.next();
+      if (!cblock.isInList(datanode.getCached())) {
+        LOG.trace("Block {}: removing from PENDING_UNCACHED for node {} "
+            + "because the DataNode uncached it.", cblock.getBlockId(),
+            datanode.getDatanodeUuid());
+        datanode.getPendingUncached().remove(cblock);
+        iter.remove();
       }
-      int neededUncached = numCached -
-          (pendingUncached.size() + neededCached);
-      if (neededUncached > 0) {
-        addNewPendingUncached(neededUncached, cblock, cached,
-            pendingUncached);
-      } else {
-        int additionalCachedNeeded = neededCached -
-            (numCached + pendingCached.size());
-        if (additionalCachedNeeded > 0) {
-          addNewPendingCached(additionalCachedNeeded, cblock, cached,
-              pendingCached);
-        }
+    }
+    BlockInfo blockInfo = blockManager.
+          getStoredBlock(new Block(cblock.getBlockId()));
+    String reason = findReasonForNotCaching(cblock, blockInfo);
+    int neededCached = 0;
+    if (reason != null) {
+      LOG.trace("Block {}: can't cache block because it is {}",
+          cblock.getBlockId(), reason);
+    } else {
+      neededCached = cblock.getReplication();
+    }
+    int numCached = cached.size();
+    if (numCached >= neededCached) {
+      // If we have enough replicas, drop all pending cached.
+      for (Iterator<DatanodeDescriptor> iter = pendingCached.iterator();
+          iter.hasNext(); ) {
+        DatanodeDescriptor datanode = iter.next();
+        datanode.getPendingCached().remove(cblock);
+        iter.remove();
+        LOG.trace("Block {}: removing from PENDING_CACHED for node {} "
+                + "because we already have {} cached replicas and we only" +
+                " need {}",
+            cblock.getBlockId(), datanode.getDatanodeUuid(), numCached,
+            neededCached
+        );
       }
-      if ((neededCached == 0) &&
-          pendingUncached.isEmpty() &&
-          pendingCached.isEmpty()) {
-        // we have nothing more to do with this block.
-        LOG.trace("Block {}: removing from cachedBlocks, since neededCached "
-                + "== 0, and pendingUncached and pendingCached are empty.",
-            cblock.getBlockId()
+    }
+    if (numCached < neededCached) {
+      // If we don't have enough replicas, drop all pending uncached.
+      for (Iterator<DatanodeDescriptor> iter = pendingUncached.iterator();
+          iter.hasNext(); ) {
+        DatanodeDescriptor datanode = iter.next();
+        datanode.getPendingUncached().remove(cblock);
+        iter.remove();
+        LOG.trace("Block {}: removing from PENDING_UNCACHED for node {} "
+                + "because we only have {} cached replicas and we need " +
+                "{}", cblock.getBlockId(), datanode.getDatanodeUuid(),
+            numCached, neededCached
         );
-        cbIter.remove();
       }
     }
+    int neededUncached = numCached -
+        (pendingUncached.size() + neededCached);
+    if (neededUncached > 0) {
+      addNewPendingUncached(neededUncached, cblock, cached,
+          pendingUncached);
+    } else {
+      int additionalCachedNeeded = neededCached -
+          (numCached + pendingCached.size());
+      if (additionalCachedNeeded > 0) {
+        addNewPendingCached(additionalCachedNeeded, cblock, cached,
+            pendingCached);
+      }
+    }
+    if ((neededCached == 0) &&
+        pendingUncached.isEmpty() &&
+        pendingCached.isEmpty()) {
+      // we have nothing more to do with this block.
+      LOG.trace("Block {}: removing from cachedBlocks, since neededCached "
+              + "== 0, and pendingUncached and pendingCached are empty.",
+          cblock.getBlockId()
+      );
+      return true;
+    }
+    return false;
   }
 
   /**
@@ -225,6 +225,10 @@ public Type getType() {
   // The number of replication work pending before targets are determined
   private int PendingReplicationWithoutTargets = 0;
 
+  // The number of replication transfers reported as running by the datanode
+  // in its last heartbeat
+  private volatile int xmitsInProgress = 0;
+
   /**
    * DatanodeDescriptor constructor
    * @param nodeID id of the data node
@@ -589,6 +593,27 @@ int getNumberOfBlocksToBeReplicated() {
     return PendingReplicationWithoutTargets + replicateBlocks.size();
   }
 
+  /**
+   * The number of replication transfers the datanode reported as running
+   * in its last heartbeat
+   */
+  int getXmitsInProgress() {
+    return xmitsInProgress;
+  }
+
+  void setXmitsInProgress(int xmitsInProgress) {
+    this.xmitsInProgress = xmitsInProgress;
+  }
+
+  /**
+   * The replication work outstanding on the datanode: the work items not yet
+   * sent to it plus the transfers it is still running. Used to limit the
+   * replication work scheduled from a single source.
+   */
+  int getOutstandingReplicationWork() {
+    return getNumberOfBlocksToBeReplicated() + xmitsInProgress;
+  }
+
   public List<BlockTargetPair> getReplicationCommand(int maxTransfers) {
     return replicateBlocks.poll(maxTransfers);
   }
@@ -19,6 +19,8 @@
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.net.InetAddresses;
 import org.apache.hadoop.HadoopIllegalArgumentException;
 import org.apache.hadoop.classification.InterfaceAudience;
@@ -94,6 +96,12 @@ public class DatanodeManager {
   private final DNSToSwitchMapping dnsToSwitchMapping;
   private final boolean rejectUnresolvedTopologyDN;
 
+  /**
+   * Resolved nodes of the clients which are not datanodes, by host. It is
+   * cleared whenever the topology changes.
+   */
+  private final Cache<String, Node> clientNodeCache;
+
   private final int defaultXferPort;
   
   private final int defaultInfoPort;
@@ -211,6 +219,11 @@ public class DatanodeManager {
     this.rejectUnresolvedTopologyDN = conf.getBoolean(
         DFSConfigKeys.DFS_REJECT_UNRESOLVED_DN_TOPOLOGY_MAPPING_KEY,
         DFSConfigKeys.DFS_REJECT_UNRESOLVED_DN_TOPOLOGY_MAPPING_DEFAULT);
+    this.clientNodeCache = CacheBuilder.newBuilder()
+        .maximumSize(conf.getInt(
+            DFSConfigKeys.DFS_NAMENODE_CLIENT_NODE_CACHE_SIZE_KEY,
+            DFSConfigKeys.DFS_NAMENODE_CLIENT_NODE_CACHE_SIZE_DEFAULT))
+        .build();
     
     // If the dns to switch mapping supports cache, resolve network
     // locations of those hosts in the include list and store the mapping
@@ -356,33 +369,25 @@ private boolean isInactive(DatanodeInfo datanode) {
     return false;
   }
   
-  /** Sort the located blocks by the distance to the target host. */
+  /**
+   * Sort the located blocks by the distance to the target host. The target
+   * host is resolved once, and the distance to each datanode is computed once
+   * for all the blocks.
+   */
   public void sortLocatedBlocks(final String targethost,
       final List<LocatedBlock> locatedblocks) {
     //sort the blocks
     // As it is possible for the separation of node manager and datanode, 
     // here we should get node but not datanode only .
-    Node client = getDatanodeByHost(targethost);
-    if (client == null) {
-      List<String> hosts = new ArrayList<String> (1);
-      hosts.add(targethost);
-      List<String> resolvedHosts = dnsToSwitchMapping.resolve(hosts);
-      if (resolvedHosts != null && !resolvedHosts.isEmpty()) {
-        String rName = resolvedHosts.get(0);
-        if (rName != null) {
-          client = new NodeBase(rName + NodeBase.PATH_SEPARATOR_STR +
-            targethost);
-        }
-      } else {
-        LOG.error("Node Resolution failed. Please make sure that rack " +
-          "awareness scripts are functional.");
-      }
-    }
+    Node client = getClientNode(targethost);
     
     Comparator<DatanodeInfo> comparator = avoidStaleDataNodesForRead ?
         new DFSUtil.ServiceAndStaleComparator(staleInterval) :
         new DFSUtil.ServiceComparator();
-        
+
+    List<DatanodeInfo[]> locationsList =
+        new ArrayList<DatanodeInfo[]>(locatedblocks.size());
+    int[] activeLens = new int[locatedblocks.size()];
     for (LocatedBlock b : locatedblocks) {
       DatanodeInfo[] di = b.getLocations();
       // Move decommissioned/stale datanodes to the bottom
@@ -392,12 +397,51 @@ public void sortLocatedBlocks(final String targethost,
       while (lastActiveIndex > 0 && isInactive(di[lastActiveIndex])) {
           --lastActiveIndex;
       }
-      int activeLen = lastActiveIndex + 1;      
-      networktopology.sortByDistance(client, b.getLocations(), activeLen);
+      activeLens[locationsList.size()] = lastActiveIndex + 1;
+      locationsList.add(di);
+    }
+    networktopology.sortByDistance(client, locationsList, activeLens);
+    for (LocatedBlock b : locatedblocks) {
       // must update cache since we modified locations array
       b.updateCachedStorageInfo();
     }
   }
+
+  /**
+   * Resolve the node of a client, which is either a datanode or a node
+   * outside of the topology built from the network location of the host.
+   * @return the node, or null if the host could not be resolved
+   */
+  private Node getClientNode(final String targethost) {
+    Node client = getDatanodeByHost(targethost);
+    if (client != null) {
+      return client;
+    }
+    client = clientNodeCache.getIfPresent(targethost);
+    if (client != null) {
+      return client;
+    }
+    List<String> hosts = new ArrayList<String> (1);
+    hosts.add(targethost);
+    List<String> resolvedHosts = dnsToSwitchMapping.resolve(hosts);
+    if (resolvedHosts != null && !resolvedHosts.isEmpty()) {
+      String rName = resolvedHosts.get(0);
+      if (rName != null) {
+        client = new NodeBase(rName + NodeBase.PATH_SEPARATOR_STR +
+          targethost);
+        clientNodeCache.put(targethost, client);
+      }
+    } else {
+      LOG.error("Node Resolution failed. Please make sure that rack " +
+        "awareness scripts are functional.");
+    }
+    return client;
+  }
+
+  /** Forget the resolved client nodes after a topology change. */
+  private void invalidateClientNodes() {
+    clientNodeCache.invalidateAll();
+  }
   
 
   /** @return the datanode descriptor for the host. */
@@ -553,6 +597,7 @@ private void removeDatanode(DatanodeDescriptor nodeInfo,
       blockManager.removeBlocksAssociatedTo(nodeInfo);
     }
     networktopology.remove(nodeInfo);
+    invalidateClientNodes();
     decrementVersionCount(nodeInfo.getSoftwareVersion());
     blockManager.getBlockReportLeaseManager().unregister(nodeInfo);
 
@@ -578,7 +623,7 @@ public void removeDatanode(final DatanodeID node
                                      + node + " does not exist");
       }
     } finally {
-      namesystem.writeUnlock();
+      namesystem.writeUnlock("removeDatanode");
     }
   }
 
@@ -618,6 +663,7 @@ void addDatanode(final DatanodeDescriptor node) {
 
     networktopology.add(node); // may throw InvalidTopologyException
     host2DatanodeMap.add(node);
+    invalidateClientNodes();
     checkIfClusterIsNowMultiRack(node);
     blockManager.getBlockReportLeaseManager().register(node);
     resolveUpgradeDomain(node);
@@ -1014,6 +1060,7 @@ nodes with its data cleared (or user can just remove the StorageID
       invalidNodeNames.add(nodeReg.getHostName());
       invalidNodeNames.add(nodeReg.getPeerHostName());
       dnsToSwitchMapping.reloadCachedMappings(invalidNodeNames);
+      invalidateClientNodes();
       throw e;
     }
   }
@@ -1025,12 +1072,13 @@ nodes with its data cleared (or user can just remove the StorageID
    */
   public void refreshNodes(final Configuration conf) throws IOException {
     refreshHostsReader(conf);
+    invalidateClientNodes();
     namesystem.writeLock();
     try {
       refreshDatanodes();
       countSoftwareVersions();
     } finally {
-      namesystem.writeUnlock();
+      namesystem.writeUnlock("countSoftwareVersions");
     }
   }
 
@@ -1374,7 +1422,7 @@ private void setDatanodeDead(DatanodeDescriptor node) {
   public DatanodeCommand[] handleHeartbeat(DatanodeRegistration nodeReg,
       StorageReport[] reports, final String blockPoolId,
       long cacheCapacity, long cacheUsed, int xceiverCount, 
-      int maxTransfers, int failedVolumes,
+      int xmitsInProgress, int failedVolumes,
       VolumeFailureSummary volumeFailureSummary) throws IOException {
     synchronized (heartbeatManager) {
       synchronized (datanodeMap) {
@@ -1399,6 +1447,7 @@ public DatanodeCommand[] handleHeartbeat(DatanodeRegistration nodeReg,
                                          cacheCapacity, cacheUsed,
                                          xceiverCount, failedVolumes,
                                          volumeFailureSummary);
+        nodeinfo.setXmitsInProgress(xmitsInProgress);
 
         // If we are in safemode, do not send back any recovery / replication
         // requests. Don't even drain the existing queue of work.
@@ -1447,6 +1496,8 @@ public DatanodeCommand[] handleHeartbeat(DatanodeRegistration nodeReg,
 
         final List<DatanodeCommand> cmds = new ArrayList<DatanodeCommand>();
         //check pending replication
+        final int maxTransfers = blockManager.getMaxReplicationStreams()
+            - xmitsInProgress;
         List<BlockTargetPair> pendingList = nodeinfo.getReplicationCommand(
               maxTransfers);
         if (pendingList != null) {
@@ -18,6 +18,7 @@
 package org.apache.hadoop.hdfs.server.blockmanagement;
 
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 
@@ -91,6 +92,15 @@ public void updateFromStorage(DatanodeStorage storage) {
 
   private final FoldedTreeSet<BlockInfo> blocks = new FoldedTreeSet<>();
 
+  /** Compares a block ID lookup key with a stored block. */
+  private static final Comparator<Object> LONG_AND_BLOCK_COMPARATOR =
+      new Comparator<Object>() {
+        @Override
+        public int compare(Object o1, Object o2) {
+          return Long.compare((Long) o1, ((BlockInfo) o2).getBlockId());
+        }
+      };
+
   /** The number of block reports received */
   private int blockReportCount = 0;
 
@@ -261,6 +271,14 @@ Iterator<BlockInfo> getBlockIterator() {
     return blocks.iterator();
   }
 
+  /**
+   * @return an iterator over the blocks of this storage whose ID is greater
+   *         than or equal to the given block ID, in ascending order.
+   */
+  Iterator<BlockInfo> getBlockIterator(final long startBlockId) {
+    return blocks.tailIterator(startBlockId, LONG_AND_BLOCK_COMPARATOR);
+  }
+
   void updateState(StorageReport r) {
     capacity = r.getCapacity();
     dfsUsed = r.getDfsUsed();
@@ -501,7 +501,7 @@ public void run() {
         processPendingNodes();
         check();
       } finally {
-        namesystem.writeUnlock();
+        namesystem.writeUnlock("monitorDecommission");
       }
       if (numBlocksChecked + numNodesChecked > 0) {
         LOG.info("Checked {} blocks and {} nodes this tick", numBlocksChecked,
@@ -684,7 +684,7 @@ private void processBlocksInternal(
           // lock.
           // Yielding is required in case of block number is greater than the
           // configured per-iteration-limit.
-          namesystem.writeUnlock();
+          namesystem.writeUnlock("monitorDecommission");
           try {
             LOG.debug("Yielded lock during decommission check");
             Thread.sleep(0, 500);
@@ -386,7 +386,7 @@ void heartbeatCheck() {
         try {
           dm.removeDeadDatanode(dead, !dead.isMaintenance());
         } finally {
-          namesystem.writeUnlock();
+          namesystem.writeUnlock("heartbeatCheck");
         }
       }
       if (failedStorage != null) {
@@ -395,7 +395,7 @@ void heartbeatCheck() {
         try {
           blockManager.removeBlocksAssociatedTo(failedStorage);
         } finally {
-          namesystem.writeUnlock();
+          namesystem.writeUnlock("heartbeatCheck");
         }
       }
     }
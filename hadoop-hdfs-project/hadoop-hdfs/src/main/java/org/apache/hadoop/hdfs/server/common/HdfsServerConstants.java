@@ -316,4 +316,6 @@ static public enum BlockUCState {
       "raw.hdfs.crypto.file.encryption.info";
   public static final String SECURITY_XATTR_UNREADABLE_BY_SUPERUSER =
       "security.hdfs.unreadable.by.superuser";
+  public static final String HOT_FILE_XATTR_ORIGINAL_REPLICATION =
+      "system.hdfs.hot.file.original.replication";
 }
@@ -29,6 +29,7 @@
 import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
@@ -125,6 +126,8 @@ class BlockReceiver implements Closeable {
   private long restartBudget;
   /** the reference of the volume where the block receiver writes to */
   private ReplicaHandler replicaHandler;
+  /** The sync handed to the volume sync thread for the current packet. */
+  private GroupCommitSyncer.SyncRequest pendingSync = null;
 
   /**
    * for replaceBlock response
@@ -385,13 +388,18 @@ synchronized boolean packetSentInTime() {
    * @throws IOException
    */
   void flushOrSync(boolean isSync) throws IOException {
+    // With a responder, the ack of the packet can wait for a sync done by
+    // the sync thread of the volume.
+    final GroupCommitSyncer syncer = responder != null
+        ? datanode.groupCommitSyncer : null;
+    final boolean syncHere = isSync && syncer == null;
     long flushTotalNanos = 0;
     long begin = Time.monotonicNow();
     if (checksumOut != null) {
       long flushStartNanos = System.nanoTime();
       checksumOut.flush();
       long flushEndNanos = System.nanoTime();
-      if (isSync) {
+      if (syncHere) {
         long fsyncStartNanos = flushEndNanos;
         streams.syncChecksumOut();
         datanode.metrics.addFsyncNanos(System.nanoTime() - fsyncStartNanos);
@@ -402,7 +410,7 @@ void flushOrSync(boolean isSync) throws IOException {
       long flushStartNanos = System.nanoTime();
       out.flush();
       long flushEndNanos = System.nanoTime();
-      if (isSync) {
+      if (syncHere) {
         long fsyncStartNanos = flushEndNanos;
         streams.syncDataOut();
         datanode.metrics.addFsyncNanos(System.nanoTime() - fsyncStartNanos);
@@ -411,8 +419,10 @@ void flushOrSync(boolean isSync) throws IOException {
     }
     if (checksumOut != null || out != null) {
       datanode.metrics.addFlushNanos(flushTotalNanos);
-      if (isSync) {
+      if (syncHere) {
     	  datanode.metrics.incrFsyncCount();      
+      } else if (isSync) {
+        pendingSync = syncer.submit(replicaInfo.getStorageUuid(), streams);
       }
     }
     long duration = Time.monotonicNow() - begin;
@@ -782,10 +792,11 @@ private int receivePacket() throws IOException {
     }
 
     // if sync was requested, put in queue for pending acks here
-    // (after the fsync finished)
+    // (after the fsync finished, or along with the pending sync)
     if (responder != null && (syncBlock || shouldVerifyChecksum())) {
       ((PacketResponder) responder.getRunnable()).enqueue(seqno,
-          lastPacketInBlock, offsetInBlock, Status.SUCCESS);
+          lastPacketInBlock, offsetInBlock, Status.SUCCESS, pendingSync);
+      pendingSync = null;
     }
 
     /*
@@ -1169,8 +1180,19 @@ private boolean isRunning() {
      */
     void enqueue(final long seqno, final boolean lastPacketInBlock,
         final long offsetInBlock, final Status ackStatus) {
+      enqueue(seqno, lastPacketInBlock, offsetInBlock, ackStatus, null);
+    }
+
+    /**
+     * enqueue the seqno of a packet which is acked only once its pending
+     * sync completes.
+     * @param sync the pending sync of the packet, or null if none
+     */
+    void enqueue(final long seqno, final boolean lastPacketInBlock,
+        final long offsetInBlock, final Status ackStatus,
+        final GroupCommitSyncer.SyncRequest sync) {
       final Packet p = new Packet(seqno, lastPacketInBlock, offsetInBlock,
-          System.nanoTime(), ackStatus);
+          System.nanoTime(), ackStatus, sync);
       if(LOG.isDebugEnabled()) {
         LOG.debug(myString + ": enqueue " + p);
       }
@@ -1379,6 +1401,17 @@ public void run() {
             continue;
           }
 
+          if (pkt != null && pkt.sync != null) {
+            // do not ack the packet before its data is on disk
+            try {
+              pkt.sync.await();
+            } catch (InterruptedIOException iioe) {
+              LOG.info(myString + ": Thread is interrupted.");
+              running = false;
+              continue;
+            }
+          }
+
           if (lastPacketInBlock) {
             // Finalize the block and close the block file
             finalizeBlock(startTime);
@@ -1577,14 +1610,17 @@ private static class Packet {
     final long offsetInBlock;
     final long ackEnqueueNanoTime;
     final Status ackStatus;
+    final GroupCommitSyncer.SyncRequest sync;
 
     Packet(long seqno, boolean lastPacketInBlock, long offsetInBlock,
-        long ackEnqueueNanoTime, Status ackStatus) {
+        long ackEnqueueNanoTime, Status ackStatus,
+        GroupCommitSyncer.SyncRequest sync) {
       this.seqno = seqno;
       this.lastPacketInBlock = lastPacketInBlock;
       this.offsetInBlock = offsetInBlock;
       this.ackEnqueueNanoTime = ackEnqueueNanoTime;
       this.ackStatus = ackStatus;
+      this.sync = sync;
     }
 
     @Override
@@ -35,6 +35,10 @@
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_SOCKET_WRITE_TIMEOUT_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_SYNCONCLOSE_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_SYNCONCLOSE_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_SYNC_GROUP_COMMIT_ENABLED_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_SYNC_GROUP_COMMIT_ENABLED_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_SYNC_GROUP_COMMIT_INTERVAL_MS_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_SYNC_GROUP_COMMIT_INTERVAL_MS_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_TRANSFERTO_ALLOWED_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_TRANSFERTO_ALLOWED_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_XCEIVER_STOP_TIMEOUT_MILLIS_DEFAULT;
@@ -80,6 +84,8 @@ public class DNConf {
   final boolean syncBehindWritesInBackground;
   final boolean dropCacheBehindReads;
   final boolean syncOnClose;
+  final boolean syncGroupCommitEnabled;
+  final long syncGroupCommitIntervalMs;
   final boolean encryptDataTransfer;
   final boolean connectToDnViaHostname;
 
@@ -186,6 +192,13 @@ public DNConf(Configuration conf) {
     // do we need to sync block file contents to disk when blockfile is closed?
     this.syncOnClose = conf.getBoolean(DFS_DATANODE_SYNCONCLOSE_KEY, 
         DFS_DATANODE_SYNCONCLOSE_DEFAULT);
+    // do we coalesce the syncs requested by writers on a sync thread?
+    this.syncGroupCommitEnabled = conf.getBoolean(
+        DFS_DATANODE_SYNC_GROUP_COMMIT_ENABLED_KEY,
+        DFS_DATANODE_SYNC_GROUP_COMMIT_ENABLED_DEFAULT);
+    this.syncGroupCommitIntervalMs = conf.getLong(
+        DFS_DATANODE_SYNC_GROUP_COMMIT_INTERVAL_MS_KEY,
+        DFS_DATANODE_SYNC_GROUP_COMMIT_INTERVAL_MS_DEFAULT);
 
     this.minimumNameNodeVersion = conf.get(DFS_DATANODE_MIN_SUPPORTED_NAMENODE_VERSION_KEY,
         DFS_DATANODE_MIN_SUPPORTED_NAMENODE_VERSION_DEFAULT);
@@ -309,6 +309,7 @@ public static InetSocketAddress createSocketAddr(String target) {
   DataXceiverServer xserver = null;
   Daemon localDataXceiverServer = null;
   ShortCircuitRegistry shortCircuitRegistry = null;
+  GroupCommitSyncer groupCommitSyncer = null;
   ThreadGroup threadGroup = null;
   private DNConf dnConf;
   private volatile boolean heartbeatsDisabledForTests = false;
@@ -1316,6 +1317,11 @@ void startDataNode(Configuration conf,
     metrics = DataNodeMetrics.create(conf, getDisplayName());
     metrics.getJvmMetrics().setPauseMonitor(pauseMonitor);
 
+    if (dnConf.syncGroupCommitEnabled) {
+      groupCommitSyncer = new GroupCommitSyncer(this,
+          dnConf.syncGroupCommitIntervalMs);
+    }
+
     blockRecoveryWorker = new BlockRecoveryWorker(this);
 
     blockPoolManager = new BlockPoolManager(this);
@@ -1923,6 +1929,9 @@ public void shutdown() {
       }
       this.threadGroup = null;
     }
+    if (groupCommitSyncer != null) {
+      groupCommitSyncer.shutdown();
+    }
     if (this.dataXceiverServer != null) {
       // wait for dataXceiverServer to terminate
       try {
@@ -2022,7 +2031,19 @@ private void handleDiskError(String errMsgr) {
   /** Number of concurrent xceivers per node. */
   @Override // DataNodeMXBean
   public int getXceiverCount() {
-    return threadGroup == null ? 0 : threadGroup.activeCount();
+    int count = threadGroup == null ? 0 : threadGroup.activeCount();
+    // xceivers running on a worker pool or parked without a thread are not
+    // in the thread group
+    if (xserver != null) {
+      count += xserver.getNumPooledXceivers() + xserver.getNumIdlePeers();
+    }
+    if (localDataXceiverServer != null) {
+      DataXceiverServer localServer =
+          (DataXceiverServer) localDataXceiverServer.getRunnable();
+      count += localServer.getNumPooledXceivers() +
+          localServer.getNumIdlePeers();
+    }
+    return count;
   }
 
   @Override // DataNodeMXBean
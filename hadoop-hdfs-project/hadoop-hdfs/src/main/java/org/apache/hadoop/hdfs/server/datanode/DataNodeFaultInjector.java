@@ -62,4 +62,6 @@ public void failPipeline(ReplicaInPipelineInterface replicaInfo,
 
   public void throwTooManyOpenFiles() throws FileNotFoundException {
   }
+
+  public void finalizeBlockBeforeMove() throws IOException {}
 }
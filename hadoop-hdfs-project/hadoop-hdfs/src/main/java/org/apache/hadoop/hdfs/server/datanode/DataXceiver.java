@@ -118,6 +118,10 @@ class DataXceiver extends Receiver implements Runnable {
    * on the socket.
    */
   private String previousOpClientName;
+
+  /** Whether the handshake is done, false until the first run. */
+  private boolean initialized = false;
+  private int opsProcessed = 0;
   
   public static DataXceiver create(Peer peer, DataNode dn,
       DataXceiverServer dataXceiverServer) throws IOException {
@@ -166,6 +170,10 @@ private void updateCurrentThreadName(String status) {
 
   /** Return the datanode object. */
   DataNode getDataNode() {return datanode;}
+
+  Peer getPeer() {
+    return peer;
+  }
   
   private OutputStream getOutputStream() {
     return socketOut;
@@ -182,30 +190,33 @@ public void sendOOB() throws IOException, InterruptedException {
    */
   @Override
   public void run() {
-    int opsProcessed = 0;
     Op op = null;
+    boolean parked = false;
 
     try {
       dataXceiverServer.addPeer(peer, Thread.currentThread(), this);
-      peer.setWriteTimeout(datanode.getDnConf().socketWriteTimeout);
-      InputStream input = socketIn;
-      try {
-        IOStreamPair saslStreams = datanode.saslServer.receive(peer, socketOut,
-          socketIn, datanode.getXferAddress().getPort(),
-          datanode.getDatanodeId());
-        input = new BufferedInputStream(saslStreams.in,
-          HdfsConstants.SMALL_BUFFER_SIZE);
-        socketOut = saslStreams.out;
-      } catch (InvalidMagicNumberException imne) {
-        LOG.info("Failed to read expected encryption handshake from client " +
-            "at " + peer.getRemoteAddressString() + ". Perhaps the client " +
-            "is running an older version of Hadoop which does not support " +
-            "encryption");
-        return;
+      if (!initialized) {
+        peer.setWriteTimeout(datanode.getDnConf().socketWriteTimeout);
+        InputStream input = socketIn;
+        try {
+          IOStreamPair saslStreams = datanode.saslServer.receive(peer,
+            socketOut, socketIn, datanode.getXferAddress().getPort(),
+            datanode.getDatanodeId());
+          input = new BufferedInputStream(saslStreams.in,
+            HdfsConstants.SMALL_BUFFER_SIZE);
+          socketOut = saslStreams.out;
+        } catch (InvalidMagicNumberException imne) {
+          LOG.info("Failed to read expected encryption handshake from " +
+              "client at " + peer.getRemoteAddressString() + ". Perhaps " +
+              "the client is running an older version of Hadoop which does " +
+              "not support encryption");
+          return;
+        }
+
+        super.initialize(new DataInputStream(input));
+        initialized = true;
       }
       
-      super.initialize(new DataInputStream(input));
-      
       // We process requests in a loop, and stay around for a short timeout.
       // This optimistic behaviour allows the other end to reuse connections.
       // Setting keepalive timeout to 0 disable this behavior.
@@ -245,6 +256,15 @@ public void run() {
         opStartTime = now();
         processOp(op);
         ++opsProcessed;
+
+        // Wait for the next operation without holding a worker thread,
+        // unless it has already been buffered.
+        if (peer != null && !peer.isClosed() &&
+            dnConf.socketKeepaliveTimeout > 0 && in.available() == 0 &&
+            dataXceiverServer.parkIdlePeer(peer, this)) {
+          parked = true;
+          return;
+        }
       } while ((peer != null) &&
           (!peer.isClosed() && dnConf.socketKeepaliveTimeout > 0));
     } catch (Throwable t) {
@@ -279,14 +299,16 @@ public void run() {
         LOG.error(s, t);
       }
     } finally {
-      if (LOG.isDebugEnabled()) {
-        LOG.debug(datanode.getDisplayName() + ":Number of active connections is: "
-            + datanode.getXceiverCount());
-      }
-      updateCurrentThreadName("Cleaning up");
-      if (peer != null) {
-        dataXceiverServer.closePeer(peer);
-        IOUtils.closeStream(in);
+      if (!parked) {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug(datanode.getDisplayName() + ":Number of active connections is: "
+              + datanode.getXceiverCount());
+        }
+        updateCurrentThreadName("Cleaning up");
+        if (peer != null) {
+          dataXceiverServer.closePeer(peer);
+          IOUtils.closeStream(in);
+        }
       }
     }
   }
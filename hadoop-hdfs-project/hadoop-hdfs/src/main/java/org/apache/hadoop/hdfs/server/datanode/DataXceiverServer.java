@@ -21,6 +21,11 @@
 import java.net.SocketTimeoutException;
 import java.nio.channels.AsynchronousCloseException;
 import java.util.HashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
@@ -28,11 +33,13 @@
 import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.net.Peer;
 import org.apache.hadoop.hdfs.net.PeerServer;
+import org.apache.hadoop.hdfs.net.TcpPeerServer;
 import org.apache.hadoop.hdfs.util.DataTransferThrottler;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.util.Daemon;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * Server used for receiving/sending a block of data.
@@ -114,10 +121,25 @@ synchronized void release() {
    * For older clients we just use the server-side default block size.
    */
   final long estimateBlockSize;
-  
+
+  /**
+   * Runs the xceivers when dfs.datanode.transfer.worker.threads is set,
+   * instead of a new thread per connection. Null otherwise. Xceivers are
+   * only handed to idle workers and never queued: a write blocks its worker
+   * on the next DataNode of the pipeline, which may itself wait for a worker
+   * of this one. When all workers are busy, the xceiver gets its own thread,
+   * unless the xceiver count, which includes the parked peers, exceeds
+   * dfs.datanode.max.transfer.threads. Then the connection is closed, as
+   * one accepted over the limit is.
+   */
+  private final ThreadPoolExecutor xceiverPool;
+  /** Number of xceivers queued or running in the pool. */
+  private final AtomicInteger pooledXceivers = new AtomicInteger();
+  /** Parks the kept-alive peers without a thread, null if not used. */
+  private final IdlePeerWatcher idlePeerWatcher;
   
   DataXceiverServer(PeerServer peerServer, Configuration conf,
-      DataNode datanode) {
+      DataNode datanode) throws IOException {
     this.peerServer = peerServer;
     this.datanode = datanode;
     
@@ -134,6 +156,49 @@ synchronized void release() {
             DFSConfigKeys.DFS_DATANODE_BALANCE_BANDWIDTHPERSEC_DEFAULT),
         conf.getInt(DFSConfigKeys.DFS_DATANODE_BALANCE_MAX_NUM_CONCURRENT_MOVES_KEY,
             DFSConfigKeys.DFS_DATANODE_BALANCE_MAX_NUM_CONCURRENT_MOVES_DEFAULT));
+
+    int workerThreads = conf.getInt(
+        DFSConfigKeys.DFS_DATANODE_TRANSFER_WORKER_THREADS_KEY,
+        DFSConfigKeys.DFS_DATANODE_TRANSFER_WORKER_THREADS_DEFAULT);
+    if (workerThreads > 0) {
+      // The workers are kept out of the datanode thread group, which is
+      // what the xceiver count reported to the NameNode is based on.
+      final ThreadGroup workerGroup = new ThreadGroup("dataXceiverWorkers");
+      workerGroup.setDaemon(true);
+      ThreadFactory workerFactory = new ThreadFactoryBuilder()
+          .setNameFormat("DataXceiver worker %d")
+          .setThreadFactory(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+              return new Daemon(workerGroup, r);
+            }
+          })
+          .build();
+      this.xceiverPool = new ThreadPoolExecutor(workerThreads, workerThreads,
+          60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+          workerFactory);
+      this.xceiverPool.allowCoreThreadTimeOut(true);
+      int keepaliveTimeout = conf.getInt(
+          DFSConfigKeys.DFS_DATANODE_SOCKET_REUSE_KEEPALIVE_KEY,
+          DFSConfigKeys.DFS_DATANODE_SOCKET_REUSE_KEEPALIVE_DEFAULT);
+      // only sockets with non-blocking I/O can be watched by a selector
+      if (keepaliveTimeout > 0 && peerServer instanceof TcpPeerServer) {
+        int maxIdlePeers = conf.getInt(
+            DFSConfigKeys.DFS_DATANODE_TRANSFER_MAX_IDLE_PEERS_KEY,
+            DFSConfigKeys.DFS_DATANODE_TRANSFER_MAX_IDLE_PEERS_DEFAULT);
+        this.idlePeerWatcher = new IdlePeerWatcher(this, keepaliveTimeout,
+            maxIdlePeers);
+        Daemon watcherThread = new Daemon(workerGroup, idlePeerWatcher);
+        watcherThread.setName("IdlePeerWatcher for " + peerServer);
+        watcherThread.start();
+      } else {
+        this.idlePeerWatcher = null;
+      }
+      LOG.info("Running xceivers on " + workerThreads + " worker threads");
+    } else {
+      this.xceiverPool = null;
+      this.idlePeerWatcher = null;
+    }
   }
 
   @Override
@@ -144,16 +209,14 @@ public void run() {
         peer = peerServer.accept();
 
         // Make sure the xceiver count is not exceeded
-        int curXceiverCount = datanode.getXceiverCount();
-        if (curXceiverCount > maxXceiverCount) {
-          throw new IOException("Xceiver count " + curXceiverCount
-              + " exceeds the limit of concurrent xcievers: "
-              + maxXceiverCount);
-        }
+        checkXceiverCount();
 
-        new Daemon(datanode.threadGroup,
-            DataXceiver.create(peer, datanode, this))
-            .start();
+        DataXceiver xceiver = DataXceiver.create(peer, datanode, this);
+        if (xceiverPool != null) {
+          execute(xceiver);
+        } else {
+          new Daemon(datanode.threadGroup, xceiver).start();
+        }
       } catch (SocketTimeoutException ignored) {
         // wake up to see if should continue to run
       } catch (AsynchronousCloseException ace) {
@@ -192,6 +255,11 @@ public void run() {
           + " :DataXceiverServer: close exception", ie);
     }
 
+    // idle peers have no operation to be notified about
+    if (idlePeerWatcher != null) {
+      idlePeerWatcher.stop();
+    }
+
     // if in restart prep stage, notify peers before closing them.
     if (datanode.shutdownForUpgrade) {
       restartNotifyPeers();
@@ -210,6 +278,92 @@ public void run() {
     }
     // Close all peers.
     closeAllPeers();
+    if (xceiverPool != null) {
+      xceiverPool.shutdownNow();
+    }
+  }
+
+  private void execute(final DataXceiver xceiver) throws IOException {
+    pooledXceivers.incrementAndGet();
+    try {
+      xceiverPool.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            xceiver.run();
+          } finally {
+            pooledXceivers.decrementAndGet();
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      pooledXceivers.decrementAndGet();
+      if (xceiverPool.isShutdown()) {
+        throw new IOException("Xceiver pool is shut down", e);
+      }
+      // all workers are busy
+      checkXceiverCount();
+      new Daemon(datanode.threadGroup, xceiver).start();
+    }
+  }
+
+  private void checkXceiverCount() throws IOException {
+    int curXceiverCount = datanode.getXceiverCount();
+    if (curXceiverCount > maxXceiverCount) {
+      throw new IOException("Xceiver count " + curXceiverCount
+          + " exceeds the limit of concurrent xcievers: "
+          + maxXceiverCount);
+    }
+  }
+
+  /**
+   * Park the peer of an xceiver until its next operation arrives, so the
+   * xceiver does not hold a worker thread meanwhile.
+   *
+   * @return true if the peer was parked and the xceiver must return.
+   */
+  boolean parkIdlePeer(Peer peer, DataXceiver xceiver) {
+    if (idlePeerWatcher == null) {
+      return false;
+    }
+    synchronized (this) {
+      if (!peers.containsKey(peer)) {
+        return false;
+      }
+      // No thread to interrupt on restart while parked. This is done first,
+      // the xceiver may be resumed on another thread as soon as it is
+      // watched.
+      peers.put(peer, null);
+    }
+    if (!idlePeerWatcher.watch(peer, xceiver)) {
+      synchronized (this) {
+        if (peers.containsKey(peer)) {
+          peers.put(peer, Thread.currentThread());
+        }
+      }
+      return false;
+    }
+    return true;
+  }
+
+  /** Continue an xceiver whose parked peer has sent its next operation. */
+  void resume(DataXceiver xceiver) {
+    try {
+      execute(xceiver);
+    } catch (IOException e) {
+      LOG.warn(datanode.getDisplayName() + ":DataXceiverServer: ", e);
+      closePeer(xceiver.getPeer());
+    }
+  }
+
+  /** @return the number of xceivers queued or running on worker threads. */
+  int getNumPooledXceivers() {
+    return pooledXceivers.get();
+  }
+
+  /** @return the number of parked peers waiting for their next operation. */
+  int getNumIdlePeers() {
+    return idlePeerWatcher == null ? 0 : idlePeerWatcher.getNumIdlePeers();
   }
 
   void kill() {
@@ -263,7 +417,10 @@ synchronized void restartNotifyPeers() {
     assert (datanode.shouldRun == true && datanode.shutdownForUpgrade);
     for (Peer p : peers.keySet()) {
       // interrupt each and every DataXceiver thread.
-      peers.get(p).interrupt();
+      Thread t = peers.get(p);
+      if (t != null) {
+        t.interrupt();
+      }
     }
   }
 
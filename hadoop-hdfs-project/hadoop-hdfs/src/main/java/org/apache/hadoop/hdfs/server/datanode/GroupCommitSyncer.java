@@ -0,0 +1,268 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.ReplicaOutputStreams;
+import org.apache.hadoop.util.Daemon;
+import org.apache.hadoop.util.Time;
+
+/**
+ * Coalesces the syncs requested by block writers, e.g. by hsync.
+ * <p>
+ * Each volume gets a sync thread. A {@link BlockReceiver} flushes a packet
+ * which requests a sync and hands the fsync to the sync thread of its volume
+ * instead of forcing the block and meta files itself. The sync thread takes
+ * all the pending requests at once and forces the files of each replica a
+ * single time, no matter how many of its packets asked for it. The packet is
+ * acknowledged only once its sync completes, so a successful ack still means
+ * the data is on disk.
+ */
+class GroupCommitSyncer {
+  public static final Log LOG = DataNode.LOG;
+
+  /** A sync requested for the flushed data of a replica. */
+  static class SyncRequest {
+    private final ReplicaOutputStreams streams;
+    private final long enqueueNanoTime = System.nanoTime();
+    private boolean done = false;
+    private IOException error = null;
+
+    private SyncRequest(ReplicaOutputStreams streams) {
+      this.streams = streams;
+    }
+
+    private synchronized void complete(IOException e) {
+      error = e;
+      done = true;
+      notifyAll();
+    }
+
+    /**
+     * Wait for the sync to complete.
+     * @throws IOException if the sync failed.
+     */
+    synchronized void await() throws IOException {
+      while (!done) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted waiting for sync");
+        }
+      }
+      if (error != null) {
+        throw new IOException("Failed to sync block files", error);
+      }
+    }
+  }
+
+  private final DataNode datanode;
+  private final long intervalMs;
+  private final ConcurrentMap<String, VolumeSyncer> syncers =
+      new ConcurrentHashMap<String, VolumeSyncer>();
+  private volatile boolean running = true;
+
+  GroupCommitSyncer(DataNode datanode, long intervalMs) {
+    this.datanode = datanode;
+    this.intervalMs = intervalMs;
+  }
+
+  /**
+   * Request a sync of the data flushed to the given streams.
+   *
+   * @param storageUuid the storage of the volume holding the replica.
+   * @param streams the streams of the replica being written.
+   * @return the request to wait for.
+   * @throws IOException if the syncer is shut down.
+   */
+  SyncRequest submit(String storageUuid, ReplicaOutputStreams streams)
+      throws IOException {
+    SyncRequest request = new SyncRequest(streams);
+    getVolumeSyncer(storageUuid).add(request);
+    return request;
+  }
+
+  private VolumeSyncer getVolumeSyncer(String storageUuid)
+      throws IOException {
+    VolumeSyncer syncer = syncers.get(storageUuid);
+    if (syncer != null) {
+      return syncer;
+    }
+    synchronized (this) {
+      if (!running) {
+        throw new IOException("GroupCommitSyncer is shut down");
+      }
+      syncer = syncers.get(storageUuid);
+      if (syncer == null) {
+        syncer = new VolumeSyncer(storageUuid);
+        Daemon thread = new Daemon(syncer);
+        thread.setName("GroupCommitSyncer for " + storageUuid);
+        thread.start();
+        syncers.put(storageUuid, syncer);
+      }
+      return syncer;
+    }
+  }
+
+  /**
+   * Stop all the sync threads. The pending requests are still synced.
+   * The threads are not interrupted, since interrupting a thread forcing a
+   * file channel closes the channel.
+   */
+  synchronized void shutdown() {
+    running = false;
+    for (VolumeSyncer syncer : syncers.values()) {
+      syncer.stop();
+    }
+    syncers.clear();
+  }
+
+  /** Syncs the pending requests of the replicas of one volume. */
+  private class VolumeSyncer implements Runnable {
+    private final String storageUuid;
+    private final LinkedList<SyncRequest> queue =
+        new LinkedList<SyncRequest>();
+    private boolean stopped = false;
+
+    VolumeSyncer(String storageUuid) {
+      this.storageUuid = storageUuid;
+    }
+
+    void add(SyncRequest request) throws IOException {
+      synchronized (queue) {
+        if (stopped) {
+          throw new IOException("GroupCommitSyncer for " + storageUuid
+              + " is shut down");
+        }
+        queue.addLast(request);
+        queue.notifyAll();
+      }
+    }
+
+    void stop() {
+      synchronized (queue) {
+        stopped = true;
+        queue.notifyAll();
+      }
+    }
+
+    @Override
+    public void run() {
+      try {
+        List<SyncRequest> batch;
+        while ((batch = takeBatch()) != null) {
+          sync(batch);
+        }
+      } catch (InterruptedException e) {
+        LOG.info(Thread.currentThread().getName() + " is interrupted.");
+      } finally {
+        failPending();
+      }
+    }
+
+    /**
+     * Wait for pending requests and take them all.
+     * @return the requests, or null once stopped with nothing pending.
+     */
+    private List<SyncRequest> takeBatch() throws InterruptedException {
+      synchronized (queue) {
+        while (queue.isEmpty() && !stopped) {
+          queue.wait();
+        }
+        if (queue.isEmpty()) {
+          return null;
+        }
+        // give the other writers of this volume a chance to join the batch
+        long deadline = Time.monotonicNow() + intervalMs;
+        long remaining;
+        while (!stopped && (remaining = deadline - Time.monotonicNow()) > 0) {
+          queue.wait(remaining);
+        }
+        List<SyncRequest> batch = new ArrayList<SyncRequest>(queue);
+        queue.clear();
+        return batch;
+      }
+    }
+
+    private void sync(List<SyncRequest> batch) {
+      Map<ReplicaOutputStreams, List<SyncRequest>> byReplica =
+          new LinkedHashMap<ReplicaOutputStreams, List<SyncRequest>>();
+      for (SyncRequest request : batch) {
+        List<SyncRequest> requests = byReplica.get(request.streams);
+        if (requests == null) {
+          requests = new ArrayList<SyncRequest>();
+          byReplica.put(request.streams, requests);
+        }
+        requests.add(request);
+      }
+      for (Map.Entry<ReplicaOutputStreams, List<SyncRequest>> entry
+          : byReplica.entrySet()) {
+        IOException error = null;
+        try {
+          syncStreams(entry.getKey());
+        } catch (IOException e) {
+          error = e;
+        } catch (RuntimeException e) {
+          error = new IOException(e);
+        }
+        long now = System.nanoTime();
+        for (SyncRequest request : entry.getValue()) {
+          datanode.metrics.addGroupCommitSyncNanos(
+              now - request.enqueueNanoTime);
+          request.complete(error);
+        }
+      }
+      datanode.metrics.incrGroupCommitSyncBatches();
+    }
+
+    private void syncStreams(ReplicaOutputStreams streams)
+        throws IOException {
+      long fsyncStartNanos = System.nanoTime();
+      streams.syncChecksumOut();
+      long fsyncEndNanos = System.nanoTime();
+      datanode.metrics.addFsyncNanos(fsyncEndNanos - fsyncStartNanos);
+      streams.syncDataOut();
+      datanode.metrics.addFsyncNanos(System.nanoTime() - fsyncEndNanos);
+      datanode.metrics.incrFsyncCount();
+    }
+
+    private void failPending() {
+      List<SyncRequest> pending;
+      synchronized (queue) {
+        stopped = true;
+        pending = new ArrayList<SyncRequest>(queue);
+        queue.clear();
+      }
+      for (SyncRequest request : pending) {
+        request.complete(new IOException("GroupCommitSyncer for "
+            + storageUuid + " exited"));
+      }
+    }
+  }
+}
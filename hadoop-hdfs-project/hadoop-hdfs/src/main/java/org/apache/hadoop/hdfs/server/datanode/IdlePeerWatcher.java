@@ -0,0 +1,191 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.hadoop.hdfs.net.Peer;
+import org.apache.hadoop.hdfs.net.TcpPeerServer;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.util.Time;
+
+/**
+ * Watches kept-alive connections which wait for their next operation.
+ * <p>
+ * Without it, a {@link DataXceiver} blocks its thread reading the next
+ * operation for up to the keepalive timeout. Instead, an idle peer is
+ * registered with a selector and its xceiver gives up its worker thread.
+ * Once the client sends the next operation, the xceiver is handed back to
+ * the worker pool of the {@link DataXceiverServer}. Peers idle for longer
+ * than the keepalive timeout are closed. At most a configured number of
+ * peers is watched, the xceivers of further idle peers keep their threads.
+ */
+class IdlePeerWatcher implements Runnable {
+  public static final Log LOG = DataNode.LOG;
+
+  /** An xceiver waiting for the next operation on its peer. */
+  private static class IdlePeer {
+    private final Peer peer;
+    private final SocketChannel channel;
+    private final DataXceiver xceiver;
+    private final long idleSince = Time.monotonicNow();
+
+    IdlePeer(Peer peer, SocketChannel channel, DataXceiver xceiver) {
+      this.peer = peer;
+      this.channel = channel;
+      this.xceiver = xceiver;
+    }
+  }
+
+  private final DataXceiverServer server;
+  private final long idleTimeoutMs;
+  private final int maxIdlePeers;
+  private final Selector selector;
+  private final Queue<IdlePeer> toRegister =
+      new ConcurrentLinkedQueue<IdlePeer>();
+  /** Number of peers queued for or registered with the selector. */
+  private final AtomicInteger numIdlePeers = new AtomicInteger();
+  private volatile boolean running = true;
+
+  IdlePeerWatcher(DataXceiverServer server, long idleTimeoutMs,
+      int maxIdlePeers) throws IOException {
+    this.server = server;
+    this.idleTimeoutMs = idleTimeoutMs;
+    this.maxIdlePeers = maxIdlePeers;
+    this.selector = Selector.open();
+  }
+
+  /**
+   * Watch a peer until its next operation arrives.
+   *
+   * @return true if the peer is watched and the calling xceiver must give
+   *         up its thread; false if the peer cannot be watched or too many
+   *         peers are watched already, in which case the xceiver keeps
+   *         waiting on its own thread.
+   */
+  boolean watch(Peer peer, DataXceiver xceiver) {
+    SocketChannel channel = TcpPeerServer.getSocketChannel(peer);
+    if (!running || channel == null || channel.isBlocking()) {
+      return false;
+    }
+    if (numIdlePeers.incrementAndGet() > maxIdlePeers) {
+      numIdlePeers.decrementAndGet();
+      return false;
+    }
+    toRegister.add(new IdlePeer(peer, channel, xceiver));
+    selector.wakeup();
+    return true;
+  }
+
+  @Override
+  public void run() {
+    try {
+      while (running) {
+        selector.select(Math.max(1, Math.min(idleTimeoutMs, 1000)));
+        resumeReadyPeers();
+        closeExpiredPeers();
+        // flush the keys cancelled above before they are registered again
+        selector.selectNow();
+        registerPeers();
+      }
+    } catch (IOException e) {
+      LOG.error("IdlePeerWatcher exiting", e);
+    } finally {
+      running = false;
+      closeAll();
+    }
+  }
+
+  private void resumeReadyPeers() {
+    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+    while (it.hasNext()) {
+      SelectionKey key = it.next();
+      it.remove();
+      key.cancel();
+      numIdlePeers.decrementAndGet();
+      server.resume(((IdlePeer) key.attachment()).xceiver);
+    }
+  }
+
+  private void closeExpiredPeers() {
+    long now = Time.monotonicNow();
+    for (SelectionKey key : selector.keys()) {
+      IdlePeer idle = (IdlePeer) key.attachment();
+      if (key.isValid() && now - idle.idleSince >= idleTimeoutMs) {
+        key.cancel();
+        numIdlePeers.decrementAndGet();
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Closing " + idle.peer + " after being idle for "
+              + (now - idle.idleSince) + " ms");
+        }
+        server.closePeer(idle.peer);
+      }
+    }
+  }
+
+  private void registerPeers() {
+    IdlePeer idle;
+    while ((idle = toRegister.poll()) != null) {
+      try {
+        idle.channel.register(selector, SelectionKey.OP_READ, idle);
+      } catch (ClosedChannelException e) {
+        numIdlePeers.decrementAndGet();
+        server.closePeer(idle.peer);
+      } catch (CancelledKeyException e) {
+        // the previous key is flushed by the next select, retry then
+        toRegister.add(idle);
+        return;
+      }
+    }
+  }
+
+  private void closeAll() {
+    IdlePeer idle;
+    while ((idle = toRegister.poll()) != null) {
+      server.closePeer(idle.peer);
+    }
+    for (SelectionKey key : selector.keys()) {
+      if (key.isValid()) {
+        server.closePeer(((IdlePeer) key.attachment()).peer);
+      }
+    }
+    numIdlePeers.set(0);
+    IOUtils.cleanup(LOG, selector);
+  }
+
+  /** Stop watching and close all the idle peers. */
+  void stop() {
+    running = false;
+    selector.wakeup();
+  }
+
+  /** @return the number of peers waiting for their next operation. */
+  int getNumIdlePeers() {
+    return numIdlePeers.get();
+  }
+}
@@ -18,15 +18,26 @@
 package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
 import java.util.Scanner;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.logging.Log;
@@ -39,6 +50,7 @@
 import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
+import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.ReplicaState;
 import org.apache.hadoop.hdfs.server.datanode.BlockMetadataHeader;
 import org.apache.hadoop.hdfs.server.datanode.DataStorage;
 import org.apache.hadoop.hdfs.server.datanode.DatanodeUtil;
@@ -48,6 +60,7 @@
 import org.apache.hadoop.hdfs.server.datanode.ReplicaWaitingToBeRecovered;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.nativeio.NativeIO;
+import org.apache.hadoop.util.Daemon;
 import org.apache.hadoop.util.DataChecksum;
 import org.apache.hadoop.util.DiskChecker;
 import org.apache.hadoop.util.DiskChecker.DiskErrorException;
@@ -78,6 +91,12 @@ class BlockPoolSlice {
   private volatile boolean dfsUsedSaved = false;
   private static final int SHUTDOWN_HOOK_PRIORITY = 30;
   private final boolean deleteDuplicateReplicas;
+  private static final String REPLICA_CACHE_FILE = "replicas";
+  private static final int REPLICA_CACHE_VERSION = 1;
+  private final boolean replicaCacheEnabled;
+  private final long replicaCacheExpiryMs;
+  // validates the replicas loaded from the replica cache against the disk
+  private volatile ReplicaCacheValidator replicaCacheValidator = null;
 
   private final int maxDataLength;
 
@@ -110,6 +129,13 @@ class BlockPoolSlice {
         DFSConfigKeys.DFS_DATANODE_DUPLICATE_REPLICA_DELETION,
         DFSConfigKeys.DFS_DATANODE_DUPLICATE_REPLICA_DELETION_DEFAULT);
 
+    this.replicaCacheEnabled = conf.getBoolean(
+        DFSConfigKeys.DFS_DATANODE_REPLICA_CACHE_ENABLED_KEY,
+        DFSConfigKeys.DFS_DATANODE_REPLICA_CACHE_ENABLED_DEFAULT);
+    this.replicaCacheExpiryMs = conf.getLong(
+        DFSConfigKeys.DFS_DATANODE_REPLICA_CACHE_EXPIRY_MS_KEY,
+        DFSConfigKeys.DFS_DATANODE_REPLICA_CACHE_EXPIRY_MS_DEFAULT);
+
     this.maxDataLength = conf.getInt(
         CommonConfigurationKeys.IPC_MAXIMUM_DATA_LENGTH,
         CommonConfigurationKeys.IPC_MAXIMUM_DATA_LENGTH_DEFAULT);
@@ -140,12 +166,17 @@ class BlockPoolSlice {
         throw new IOException("Mkdirs failed to create " + tmpDir.toString());
       }
     }
+    // The space used is computed by du, or by the class configured with
+    // fs.getspaceused.classname, e.g. ReplicaCachingGetSpaceUsed.
     // Use cached value initially if available. Or the following call will
     // block until the initial du command completes.
-    this.dfsUsage = new CachingGetSpaceUsed.Builder().setPath(bpDir)
-                                                     .setConf(conf)
-                                                     .setInitialUsed(loadDfsUsed())
-                                                     .build();
+    this.dfsUsage = new ReplicaCachingGetSpaceUsed.Builder()
+        .setVolume(volume)
+        .setBpid(bpid)
+        .setPath(bpDir)
+        .setConf(conf)
+        .setInitialUsed(loadDfsUsed())
+        .build();
 
     // Make the dfs usage to be saved during shutdown.
     ShutdownHookManager.get().addShutdownHook(
@@ -332,16 +363,43 @@ void getVolumeMap(ReplicaMap volumeMap,
       throws IOException {
     // Recover lazy persist replicas, they will be added to the volumeMap
     // when we scan the finalized directory.
+    int numRecovered = 0;
     if (lazypersistDir.exists()) {
-      int numRecovered = moveLazyPersistReplicasToFinalized(lazypersistDir);
+      numRecovered = moveLazyPersistReplicasToFinalized(lazypersistDir);
       FsDatasetImpl.LOG.info(
           "Recovered " + numRecovered + " replicas from " + lazypersistDir);
     }
 
-    // add finalized replicas
-    addToReplicasMap(volumeMap, finalizedDir, lazyWriteReplicaMap, true);
+    // add finalized replicas, from the replica cache if it is usable
+    final File replicaCacheFile = new File(currentDir, REPLICA_CACHE_FILE);
+    long[] cachedBlockIds = null;
+    if (replicaCacheEnabled && numRecovered == 0
+        && !volume.isTransientStorage()) {
+      cachedBlockIds = readReplicasFromCache(replicaCacheFile, volumeMap,
+          lazyWriteReplicaMap);
+    }
+    // the cache only describes the disk right after the shutdown saving it
+    if (replicaCacheFile.exists() && !replicaCacheFile.delete()) {
+      FsDatasetImpl.LOG.warn("Failed to delete replica cache file "
+          + replicaCacheFile);
+    }
+    if (cachedBlockIds == null) {
+      addToReplicasMap(volumeMap, finalizedDir, lazyWriteReplicaMap, true);
+    }
     // add rbw replicas
     addToReplicasMap(volumeMap, rbwDir, lazyWriteReplicaMap, false);
+
+    if (cachedBlockIds != null) {
+      replicaCacheValidator = new ReplicaCacheValidator(cachedBlockIds);
+      Daemon validator = new Daemon(replicaCacheValidator);
+      validator.setName("ReplicaCacheValidator-" + currentDir);
+      validator.start();
+    }
+
+    // the replicas are known now, no need to wait for the first refresh
+    if (dfsUsage instanceof ReplicaCachingGetSpaceUsed) {
+      ((ReplicaCachingGetSpaceUsed) dfsUsage).refresh(volumeMap, false);
+    }
   }
 
   /**
@@ -503,25 +561,246 @@ void addToReplicasMap(ReplicaMap volumeMap, File dir,
         }
       }
 
-      ReplicaInfo oldReplica = volumeMap.get(bpid, newReplica.getBlockId());
-      if (oldReplica == null) {
-        volumeMap.add(bpid, newReplica);
-      } else {
-        // We have multiple replicas of the same block so decide which one
-        // to keep.
-        newReplica = resolveDuplicateReplicas(newReplica, oldReplica, volumeMap);
+      addReplicaToReplicasMap(newReplica, volumeMap, lazyWriteReplicaMap);
+    }
+  }
+
+  private void addReplicaToReplicasMap(ReplicaInfo newReplica,
+      ReplicaMap volumeMap, final RamDiskReplicaTracker lazyWriteReplicaMap)
+      throws IOException {
+    final long blockId = newReplica.getBlockId();
+    ReplicaInfo oldReplica = volumeMap.get(bpid, blockId);
+    if (oldReplica == null) {
+      volumeMap.add(bpid, newReplica);
+    } else {
+      // We have multiple replicas of the same block so decide which one
+      // to keep.
+      newReplica = resolveDuplicateReplicas(newReplica, oldReplica, volumeMap);
+    }
+
+    // If we are retaining a replica on transient storage make sure
+    // it is in the lazyWriteReplicaMap so it can be persisted
+    // eventually.
+    if (newReplica.getVolume().isTransientStorage()) {
+      lazyWriteReplicaMap.addReplica(bpid, blockId,
+                                     (FsVolumeImpl) newReplica.getVolume());
+    } else {
+      lazyWriteReplicaMap.discardReplica(bpid, blockId, false);
+    }
+  }
+
+  /**
+   * Add the finalized replicas saved in the replica cache file to the
+   * volume map.
+   *
+   * @return the sorted ids of the added replicas, or null if the cache is
+   *         missing, stale or corrupt and the finalized directory has to be
+   *         scanned instead.
+   */
+  private long[] readReplicasFromCache(File cacheFile, ReplicaMap volumeMap,
+      final RamDiskReplicaTracker lazyWriteReplicaMap) throws IOException {
+    if (!cacheFile.exists()) {
+      return null;
+    }
+    List<ReplicaInfo> replicas;
+    DataInputStream in = null;
+    try {
+      CheckedInputStream checkedIn = new CheckedInputStream(
+          new BufferedInputStream(new FileInputStream(cacheFile),
+              HdfsConstants.IO_FILE_BUFFER_SIZE), new CRC32());
+      in = new DataInputStream(checkedIn);
+      if (in.readInt() != REPLICA_CACHE_VERSION) {
+        FsDatasetImpl.LOG.info("Ignoring replica cache file " + cacheFile
+            + " of an unknown version");
+        return null;
       }
+      long savedTime = in.readLong();
+      if (Time.now() - savedTime > replicaCacheExpiryMs) {
+        FsDatasetImpl.LOG.info("Ignoring stale replica cache file "
+            + cacheFile + " saved at " + savedTime);
+        return null;
+      }
+      int numReplicas = in.readInt();
+      if (numReplicas < 0) {
+        throw new IOException("Invalid number of replicas " + numReplicas);
+      }
+      replicas = new ArrayList<ReplicaInfo>(Math.min(numReplicas, 1 << 20));
+      for (int i = 0; i < numReplicas; i++) {
+        long blockId = in.readLong();
+        long genStamp = in.readLong();
+        long numBytes = in.readLong();
+        replicas.add(new FinalizedReplica(blockId, numBytes, genStamp, volume,
+            DatanodeUtil.idToBlockDir(finalizedDir, blockId)));
+      }
+      long checksum = checkedIn.getChecksum().getValue();
+      if (in.readLong() != checksum) {
+        throw new IOException("Checksum mismatch");
+      }
+    } catch (IOException e) {
+      FsDatasetImpl.LOG.warn("Failed to read replica cache file " + cacheFile
+          + ", scanning " + finalizedDir + " instead", e);
+      return null;
+    } finally {
+      IOUtils.closeStream(in);
+    }
 
-      // If we are retaining a replica on transient storage make sure
-      // it is in the lazyWriteReplicaMap so it can be persisted
-      // eventually.
-      if (newReplica.getVolume().isTransientStorage()) {
-        lazyWriteReplicaMap.addReplica(bpid, blockId,
-                                       (FsVolumeImpl) newReplica.getVolume());
-      } else {
-        lazyWriteReplicaMap.discardReplica(bpid, blockId, false);
+    long[] blockIds = new long[replicas.size()];
+    int i = 0;
+    for (ReplicaInfo replica : replicas) {
+      blockIds[i++] = replica.getBlockId();
+      addReplicaToReplicasMap(replica, volumeMap, lazyWriteReplicaMap);
+    }
+    Arrays.sort(blockIds);
+    FsDatasetImpl.LOG.info("Loaded " + blockIds.length + " replicas of "
+        + bpid + " from replica cache file " + cacheFile);
+    return blockIds;
+  }
+
+  /**
+   * Save the finalized replicas of this block pool slice to the replica
+   * cache file, to be loaded by the next startup.
+   */
+  private void saveReplicas(ReplicaMap replicaMap) {
+    List<ReplicaInfo> replicas = new ArrayList<ReplicaInfo>();
+    synchronized (replicaMap.getMutex()) {
+      Collection<ReplicaInfo> all = replicaMap.replicas(bpid);
+      if (all == null) {
+        return;
+      }
+      for (ReplicaInfo replica : all) {
+        if (replica.getVolume() == volume
+            && replica.getState() == ReplicaState.FINALIZED) {
+          replicas.add(replica);
+        }
+      }
+    }
+
+    final File tmpFile = new File(currentDir, REPLICA_CACHE_FILE + ".tmp");
+    final File cacheFile = new File(currentDir, REPLICA_CACHE_FILE);
+    DataOutputStream out = null;
+    try {
+      CheckedOutputStream checkedOut = new CheckedOutputStream(
+          new BufferedOutputStream(new FileOutputStream(tmpFile),
+              HdfsConstants.IO_FILE_BUFFER_SIZE), new CRC32());
+      out = new DataOutputStream(checkedOut);
+      out.writeInt(REPLICA_CACHE_VERSION);
+      out.writeLong(Time.now());
+      out.writeInt(replicas.size());
+      for (ReplicaInfo replica : replicas) {
+        // the directory of a replica is derived from its id when loading
+        if (!replica.getBlockFile().getParentFile().equals(
+            DatanodeUtil.idToBlockDir(finalizedDir, replica.getBlockId()))) {
+          throw new IOException("Unexpected location of " + replica);
+        }
+        out.writeLong(replica.getBlockId());
+        out.writeLong(replica.getGenerationStamp());
+        out.writeLong(replica.getNumBytes());
+      }
+      out.writeLong(checkedOut.getChecksum().getValue());
+      out.close();
+      out = null;
+      FileUtil.replaceFile(tmpFile, cacheFile);
+      FsDatasetImpl.LOG.info("Saved " + replicas.size() + " replicas of "
+          + bpid + " to replica cache file " + cacheFile);
+    } catch (IOException e) {
+      FsDatasetImpl.LOG.warn("Failed to save replica cache file "
+          + cacheFile, e);
+      if (tmpFile.exists() && !tmpFile.delete()) {
+        FsDatasetImpl.LOG.warn("Failed to delete " + tmpFile);
+      }
+    } finally {
+      IOUtils.closeStream(out);
+    }
+  }
+
+  /**
+   * Walks the finalized directory after the replicas were loaded from the
+   * replica cache, and fixes the replicas in memory which differ from the
+   * disk the same way the {@link
+   * org.apache.hadoop.hdfs.server.datanode.DirectoryScanner} does.
+   */
+  private class ReplicaCacheValidator implements Runnable {
+    private final long[] cachedBlockIds;
+    private final BitSet found;
+    private volatile boolean running = true;
+    private volatile boolean done = false;
+    private int numDifferences = 0;
+
+    ReplicaCacheValidator(long[] cachedBlockIds) {
+      this.cachedBlockIds = cachedBlockIds;
+      this.found = new BitSet(cachedBlockIds.length);
+    }
+
+    @Override
+    public void run() {
+      long start = Time.monotonicNow();
+      try {
+        validateDir(finalizedDir);
+        // replicas in the cache which are not on the disk any more
+        for (int i = found.nextClearBit(0);
+             running && i < cachedBlockIds.length;
+             i = found.nextClearBit(i + 1)) {
+          if (!getDataset().isDeletingBlock(bpid, cachedBlockIds[i])) {
+            checkAndUpdate(cachedBlockIds[i], null, null);
+          }
+        }
+        if (running) {
+          done = true;
+          FsDatasetImpl.LOG.info("Validated " + cachedBlockIds.length
+              + " cached replicas of " + bpid + " against " + finalizedDir
+              + " in " + (Time.monotonicNow() - start) + " ms, found "
+              + numDifferences + " differences");
+        }
+      } catch (IOException e) {
+        FsDatasetImpl.LOG.warn("Failed to validate the cached replicas of "
+            + bpid + " against " + finalizedDir, e);
+      }
+    }
+
+    private void validateDir(File dir) throws IOException {
+      File files[] = FileUtil.listFiles(dir);
+      for (File file : files) {
+        if (!running) {
+          return;
+        }
+        if (file.isDirectory()) {
+          validateDir(file);
+        }
+        if (!Block.isBlockFilename(file)) {
+          continue;
+        }
+        long blockId = Block.filename2id(file.getName());
+        long genStamp = FsDatasetUtil.getGenerationStampFromFile(files, file);
+        int i = Arrays.binarySearch(cachedBlockIds, blockId);
+        if (i >= 0) {
+          found.set(i);
+        }
+        // The replica was invalidated and its files are being deleted by the
+        // async disk service; it must not be added back.
+        if (getDataset().isDeletingBlock(bpid, blockId)) {
+          continue;
+        }
+        ReplicaInfo memReplica = getDataset().volumeMap.get(bpid, blockId);
+        if (memReplica == null
+            || (memReplica.getVolume() == volume
+                && (memReplica.getGenerationStamp() != genStamp
+                    || memReplica.getNumBytes() != file.length()
+                    || !memReplica.getBlockFile().equals(file)))) {
+          checkAndUpdate(blockId, file,
+              FsDatasetUtil.getMetaFile(file, genStamp));
+        }
       }
     }
+
+    private void checkAndUpdate(long blockId, File blockFile, File metaFile)
+        throws IOException {
+      numDifferences++;
+      getDataset().checkAndUpdate(bpid, blockId, blockFile, metaFile, volume);
+    }
+
+    private FsDatasetImpl getDataset() {
+      return (FsDatasetImpl) volume.getDataset();
+    }
   }
 
   /**
@@ -694,9 +973,30 @@ public String toString() {
   }
   
   void shutdown() {
+    shutdown(null);
+  }
+
+  /**
+   * Shut down the block pool slice.
+   * @param replicaMap if not null, the replicas of the slice in it are saved
+   *                   to the replica cache file.
+   */
+  void shutdown(ReplicaMap replicaMap) {
     saveDfsUsed();
     dfsUsedSaved = true;
 
+    // Never save the replicas loaded from a cache before they were checked
+    // against the disk.
+    ReplicaCacheValidator validator = replicaCacheValidator;
+    if (validator != null) {
+      validator.running = false;
+    }
+    if (replicaMap != null && replicaCacheEnabled
+        && !volume.isTransientStorage()
+        && (validator == null || validator.done)) {
+      saveReplicas(replicaMap);
+    }
+
     if (dfsUsage instanceof CachingGetSpaceUsed) {
       IOUtils.cleanup(LOG, ((CachingGetSpaceUsed) dfsUsage));
     }
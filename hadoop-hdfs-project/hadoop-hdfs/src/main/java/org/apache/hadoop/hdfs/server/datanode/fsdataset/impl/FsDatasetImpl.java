@@ -27,6 +27,7 @@
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
@@ -75,6 +76,7 @@
 import org.apache.hadoop.hdfs.server.common.Storage;
 import org.apache.hadoop.hdfs.server.datanode.BlockMetadataHeader;
 import org.apache.hadoop.hdfs.server.datanode.DataNode;
+import org.apache.hadoop.hdfs.server.datanode.DataNodeFaultInjector;
 import org.apache.hadoop.hdfs.server.datanode.DataStorage;
 import org.apache.hadoop.hdfs.server.datanode.DatanodeUtil;
 import org.apache.hadoop.hdfs.server.datanode.FinalizedReplica;
@@ -179,12 +181,18 @@ public synchronized FsVolumeImpl getVolume(final ExtendedBlock b) {
   }
 
   @Override // FsDatasetSpi
-  public synchronized Block getStoredBlock(String bpid, long blkid)
+  public Block getStoredBlock(String bpid, long blkid)
       throws IOException {
-    File blockfile = getFile(bpid, blkid, false);
+    final File blockfile;
+    synchronized (this) {
+      waitForReplicaFiles(bpid, blkid);
+      blockfile = getFile(bpid, blkid, false);
+    }
     if (blockfile == null) {
       return null;
     }
+    // Look at the disk without the dataset lock, a slow volume must not
+    // stall the operations on the other volumes.
     final File metafile = FsDatasetUtil.findMetaFile(blockfile);
     final long gs = FsDatasetUtil.parseGenerationStamp(blockfile, metafile);
     return new Block(blkid, blockfile.length(), gs);
@@ -242,6 +250,12 @@ public LengthInputStream getMetaDataInputStream(ExtendedBlock b)
 
   final ReplicaMap volumeMap;
   final Map<String, Set<Long>> deletingBlock;
+  /**
+   * Replicas whose files are being moved, truncated or renamed without the
+   * dataset lock. Guarded by the dataset lock.
+   */
+  private final Set<ReplicaInfo> changingReplicas =
+      Collections.newSetFromMap(new IdentityHashMap<ReplicaInfo, Boolean>());
   final RamDiskReplicaTracker ramDiskReplicaTracker;
   final RamDiskAsyncLazyPersistService asyncLazyPersistService;
 
@@ -727,6 +741,7 @@ private File getBlockFileNoExistsCheck(ExtendedBlock b,
       throws IOException {
     final File f;
     synchronized(this) {
+      waitForReplicaFiles(b.getBlockPoolId(), b.getBlockId());
       f = getFile(b.getBlockPoolId(), b.getLocalBlock().getBlockId(), touch);
     }
     if (f == null) {
@@ -798,17 +813,25 @@ private ReplicaInfo getReplicaInfo(String bpid, long blkid)
    * Returns handles to the block file and its metadata file
    */
   @Override // FsDatasetSpi
-  public synchronized ReplicaInputStreams getTmpInputStreams(ExtendedBlock b, 
+  public ReplicaInputStreams getTmpInputStreams(ExtendedBlock b, 
                           long blkOffset, long ckoff) throws IOException {
-    ReplicaInfo info = getReplicaInfo(b);
-    FsVolumeReference ref = info.getVolume().obtainReference();
+    final File blockFile;
+    final File metaFile;
+    final FsVolumeReference ref;
+    synchronized (this) {
+      waitForReplicaFiles(b.getBlockPoolId(), b.getBlockId());
+      ReplicaInfo info = getReplicaInfo(b);
+      ref = info.getVolume().obtainReference();
+      blockFile = info.getBlockFile();
+      metaFile = info.getMetaFile();
+    }
+    // Open the files outside the dataset lock, the volume reference keeps
+    // the volume from being removed meanwhile.
     try {
-      File blockFile = info.getBlockFile();
       RandomAccessFile blockInFile = new RandomAccessFile(blockFile, "r");
       if (blkOffset > 0) {
         blockInFile.seek(blkOffset);
       }
-      File metaFile = info.getMetaFile();
       RandomAccessFile metaInFile = new RandomAccessFile(metaFile, "r");
       if (ckoff > 0) {
         metaInFile.seek(ckoff);
@@ -1132,6 +1155,7 @@ public synchronized ReplicaHandler append(ExtendedBlock b,
       throw new IOException("The new generation stamp " + newGS + 
           " should be greater than the replica " + b + "'s generation stamp");
     }
+    waitForReplicaFiles(b.getBlockPoolId(), b.getBlockId());
     ReplicaInfo replicaInfo = getReplicaInfo(b);
     LOG.info("Appending to " + replicaInfo);
     if (replicaInfo.getState() != ReplicaState.FINALIZED) {
@@ -1228,7 +1252,9 @@ private synchronized ReplicaBeingWritten append(String bpid,
                               " Unable to move block file " + blkfile +
                               " to rbw dir " + newBlkFile, e);
     }
-    
+    // The replica is accounted again in full when it is finalized.
+    v.decDfsUsed(bpid, replicaInfo.getNumBytes() + newmeta.length());
+
     // Replace finalized replica by a RBW replica in replicas map
     volumeMap.add(bpid, newReplicaInfo);
     v.reserveSpaceForRbw(bytesReserved);
@@ -1249,6 +1275,7 @@ ReplicaInPipeline getReplica() {
 
   private ReplicaInfo recoverCheck(ExtendedBlock b, long newGS, 
       long expectedBlockLen) throws IOException, MustStopExistingWriter {
+    waitForReplicaFiles(b.getBlockPoolId(), b.getBlockId());
     ReplicaInfo replicaInfo = getReplicaInfo(b.getBlockPoolId(), b.getBlockId());
     
     // check state
@@ -1381,15 +1408,11 @@ private void bumpReplicaGS(ReplicaInfo replicaInfo,
   }
 
   @Override // FsDatasetSpi
-  public synchronized ReplicaHandler createRbw(
+  public ReplicaHandler createRbw(
       StorageType storageType, ExtendedBlock b, boolean allowLazyPersist)
       throws IOException {
-    ReplicaInfo replicaInfo = volumeMap.get(b.getBlockPoolId(),
-        b.getBlockId());
-    if (replicaInfo != null) {
-      throw new ReplicaAlreadyExistsException("Block " + b +
-      " already exists in state " + replicaInfo.getState() +
-      " and thus cannot be created.");
+    synchronized (this) {
+      checkReplicaNotExists(b);
     }
     // create a new block
     FsVolumeReference ref;
@@ -1413,7 +1436,9 @@ public synchronized ReplicaHandler createRbw(
       break;
     }
     FsVolumeImpl v = (FsVolumeImpl) ref.getVolume();
-    // create an rbw file to hold block in the designated volume
+    // Create an rbw file to hold block in the designated volume. This is
+    // done without the dataset lock, so a slow or failing disk only delays
+    // the writers placed on it.
     File f;
     try {
       f = v.createRbwFile(b.getBlockPoolId(), b.getLocalBlock());
@@ -1422,10 +1447,40 @@ public synchronized ReplicaHandler createRbw(
       throw e;
     }
 
-    ReplicaBeingWritten newReplicaInfo = new ReplicaBeingWritten(b.getBlockId(),
-        b.getGenerationStamp(), v, f.getParentFile(), b.getNumBytes());
-    volumeMap.add(b.getBlockPoolId(), newReplicaInfo);
-    return new ReplicaHandler(newReplicaInfo, ref);
+    synchronized (this) {
+      try {
+        // the same block may have been created on another volume or the
+        // volume may have been removed while the file was being created
+        checkReplicaNotExists(b);
+        if (!volumes.getVolumes().contains(v)) {
+          throw new IOException("Volume " + v + " was removed while "
+              + "creating block " + b);
+        }
+      } catch (IOException e) {
+        v.releaseReservedSpace(b.getNumBytes());
+        if (!f.delete()) {
+          LOG.warn("Failed to delete rbw file " + f);
+        }
+        IOUtils.cleanup(null, ref);
+        throw e;
+      }
+      ReplicaBeingWritten newReplicaInfo = new ReplicaBeingWritten(
+          b.getBlockId(), b.getGenerationStamp(), v, f.getParentFile(),
+          b.getNumBytes());
+      volumeMap.add(b.getBlockPoolId(), newReplicaInfo);
+      return new ReplicaHandler(newReplicaInfo, ref);
+    }
+  }
+
+  private void checkReplicaNotExists(ExtendedBlock b)
+      throws ReplicaAlreadyExistsException {
+    ReplicaInfo replicaInfo = volumeMap.get(b.getBlockPoolId(),
+        b.getBlockId());
+    if (replicaInfo != null) {
+      throw new ReplicaAlreadyExistsException("Block " + b +
+      " already exists in state " + replicaInfo.getState() +
+      " and thus cannot be created.");
+    }
   }
 
   @Override // FsDatasetSpi
@@ -1436,7 +1491,9 @@ public ReplicaHandler recoverRbw(
 
     while (true) {
       try {
+        final ReplicaBeingWritten rbw;
         synchronized (this) {
+          waitForReplicaFiles(b.getBlockPoolId(), b.getBlockId());
           ReplicaInfo replicaInfo = getReplicaInfo(b.getBlockPoolId(), b.getBlockId());
 
           // check the replica's state
@@ -1444,58 +1501,73 @@ public ReplicaHandler recoverRbw(
             throw new ReplicaNotFoundException(
                 ReplicaNotFoundException.NON_RBW_REPLICA + replicaInfo);
           }
-          ReplicaBeingWritten rbw = (ReplicaBeingWritten)replicaInfo;
+          rbw = (ReplicaBeingWritten)replicaInfo;
           if (!rbw.attemptToSetWriter(null, Thread.currentThread())) {
             throw new MustStopExistingWriter(rbw);
           }
           LOG.info("At " + datanode.getDisplayName() + ", Recovering " + rbw);
-          return recoverRbwImpl(rbw, b, newGS, minBytesRcvd, maxBytesRcvd);
         }
+        return recoverRbwImpl(rbw, b, newGS, minBytesRcvd, maxBytesRcvd);
       } catch (MustStopExistingWriter e) {
         e.getReplica().stopWriter(datanode.getDnConf().getXceiverStopTimeout());
       }
     }
   }
 
-  private synchronized ReplicaHandler recoverRbwImpl(ReplicaBeingWritten rbw,
+  /**
+   * Recover a replica being written, which the current thread has become the
+   * writer of. The files are checked, truncated and renamed to the new
+   * generation stamp without the dataset lock, so a slow disk only delays
+   * the recoveries of its own replicas. Readers of the replica wait
+   * meanwhile.
+   */
+  private ReplicaHandler recoverRbwImpl(ReplicaBeingWritten rbw,
       ExtendedBlock b, long newGS, long minBytesRcvd, long maxBytesRcvd)
       throws IOException {
-    // check generation stamp
-    long replicaGenerationStamp = rbw.getGenerationStamp();
-    if (replicaGenerationStamp < b.getGenerationStamp() ||
-        replicaGenerationStamp > newGS) {
-      throw new ReplicaNotFoundException(
-          ReplicaNotFoundException.UNEXPECTED_GS_REPLICA + b +
-          ". Expected GS range is [" + b.getGenerationStamp() + ", " + 
-          newGS + "].");
-    }
-    
-    // check replica length
-    long bytesAcked = rbw.getBytesAcked();
-    long numBytes = rbw.getNumBytes();
-    if (bytesAcked < minBytesRcvd || numBytes > maxBytesRcvd){
-      throw new ReplicaNotFoundException("Unmatched length replica " + 
-          rbw + ": BytesAcked = " + bytesAcked + 
-          " BytesRcvd = " + numBytes + " are not in the range of [" + 
-          minBytesRcvd + ", " + maxBytesRcvd + "].");
-    }
+    final String bpid = b.getBlockPoolId();
+    final long bytesAcked;
+    final FsVolumeReference ref;
+    synchronized (this) {
+      // check generation stamp
+      long replicaGenerationStamp = rbw.getGenerationStamp();
+      if (replicaGenerationStamp < b.getGenerationStamp() ||
+          replicaGenerationStamp > newGS) {
+        throw new ReplicaNotFoundException(
+            ReplicaNotFoundException.UNEXPECTED_GS_REPLICA + b +
+            ". Expected GS range is [" + b.getGenerationStamp() + ", " + 
+            newGS + "].");
+      }
 
-    long bytesOnDisk = rbw.getBytesOnDisk();
-    long blockDataLength = rbw.getBlockFile().length();
-    if (bytesOnDisk != blockDataLength) {
-      LOG.info("Resetting bytesOnDisk to match blockDataLength (=" +
-          blockDataLength + ") for replica " + rbw);
-      bytesOnDisk = blockDataLength;
-      rbw.setLastChecksumAndDataLen(bytesOnDisk, null);
-    }
+      // check replica length
+      bytesAcked = rbw.getBytesAcked();
+      long numBytes = rbw.getNumBytes();
+      if (bytesAcked < minBytesRcvd || numBytes > maxBytesRcvd){
+        throw new ReplicaNotFoundException("Unmatched length replica " + 
+            rbw + ": BytesAcked = " + bytesAcked + 
+            " BytesRcvd = " + numBytes + " are not in the range of [" + 
+            minBytesRcvd + ", " + maxBytesRcvd + "].");
+      }
 
-    if (bytesOnDisk < bytesAcked) {
-      throw new ReplicaNotFoundException("Found fewer bytesOnDisk than " +
-          "bytesAcked for replica " + rbw);
+      ref = rbw.getVolume().obtainReference();
+      changingReplicas.add(rbw);
     }
 
-    FsVolumeReference ref = rbw.getVolume().obtainReference();
+    boolean success = false;
     try {
+      long bytesOnDisk = rbw.getBytesOnDisk();
+      long blockDataLength = rbw.getBlockFile().length();
+      if (bytesOnDisk != blockDataLength) {
+        LOG.info("Resetting bytesOnDisk to match blockDataLength (=" +
+            blockDataLength + ") for replica " + rbw);
+        bytesOnDisk = blockDataLength;
+        rbw.setLastChecksumAndDataLen(bytesOnDisk, null);
+      }
+
+      if (bytesOnDisk < bytesAcked) {
+        throw new ReplicaNotFoundException("Found fewer bytesOnDisk than " +
+            "bytesAcked for replica " + rbw);
+      }
+
       // Truncate the potentially corrupt portion.
       // If the source was client and the last node in the pipeline was lost,
       // any corrupt data written after the acked length can go unnoticed.
@@ -1508,15 +1580,37 @@ private synchronized ReplicaHandler recoverRbwImpl(ReplicaBeingWritten rbw,
 
       // bump the replica's generation stamp to newGS
       bumpReplicaGS(rbw, newGS);
-    } catch (IOException e) {
-      IOUtils.cleanup(null, ref);
-      throw e;
+
+      synchronized (this) {
+        ReplicaInfo current = volumeMap.get(bpid, rbw.getBlockId());
+        if (current != rbw) {
+          if (current == null) {
+            // the replica was invalidated, its deletion misses the new meta
+            File meta = rbw.getMetaFile();
+            if (meta.exists() && !meta.delete()) {
+              LOG.warn("Failed to delete meta file of invalidated block "
+                  + rbw + " at " + meta);
+            }
+          }
+          throw new IOException("Replica " + rbw
+              + " was modified while being recovered, now " + current);
+        }
+      }
+      success = true;
+    } finally {
+      synchronized (this) {
+        changingReplicas.remove(rbw);
+        notifyAll();
+      }
+      if (!success) {
+        IOUtils.cleanup(null, ref);
+      }
     }
     return new ReplicaHandler(rbw, ref);
   }
   
   @Override // FsDatasetSpi
-  public synchronized ReplicaInPipeline convertTemporaryToRbw(
+  public ReplicaInPipeline convertTemporaryToRbw(
       final ExtendedBlock b) throws IOException {
     final long blockId = b.getBlockId();
     final long expectedGs = b.getGenerationStamp();
@@ -1525,61 +1619,86 @@ public synchronized ReplicaInPipeline convertTemporaryToRbw(
         + visible);
 
     final ReplicaInPipeline temp;
-    {
-      // get replica
-      final ReplicaInfo r = volumeMap.get(b.getBlockPoolId(), blockId);
-      if (r == null) {
-        throw new ReplicaNotFoundException(
-            ReplicaNotFoundException.NON_EXISTENT_REPLICA + b);
+    final long numBytes;
+    final FsVolumeImpl v;
+    synchronized (this) {
+      waitForReplicaFiles(b.getBlockPoolId(), blockId);
+      {
+        // get replica
+        final ReplicaInfo r = volumeMap.get(b.getBlockPoolId(), blockId);
+        if (r == null) {
+          throw new ReplicaNotFoundException(
+              ReplicaNotFoundException.NON_EXISTENT_REPLICA + b);
+        }
+        // check the replica's state
+        if (r.getState() != ReplicaState.TEMPORARY) {
+          throw new ReplicaAlreadyExistsException(
+              "r.getState() != ReplicaState.TEMPORARY, r=" + r);
+        }
+        temp = (ReplicaInPipeline)r;
       }
-      // check the replica's state
-      if (r.getState() != ReplicaState.TEMPORARY) {
+      // check generation stamp
+      if (temp.getGenerationStamp() != expectedGs) {
         throw new ReplicaAlreadyExistsException(
-            "r.getState() != ReplicaState.TEMPORARY, r=" + r);
+            "temp.getGenerationStamp() != expectedGs = " + expectedGs
+            + ", temp=" + temp);
       }
-      temp = (ReplicaInPipeline)r;
-    }
-    // check generation stamp
-    if (temp.getGenerationStamp() != expectedGs) {
-      throw new ReplicaAlreadyExistsException(
-          "temp.getGenerationStamp() != expectedGs = " + expectedGs
-          + ", temp=" + temp);
-    }
 
-    // TODO: check writer?
-    // set writer to the current thread
-    // temp.setWriter(Thread.currentThread());
+      // TODO: check writer?
+      // set writer to the current thread
+      // temp.setWriter(Thread.currentThread());
 
-    // check length
-    final long numBytes = temp.getNumBytes();
-    if (numBytes < visible) {
-      throw new IOException(numBytes + " = numBytes < visible = "
-          + visible + ", temp=" + temp);
-    }
-    // check volume
-    final FsVolumeImpl v = (FsVolumeImpl)temp.getVolume();
-    if (v == null) {
-      throw new IOException("r.getVolume() = null, temp="  + temp);
+      // check length
+      numBytes = temp.getNumBytes();
+      if (numBytes < visible) {
+        throw new IOException(numBytes + " = numBytes < visible = "
+            + visible + ", temp=" + temp);
+      }
+      // check volume
+      v = (FsVolumeImpl)temp.getVolume();
+      if (v == null) {
+        throw new IOException("r.getVolume() = null, temp="  + temp);
+      }
+      changingReplicas.add(temp);
     }
-    
-    // move block files to the rbw directory
-    BlockPoolSlice bpslice = v.getBlockPoolSlice(b.getBlockPoolId());
-    final File dest = moveBlockFiles(b.getLocalBlock(), temp.getBlockFile(), 
-        bpslice.getRbwDir());
-    // create RBW
-    final ReplicaBeingWritten rbw = new ReplicaBeingWritten(
-        blockId, numBytes, expectedGs,
-        v, dest.getParentFile(), Thread.currentThread(), 0);
-    rbw.setBytesAcked(visible);
 
-    // load last checksum and datalen
-    final File destMeta = FsDatasetUtil.getMetaFile(dest,
-        b.getGenerationStamp());
-    byte[] lastChunkChecksum = v.loadLastPartialChunkChecksum(dest, destMeta);
-    rbw.setLastChecksumAndDataLen(numBytes, lastChunkChecksum);
-    // overwrite the RBW in the volume map
-    volumeMap.add(b.getBlockPoolId(), rbw);
-    return rbw;
+    // Move the block files to the rbw directory and load the last checksum
+    // without the dataset lock, so a slow disk only delays its own replicas.
+    try {
+      BlockPoolSlice bpslice = v.getBlockPoolSlice(b.getBlockPoolId());
+      final File dest = moveBlockFiles(b.getLocalBlock(), temp.getBlockFile(),
+          bpslice.getRbwDir());
+      final File destMeta = FsDatasetUtil.getMetaFile(dest,
+          b.getGenerationStamp());
+      byte[] lastChunkChecksum = v.loadLastPartialChunkChecksum(dest, destMeta);
+
+      synchronized (this) {
+        ReplicaInfo current = volumeMap.get(b.getBlockPoolId(), blockId);
+        if (current != temp) {
+          // nobody else is going to delete the files at their new place
+          if (!dest.delete() || !destMeta.delete()) {
+            LOG.warn("Failed to delete rbw files of removed block " + temp
+                + " at " + dest);
+          }
+          throw new IOException("Replica " + temp
+              + " was modified while being converted to RBW, now " + current);
+        }
+        // create RBW
+        final ReplicaBeingWritten rbw = new ReplicaBeingWritten(
+            blockId, numBytes, expectedGs,
+            v, dest.getParentFile(), Thread.currentThread(), 0);
+        rbw.setBytesAcked(visible);
+        rbw.setLastChecksumAndDataLen(numBytes, lastChunkChecksum);
+        // overwrite the RBW in the volume map
+        volumeMap.add(b.getBlockPoolId(), rbw);
+        return rbw;
+      }
+    } finally {
+      synchronized (this) {
+        changingReplicas.remove(temp);
+        notifyAll();
+      }
+    }
   }
 
   @Override // FsDatasetSpi
@@ -1589,29 +1708,12 @@ public ReplicaHandler createTemporary(
     long writerStopTimeoutMs = datanode.getDnConf().getXceiverStopTimeout();
     ReplicaInfo lastFoundReplicaInfo = null;
     do {
+      boolean create = false;
       synchronized (this) {
         ReplicaInfo currentReplicaInfo =
             volumeMap.get(b.getBlockPoolId(), b.getBlockId());
         if (currentReplicaInfo == lastFoundReplicaInfo) {
-          if (lastFoundReplicaInfo != null) {
-            invalidate(b.getBlockPoolId(), new Block[] { lastFoundReplicaInfo });
-          }
-          FsVolumeReference ref =
-              volumes.getNextVolume(storageType, b.getNumBytes());
-          FsVolumeImpl v = (FsVolumeImpl) ref.getVolume();
-          // create a temporary file to hold block in the designated volume
-          File f;
-          try {
-            f = v.createTmpFile(b.getBlockPoolId(), b.getLocalBlock());
-          } catch (IOException e) {
-            IOUtils.cleanup(null, ref);
-            throw e;
-          }
-          ReplicaInPipeline newReplicaInfo =
-              new ReplicaInPipeline(b.getBlockId(), b.getGenerationStamp(), v,
-                  f.getParentFile(), 0);
-          volumeMap.add(b.getBlockPoolId(), newReplicaInfo);
-          return new ReplicaHandler(newReplicaInfo, ref);
+          create = true;
         } else {
           if (!(currentReplicaInfo.getGenerationStamp() < b
               .getGenerationStamp() && currentReplicaInfo instanceof ReplicaInPipeline)) {
@@ -1623,6 +1725,49 @@ public ReplicaHandler createTemporary(
         }
       }
 
+      if (create) {
+        // Invalidate the old replica and create the temporary file without
+        // the dataset lock, so a slow or failing disk only delays the
+        // writers placed on it.
+        if (lastFoundReplicaInfo != null) {
+          invalidate(b.getBlockPoolId(), new Block[] { lastFoundReplicaInfo });
+        }
+        FsVolumeReference ref =
+            volumes.getNextVolume(storageType, b.getNumBytes());
+        FsVolumeImpl v = (FsVolumeImpl) ref.getVolume();
+        // create a temporary file to hold block in the designated volume
+        File f;
+        try {
+          f = v.createTmpFile(b.getBlockPoolId(), b.getLocalBlock());
+        } catch (IOException e) {
+          IOUtils.cleanup(null, ref);
+          throw e;
+        }
+        synchronized (this) {
+          final boolean volumeRemoved = !volumes.getVolumes().contains(v);
+          if (!volumeRemoved &&
+              volumeMap.get(b.getBlockPoolId(), b.getBlockId()) == null) {
+            ReplicaInPipeline newReplicaInfo =
+                new ReplicaInPipeline(b.getBlockId(), b.getGenerationStamp(),
+                    v, f.getParentFile(), 0);
+            volumeMap.add(b.getBlockPoolId(), newReplicaInfo);
+            return new ReplicaHandler(newReplicaInfo, ref);
+          }
+          if (!f.delete()) {
+            LOG.warn("Failed to delete temporary file " + f);
+          }
+          IOUtils.cleanup(null, ref);
+          if (volumeRemoved) {
+            throw new IOException("Volume " + v + " was removed while "
+                + "creating block " + b);
+          }
+          // another replica of the block was created meanwhile, check it
+          // like the first one
+          lastFoundReplicaInfo = null;
+          continue;
+        }
+      }
+
       // Hang too long, just bail out. This is not supposed to happen.
       long writerStopMs = Time.monotonicNow() - startTimeMs;
       if (writerStopMs > writerStopTimeoutMs) {
@@ -1672,6 +1817,7 @@ public void finalizeBlock(ExtendedBlock b, boolean fsyncDir)
       throws IOException {
     ReplicaInfo replicaInfo = null;
     ReplicaInfo finalizedReplicaInfo = null;
+    long genStamp;
     synchronized (this) {
       if (Thread.interrupted()) {
         // Don't allow data modifications from interrupted threads
@@ -1683,7 +1829,25 @@ public void finalizeBlock(ExtendedBlock b, boolean fsyncDir)
         // been opened for append but never modified
         return;
       }
-      finalizedReplicaInfo = finalizeReplica(b.getBlockPoolId(), replicaInfo);
+      if (replicaInfo.getState() != ReplicaState.RBW &&
+          replicaInfo.getState() != ReplicaState.TEMPORARY) {
+        finalizedReplicaInfo = finalizeReplica(b.getBlockPoolId(),
+            replicaInfo);
+      } else {
+        changingReplicas.add(replicaInfo);
+      }
+      genStamp = replicaInfo.getGenerationStamp();
+    }
+    if (finalizedReplicaInfo == null) {
+      try {
+        finalizedReplicaInfo = finalizeWrittenReplica(b.getBlockPoolId(),
+            replicaInfo, genStamp);
+      } finally {
+        synchronized (this) {
+          changingReplicas.remove(replicaInfo);
+          notifyAll();
+        }
+      }
     }
     /*
      * Sync the directory after rename from tmp/rbw to Finalized if
@@ -1741,6 +1905,85 @@ private synchronized FinalizedReplica finalizeReplica(String bpid,
     return newReplicaInfo;
   }
 
+  /**
+   * Finalize a replica that has just been written. Unlike
+   * {@link #finalizeReplica(String, ReplicaInfo)}, the block files are moved
+   * to the finalized directory without holding the dataset lock, so a slow
+   * disk does not stall the operations on the other volumes. The replica is
+   * marked as finalizing meanwhile, so the readers and recoveries of its
+   * files wait for the move. If the replica was invalidated meanwhile, the
+   * move is undone.
+   */
+  private FinalizedReplica finalizeWrittenReplica(String bpid,
+      ReplicaInfo replicaInfo, long genStamp) throws IOException {
+    FsVolumeImpl v = (FsVolumeImpl)replicaInfo.getVolume();
+    File f = replicaInfo.getBlockFile();
+    if (v == null) {
+      throw new IOException("No volume for temporary file " + f +
+          " for block " + replicaInfo);
+    }
+    byte[] checksum = null;
+    if (replicaInfo.getState() == ReplicaState.RBW) {
+      checksum = ((ReplicaBeingWritten)replicaInfo).getLastChecksumAndDataLen()
+          .getChecksum();
+    }
+
+    DataNodeFaultInjector.get().finalizeBlockBeforeMove();
+    File dest = v.addFinalizedBlock(
+        bpid, replicaInfo, f, replicaInfo.getBytesReserved());
+    FinalizedReplica newReplicaInfo =
+        new FinalizedReplica(replicaInfo, v, dest.getParentFile());
+    newReplicaInfo.setLastPartialChunkChecksum(checksum);
+
+    synchronized (this) {
+      ReplicaInfo current = volumeMap.get(bpid, replicaInfo.getBlockId());
+      if (current != replicaInfo ||
+          replicaInfo.getGenerationStamp() != genStamp) {
+        File destMeta = FsDatasetUtil.getMetaFile(dest, genStamp);
+        v.decDfsUsed(bpid, dest.length() + destMeta.length());
+        if (current == null) {
+          // the replica was invalidated, nobody is going to delete the files
+          if (!dest.delete() || !destMeta.delete()) {
+            LOG.warn("Failed to delete finalized files of invalidated block "
+                + replicaInfo + " at " + dest);
+          }
+        } else {
+          moveBlockFiles(new Block(replicaInfo.getBlockId(), 0, genStamp),
+              dest, f.getParentFile());
+        }
+        throw new IOException("Replica " + replicaInfo
+            + " was modified while being finalized, now " + current);
+      }
+      if (v.isTransientStorage()) {
+        ramDiskReplicaTracker.addReplica(bpid, replicaInfo.getBlockId(), v);
+        datanode.getMetrics().addRamDiskBytesWrite(replicaInfo.getNumBytes());
+      }
+      volumeMap.add(bpid, newReplicaInfo);
+    }
+    return newReplicaInfo;
+  }
+
+  /**
+   * Wait until the files of the replica of a block, if any, are no longer
+   * being changed without the dataset lock, e.g. by {@link #finalizeBlock}.
+   * The dataset lock is released while waiting, so callers holding it must
+   * look up the replica afterwards.
+   */
+  private synchronized void waitForReplicaFiles(String bpid, long blockId)
+      throws IOException {
+    ReplicaInfo replica = volumeMap.get(bpid, blockId);
+    while (replica != null && changingReplicas.contains(replica)) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        throw (InterruptedIOException) new InterruptedIOException(
+            "Interrupted while waiting for the files of " + replica)
+            .initCause(e);
+      }
+      replica = volumeMap.get(bpid, blockId);
+    }
+  }
+
   /**
    * Remove the temporary block file (if any)
    */
@@ -2468,9 +2711,19 @@ public synchronized String getReplicaString(String bpid, long blockId) {
   @Override // FsDatasetSpi
   public ReplicaRecoveryInfo initReplicaRecovery(RecoveringBlock rBlock)
       throws IOException {
-    return initReplicaRecovery(rBlock.getBlock().getBlockPoolId(), volumeMap,
-        rBlock.getBlock().getLocalBlock(), rBlock.getNewGenerationStamp(),
-        datanode.getDnConf().getXceiverStopTimeout());
+    final ExtendedBlock b = rBlock.getBlock();
+    while (true) {
+      try {
+        synchronized (this) {
+          // the files of a replica being finalized cannot be checked yet
+          waitForReplicaFiles(b.getBlockPoolId(), b.getBlockId());
+          return initReplicaRecoveryImpl(b.getBlockPoolId(), volumeMap,
+              b.getLocalBlock(), rBlock.getNewGenerationStamp());
+        }
+      } catch (MustStopExistingWriter e) {
+        e.getReplica().stopWriter(datanode.getDnConf().getXceiverStopTimeout());
+      }
+    }
   }
 
   /** static version of {@link #initReplicaRecovery(RecoveringBlock)}. */
@@ -2666,8 +2919,8 @@ public void addBlockPool(String bpid, Configuration conf)
   @Override
   public synchronized void shutdownBlockPool(String bpid) {
     LOG.info("Removing block pool " + bpid);
+    volumes.removeBlockPool(bpid, volumeMap);
     volumeMap.cleanUpBlockPool(bpid);
-    volumes.removeBlockPool(bpid);
   }
   
   /**
@@ -885,10 +885,10 @@ void addBlockPool(String bpid, Configuration conf) throws IOException {
     bpSlices.put(bpid, bp);
   }
   
-  void shutdownBlockPool(String bpid) {
+  void shutdownBlockPool(String bpid, ReplicaMap replicaMap) {
     BlockPoolSlice bp = bpSlices.get(bpid);
     if (bp != null) {
-      bp.shutdown();
+      bp.shutdown(replicaMap);
     }
     bpSlices.remove(bpid);
   }
@@ -448,9 +448,9 @@ public void run() {
         bpid + ": " + totalTimeTaken + "ms");
   }
   
-  void removeBlockPool(String bpid) {
+  void removeBlockPool(String bpid, ReplicaMap replicaMap) {
     for (FsVolumeImpl v : volumes) {
-      v.shutdownBlockPool(bpid);
+      v.shutdownBlockPool(bpid, replicaMap);
     }
   }
 
@@ -0,0 +1,190 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.CachingGetSpaceUsed;
+import org.apache.hadoop.fs.GetSpaceUsed;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.server.datanode.BlockMetadataHeader;
+import org.apache.hadoop.hdfs.server.datanode.ReplicaInfo;
+import org.apache.hadoop.util.DataChecksum;
+import org.apache.hadoop.util.Time;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Computes the space used by a block pool slice from the replica map
+ * instead of running du.
+ * <p>
+ * Between refreshes, the value is kept up to date by the increments of the
+ * {@link BlockPoolSlice} as replicas are finalized, reopened for append and
+ * deleted. Every refresh interval, it is recomputed from the in-memory
+ * lengths of the replicas on the volume, estimating the meta file lengths
+ * from the configured checksum. Every
+ * {@link DFSConfigKeys#DFS_DATANODE_DU_RECONCILE_INTERVAL_MS_KEY}, the refresh
+ * instead gets the lengths of the replica files from the disk. Neither forks
+ * a process nor walks the block pool directories.
+ * <p>
+ * It is enabled by setting fs.getspaceused.classname to this class. It must
+ * be built with its own {@link Builder}, which {@link BlockPoolSlice} does.
+ */
+@InterfaceAudience.Private
+public class ReplicaCachingGetSpaceUsed extends CachingGetSpaceUsed {
+  static final Log LOG = LogFactory.getLog(ReplicaCachingGetSpaceUsed.class);
+
+  /** Builds with the volume and block pool of the slice. */
+  public static class Builder extends GetSpaceUsed.Builder {
+    private FsVolumeImpl volume;
+    private String bpid;
+
+    public Builder setVolume(FsVolumeImpl volume) {
+      this.volume = volume;
+      return this;
+    }
+
+    public FsVolumeImpl getVolume() {
+      return volume;
+    }
+
+    public Builder setBpid(String bpid) {
+      this.bpid = bpid;
+      return this;
+    }
+
+    public String getBpid() {
+      return bpid;
+    }
+  }
+
+  private final FsVolumeImpl volume;
+  private final String bpid;
+  private final long reconcileIntervalMs;
+  private final int bytesPerChecksum;
+  private final int checksumSize;
+  private volatile long lastReconcile = Time.monotonicNow();
+  /**
+   * Set once the replicas of the slice were loaded into the replica map.
+   * Until then, there is nothing to count, and the dataset lock guarding the
+   * map may be held by the thread waiting for the slice to be created.
+   */
+  private volatile boolean replicasLoaded = false;
+
+  public ReplicaCachingGetSpaceUsed(GetSpaceUsed.Builder builder)
+      throws IOException {
+    super(builder);
+    if (!(builder instanceof Builder)) {
+      throw new IOException(getClass().getSimpleName()
+          + " needs the volume and block pool of " + builder.getPath());
+    }
+    this.volume = ((Builder) builder).getVolume();
+    this.bpid = ((Builder) builder).getBpid();
+
+    Configuration conf = builder.getConf() != null
+        ? builder.getConf() : new Configuration();
+    this.reconcileIntervalMs = conf.getLong(
+        DFSConfigKeys.DFS_DATANODE_DU_RECONCILE_INTERVAL_MS_KEY,
+        DFSConfigKeys.DFS_DATANODE_DU_RECONCILE_INTERVAL_MS_DEFAULT);
+    DataChecksum checksum = DataChecksum.newDataChecksum(
+        DataChecksum.Type.valueOf(conf.get(
+            DFSConfigKeys.DFS_CHECKSUM_TYPE_KEY,
+            DFSConfigKeys.DFS_CHECKSUM_TYPE_DEFAULT)),
+        conf.getInt(DFSConfigKeys.DFS_BYTES_PER_CHECKSUM_KEY,
+            DFSConfigKeys.DFS_BYTES_PER_CHECKSUM_DEFAULT));
+    this.bytesPerChecksum = checksum.getBytesPerChecksum();
+    this.checksumSize = checksum.getChecksumSize();
+  }
+
+  @Override
+  protected void refresh() {
+    FsDatasetImpl dataset = (FsDatasetImpl) volume.getDataset();
+    if (!replicasLoaded || dataset == null || dataset.volumeMap == null) {
+      return;
+    }
+    boolean fromDisk = reconcileIntervalMs > 0
+        && Time.monotonicNow() - lastReconcile >= reconcileIntervalMs;
+    refresh(dataset.volumeMap, fromDisk);
+  }
+
+  /**
+   * Recompute the space used from the replicas of the slice in a map. The
+   * slice calls this once its replicas are loaded; refreshes before that
+   * are skipped.
+   *
+   * @param replicaMap the map holding the replicas of the slice.
+   * @param fromDisk if true, get the replica file lengths from the disk.
+   */
+  void refresh(ReplicaMap replicaMap, boolean fromDisk) {
+    long start = Time.monotonicNow();
+    List<ReplicaInfo> replicas = new ArrayList<ReplicaInfo>();
+    synchronized (replicaMap.getMutex()) {
+      Collection<ReplicaInfo> all = replicaMap.replicas(bpid);
+      if (all == null) {
+        return;
+      }
+      for (ReplicaInfo replica : all) {
+        if (replica.getVolume() == volume) {
+          replicas.add(replica);
+        }
+      }
+    }
+
+    long dfsUsed = 0;
+    for (ReplicaInfo replica : replicas) {
+      if (fromDisk) {
+        dfsUsed += replica.getBlockFile().length()
+            + replica.getMetaFile().length();
+      } else {
+        long bytesOnDisk = replica.getBytesOnDisk();
+        dfsUsed += bytesOnDisk + getMetaFileLength(bytesOnDisk);
+      }
+    }
+    if (fromDisk) {
+      long estimate = 0;
+      try {
+        estimate = getUsed();
+      } catch (IOException ignored) {
+      }
+      LOG.info("Reconciled the space used by " + replicas.size()
+          + " replicas of " + bpid + " on " + volume + " with the disk: "
+          + dfsUsed + " bytes, estimated " + estimate + " bytes");
+      lastReconcile = Time.monotonicNow();
+    }
+    setUsed(dfsUsed);
+    replicasLoaded = true;
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Refreshed the space used by " + bpid + " on " + volume
+          + " to " + dfsUsed + " bytes in " + (Time.monotonicNow() - start)
+          + " ms");
+    }
+  }
+
+  @VisibleForTesting
+  long getMetaFileLength(long dataLength) {
+    long numChunks = (dataLength + bytesPerChecksum - 1) / bytesPerChecksum;
+    return BlockMetadataHeader.getHeaderSize() + numChunks * checksumSize;
+  }
+}
@@ -117,6 +117,11 @@ public class DataNodeMetrics {
   
   @Metric MutableRate fsyncNanos;
   final MutableQuantiles[] fsyncNanosQuantiles;
+
+  @Metric MutableRate groupCommitSyncNanos;
+  final MutableQuantiles[] groupCommitSyncNanosQuantiles;
+  @Metric("Count of fsync batches of the volume sync threads")
+  MutableCounterLong groupCommitSyncBatches;
   
   @Metric MutableRate sendDataPacketBlockedOnNetworkNanos;
   final MutableQuantiles[] sendDataPacketBlockedOnNetworkNanosQuantiles;
@@ -137,6 +142,7 @@ public DataNodeMetrics(String name, String sessionId, int[] intervals,
     packetAckRoundTripTimeNanosQuantiles = new MutableQuantiles[len];
     flushNanosQuantiles = new MutableQuantiles[len];
     fsyncNanosQuantiles = new MutableQuantiles[len];
+    groupCommitSyncNanosQuantiles = new MutableQuantiles[len];
     sendDataPacketBlockedOnNetworkNanosQuantiles = new MutableQuantiles[len];
     sendDataPacketTransferNanosQuantiles = new MutableQuantiles[len];
     ramDiskBlocksEvictionWindowMsQuantiles = new MutableQuantiles[len];
@@ -153,6 +159,10 @@ public DataNodeMetrics(String name, String sessionId, int[] intervals,
       fsyncNanosQuantiles[i] = registry.newQuantiles(
           "fsyncNanos" + interval + "s", "Disk fsync latency in ns", 
           "ops", "latency", interval);
+      groupCommitSyncNanosQuantiles[i] = registry.newQuantiles(
+          "groupCommitSyncNanos" + interval + "s",
+          "Latency of a sync handed to a volume sync thread in ns",
+          "ops", "latency", interval);
       sendDataPacketBlockedOnNetworkNanosQuantiles[i] = registry.newQuantiles(
           "sendDataPacketBlockedOnNetworkNanos" + interval + "s", 
           "Time blocked on network while sending a packet in ns",
@@ -305,6 +315,17 @@ public void addFsyncNanos(long latencyNanos) {
     }
   }
 
+  public void addGroupCommitSyncNanos(long latencyNanos) {
+    groupCommitSyncNanos.add(latencyNanos);
+    for (MutableQuantiles q : groupCommitSyncNanosQuantiles) {
+      q.add(latencyNanos);
+    }
+  }
+
+  public void incrGroupCommitSyncBatches() {
+    groupCommitSyncBatches.incr();
+  }
+
   public void shutdown() {
     DefaultMetricsSystem.shutdown();
   }
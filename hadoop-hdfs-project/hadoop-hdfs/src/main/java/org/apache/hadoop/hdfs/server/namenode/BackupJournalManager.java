@@ -85,6 +85,12 @@ public void selectInputStreams(Collection<EditLogInputStream> streams,
     // return any transactions
   }
 
+  @Override
+  public void selectInputStreams(Collection<EditLogInputStream> streams,
+      long fromTxnId, boolean inProgressOk, boolean onlyDurableTxns) {
+    // This JournalManager is never used for input.
+  }
+
   @Override
   public void recoverUnfinalizedSegments() throws IOException {
   }
@@ -0,0 +1,385 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.apache.hadoop.hdfs.DFSConfigKeys.*;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.hdfs.security.token.delegation.DelegationTokenIdentifier;
+import org.apache.hadoop.hdfs.security.token.delegation.DelegationTokenSecretManager;
+import org.apache.hadoop.hdfs.server.namenode.web.resources.NamenodeWebHdfsMethods;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.metrics2.annotation.Metric;
+import org.apache.hadoop.metrics2.annotation.Metrics;
+import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
+import org.apache.hadoop.metrics2.lib.MetricsRegistry;
+import org.apache.hadoop.metrics2.lib.MutableCounterLong;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.hadoop.security.UserGroupInformation.AuthenticationMethod;
+import org.apache.hadoop.security.token.TokenIdentifier;
+import org.apache.hadoop.util.Daemon;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * An audit logger which takes audit events off the RPC handlers. Events are
+ * put on a bounded queue without any locking and written in batches by a
+ * background thread to a local file, which is rolled over when it grows too
+ * large. When the queue is full, events are dropped and counted rather than
+ * slowing down the NameNode.
+ * <p>
+ * The events are written either in the same <code>key=value</code> format
+ * as the default audit logger, or as tab delimited values in the same order
+ * without the keys.
+ */
+@InterfaceAudience.Private
+@Metrics(name="BatchedAuditLogger", about="Batched audit logger metrics",
+    context="dfs")
+public class BatchedAuditLogger extends HdfsAuditLogger implements Closeable {
+  static final Log LOG = LogFactory.getLog(BatchedAuditLogger.class);
+  private static final String METRICS_SOURCE_NAME = "BatchedAuditLogger";
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /** Format of the audit file */
+  enum Format {
+    TEXT, DELIMITED
+  }
+
+  /** An audit event waiting to be written. */
+  private static class AuditEvent {
+    final boolean succeeded;
+    final String userName;
+    final InetAddress addr;
+    final String cmd;
+    final String src;
+    final String dst;
+    final FileStatus status;
+    final UserGroupInformation ugi;
+    final DelegationTokenSecretManager dtSecretManager;
+    final boolean webHdfs;
+
+    AuditEvent(boolean succeeded, String userName, InetAddress addr,
+        String cmd, String src, String dst, FileStatus status,
+        UserGroupInformation ugi,
+        DelegationTokenSecretManager dtSecretManager, boolean webHdfs) {
+      this.succeeded = succeeded;
+      this.userName = userName;
+      this.addr = addr;
+      this.cmd = cmd;
+      this.src = src;
+      this.dst = dst;
+      this.status = status;
+      this.ugi = ugi;
+      this.dtSecretManager = dtSecretManager;
+      this.webHdfs = webHdfs;
+    }
+  }
+
+  private final Queue<AuditEvent> queue =
+      new ConcurrentLinkedQueue<AuditEvent>();
+  private final AtomicInteger queueSize = new AtomicInteger();
+
+  // the counters are created here so they work even when another instance
+  // has already registered the metrics source
+  private final MetricsRegistry registry =
+      new MetricsRegistry(METRICS_SOURCE_NAME);
+  private final MutableCounterLong droppedEvents = registry.newCounter(
+      "DroppedEvents", "Audit events dropped because the queue was full", 0L);
+  private final MutableCounterLong writtenEvents = registry.newCounter(
+      "WrittenEvents", "Audit events written", 0L);
+  private final MutableCounterLong writtenBatches = registry.newCounter(
+      "WrittenBatches", "Batches of audit events written", 0L);
+
+  private boolean logTokenTrackingId;
+  private final Set<String> debugCmdSet = new HashSet<String>();
+  private Format format;
+  private File file;
+  private int capacity;
+  private int batchSize;
+  private long flushIntervalNanos;
+  private long maxFileSize;
+  private int maxBackups;
+
+  private OutputStream out;
+  private long fileSize;
+  private Daemon writer;
+  private volatile boolean running;
+  private boolean registeredMetrics;
+
+  @Override
+  public void initialize(Configuration conf) {
+    logTokenTrackingId = conf.getBoolean(
+        DFS_NAMENODE_AUDIT_LOG_TOKEN_TRACKING_ID_KEY,
+        DFS_NAMENODE_AUDIT_LOG_TOKEN_TRACKING_ID_DEFAULT);
+    debugCmdSet.addAll(Arrays.asList(conf.getTrimmedStrings(
+        DFS_NAMENODE_AUDIT_LOG_DEBUG_CMDLIST)));
+    String fileName = conf.getTrimmed(DFS_NAMENODE_AUDIT_LOG_BATCHED_FILE_KEY);
+    if (fileName == null || fileName.isEmpty()) {
+      fileName = new File(System.getProperty("hadoop.log.dir", "."),
+          DFS_NAMENODE_AUDIT_LOG_BATCHED_FILE_DEFAULT).getPath();
+    }
+    file = new File(fileName);
+    format = Format.valueOf(conf.getTrimmed(
+        DFS_NAMENODE_AUDIT_LOG_BATCHED_FORMAT_KEY,
+        DFS_NAMENODE_AUDIT_LOG_BATCHED_FORMAT_DEFAULT).toUpperCase());
+    capacity = conf.getInt(DFS_NAMENODE_AUDIT_LOG_BATCHED_QUEUE_SIZE_KEY,
+        DFS_NAMENODE_AUDIT_LOG_BATCHED_QUEUE_SIZE_DEFAULT);
+    batchSize = conf.getInt(DFS_NAMENODE_AUDIT_LOG_BATCHED_BATCH_SIZE_KEY,
+        DFS_NAMENODE_AUDIT_LOG_BATCHED_BATCH_SIZE_DEFAULT);
+    flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(conf.getLong(
+        DFS_NAMENODE_AUDIT_LOG_BATCHED_FLUSH_INTERVAL_MS_KEY,
+        DFS_NAMENODE_AUDIT_LOG_BATCHED_FLUSH_INTERVAL_MS_DEFAULT));
+    maxFileSize = conf.getLong(
+        DFS_NAMENODE_AUDIT_LOG_BATCHED_MAX_FILE_SIZE_KEY,
+        DFS_NAMENODE_AUDIT_LOG_BATCHED_MAX_FILE_SIZE_DEFAULT);
+    maxBackups = conf.getInt(DFS_NAMENODE_AUDIT_LOG_BATCHED_MAX_BACKUPS_KEY,
+        DFS_NAMENODE_AUDIT_LOG_BATCHED_MAX_BACKUPS_DEFAULT);
+    if (capacity <= 0 || batchSize <= 0 || flushIntervalNanos <= 0) {
+      throw new IllegalArgumentException("The queue size, batch size and "
+          + "flush interval of " + getClass().getSimpleName()
+          + " must be positive");
+    }
+
+    try {
+      openFile();
+    } catch (IOException e) {
+      throw new IllegalStateException("Cannot open audit log " + file, e);
+    }
+    if (DefaultMetricsSystem.instance().getSource(METRICS_SOURCE_NAME)
+        == null) {
+      DefaultMetricsSystem.instance().register(METRICS_SOURCE_NAME,
+          "Batched audit logger metrics", this);
+      registeredMetrics = true;
+    }
+    running = true;
+    writer = new Daemon(new Runnable() {
+      @Override
+      public void run() {
+        writeEvents();
+      }
+    });
+    writer.setName("BatchedAuditLogger writer");
+    writer.start();
+    LOG.info("Writing audit events to " + file + " in " + format
+        + " format, queue size " + capacity);
+  }
+
+  @Override
+  public void logAuditEvent(boolean succeeded, String userName,
+      InetAddress addr, String cmd, String src, String dst,
+      FileStatus status, UserGroupInformation ugi,
+      DelegationTokenSecretManager dtSecretManager) {
+    if (debugCmdSet.contains(cmd)) {
+      return;
+    }
+    if (queueSize.incrementAndGet() > capacity) {
+      queueSize.decrementAndGet();
+      droppedEvents.incr();
+      return;
+    }
+    // whether the call came over WebHDFS is only known in this thread
+    queue.offer(new AuditEvent(succeeded, userName, addr, cmd, src, dst,
+        status, ugi, dtSecretManager,
+        NamenodeWebHdfsMethods.isWebHdfsInvocation()));
+  }
+
+  /** @return the number of events waiting to be written */
+  @Metric("Audit events waiting to be written")
+  public int getQueueDepth() {
+    return queueSize.get();
+  }
+
+  @VisibleForTesting
+  long getDroppedEvents() {
+    return droppedEvents.value();
+  }
+
+  @VisibleForTesting
+  long getWrittenEvents() {
+    return writtenEvents.value();
+  }
+
+  /**
+   * Write the queued events until the logger is closed, then write the
+   * events left.
+   */
+  private void writeEvents() {
+    final StringBuilder sb = new StringBuilder();
+    while (running) {
+      try {
+        if (writeBatch(sb) == 0) {
+          LockSupport.parkNanos(this, flushIntervalNanos);
+        }
+      } catch (IOException e) {
+        LOG.warn("Failed to write audit events to " + file, e);
+        LockSupport.parkNanos(this, flushIntervalNanos);
+      }
+    }
+    try {
+      while (writeBatch(sb) > 0) {
+      }
+    } catch (IOException e) {
+      LOG.warn("Failed to write audit events to " + file, e);
+    }
+  }
+
+  /**
+   * Write at most {@link #batchSize} events with a single flush.
+   * @return the number of events written
+   */
+  private int writeBatch(StringBuilder sb) throws IOException {
+    int written = 0;
+    AuditEvent event;
+    while (written < batchSize && (event = queue.poll()) != null) {
+      queueSize.decrementAndGet();
+      sb.setLength(0);
+      format(event, sb);
+      sb.append('\n');
+      byte[] line = sb.toString().getBytes(UTF8);
+      if (fileSize > 0 && fileSize + line.length > maxFileSize) {
+        rollFile();
+      }
+      out.write(line);
+      fileSize += line.length;
+      written++;
+    }
+    if (written > 0) {
+      out.flush();
+      writtenEvents.incr(written);
+      writtenBatches.incr();
+    }
+    return written;
+  }
+
+  private void format(AuditEvent event, StringBuilder sb) {
+    final boolean text = format == Format.TEXT;
+    append(sb, text ? "allowed=" : "", event.succeeded);
+    append(sb, text ? "ugi=" : "", event.userName);
+    append(sb, text ? "ip=" : "", event.addr);
+    append(sb, text ? "cmd=" : "", event.cmd);
+    append(sb, text ? "src=" : "", event.src);
+    append(sb, text ? "dst=" : "", event.dst);
+    FileStatus status = event.status;
+    append(sb, text ? "perm=" : "", status == null ? null :
+        status.getOwner() + ":" + status.getGroup() + ":"
+        + status.getPermission());
+    if (logTokenTrackingId) {
+      append(sb, text ? "trackingId=" : "", getTrackingId(event));
+    }
+    append(sb, text ? "proto=" : "", event.webHdfs ? "webhdfs" : "rpc");
+  }
+
+  /** Append a field, separated by a tab from the fields before it. */
+  private static void append(StringBuilder sb, String key, Object value) {
+    if (sb.length() > 0) {
+      sb.append('\t');
+    }
+    sb.append(key).append(value);
+  }
+
+  private static String getTrackingId(AuditEvent event) {
+    if (event.ugi != null && event.dtSecretManager != null
+        && event.ugi.getAuthenticationMethod() == AuthenticationMethod.TOKEN) {
+      for (TokenIdentifier tid : event.ugi.getTokenIdentifiers()) {
+        if (tid instanceof DelegationTokenIdentifier) {
+          return event.dtSecretManager.getTokenTrackingId(
+              (DelegationTokenIdentifier) tid);
+        }
+      }
+    }
+    return null;
+  }
+
+  private void openFile() throws IOException {
+    File parent = file.getAbsoluteFile().getParentFile();
+    if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+      throw new IOException("Cannot create directory " + parent);
+    }
+    out = new BufferedOutputStream(new FileOutputStream(file, true));
+    fileSize = file.length();
+  }
+
+  /** Roll the file over to file.1, keeping at most maxBackups old files. */
+  private void rollFile() throws IOException {
+    out.close();
+    if (maxBackups > 0) {
+      File oldest = new File(file.getPath() + "." + maxBackups);
+      if (oldest.exists() && !oldest.delete()) {
+        LOG.warn("Failed to delete audit log backup " + oldest);
+      }
+      for (int i = maxBackups - 1; i >= 1; i--) {
+        File backup = new File(file.getPath() + "." + i);
+        File target = new File(file.getPath() + "." + (i + 1));
+        if (backup.exists() && !backup.renameTo(target)) {
+          LOG.warn("Failed to rename audit log backup " + backup + " to " +
+              target);
+        }
+      }
+      if (!file.renameTo(new File(file.getPath() + ".1"))) {
+        LOG.warn("Failed to roll over audit log " + file);
+      }
+    } else if (!file.delete()) {
+      LOG.warn("Failed to delete audit log " + file);
+    }
+    openFile();
+  }
+
+  /**
+   * Stop the writer thread once the queued events have been written, and
+   * close the file.
+   */
+  @Override
+  public void close() throws IOException {
+    if (writer == null) {
+      return;
+    }
+    running = false;
+    LockSupport.unpark(writer);
+    try {
+      writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    writer = null;
+    IOUtils.cleanup(LOG, out);
+    if (registeredMetrics) {
+      DefaultMetricsSystem.instance().unregisterSource(METRICS_SOURCE_NAME);
+    }
+  }
+}
@@ -19,6 +19,8 @@
 
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_PATH_BASED_CACHE_BLOCK_MAP_ALLOCATION_PERCENT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_PATH_BASED_CACHE_BLOCK_MAP_ALLOCATION_PERCENT_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_PATH_BASED_CACHE_FULL_RESCAN_INTERVAL_MS;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_PATH_BASED_CACHE_FULL_RESCAN_INTERVAL_MS_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_LIST_CACHE_DIRECTIVES_NUM_RESPONSES;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_LIST_CACHE_DIRECTIVES_NUM_RESPONSES_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_LIST_CACHE_POOLS_NUM_RESPONSES;
@@ -34,10 +36,13 @@
 import java.util.Collections;
 import java.util.Date;
 import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.concurrent.locks.ReentrantLock;
@@ -158,6 +163,37 @@ public class CacheManager {
    */
   private final long scanIntervalMs;
 
+  /**
+   * Interval between full scans in milliseconds. When larger than
+   * scanIntervalMs, the scans in between only process the changes recorded
+   * since the previous scan.
+   */
+  private final long fullRescanIntervalMs;
+
+  /**
+   * True if changes are recorded for incremental scans. Only set while the
+   * CacheReplicationMonitor is running with incremental scans enabled.
+   */
+  private volatile boolean trackingChanges = false;
+
+  /**
+   * IDs of the directives to rescan in the next incremental scan.
+   * Protected by the FSN write lock.
+   */
+  private final Set<Long> changedDirectives = new HashSet<Long>();
+
+  /**
+   * Cached blocks to rescan in the next incremental scan.
+   * Protected by the FSN write lock.
+   */
+  private final Set<CachedBlock> changedBlocks = new HashSet<CachedBlock>();
+
+  /**
+   * True if the changes since the previous scan need a full scan.
+   * Protected by the FSN write lock.
+   */
+  private boolean needsFullRescan = true;
+
   /**
    * All cached blocks.
    */
@@ -201,6 +237,9 @@ public PersistState(CacheManagerSection section,
     scanIntervalMs = conf.getLong(
         DFS_NAMENODE_PATH_BASED_CACHE_REFRESH_INTERVAL_MS,
         DFS_NAMENODE_PATH_BASED_CACHE_REFRESH_INTERVAL_MS_DEFAULT);
+    fullRescanIntervalMs = conf.getLong(
+        DFS_NAMENODE_PATH_BASED_CACHE_FULL_RESCAN_INTERVAL_MS,
+        DFS_NAMENODE_PATH_BASED_CACHE_FULL_RESCAN_INTERVAL_MS_DEFAULT);
     float cachedBlocksPercent = conf.getFloat(
           DFS_NAMENODE_PATH_BASED_CACHE_BLOCK_MAP_ALLOCATION_PERCENT,
           DFS_NAMENODE_PATH_BASED_CACHE_BLOCK_MAP_ALLOCATION_PERCENT_DEFAULT);
@@ -224,14 +263,18 @@ void clear() {
     directivesByPath.clear();
     cachePools.clear();
     nextDirectiveId = 1;
+    markFullRescanNeeded();
   }
 
   public void startMonitorThread() {
     crmLock.lock();
     try {
       if (this.monitor == null) {
+        clearChanges();
+        needsFullRescan = true;
+        trackingChanges = fullRescanIntervalMs > scanIntervalMs;
         this.monitor = new CacheReplicationMonitor(namesystem, this,
-            scanIntervalMs, crmLock);
+            scanIntervalMs, fullRescanIntervalMs, crmLock);
         this.monitor.start();
       }
     } finally {
@@ -243,6 +286,7 @@ public void stopMonitorThread() {
     crmLock.lock();
     try {
       if (this.monitor != null) {
+        trackingChanges = false;
         CacheReplicationMonitor prevMonitor = this.monitor;
         this.monitor = null;
         IOUtils.closeQuietly(prevMonitor);
@@ -494,6 +538,9 @@ private void addInternal(CacheDirective directive, CachePool pool) {
     directive.addBytesNeeded(stats.getBytesNeeded());
     directive.addFilesNeeded(directive.getFilesNeeded());
 
+    if (trackingChanges) {
+      changedDirectives.add(directive.getId());
+    }
     setNeedsRescan();
   }
 
@@ -664,6 +711,8 @@ private void removeInternal(CacheDirective directive)
     pool.getDirectiveList().remove(directive);
     assert directive.getPool() == null;
 
+    // Blocks cached only for this directive are found by a full scan
+    markFullRescanNeeded();
     setNeedsRescan();
   }
 
@@ -823,6 +872,7 @@ public void modifyCachePool(CachePoolInfo info)
         bld.append(prefix).append("set limit to " + info.getLimit());
         prefix = "; ";
         // New limit changes stats, need to set needs refresh
+        markFullRescanNeeded();
         setNeedsRescan();
       }
       if (info.getMaxRelativeExpiryMs() != null) {
@@ -869,6 +919,7 @@ public void removeCachePool(String poolName)
         directivesById.remove(directive.getId());
         iter.remove();
       }
+      markFullRescanNeeded();
       setNeedsRescan();
     } catch (IOException e) {
       LOG.info("removeCachePool of " + poolName + " failed: ", e);
@@ -941,7 +992,7 @@ public final void processCacheReport(final DatanodeID datanodeID,
       processCacheReportImpl(datanode, blockIds);
     } finally {
       endTime = Time.monotonicNow();
-      namesystem.writeUnlock();
+      namesystem.writeUnlock("processCacheReportImpl");
     }
 
     // Log the block report processing stats from Namenode perspective
@@ -957,6 +1008,12 @@ public final void processCacheReport(final DatanodeID datanodeID,
   private void processCacheReportImpl(final DatanodeDescriptor datanode,
       final List<Long> blockIds) {
     CachedBlocksList cached = datanode.getCached();
+    if (trackingChanges) {
+      // Blocks missing from the report are no longer cached on the datanode
+      for (CachedBlock cachedBlock : cached) {
+        changedBlocks.add(cachedBlock);
+      }
+    }
     cached.clear();
     CachedBlocksList cachedList = datanode.getCached();
     CachedBlocksList pendingCachedList = datanode.getPendingCached();
@@ -982,6 +1039,9 @@ private void processCacheReportImpl(final DatanodeDescriptor datanode,
         cachedList.add(cachedBlock);
         LOG.trace("Added block {} to CACHED list.", cachedBlock);
       }
+      if (trackingChanges) {
+        changedBlocks.add(cachedBlock);
+      }
       if (cachedBlock.isPresent(pendingCachedList)) {
         pendingCachedList.remove(cachedBlock);
         LOG.trace("Removed block {} from PENDING_CACHED list.", cachedBlock);
@@ -1222,6 +1282,123 @@ public void waitForRescanIfNeeded() {
     }
   }
 
+  private void markFullRescanNeeded() {
+    if (trackingChanges) {
+      needsFullRescan = true;
+    }
+  }
+
+  /**
+   * Record that the file or directory at the given path changed, so that
+   * the next incremental scan rescans the directives covering it: the
+   * directives on the path itself, on its parent and on its descendants.
+   *
+   * @param path the changed path
+   * @param removed true if the path was removed from its location. Blocks
+   *                cached for a directive on the old location are found by a
+   *                full scan.
+   */
+  public void markPathChanged(String path, boolean removed) {
+    assert namesystem.hasWriteLock() || namesystem.hasPartitionWriteLock();
+    if (!trackingChanges || directivesByPath.isEmpty()) {
+      return;
+    }
+    final TreeMap<Long, CacheDirective> directives =
+        new TreeMap<Long, CacheDirective>();
+    getDirectivesCovering(path, directives);
+    final String prefix = path.endsWith(Path.SEPARATOR) ?
+        path : path + Path.SEPARATOR;
+    for (List<CacheDirective> list : directivesByPath.subMap(prefix,
+        prefix + Character.MAX_VALUE).values()) {
+      for (CacheDirective directive : list) {
+        directives.put(directive.getId(), directive);
+      }
+    }
+    if (directives.isEmpty()) {
+      return;
+    }
+    // Writers of different namespace partitions can get here concurrently;
+    // the scanner only reads the changes under the write lock.
+    synchronized (changedDirectives) {
+      if (removed) {
+        needsFullRescan = true;
+      } else {
+        changedDirectives.addAll(directives.keySet());
+      }
+    }
+  }
+
+  /**
+   * Record that the replicas of a cached block changed, so that the next
+   * incremental scan rescans it.
+   */
+  public void markBlockChanged(CachedBlock cblock) {
+    assert namesystem.hasWriteLock();
+    if (trackingChanges) {
+      changedBlocks.add(cblock);
+    }
+  }
+
+  /**
+   * Add the directives caching the file at the given path, either directly
+   * or through its parent directory.
+   */
+  public void getDirectivesCovering(String path,
+      Map<Long, CacheDirective> directives) {
+    assert namesystem.hasWriteLock();
+    List<CacheDirective> list = directivesByPath.get(path);
+    if (list != null) {
+      for (CacheDirective directive : list) {
+        directives.put(directive.getId(), directive);
+      }
+    }
+    final int idx = path.lastIndexOf(Path.SEPARATOR_CHAR);
+    if (idx < 0) {
+      return;
+    }
+    list = directivesByPath.get(idx == 0 ? Path.SEPARATOR :
+        path.substring(0, idx));
+    if (list != null) {
+      for (CacheDirective directive : list) {
+        directives.put(directive.getId(), directive);
+      }
+    }
+  }
+
+  /**
+   * @return true if the changes since the previous scan need a full scan.
+   */
+  public boolean needsFullRescan() {
+    assert namesystem.hasWriteLock();
+    return needsFullRescan;
+  }
+
+  /**
+   * Move the directives and blocks changed since the previous scan into
+   * the given collections.
+   */
+  public void takeChanges(Map<Long, CacheDirective> directives,
+      Set<CachedBlock> blocks) {
+    assert namesystem.hasWriteLock();
+    for (Long id : changedDirectives) {
+      CacheDirective directive = directivesById.get(id);
+      if (directive != null) {
+        directives.put(id, directive);
+      }
+    }
+    blocks.addAll(changedBlocks);
+    clearChanges();
+  }
+
+  /**
+   * Forget the changes recorded since the previous scan, before a full scan.
+   */
+  public void clearChanges() {
+    changedDirectives.clear();
+    changedBlocks.clear();
+    needsFullRescan = false;
+  }
+
   private void setNeedsRescan() {
     crmLock.lock();
     try {
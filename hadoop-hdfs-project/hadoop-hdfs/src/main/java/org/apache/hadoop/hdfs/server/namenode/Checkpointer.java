@@ -261,7 +261,7 @@ void doCheckpoint() throws IOException {
       bnImage.saveFSImageInAllDirs(backupNode.getNamesystem(), txid);
       bnStorage.writeAll();
     } finally {
-      backupNode.namesystem.writeUnlock();
+      backupNode.namesystem.writeUnlock("rollForwardByApplyingLogs");
     }
 
     if(cpCmd.needToReturnImage()) {
@@ -0,0 +1,140 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.util.Time;
+
+/**
+ * An immutable copy of the datanode metrics exposed through JMX.
+ * <p>
+ * Computing these metrics walks every datanode while holding the datanode
+ * map lock. When dfs.namenode.metrics.snapshot.interval.ms is positive, a
+ * background thread builds a new snapshot periodically and the MBean getters
+ * return its values, so metrics scraping never contends with heartbeats and
+ * datanode registrations.
+ */
+@InterfaceAudience.Private
+final class DatanodeMetricsSnapshot {
+  private final long timestamp;
+
+  private final int numLiveDataNodes;
+  private final int numDeadDataNodes;
+  private final int numDecomLiveDataNodes;
+  private final int numDecomDeadDataNodes;
+  private final int numDecommissioningDataNodes;
+  private final int numInMaintenanceLiveDataNodes;
+  private final int numInMaintenanceDeadDataNodes;
+  private final int numEnteringMaintenanceDataNodes;
+  private final int volumeFailuresTotal;
+  private final long estimatedCapacityLostTotal;
+
+  private final String liveNodes;
+  private final String deadNodes;
+  private final String decomNodes;
+  private final String enteringMaintenanceNodes;
+  private final String nodeUsage;
+
+  DatanodeMetricsSnapshot(FSNamesystem fsn) {
+    this.timestamp = Time.monotonicNow();
+    this.numLiveDataNodes = fsn.computeNumLiveDataNodes();
+    this.numDeadDataNodes = fsn.computeNumDeadDataNodes();
+    this.numDecomLiveDataNodes = fsn.computeNumDecomLiveDataNodes();
+    this.numDecomDeadDataNodes = fsn.computeNumDecomDeadDataNodes();
+    this.numDecommissioningDataNodes =
+        fsn.computeNumDecommissioningDataNodes();
+    this.numInMaintenanceLiveDataNodes =
+        fsn.computeNumInMaintenanceLiveDataNodes();
+    this.numInMaintenanceDeadDataNodes =
+        fsn.computeNumInMaintenanceDeadDataNodes();
+    this.numEnteringMaintenanceDataNodes =
+        fsn.computeNumEnteringMaintenanceDataNodes();
+    this.volumeFailuresTotal = fsn.computeVolumeFailuresTotal();
+    this.estimatedCapacityLostTotal = fsn.computeEstimatedCapacityLostTotal();
+    this.liveNodes = fsn.computeLiveNodes();
+    this.deadNodes = fsn.computeDeadNodes();
+    this.decomNodes = fsn.computeDecomNodes();
+    this.enteringMaintenanceNodes = fsn.computeEnteringMaintenanceNodes();
+    this.nodeUsage = fsn.computeNodeUsage();
+  }
+
+  /** @return the monotonic time at which this snapshot was taken. */
+  long getTimestamp() {
+    return timestamp;
+  }
+
+  int getNumLiveDataNodes() {
+    return numLiveDataNodes;
+  }
+
+  int getNumDeadDataNodes() {
+    return numDeadDataNodes;
+  }
+
+  int getNumDecomLiveDataNodes() {
+    return numDecomLiveDataNodes;
+  }
+
+  int getNumDecomDeadDataNodes() {
+    return numDecomDeadDataNodes;
+  }
+
+  int getNumDecommissioningDataNodes() {
+    return numDecommissioningDataNodes;
+  }
+
+  int getNumInMaintenanceLiveDataNodes() {
+    return numInMaintenanceLiveDataNodes;
+  }
+
+  int getNumInMaintenanceDeadDataNodes() {
+    return numInMaintenanceDeadDataNodes;
+  }
+
+  int getNumEnteringMaintenanceDataNodes() {
+    return numEnteringMaintenanceDataNodes;
+  }
+
+  int getVolumeFailuresTotal() {
+    return volumeFailuresTotal;
+  }
+
+  long getEstimatedCapacityLostTotal() {
+    return estimatedCapacityLostTotal;
+  }
+
+  String getLiveNodes() {
+    return liveNodes;
+  }
+
+  String getDeadNodes() {
+    return deadNodes;
+  }
+
+  String getDecomNodes() {
+    return decomNodes;
+  }
+
+  String getEnteringMaintenanceNodes() {
+    return enteringMaintenanceNodes;
+  }
+
+  String getNodeUsage() {
+    return nodeUsage;
+  }
+}
@@ -146,12 +146,35 @@ public void checkPermission(String user, Set<String> groups,
       boolean doCheckOwner, FsAction ancestorAccess, FsAction parentAccess,
       FsAction access, FsAction subAccess, boolean ignoreEmptyDir)
       throws AccessControlException, UnresolvedLinkException {
-    INode[] inodes = (INode[]) nodes;
+    checkPermission(user, groups, (INode[]) nodes, snapshotId, true,
+        doCheckOwner, ancestorAccess, parentAccess, access, subAccess,
+        ignoreEmptyDir);
+  }
+
+  /**
+   * @return the index of the last existing ancestor of the path, or -1
+   */
+  static int getAncestorIndex(INode[] inodes) {
     int ancestorIndex = inodes.length - 2;
     for (; ancestorIndex >= 0 && inodes[ancestorIndex] == null;
          ancestorIndex--)
       ;
-    checkTraverse(user, groups, inodes, ancestorIndex, snapshotId);
+    return ancestorIndex;
+  }
+
+  /**
+   * Same as {@link AuthorizationProvider#checkPermission}, but the traverse
+   * check can be skipped when it is known to pass.
+   */
+  void checkPermission(String user, Set<String> groups, INode[] inodes,
+      int snapshotId, boolean checkTraverse, boolean doCheckOwner,
+      FsAction ancestorAccess, FsAction parentAccess, FsAction access,
+      FsAction subAccess, boolean ignoreEmptyDir)
+      throws AccessControlException, UnresolvedLinkException {
+    int ancestorIndex = getAncestorIndex(inodes);
+    if (checkTraverse) {
+      checkTraverse(user, groups, inodes, ancestorIndex, snapshotId);
+    }
 
     final INode last = inodes[inodes.length - 1];
     if (parentAccess != null && parentAccess.implies(FsAction.WRITE)
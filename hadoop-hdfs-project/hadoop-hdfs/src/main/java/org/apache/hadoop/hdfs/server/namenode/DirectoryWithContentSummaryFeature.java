@@ -0,0 +1,119 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.hadoop.hdfs.server.namenode.snapshot.Snapshot;
+
+/**
+ * Content summary feature for {@link INodeDirectory}. It keeps the file,
+ * directory, symlink, byte and snapshot counts of the current state of the
+ * subtree rooted at the directory, so that a content summary does not need
+ * to walk the subtree. The counts are updated incrementally by
+ * {@link FSDirectory} on every namespace mutation below the directory.
+ *
+ * Files under construction only contribute to the file count. Their length
+ * changes with every block allocation, so the feature keeps the ids of the
+ * files under construction in the subtree, i.e. the files with a lease, and
+ * their length is added when a summary is requested.
+ */
+public final class DirectoryWithContentSummaryFeature implements INode.Feature {
+  private final Content.Counts counts = Content.Counts.newInstance();
+  private final Set<Long> openFiles = new HashSet<Long>();
+
+  DirectoryWithContentSummaryFeature(Content.Counts counts,
+      Collection<Long> openFiles) {
+    this.counts.set(counts);
+    this.openFiles.addAll(openFiles);
+  }
+
+  /** @return a copy of the tracked counts. */
+  synchronized Content.Counts getCounts() {
+    final Content.Counts c = Content.Counts.newInstance();
+    c.set(counts);
+    return c;
+  }
+
+  /** @return a copy of the ids of the files under construction. */
+  synchronized List<Long> getOpenFiles() {
+    return new ArrayList<Long>(openFiles);
+  }
+
+  synchronized void add(Content.Counts delta, Collection<Long> open) {
+    counts.add(delta);
+    openFiles.addAll(open);
+  }
+
+  synchronized void subtract(Content.Counts delta, Collection<Long> open) {
+    counts.subtract(delta);
+    openFiles.removeAll(open);
+  }
+
+  /**
+   * Add the tracked counts of the current state of the given subtree, and
+   * the ids of the files under construction in it.
+   * @return the same object as counts.
+   */
+  static Content.Counts computeCounts(INode inode, Content.Counts counts,
+      Collection<Long> openFiles) {
+    if (inode.isDirectory()) {
+      final INodeDirectory dir = inode.asDirectory();
+      counts.add(Content.DIRECTORY, 1);
+      if (dir.isSnapshottable()) {
+        counts.add(Content.SNAPSHOT,
+            dir.getDirectorySnapshottableFeature().getNumSnapshots());
+      }
+      for (INode child : dir.getChildrenList(Snapshot.CURRENT_STATE_ID)) {
+        computeCounts(child, counts, openFiles);
+      }
+    } else if (inode.isFile()) {
+      computeFileCounts(inode.asFile(), counts, openFiles);
+    } else if (inode.isSymlink()) {
+      counts.add(Content.SYMLINK, 1);
+    }
+    return counts;
+  }
+
+  /**
+   * Add the tracked counts of a single file. The length of a file under
+   * construction is not tracked, its id is added to openFiles instead.
+   * @return the same object as counts.
+   */
+  static Content.Counts computeFileCounts(INodeFile file,
+      Content.Counts counts, Collection<Long> openFiles) {
+    counts.add(Content.FILE, 1);
+    if (file.isUnderConstruction()) {
+      openFiles.add(file.getId());
+    } else {
+      final long length = file.computeFileSize();
+      counts.add(Content.LENGTH, length);
+      counts.add(Content.DISKSPACE, length * file.getFileReplication());
+    }
+    return counts;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "contentSummary=" + counts + ", openFiles=" + openFiles.size();
+  }
+}
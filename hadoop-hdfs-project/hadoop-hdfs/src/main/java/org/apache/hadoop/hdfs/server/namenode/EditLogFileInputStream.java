@@ -19,6 +19,7 @@
 package org.apache.hadoop.hdfs.server.namenode;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.File;
@@ -122,6 +123,22 @@ public static EditLogInputStream fromUrl(
         startTxId, endTxId, inProgress);
   }
   
+  /**
+   * Open an EditLogInputStream over an edit log held in memory.
+   *
+   * @param editLog the edit log, header included
+   * @param name a name for the log, used in messages
+   * @param startTxId the expected starting txid
+   * @param endTxId the expected ending txid
+   * @param inProgress whether the log is in-progress
+   * @return a stream from which edits may be read
+   */
+  public static EditLogInputStream fromByteArray(byte[] editLog, String name,
+      long startTxId, long endTxId, boolean inProgress) {
+    return new EditLogFileInputStream(new ByteArrayLog(editLog, name),
+        startTxId, endTxId, inProgress);
+  }
+
   private EditLogFileInputStream(LogSource log,
       long firstTxId, long lastTxId,
       boolean isInProgress) {
@@ -445,6 +462,31 @@ public String getName() {
     }
   }
 
+  private static class ByteArrayLog implements LogSource {
+    private final byte[] data;
+    private final String name;
+
+    public ByteArrayLog(byte[] data, String name) {
+      this.data = data;
+      this.name = name;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+      return new ByteArrayInputStream(data);
+    }
+
+    @Override
+    public long length() {
+      return data.length;
+    }
+
+    @Override
+    public String getName() {
+      return name;
+    }
+  }
+
   private static class URLLog implements LogSource {
     private final URL url;
     private long advertisedSize = -1;
@@ -130,7 +130,6 @@ public void create(int layoutVersion) throws IOException {
    * @param out the output stream to write the header to.
    * @throws IOException in the event of error writing to the stream.
    */
-  @VisibleForTesting
   public static void writeHeader(int layoutVersion, DataOutputStream out)
       throws IOException {
     out.writeInt(layoutVersion);
@@ -20,6 +20,7 @@
 import static org.apache.hadoop.fs.BatchedRemoteIterator.BatchedListEntries;
 import static org.apache.hadoop.hdfs.server.common.HdfsServerConstants.CRYPTO_XATTR_ENCRYPTION_ZONE;
 import static org.apache.hadoop.hdfs.server.common.HdfsServerConstants.CRYPTO_XATTR_FILE_ENCRYPTION_INFO;
+import static org.apache.hadoop.hdfs.server.common.HdfsServerConstants.HOT_FILE_XATTR_ORIGINAL_REPLICATION;
 import static org.apache.hadoop.hdfs.server.common.HdfsServerConstants.SECURITY_XATTR_UNREADABLE_BY_SUPERUSER;
 import static org.apache.hadoop.util.Time.now;
 
@@ -30,9 +31,12 @@
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.concurrent.RecursiveAction;
@@ -167,6 +171,15 @@ private static INodeDirectory createRoot(FSNamesystem namesystem) {
   private final INodeMap inodeMap; // Synchronized by dirLock
   private long yieldCount = 0; // keep track of lock yield count.
   private int quotaInitThreads;
+  /** Directories whose content summary is maintained incrementally. */
+  private final String[] contentSummaryTrackedDirs;
+  /**
+   * Files whose replication was raised because they were hot, by inode id.
+   * Kept in sync with their original replication xattr, so any NameNode
+   * which becomes active knows them.
+   */
+  private final Set<Long> hotFileIds =
+      Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
 
   private final int inodeXAttrsLimit; //inode xattrs max limit
 
@@ -207,6 +220,37 @@ boolean hasReadLock() {
     return this.dirLock.getReadHoldCount() > 0 || hasWriteLock();
   }
 
+  /**
+   * Lock the directory for an update of the attributes of a single inode.
+   * A caller holding a namespace partition write lock of the namesystem
+   * already excludes all other readers and writers of that inode's
+   * partition, so the directory is only locked in read mode and readers
+   * of other partitions keep going.
+   *
+   * @return true if the directory was locked in write mode
+   */
+  private boolean attributeLock() {
+    if (namesystem.hasPartitionWriteLock()) {
+      readLock();
+      return false;
+    }
+    writeLock();
+    return true;
+  }
+
+  private void attributeUnlock(boolean exclusive) {
+    if (exclusive) {
+      writeUnlock();
+    } else {
+      readUnlock();
+    }
+  }
+
+  private boolean hasAttributeLock() {
+    return hasWriteLock() ||
+        (hasReadLock() && namesystem.hasPartitionWriteLock());
+  }
+
   public int getReadHoldCount() {
     return this.dirLock.getReadHoldCount();
   }
@@ -224,6 +268,9 @@ public int getWriteHoldCount() {
    */
   private final NameCache<ByteArray> nameCache;
 
+  /** Traverse checks already passed, null if disabled */
+  private final PermissionTraverseCache traverseCache;
+
   FSDirectory(FSNamesystem ns, Configuration conf) throws IOException {
     this.dirLock = new ReentrantReadWriteLock(true); // fair
     rootDir = createRoot(ns);
@@ -264,6 +311,12 @@ public int getWriteHoldCount() {
         DFSConfigKeys.DFS_NAMENODE_POSIX_ACL_INHERITANCE_ENABLED_DEFAULT);
     LOG.info("POSIX ACL inheritance enabled? " + posixAclInheritanceEnabled);
 
+    final int traverseCacheSize = conf.getInt(
+        DFSConfigKeys.DFS_NAMENODE_PERMISSION_TRAVERSE_CACHE_SIZE_KEY,
+        DFSConfigKeys.DFS_NAMENODE_PERMISSION_TRAVERSE_CACHE_SIZE_DEFAULT);
+    this.traverseCache = traverseCacheSize > 0 ?
+        new PermissionTraverseCache(traverseCacheSize) : null;
+
     Preconditions.checkArgument(this.inodeXAttrsLimit >= 0,
         "Cannot set a negative limit on the number of xattrs per inode (%s).",
         DFSConfigKeys.DFS_NAMENODE_MAX_XATTRS_PER_INODE_KEY);
@@ -289,6 +342,8 @@ public int getWriteHoldCount() {
     this.quotaInitThreads = conf.getInt(
         DFSConfigKeys.DFS_NAMENODE_QUOTA_INIT_THREADS_KEY,
         DFSConfigKeys.DFS_NAMENODE_QUOTA_INIT_THREADS_DEFAULT);
+    this.contentSummaryTrackedDirs = conf.getTrimmedStrings(
+        DFSConfigKeys.DFS_NAMENODE_CONTENT_SUMMARY_TRACKED_DIRS_KEY);
   }
     
   FSNamesystem getFSNamesystem() {
@@ -583,89 +638,95 @@ boolean unprotectedRenameTo(String src, String dst, long timestamp)
     throws QuotaExceededException, UnresolvedLinkException, 
     FileAlreadyExistsException, SnapshotAccessControlException, IOException {
     assert hasWriteLock();
-    INodesInPath srcIIP = getINodesInPath4Write(src, false);
-    final INode srcInode = srcIIP.getLastINode();
-    try {
-      validateRenameSource(src, srcIIP);
-    } catch (SnapshotException e) {
-      throw e;
-    } catch (IOException ignored) {
-      return false;
-    }
-
-    if (isDir(dst)) {
-      dst += Path.SEPARATOR + new Path(src).getName();
-    }
-
-    // validate the destination
-    if (dst.equals(src)) {
-      return true;
-    }
-
+    // invalidate after the change, so that no traverse check of the old
+    // tree can be cached again in between
     try {
-      validateRenameDestination(src, dst, srcInode);
-    } catch (IOException ignored) {
-      return false;
-    }
+      INodesInPath srcIIP = getINodesInPath4Write(src, false);
+      final INode srcInode = srcIIP.getLastINode();
+      try {
+        validateRenameSource(src, srcIIP);
+      } catch (SnapshotException e) {
+        throw e;
+      } catch (IOException ignored) {
+        return false;
+      }
 
-    INodesInPath dstIIP = getINodesInPath4Write(dst, false);
-    if (dstIIP.getLastINode() != null) {
-      NameNode.stateChangeLog.warn("DIR* FSDirectory.unprotectedRenameTo: "
-                                   +"failed to rename "+src+" to "+dst+ 
-                                   " because destination exists");
-      return false;
-    }
-    INode dstParent = dstIIP.getINode(-2);
-    if (dstParent == null) {
-      NameNode.stateChangeLog.warn("DIR* FSDirectory.unprotectedRenameTo: "
-          +"failed to rename "+src+" to "+dst+ 
-          " because destination's parent does not exist");
-      return false;
-    }
-    
-    ezManager.checkMoveValidity(srcIIP, dstIIP, src);
-    // Ensure dst has quota to accommodate rename
-    verifyFsLimitsForRename(srcIIP, dstIIP);
-    verifyQuotaForRename(srcIIP.getINodes(), dstIIP.getINodes());
+      if (isDir(dst)) {
+        dst += Path.SEPARATOR + new Path(src).getName();
+      }
 
-    RenameOperation tx = new RenameOperation(src, dst, srcIIP, dstIIP);
+      // validate the destination
+      if (dst.equals(src)) {
+        return true;
+      }
 
-    boolean added = false;
+      try {
+        validateRenameDestination(src, dst, srcInode);
+      } catch (IOException ignored) {
+        return false;
+      }
 
-    try {
-      // remove src
-      final long removedSrc = removeLastINode(srcIIP);
-      if (removedSrc == -1) {
+      INodesInPath dstIIP = getINodesInPath4Write(dst, false);
+      if (dstIIP.getLastINode() != null) {
         NameNode.stateChangeLog.warn("DIR* FSDirectory.unprotectedRenameTo: "
-            + "failed to rename " + src + " to " + dst
-            + " because the source can not be removed");
+                                     +"failed to rename "+src+" to "+dst+ 
+                                     " because destination exists");
         return false;
-      } else {
-        INode srcChild = srcIIP.getLastINode();
-        // update the quota count if necessary
-        updateCountForDelete(srcChild, srcIIP);
       }
+      INode dstParent = dstIIP.getINode(-2);
+      if (dstParent == null) {
+        NameNode.stateChangeLog.warn("DIR* FSDirectory.unprotectedRenameTo: "
+            +"failed to rename "+src+" to "+dst+ 
+            " because destination's parent does not exist");
+        return false;
+      }
+    
+      ezManager.checkMoveValidity(srcIIP, dstIIP, src);
+      // Ensure dst has quota to accommodate rename
+      verifyFsLimitsForRename(srcIIP, dstIIP);
+      verifyQuotaForRename(srcIIP.getINodes(), dstIIP.getINodes());
 
-      added = tx.addSourceToDestination();
-      if (added) {
-        if (NameNode.stateChangeLog.isDebugEnabled()) {
-          NameNode.stateChangeLog.debug("DIR* FSDirectory.unprotectedRenameTo: " 
-              + src + " is renamed to " + dst);
+      RenameOperation tx = new RenameOperation(src, dst, srcIIP, dstIIP);
+
+      boolean added = false;
+
+      try {
+        // remove src
+        final long removedSrc = removeLastINode(srcIIP);
+        if (removedSrc == -1) {
+          NameNode.stateChangeLog.warn("DIR* FSDirectory.unprotectedRenameTo: "
+              + "failed to rename " + src + " to " + dst
+              + " because the source can not be removed");
+          return false;
+        } else {
+          INode srcChild = srcIIP.getLastINode();
+          // update the quota count if necessary
+          updateCountForDelete(srcChild, srcIIP);
         }
 
-        tx.updateMtimeAndLease(timestamp);
-        tx.updateQuotasInSourceTree();
+        added = tx.addSourceToDestination();
+        if (added) {
+          if (NameNode.stateChangeLog.isDebugEnabled()) {
+            NameNode.stateChangeLog.debug("DIR* FSDirectory.unprotectedRenameTo: " 
+                + src + " is renamed to " + dst);
+          }
+
+          tx.updateMtimeAndLease(timestamp);
+          tx.updateQuotasInSourceTree();
         
-        return true;
+          return true;
+        }
+      } finally {
+        if (!added) {
+          tx.restoreSource();
+        }
       }
+      NameNode.stateChangeLog.warn("DIR* FSDirectory.unprotectedRenameTo: "
+          +"failed to rename "+src+" to "+dst);
+      return false;
     } finally {
-      if (!added) {
-        tx.restoreSource();
-      }
+      invalidateTraverseCache();
     }
-    NameNode.stateChangeLog.warn("DIR* FSDirectory.unprotectedRenameTo: "
-        +"failed to rename "+src+" to "+dst);
-    return false;
   }
 
   /**
@@ -709,150 +770,156 @@ boolean unprotectedRenameTo(String src, String dst, long timestamp,
       ParentNotDirectoryException, QuotaExceededException, 
       UnresolvedLinkException, IOException {
     assert hasWriteLock();
-    boolean overwrite = options != null && Arrays.asList(options).contains
-            (Rename.OVERWRITE);
+    // invalidate after the change, so that no traverse check of the old
+    // tree can be cached again in between
+    try {
+      boolean overwrite = options != null && Arrays.asList(options).contains
+              (Rename.OVERWRITE);
 
-    final String error;
-    final INodesInPath srcIIP = getINodesInPath4Write(src, false);
-    final INode srcInode = srcIIP.getLastINode();
-    validateRenameSource(src, srcIIP);
+      final String error;
+      final INodesInPath srcIIP = getINodesInPath4Write(src, false);
+      final INode srcInode = srcIIP.getLastINode();
+      validateRenameSource(src, srcIIP);
 
-    // validate the destination
-    if (dst.equals(src)) {
-      throw new FileAlreadyExistsException(
-          "The source "+src+" and destination "+dst+" are the same");
-    }
-    validateRenameDestination(src, dst, srcInode);
+      // validate the destination
+      if (dst.equals(src)) {
+        throw new FileAlreadyExistsException(
+            "The source "+src+" and destination "+dst+" are the same");
+      }
+      validateRenameDestination(src, dst, srcInode);
 
-    INodesInPath dstIIP = getINodesInPath4Write(dst, false);
-    if (dstIIP.getINodes().length == 1) {
-      error = "rename destination cannot be the root";
-      NameNode.stateChangeLog.warn("DIR* FSDirectory.unprotectedRenameTo: "
-          + error);
-      throw new IOException(error);
-    }
+      INodesInPath dstIIP = getINodesInPath4Write(dst, false);
+      if (dstIIP.getINodes().length == 1) {
+        error = "rename destination cannot be the root";
+        NameNode.stateChangeLog.warn("DIR* FSDirectory.unprotectedRenameTo: "
+            + error);
+        throw new IOException(error);
+      }
 
-    ezManager.checkMoveValidity(srcIIP, dstIIP, src);
-    final INode dstInode = dstIIP.getLastINode();
-    List<INodeDirectory> snapshottableDirs = new ArrayList<INodeDirectory>();
-    if (dstInode != null) { // Destination exists
-      validateRenameOverwrite(src, dst, overwrite, srcInode, dstInode);
-      checkSnapshot(dstInode, snapshottableDirs);
-    }
+      ezManager.checkMoveValidity(srcIIP, dstIIP, src);
+      final INode dstInode = dstIIP.getLastINode();
+      List<INodeDirectory> snapshottableDirs = new ArrayList<INodeDirectory>();
+      if (dstInode != null) { // Destination exists
+        validateRenameOverwrite(src, dst, overwrite, srcInode, dstInode);
+        checkSnapshot(dstInode, snapshottableDirs);
+      }
 
-    INode dstParent = dstIIP.getINode(-2);
-    if (dstParent == null) {
-      error = "rename destination parent " + dst + " not found.";
-      NameNode.stateChangeLog.warn("DIR* FSDirectory.unprotectedRenameTo: "
-          + error);
-      throw new FileNotFoundException(error);
-    }
-    if (!dstParent.isDirectory()) {
-      error = "rename destination parent " + dst + " is a file.";
-      NameNode.stateChangeLog.warn("DIR* FSDirectory.unprotectedRenameTo: "
-          + error);
-      throw new ParentNotDirectoryException(error);
-    }
+      INode dstParent = dstIIP.getINode(-2);
+      if (dstParent == null) {
+        error = "rename destination parent " + dst + " not found.";
+        NameNode.stateChangeLog.warn("DIR* FSDirectory.unprotectedRenameTo: "
+            + error);
+        throw new FileNotFoundException(error);
+      }
+      if (!dstParent.isDirectory()) {
+        error = "rename destination parent " + dst + " is a file.";
+        NameNode.stateChangeLog.warn("DIR* FSDirectory.unprotectedRenameTo: "
+            + error);
+        throw new ParentNotDirectoryException(error);
+      }
 
-    // Ensure dst has quota to accommodate rename
-    verifyFsLimitsForRename(srcIIP, dstIIP);
-    verifyQuotaForRename(srcIIP.getINodes(), dstIIP.getINodes());
+      // Ensure dst has quota to accommodate rename
+      verifyFsLimitsForRename(srcIIP, dstIIP);
+      verifyQuotaForRename(srcIIP.getINodes(), dstIIP.getINodes());
 
-    RenameOperation tx = new RenameOperation(src, dst, srcIIP, dstIIP);
+      RenameOperation tx = new RenameOperation(src, dst, srcIIP, dstIIP);
 
-    boolean undoRemoveSrc = true;
-    final long removedSrc = removeLastINode(srcIIP);
-    if (removedSrc == -1) {
-      error = "Failed to rename " + src + " to " + dst
-          + " because the source can not be removed";
-      NameNode.stateChangeLog.warn("DIR* FSDirectory.unprotectedRenameTo: "
-          + error);
-      throw new IOException(error);
-    } else {
-      INode srcChild = srcIIP.getLastINode();
-      // update the quota count if necessary
-      updateCountForDelete(srcChild, srcIIP);
-    }
+      boolean undoRemoveSrc = true;
+      final long removedSrc = removeLastINode(srcIIP);
+      if (removedSrc == -1) {
+        error = "Failed to rename " + src + " to " + dst
+            + " because the source can not be removed";
+        NameNode.stateChangeLog.warn("DIR* FSDirectory.unprotectedRenameTo: "
+            + error);
+        throw new IOException(error);
+      } else {
+        INode srcChild = srcIIP.getLastINode();
+        // update the quota count if necessary
+        updateCountForDelete(srcChild, srcIIP);
+      }
     
-    boolean undoRemoveDst = false;
-    INode removedDst = null;
-    long removedNum = 0;
-    try {
-      if (dstInode != null) { // dst exists remove it
-        if ((removedNum = removeLastINode(dstIIP)) != -1) {
-          removedDst = dstIIP.getLastINode();
-          // update the quota count if necessary
-          updateCountForDelete(removedDst, dstIIP);
-          undoRemoveDst = true;
+      boolean undoRemoveDst = false;
+      INode removedDst = null;
+      long removedNum = 0;
+      try {
+        if (dstInode != null) { // dst exists remove it
+          if ((removedNum = removeLastINode(dstIIP)) != -1) {
+            removedDst = dstIIP.getLastINode();
+            // update the quota count if necessary
+            updateCountForDelete(removedDst, dstIIP);
+            undoRemoveDst = true;
+          }
         }
-      }
 
-      // add src as dst to complete rename
-      if (tx.addSourceToDestination()) {
-        undoRemoveSrc = false;
-        if (NameNode.stateChangeLog.isDebugEnabled()) {
-          NameNode.stateChangeLog.debug(
-              "DIR* FSDirectory.unprotectedRenameTo: " + src
-              + " is renamed to " + dst);
-        }
+        // add src as dst to complete rename
+        if (tx.addSourceToDestination()) {
+          undoRemoveSrc = false;
+          if (NameNode.stateChangeLog.isDebugEnabled()) {
+            NameNode.stateChangeLog.debug(
+                "DIR* FSDirectory.unprotectedRenameTo: " + src
+                + " is renamed to " + dst);
+          }
 
-        tx.updateMtimeAndLease(timestamp);
-
-        // Collect the blocks and remove the lease for previous dst
-        boolean filesDeleted = false;
-        if (removedDst != null) {
-          undoRemoveDst = false;
-          if (removedNum > 0) {
-            List<INode> removedINodes = new ChunkedArrayList<INode>();
-            List<Long> removedUCFiles = new ChunkedArrayList<>();
-            if (!removedDst.isInLatestSnapshot(dstIIP.getLatestSnapshotId())) {
-              removedDst.destroyAndCollectBlocks(collectedBlocks,
-                  removedINodes, removedUCFiles);
-              filesDeleted = true;
-            } else {
-              filesDeleted = removedDst.cleanSubtree(Snapshot.CURRENT_STATE_ID,
-                  dstIIP.getLatestSnapshotId(), collectedBlocks,
-                  removedINodes, removedUCFiles)
-                  .get(Quota.NAMESPACE) >= 0;
+          tx.updateMtimeAndLease(timestamp);
+
+          // Collect the blocks and remove the lease for previous dst
+          boolean filesDeleted = false;
+          if (removedDst != null) {
+            undoRemoveDst = false;
+            if (removedNum > 0) {
+              List<INode> removedINodes = new ChunkedArrayList<INode>();
+              List<Long> removedUCFiles = new ChunkedArrayList<>();
+              if (!removedDst.isInLatestSnapshot(dstIIP.getLatestSnapshotId())) {
+                removedDst.destroyAndCollectBlocks(collectedBlocks,
+                    removedINodes, removedUCFiles);
+                filesDeleted = true;
+              } else {
+                filesDeleted = removedDst.cleanSubtree(Snapshot.CURRENT_STATE_ID,
+                    dstIIP.getLatestSnapshotId(), collectedBlocks,
+                    removedINodes, removedUCFiles)
+                    .get(Quota.NAMESPACE) >= 0;
+              }
+              getFSNamesystem().removePathAndBlocks(src, null, 
+                  removedUCFiles, removedINodes, false);
             }
-            getFSNamesystem().removePathAndBlocks(src, null, 
-                removedUCFiles, removedINodes, false);
           }
-        }
 
-        if (snapshottableDirs.size() > 0) {
-          // There are snapshottable directories (without snapshots) to be
-          // deleted. Need to update the SnapshotManager.
-          namesystem.removeSnapshottableDirs(snapshottableDirs);
-        }
-
-        tx.updateQuotasInSourceTree();
-        return filesDeleted;
-      }
-    } finally {
-      if (undoRemoveSrc) {
-        tx.restoreSource();
-      }
+          if (snapshottableDirs.size() > 0) {
+            // There are snapshottable directories (without snapshots) to be
+            // deleted. Need to update the SnapshotManager.
+            namesystem.removeSnapshottableDirs(snapshottableDirs);
+          }
 
-      if (undoRemoveDst) {
-        // Rename failed - restore dst
-        if (dstParent.isDirectory() && dstParent.asDirectory().isWithSnapshot()) {
-          dstParent.asDirectory().undoRename4DstParent(removedDst,
-              dstIIP.getLatestSnapshotId());
-        } else {
-          addLastINodeNoQuotaCheck(dstIIP, removedDst);
+          tx.updateQuotasInSourceTree();
+          return filesDeleted;
         }
-        if (removedDst.isReference()) {
-          final INodeReference removedDstRef = removedDst.asReference();
-          final INodeReference.WithCount wc = 
-              (WithCount) removedDstRef.getReferredINode().asReference();
-          wc.addReference(removedDstRef);
+      } finally {
+        if (undoRemoveSrc) {
+          tx.restoreSource();
+        }
+
+        if (undoRemoveDst) {
+          // Rename failed - restore dst
+          if (dstParent.isDirectory() && dstParent.asDirectory().isWithSnapshot()) {
+            dstParent.asDirectory().undoRename4DstParent(removedDst,
+                dstIIP.getLatestSnapshotId());
+          } else {
+            addLastINodeNoQuotaCheck(dstIIP, removedDst);
+          }
+          if (removedDst.isReference()) {
+            final INodeReference removedDstRef = removedDst.asReference();
+            final INodeReference.WithCount wc = 
+                (WithCount) removedDstRef.getReferredINode().asReference();
+            wc.addReference(removedDstRef);
+          }
         }
       }
+      NameNode.stateChangeLog.warn("DIR* FSDirectory.unprotectedRenameTo: "
+          + "failed to rename " + src + " to " + dst);
+      throw new IOException("rename from " + src + " to " + dst + " failed.");
+    } finally {
+      invalidateTraverseCache();
     }
-    NameNode.stateChangeLog.warn("DIR* FSDirectory.unprotectedRenameTo: "
-        + "failed to rename " + src + " to " + dst);
-    throw new IOException("rename from " + src + " to " + dst + " failed.");
   }
 
   private static void validateRenameOverwrite(String src, String dst,
@@ -1109,7 +1176,9 @@ BlockInfo[] unprotectedSetReplication(String src, short replication,
       updateCount(iip, 0, dsDelta, true);
     }
 
+    updateContentSummaryCount(file, false);
     file.setFileReplication(replication, iip.getLatestSnapshotId());
+    updateContentSummaryCount(file, true);
     
     final short newBR = file.getBlockReplication(); 
     // check newBR < oldBR case. 
@@ -1195,18 +1264,18 @@ long getPreferredBlockSize(String path) throws UnresolvedLinkException,
   void setPermission(String src, FsPermission permission)
       throws FileNotFoundException, UnresolvedLinkException,
       QuotaExceededException, SnapshotAccessControlException {
-    writeLock();
+    final boolean exclusive = attributeLock();
     try {
       unprotectedSetPermission(src, permission);
     } finally {
-      writeUnlock();
+      attributeUnlock(exclusive);
     }
   }
   
   void unprotectedSetPermission(String src, FsPermission permissions)
       throws FileNotFoundException, UnresolvedLinkException,
       QuotaExceededException, SnapshotAccessControlException {
-    assert hasWriteLock();
+    assert hasAttributeLock();
     final INodesInPath inodesInPath = getINodesInPath4Write(src, true);
     final INode inode = inodesInPath.getLastINode();
     if (inode == null) {
@@ -1214,23 +1283,24 @@ void unprotectedSetPermission(String src, FsPermission permissions)
     }
     int snapshotId = inodesInPath.getLatestSnapshotId();
     inode.setPermission(permissions, snapshotId);
+    invalidateTraverseCache();
   }
 
   void setOwner(String src, String username, String groupname)
       throws FileNotFoundException, UnresolvedLinkException,
       QuotaExceededException, SnapshotAccessControlException {
-    writeLock();
+    final boolean exclusive = attributeLock();
     try {
       unprotectedSetOwner(src, username, groupname);
     } finally {
-      writeUnlock();
+      attributeUnlock(exclusive);
     }
   }
 
   void unprotectedSetOwner(String src, String username, String groupname)
       throws FileNotFoundException, UnresolvedLinkException,
       QuotaExceededException, SnapshotAccessControlException {
-    assert hasWriteLock();
+    assert hasAttributeLock();
     final INodesInPath inodesInPath = getINodesInPath4Write(src, true);
     INode inode = inodesInPath.getLastINode();
     if (inode == null) {
@@ -1242,6 +1312,7 @@ void unprotectedSetOwner(String src, String username, String groupname)
     if (groupname != null) {
       inode.setGroup(groupname, inodesInPath.getLatestSnapshotId());
     }
+    invalidateTraverseCache();
   }
 
   /**
@@ -1300,7 +1371,13 @@ void unprotectedConcat(String target, String [] srcs, long timestamp)
 
       allSrcInodes[i] = inode.asFile();
     }
+    final int trgPos = trgINodes.length - 1;
+    updateContentSummaryCount(trgIIP, trgPos, trgInode, false);
+    for (INodeFile src : allSrcInodes) {
+      updateContentSummaryCount(trgIIP, trgPos, src, false);
+    }
     trgInode.concatBlocks(allSrcInodes);
+    updateContentSummaryCount(trgIIP, trgPos, trgInode, true);
     
     // since we are in the same dir - we can use same parent to remove files
     int count = 0;
@@ -1858,6 +1935,131 @@ void updateCountForQuota() {
     updateCountForQuota(quotaInitThreads);
   }
 
+  /**
+   * Compute the content summary of each directory configured in
+   * {@link DFSConfigKeys#DFS_NAMENODE_CONTENT_SUMMARY_TRACKED_DIRS_KEY} and
+   * keep it in a {@link DirectoryWithContentSummaryFeature}, which is then
+   * updated on every namespace change below the directory.
+   */
+  void initContentSummaryTracking() {
+    if (contentSummaryTrackedDirs.length == 0) {
+      return;
+    }
+    writeLock();
+    try {
+      for (String path : contentSummaryTrackedDirs) {
+        INode inode = null;
+        try {
+          inode = getNode(normalizePath(path), false);
+        } catch (UnresolvedLinkException e) {
+          // not tracked, see below
+        }
+        if (inode == null || !inode.isDirectory()) {
+          LOG.warn("Not tracking the content summary of " + path
+              + " since it is not an existing directory");
+          continue;
+        }
+        final long start = Time.monotonicNow();
+        final List<Long> openFiles = new ArrayList<Long>();
+        final Content.Counts counts = DirectoryWithContentSummaryFeature
+            .computeCounts(inode, Content.Counts.newInstance(), openFiles);
+        inode.asDirectory().addDirectoryWithContentSummaryFeature(counts,
+            openFiles);
+        LOG.info("Tracking the content summary of " + path + ", initialized in "
+            + (Time.monotonicNow() - start) + " milliseconds: " + counts);
+      }
+    } finally {
+      writeUnlock();
+    }
+  }
+
+  /**
+   * Add or subtract the tracked counts of the given subtree on each
+   * directory with a {@link DirectoryWithContentSummaryFeature} among the
+   * inodes at [0, pos-1].
+   */
+  private void updateContentSummaryCount(INodesInPath iip, int pos,
+      INode inode, boolean add) {
+    if (contentSummaryTrackedDirs.length == 0) {
+      return;
+    }
+    final INode[] inodes = iip.getINodes();
+    Content.Counts counts = null;
+    final List<Long> openFiles = new ArrayList<Long>();
+    for (int i = 0; i < pos; i++) {
+      if (inodes[i] == null || !inodes[i].isDirectory()) {
+        continue;
+      }
+      final DirectoryWithContentSummaryFeature sf =
+          inodes[i].asDirectory().getDirectoryWithContentSummaryFeature();
+      if (sf != null) {
+        if (counts == null) {
+          counts = DirectoryWithContentSummaryFeature.computeCounts(inode,
+              Content.Counts.newInstance(), openFiles);
+        }
+        updateContentSummaryCount(sf, counts, openFiles, add);
+      }
+    }
+  }
+
+  /**
+   * Add or subtract the tracked counts of a file on each ancestor directory
+   * with a {@link DirectoryWithContentSummaryFeature}. Callers subtract the
+   * counts before changing the replication or the under construction state
+   * of the file and add them back afterwards, which also moves the file in or
+   * out of the open files of the feature as its lease is added or removed.
+   */
+  void updateContentSummaryCount(INodeFile file, boolean add) {
+    if (contentSummaryTrackedDirs.length == 0) {
+      return;
+    }
+    Content.Counts counts = null;
+    final List<Long> openFiles = new ArrayList<Long>(1);
+    for (INodeDirectory p = file.getParent(); p != null; p = p.getParent()) {
+      final DirectoryWithContentSummaryFeature sf =
+          p.getDirectoryWithContentSummaryFeature();
+      if (sf != null) {
+        if (counts == null) {
+          counts = DirectoryWithContentSummaryFeature.computeFileCounts(file,
+              Content.Counts.newInstance(), openFiles);
+        }
+        updateContentSummaryCount(sf, counts, openFiles, add);
+      }
+    }
+  }
+
+  /**
+   * Add or subtract a number of snapshots of the given snapshottable
+   * directory on the directory and each ancestor with a
+   * {@link DirectoryWithContentSummaryFeature}.
+   */
+  public void updateContentSummarySnapshotCount(INodeDirectory snapshotRoot,
+      int delta) {
+    if (contentSummaryTrackedDirs.length == 0) {
+      return;
+    }
+    final Content.Counts counts = Content.Counts.newInstance();
+    counts.add(Content.SNAPSHOT, delta);
+    final List<Long> openFiles = Collections.emptyList();
+    for (INodeDirectory p = snapshotRoot; p != null; p = p.getParent()) {
+      final DirectoryWithContentSummaryFeature sf =
+          p.getDirectoryWithContentSummaryFeature();
+      if (sf != null) {
+        updateContentSummaryCount(sf, counts, openFiles, true);
+      }
+    }
+  }
+
+  private static void updateContentSummaryCount(
+      DirectoryWithContentSummaryFeature sf, Content.Counts counts,
+      List<Long> openFiles, boolean add) {
+    if (add) {
+      sf.add(counts, openFiles);
+    } else {
+      sf.subtract(counts, openFiles);
+    }
+  }
+
   /**
    * parallel initialization using fork-join.
    */
@@ -2360,6 +2562,7 @@ private boolean addChild(INodesInPath iip, int pos, INode child,
         copyINodeDefaultAcl(child, modes);
       }
       addToInodeMap(child);
+      updateContentSummaryCount(iip, pos, child, true);
     }
     return added;
   }
@@ -2392,6 +2595,7 @@ public long removeLastINode(final INodesInPath iip) {
     if (!parent.removeChild(last, latestSnapshot)) {
       return -1;
     }
+    updateContentSummaryCount(iip, iip.length() - 1, last, false);
 
     return (!last.isInLatestSnapshot(latestSnapshot)
         && INodeReference.tryRemoveReference(last) > 0) ? 0 : 1;
@@ -2422,6 +2626,14 @@ ContentSummary getContentSummary(String src)
             contentCountLimit, contentSleepMicroSec);
         final byte[][] components = INode.getPathComponents(src);
         final INodesInPath iip = INodesInPath.resolve(rootDir, components);
+        if (iip.getPathSnapshotId() == Snapshot.CURRENT_STATE_ID
+            && targetNode.isDirectory()) {
+          final ContentSummary tracked =
+              getTrackedContentSummary(targetNode.asDirectory());
+          if (tracked != null) {
+            return tracked;
+          }
+        }
         ContentSummary cs = targetNode.computeAndConvertContentSummary(
             iip.getPathSnapshotId(), cscc);
         yieldCount += cscc.getYieldCount();
@@ -2432,6 +2644,58 @@ ContentSummary getContentSummary(String src)
     }
   }
 
+  /**
+   * Get the content summary of a directory from its
+   * {@link DirectoryWithContentSummaryFeature}. The length of the files under
+   * construction in the subtree is added from the open files of the feature,
+   * so the cost is proportional to the number of open files in the subtree
+   * rather than to its size.
+   *
+   * @return the content summary, or null if the directory is not tracked or
+   *         its subtree is in a snapshot, since the files that only exist in
+   *         snapshots are not tracked.
+   */
+  private ContentSummary getTrackedContentSummary(INodeDirectory dir) {
+    final DirectoryWithContentSummaryFeature sf =
+        dir.getDirectoryWithContentSummaryFeature();
+    if (sf == null) {
+      return null;
+    }
+    final Content.Counts counts = sf.getCounts();
+    if (counts.get(Content.SNAPSHOT) > 0) {
+      return null;
+    }
+    for (INodeDirectory p = dir.getParent(); p != null; p = p.getParent()) {
+      if (p.isSnapshottable()
+          && p.getDirectorySnapshottableFeature().getNumSnapshots() > 0) {
+        return null;
+      }
+    }
+
+    for (Long id : sf.getOpenFiles()) {
+      final INode inode = getInode(id);
+      if (inode == null || !inode.isFile()) {
+        continue;
+      }
+      final INodeFile file = inode.asFile();
+      if (file.isUnderConstruction()) {
+        counts.add(Content.LENGTH, file.computeFileSize());
+        counts.add(Content.DISKSPACE, file.diskspaceConsumed());
+      }
+    }
+    final Quota.Counts q = dir.getQuotaCounts();
+    return new ContentSummary(counts.get(Content.LENGTH),
+        counts.get(Content.FILE) + counts.get(Content.SYMLINK),
+        counts.get(Content.DIRECTORY), q.get(Quota.NAMESPACE),
+        counts.get(Content.DISKSPACE), q.get(Quota.DISKSPACE),
+        0, 0, 0, 0);
+  }
+
+  /** @return the maximum number of entries in a partial listing. */
+  int getLsLimit() {
+    return lsLimit;
+  }
+
   @VisibleForTesting
   public long getYieldCount() {
     return yieldCount;
@@ -2450,10 +2714,26 @@ public final void addToInodeMap(INode inode) {
       if (!inode.isSymlink()) {
         final XAttrFeature xaf = inode.getXAttrFeature();
         addEncryptionZone((INodeWithAdditionalFields) inode, xaf);
+        if (inode.isFile() && xaf != null) {
+          for (XAttr xattr : xaf.getXAttrs()) {
+            if (HOT_FILE_XATTR_ORIGINAL_REPLICATION.equals(
+                XAttrHelper.getPrefixName(xattr))) {
+              hotFileIds.add(inode.getId());
+            }
+          }
+        }
       }
     }
   }
 
+  /**
+   * @return the ids of the files which carry the original replication
+   *         xattr of a hot file
+   */
+  Set<Long> getHotFileIds() {
+    return hotFileIds;
+  }
+
   private void addEncryptionZone(INodeWithAdditionalFields inode,
       XAttrFeature xaf) {
     if (xaf == null) {
@@ -2503,6 +2783,7 @@ public final void removeFromInodeMap(List<? extends INode> inodes) {
         if (inode != null && inode instanceof INodeWithAdditionalFields) {
           inodeMap.remove(inode);
           ezManager.removeEncryptionZone(inode.getId());
+          hotFileIds.remove(inode.getId());
         }
       }
     }
@@ -2606,11 +2887,11 @@ long totalInodes() {
    */
   boolean setTimes(INode inode, long mtime, long atime, boolean force,
                    int latestSnapshotId) throws QuotaExceededException {
-    writeLock();
+    final boolean exclusive = attributeLock();
     try {
       return unprotectedSetTimes(inode, mtime, atime, force, latestSnapshotId);
     } finally {
-      writeUnlock();
+      attributeUnlock(exclusive);
     }
   }
 
@@ -2624,7 +2905,7 @@ boolean unprotectedSetTimes(String src, long mtime, long atime, boolean force)
 
   private boolean unprotectedSetTimes(INode inode, long mtime,
       long atime, boolean force, int latest) throws QuotaExceededException {
-    assert hasWriteLock();
+    assert hasAttributeLock();
     boolean status = false;
     if (mtime != -1) {
       inode = inode.setModificationTime(mtime, latest);
@@ -2653,6 +2934,7 @@ void reset() {
       inodeMap.clear();
       addToInodeMap(rootDir);
       nameCache.reset();
+      invalidateTraverseCache();
     } finally {
       writeUnlock();
     }
@@ -2847,6 +3129,7 @@ private List<AclEntry> unprotectedModifyAclEntries(String src,
     List<AclEntry> newAcl = AclTransformation.mergeAclEntries(existingAcl,
       aclSpec);
     AclStorage.updateINodeAcl(inode, newAcl, snapshotId);
+    invalidateTraverseCache();
     return newAcl;
   }
 
@@ -2869,6 +3152,7 @@ private List<AclEntry> unprotectedRemoveAclEntries(String src,
     List<AclEntry> newAcl = AclTransformation.filterAclEntriesByAclSpec(
       existingAcl, aclSpec);
     AclStorage.updateINodeAcl(inode, newAcl, snapshotId);
+    invalidateTraverseCache();
     return newAcl;
   }
 
@@ -2891,6 +3175,7 @@ private List<AclEntry> unprotectedRemoveDefaultAcl(String src)
     List<AclEntry> newAcl = AclTransformation.filterDefaultAclEntries(
       existingAcl);
     AclStorage.updateINodeAcl(inode, newAcl, snapshotId);
+    invalidateTraverseCache();
     return newAcl;
   }
 
@@ -2909,6 +3194,7 @@ private void unprotectedRemoveAcl(String src) throws IOException {
     INode inode = resolveLastINode(src, iip);
     int snapshotId = iip.getLatestSnapshotId();
     AclStorage.removeINodeAcl(inode, snapshotId);
+    invalidateTraverseCache();
   }
 
   List<AclEntry> setAcl(String src, List<AclEntry> aclSpec) throws IOException {
@@ -2939,6 +3225,7 @@ List<AclEntry> unprotectedSetAcl(
       newAcl = AclTransformation.replaceAclEntries(existingAcl, aclSpec);
     }
     AclStorage.updateINodeAcl(inode, newAcl, snapshotId);
+    invalidateTraverseCache();
     return newAcl;
   }
 
@@ -2997,6 +3284,12 @@ List<XAttr> unprotectedRemoveXAttrs(final String src,
         removedXAttrs);
     if (existingXAttrs.size() != newXAttrs.size()) {
       XAttrStorage.updateINodeXAttrs(inode, newXAttrs, snapshotId);
+      for (XAttr xattr : removedXAttrs) {
+        if (HOT_FILE_XATTR_ORIGINAL_REPLICATION.equals(
+            XAttrHelper.getPrefixName(xattr))) {
+          hotFileIds.remove(inode.getId());
+        }
+      }
       return removedXAttrs;
     }
     return null;
@@ -3453,6 +3746,10 @@ INode unprotectedSetXAttrs(final String src, final List<XAttr> xAttrs,
         throw new IOException("Can only set '" +
             SECURITY_XATTR_UNREADABLE_BY_SUPERUSER + "' on a file.");
       }
+
+      if (isFile && HOT_FILE_XATTR_ORIGINAL_REPLICATION.equals(xaName)) {
+        hotFileIds.add(inode.getId());
+      }
     }
 
     XAttrStorage.updateINodeXAttrs(inode, newXAttrs, snapshotId);
@@ -3818,6 +4115,21 @@ INodesInPath getINodesInPath4Write(String src, boolean resolveLink)
     return inodesInPath;
   }
 
+  /** @return the cache of passed traverse checks, or null if disabled */
+  PermissionTraverseCache getTraverseCache() {
+    return traverseCache;
+  }
+
+  /**
+   * Make the cached traverse checks stale. Called after a change of
+   * permissions, owners, ACLs or of the tree structure.
+   */
+  private void invalidateTraverseCache() {
+    if (traverseCache != null) {
+      traverseCache.invalidate();
+    }
+  }
+
   FSPermissionChecker getPermissionChecker()
     throws AccessControlException {
     try {
@@ -1563,12 +1563,30 @@ public Collection<EditLogInputStream> selectInputStreams(
   public Collection<EditLogInputStream> selectInputStreams(
       long fromTxId, long toAtLeastTxId, MetaRecoveryContext recovery,
       boolean inProgressOk) throws IOException {
+    return selectInputStreams(fromTxId, toAtLeastTxId, recovery, inProgressOk,
+        false);
+  }
+
+  /**
+   * Select a list of input streams.
+   *
+   * @param fromTxId first transaction in the selected streams
+   * @param toAtLeastTxId the selected streams must contain this transaction
+   * @param recovery recovery context
+   * @param inProgressOk set to true if in-progress streams are OK
+   * @param onlyDurableTxns set to true if in-progress streams must only
+   *        contain transactions which are durable in the journals
+   */
+  public Collection<EditLogInputStream> selectInputStreams(
+      long fromTxId, long toAtLeastTxId, MetaRecoveryContext recovery,
+      boolean inProgressOk, boolean onlyDurableTxns) throws IOException {
 
     List<EditLogInputStream> streams = new ArrayList<EditLogInputStream>();
     synchronized(journalSetLock) {
       Preconditions.checkState(journalSet.isOpen(), "Cannot call " +
           "selectInputStreams() on closed FSEditLog");
-      selectInputStreams(streams, fromTxId, inProgressOk);
+      journalSet.selectInputStreams(streams, fromTxId, inProgressOk,
+          onlyDurableTxns);
     }
 
     try {
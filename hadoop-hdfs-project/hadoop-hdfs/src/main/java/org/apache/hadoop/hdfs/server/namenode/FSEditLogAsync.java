@@ -24,15 +24,21 @@
 import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.ipc.Server;
 import org.apache.hadoop.util.ExitUtil;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 class FSEditLogAsync extends FSEditLog implements Runnable {
   static final Log LOG = LogFactory.getLog(FSEditLog.class);
@@ -43,18 +49,32 @@ class FSEditLogAsync extends FSEditLog implements Runnable {
   private static ThreadLocal<Edit> threadEdit = new ThreadLocal<Edit>();
 
   // requires concurrent access from caller threads and syncing thread.
-  private final BlockingQueue<Edit> editPendingQ =
-      new ArrayBlockingQueue<Edit>(4096);
+  private final BlockingQueue<Edit> editPendingQ;
+
+  // throttles callers contending for a full edit pending queue.
+  private final Semaphore overflowMutex = new Semaphore(8);
 
   // only accessed by syncing thread so no synchronization required.
   // queue is unbounded because it's effectively limited by the size
   // of the edit log buffer - ie. a sync will eventually be forced.
   private final Deque<Edit> syncWaitQ = new ArrayDeque<Edit>();
 
+  // sends the deferred rpc responses so the sync thread can go back to
+  // syncing instead of writing responses to client connections. started
+  // and stopped along with the sync thread.
+  private volatile ExecutorService logSyncNotifyExecutor;
+
   FSEditLogAsync(Configuration conf, NNStorage storage, List<URI> editsDirs) {
     super(conf, storage, editsDirs);
     // op instances cannot be shared due to queuing for background thread.
     cache.disableCache();
+    int queueSize = conf.getInt(
+        DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING_PENDING_QUEUE_SIZE,
+        DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING_PENDING_QUEUE_SIZE_DEFAULT);
+    Preconditions.checkArgument(queueSize > 0,
+        DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING_PENDING_QUEUE_SIZE +
+        " must be positive");
+    editPendingQ = new ArrayBlockingQueue<Edit>(queueSize);
   }
 
   private boolean isSyncThreadAlive() {
@@ -66,6 +86,14 @@ private boolean isSyncThreadAlive() {
   private void startSyncThread() {
     synchronized(syncThreadLock) {
       if (!isSyncThreadAlive()) {
+        if (logSyncNotifyExecutor == null) {
+          logSyncNotifyExecutor = Executors.newSingleThreadExecutor(
+              new ThreadFactoryBuilder()
+                  .setDaemon(true)
+                  .setNameFormat(
+                      getClass().getSimpleName() + "-NotifyThread-%d")
+                  .build());
+        }
         syncThread = new Thread(this, this.getClass().getSimpleName());
         syncThread.start();
       }
@@ -84,6 +112,18 @@ private void stopSyncThread() {
           syncThread = null;
         }
       }
+      // the sync thread is gone so no more responses will be queued. let
+      // the ones already queued go out and release the notify thread.
+      if (logSyncNotifyExecutor != null) {
+        logSyncNotifyExecutor.shutdown();
+        try {
+          logSyncNotifyExecutor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } finally {
+          logSyncNotifyExecutor = null;
+        }
+      }
     }
   }
 
@@ -153,7 +193,26 @@ private void enqueueEdit(Edit edit) {
       if (!editPendingQ.offer(edit, 1, TimeUnit.SECONDS)) {
         Preconditions.checkState(
             isSyncThreadAlive(), "sync thread is not alive");
-        editPendingQ.put(edit);
+        if (Thread.holdsLock(this)) {
+          // a caller synchronized on the log (ex. log rolling) must give up
+          // the monitor while the queue is full, since the sync thread needs
+          // it to write the queued transactions.
+          int permits = overflowMutex.drainPermits();
+          try {
+            do {
+              this.wait(1000); // will be notified by the next logSync.
+            } while (!editPendingQ.offer(edit));
+          } finally {
+            overflowMutex.release(permits);
+          }
+        } else {
+          overflowMutex.acquire();
+          try {
+            editPendingQ.put(edit);
+          } finally {
+            overflowMutex.release();
+          }
+        }
       }
     } catch (Throwable t) {
       // should never happen!  failure to enqueue an edit is fatal
@@ -212,7 +271,7 @@ private Edit getEditInstance(FSEditLogOp op) {
     final Server.Call rpcCall = Server.getCurCall().get();
     // only rpc calls not explicitly sync'ed on the log will be async.
     if (rpcCall != null && !Thread.holdsLock(this)) {
-      edit = new RpcEdit(this, op, rpcCall);
+      edit = new RpcEdit(this, op, rpcCall, logSyncNotifyExecutor);
     } else {
       edit = new SyncEdit(this, op);
     }
@@ -290,10 +349,13 @@ public String toString() {
   // rpc response will not be sent until the edit is durable.
   private static class RpcEdit extends Edit {
     private final Server.Call call;
+    private final ExecutorService notifyExecutor;
 
-    RpcEdit(FSEditLog log, FSEditLogOp op, Server.Call call) {
+    RpcEdit(FSEditLog log, FSEditLogOp op, Server.Call call,
+        ExecutorService notifyExecutor) {
       super(log, op);
       this.call = call;
+      this.notifyExecutor = notifyExecutor;
       call.postponeResponse();
     }
 
@@ -304,14 +366,26 @@ public void logSyncWait() {
     }
 
     @Override
-    public void logSyncNotify(RuntimeException syncEx) {
-      try {
-        if (syncEx == null) {
-          call.sendResponse();
-        } else {
-          call.abortResponse(syncEx);
+    public void logSyncNotify(final RuntimeException syncEx) {
+      // sending a response may write to the client's connection, so hand it
+      // off instead of delaying the next group commit.
+      Runnable responseSender = new Runnable() {
+        @Override
+        public void run() {
+          try {
+            if (syncEx == null) {
+              call.sendResponse();
+            } else {
+              call.abortResponse(syncEx);
+            }
+          } catch (Exception e) {} // don't care if not sent.
         }
-      } catch (Exception e) {} // don't care if not sent.
+      };
+      try {
+        notifyExecutor.execute(responseSender);
+      } catch (RejectedExecutionException ree) {
+        responseSender.run();
+      }
     }
 
     @Override
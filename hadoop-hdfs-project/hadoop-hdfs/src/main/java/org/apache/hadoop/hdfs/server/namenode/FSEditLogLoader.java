@@ -446,7 +446,9 @@ private long applyEditLogOp(FSEditLogOp op, FSDirectory fsDir,
       // but OP_CLOSE doesn't serialize the holder. So, remove the inode.
       if (file.isUnderConstruction()) {
         fsNamesys.leaseManager.removeLeases(Lists.newArrayList(file.getId()));
+        fsDir.updateContentSummaryCount(file, false);
         file.toCompleteFile(file.getModificationTime());
+        fsDir.updateContentSummaryCount(file, true);
       }
       break;
     }
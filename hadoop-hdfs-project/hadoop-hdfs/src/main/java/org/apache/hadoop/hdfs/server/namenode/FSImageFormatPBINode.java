@@ -20,12 +20,18 @@
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -183,10 +189,20 @@ public static void updateBlocksMap(INodeFile file, BlockManager bm) {
       }
     }
 
+    /**
+     * Number of inodes added to the inode map, name cache or blocks map per
+     * acquisition of the corresponding lock below.
+     */
+    private static final int INODE_BATCH_SIZE = 1024;
+
     private final FSDirectory dir;
     private final FSNamesystem fsn;
     private final FSImageFormatProtobuf.Loader parent;
     private final List<INodeFile> ucFiles;
+    // Guard the structures shared by the threads of a parallel load.
+    private final Object inodeMapLock = new Object();
+    private final Object nameCacheLock = new Object();
+    private final Object blocksMapLock = new Object();
 
     Loader(FSNamesystem fsn, final FSImageFormatProtobuf.Loader parent) {
       this.fsn = fsn;
@@ -198,6 +214,7 @@ public static void updateBlocksMap(INodeFile file, BlockManager bm) {
     void loadINodeDirectorySection(InputStream in) throws IOException {
       final List<INodeReference> refList = parent.getLoaderContext()
           .getRefList();
+      final List<INode> added = new ArrayList<INode>(INODE_BATCH_SIZE);
       while (true) {
         INodeDirectorySection.DirEntry e = INodeDirectorySection.DirEntry
             .parseDelimitedFrom(in);
@@ -208,22 +225,58 @@ void loadINodeDirectorySection(InputStream in) throws IOException {
         INodeDirectory p = dir.getInode(e.getParent()).asDirectory();
         for (long id : e.getChildrenList()) {
           INode child = dir.getInode(id);
-          addToParent(p, child);
+          if (addToParent(p, child)) {
+            added.add(child);
+          }
         }
         for (int refId : e.getRefChildrenList()) {
           INodeReference ref = refList.get(refId);
-          addToParent(p, ref);
+          if (addToParent(p, ref)) {
+            added.add(ref);
+          }
+        }
+        if (added.size() >= INODE_BATCH_SIZE) {
+          addToCacheAndBlocksMap(added);
+          added.clear();
         }
       }
+      addToCacheAndBlocksMap(added);
+    }
+
+    /**
+     * Load the sub-sections of the INODE_DIR section on the given executor.
+     * Every directory is written in exactly one entry, so the threads never
+     * modify the same parent.
+     */
+    void loadINodeDirectorySectionInParallel(ExecutorService service,
+        List<FileSummary.Section> sections, final String compressionCodec)
+        throws IOException {
+      LOG.info("Loading the INodeDirectory section in parallel with "
+          + sections.size() + " sub-sections");
+      List<Future<Integer>> results =
+          new ArrayList<Future<Integer>>(sections.size());
+      for (final FileSummary.Section s : sections) {
+        results.add(service.submit(new Callable<Integer>() {
+          @Override
+          public Integer call() throws IOException {
+            InputStream in = parent.getInputStreamForSection(s,
+                compressionCodec);
+            try {
+              loadINodeDirectorySection(in);
+            } finally {
+              in.close();
+            }
+            return 0;
+          }
+        }));
+      }
+      waitForAll(results);
+      LOG.info("Completed loading the INodeDirectory section.");
     }
 
     void loadINodeSection(InputStream in, StartupProgress prog,
         Step currentStep) throws IOException {
-      INodeSection s = INodeSection.parseDelimitedFrom(in);
-      fsn.resetLastInodeId(s.getLastInodeId());
-      long numInodes = s.getNumInodes();
-      LOG.info("Loading " + numInodes + " INodes.");
-      prog.setTotal(Phase.LOADING_FSIMAGE, currentStep, numInodes);
+      long numInodes = loadINodeSectionHeader(in, prog, currentStep);
       Counter counter = prog.getCounter(Phase.LOADING_FSIMAGE, currentStep);
       for (int i = 0; i < numInodes; ++i) {
         INodeSection.INode p = INodeSection.INode.parseDelimitedFrom(in);
@@ -237,6 +290,142 @@ void loadINodeSection(InputStream in, StartupProgress prog,
       }
     }
 
+    /**
+     * Load the sub-sections of the INODE section on the given executor. The
+     * section header is part of the first sub-section and is read before
+     * any of the sub-sections are submitted.
+     */
+    void loadINodeSectionInParallel(ExecutorService service,
+        List<FileSummary.Section> sections, final String compressionCodec,
+        StartupProgress prog, Step currentStep) throws IOException {
+      LOG.info("Loading the INode section in parallel with "
+          + sections.size() + " sub-sections");
+      final Counter counter = prog.getCounter(Phase.LOADING_FSIMAGE,
+          currentStep);
+      final InputStream first = parent.getInputStreamForSection(
+          sections.get(0), compressionCodec);
+      long expectedInodes;
+      try {
+        expectedInodes = loadINodeSectionHeader(first, prog, currentStep);
+      } catch (IOException e) {
+        first.close();
+        throw e;
+      }
+
+      List<Future<Integer>> results =
+          new ArrayList<Future<Integer>>(sections.size());
+      results.add(service.submit(new Callable<Integer>() {
+        @Override
+        public Integer call() throws IOException {
+          return loadINodesInSection(first, counter);
+        }
+      }));
+      for (final FileSummary.Section s : sections.subList(1, sections.size())) {
+        results.add(service.submit(new Callable<Integer>() {
+          @Override
+          public Integer call() throws IOException {
+            return loadINodesInSection(
+                parent.getInputStreamForSection(s, compressionCodec),
+                counter);
+          }
+        }));
+      }
+      long loaded = waitForAll(results);
+      if (loaded != expectedInodes) {
+        throw new IOException("Expected to load " + expectedInodes
+            + " INodes but loaded " + loaded + " from the sub-sections. The"
+            + " image may be corrupt.");
+      }
+      LOG.info("Completed loading " + loaded + " INodes.");
+    }
+
+    private long loadINodeSectionHeader(InputStream in, StartupProgress prog,
+        Step currentStep) throws IOException {
+      INodeSection s = INodeSection.parseDelimitedFrom(in);
+      fsn.resetLastInodeId(s.getLastInodeId());
+      long numInodes = s.getNumInodes();
+      LOG.info("Loading " + numInodes + " INodes.");
+      prog.setTotal(Phase.LOADING_FSIMAGE, currentStep, numInodes);
+      return numInodes;
+    }
+
+    /**
+     * Load all the inodes of one sub-section and close the stream.
+     * @return the number of inodes loaded
+     */
+    private int loadINodesInSection(InputStream in, Counter counter)
+        throws IOException {
+      final List<INode> batch = new ArrayList<INode>(INODE_BATCH_SIZE);
+      int loaded = 0;
+      try {
+        while (true) {
+          INodeSection.INode p = INodeSection.INode.parseDelimitedFrom(in);
+          // in is a LimitedInputStream ending with the sub-section
+          if (p == null) {
+            break;
+          }
+          if (p.getId() == INodeId.ROOT_INODE_ID) {
+            synchronized (inodeMapLock) {
+              loadRootINode(p);
+            }
+          } else {
+            batch.add(loadINode(p));
+            if (batch.size() >= INODE_BATCH_SIZE) {
+              addToInodeMap(batch);
+              batch.clear();
+            }
+          }
+          loaded++;
+          counter.increment();
+        }
+        addToInodeMap(batch);
+      } finally {
+        in.close();
+      }
+      return loaded;
+    }
+
+    private void addToInodeMap(List<INode> inodes) {
+      synchronized (inodeMapLock) {
+        for (INode n : inodes) {
+          dir.addToInodeMap(n);
+        }
+      }
+    }
+
+    /**
+     * Wait for all the given tasks, so that no loader thread is still
+     * running when this returns, and rethrow the first failure.
+     * @return the sum of the task results
+     */
+    private static long waitForAll(List<Future<Integer>> results)
+        throws IOException {
+      long total = 0;
+      IOException failure = null;
+      for (Future<Integer> f : results) {
+        try {
+          total += f.get();
+        } catch (InterruptedException e) {
+          for (Future<Integer> r : results) {
+            r.cancel(true);
+          }
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException(
+              "Interrupted while loading the image in parallel");
+        } catch (ExecutionException e) {
+          LOG.error("Failed to load an image sub-section", e.getCause());
+          if (failure == null) {
+            failure = e.getCause() instanceof IOException
+                ? (IOException) e.getCause() : new IOException(e.getCause());
+          }
+        }
+      }
+      if (failure != null) {
+        throw failure;
+      }
+      return total;
+    }
+
     /**
      * Load the under-construction files section, and update the lease map
      */
@@ -263,7 +452,12 @@ void loadFilesUnderConstructionSection(InputStream in) throws IOException {
       }
     }
 
-    private void addToParent(INodeDirectory parent, INode child) {
+    /**
+     * Add the child to its parent. The caller must then pass the child to
+     * {@link #addToCacheAndBlocksMap(List)} if it was added.
+     * @return true if the child was added
+     */
+    private boolean addToParent(INodeDirectory parent, INode child) {
       if (parent == dir.rootDir && FSDirectory.isReservedName(child)) {
         throw new HadoopIllegalArgumentException("File name \""
             + child.getLocalName() + "\" is reserved. Please "
@@ -271,13 +465,21 @@ private void addToParent(INodeDirectory parent, INode child) {
             + "name before upgrading to this release.");
       }
       // NOTE: This does not update space counts for parents
-      if (!parent.addChild(child)) {
-        return;
-      }
-      dir.cacheName(child);
+      return parent.addChild(child);
+    }
 
-      if (child.isFile()) {
-        updateBlocksMap(child.asFile(), fsn.getBlockManager());
+    private void addToCacheAndBlocksMap(List<INode> inodes) {
+      synchronized (nameCacheLock) {
+        for (INode child : inodes) {
+          dir.cacheName(child);
+        }
+      }
+      synchronized (blocksMapLock) {
+        for (INode child : inodes) {
+          if (child.isFile()) {
+            updateBlocksMap(child.asFile(), fsn.getBlockManager());
+          }
+        }
       }
     }
 
@@ -327,7 +529,9 @@ private INodeFile loadINodeFile(INodeSection.INode n) {
 
       // under-construction information
       if (f.hasFileUC()) {
-        ucFiles.add(file);
+        synchronized (ucFiles) {
+          ucFiles.add(file);
+        }
         INodeSection.FileUnderConstructionFeature uc = f.getFileUC();
         file.toUnderConstruction(uc.getClientName(), uc.getClientMachine());
         if (blocks.length > 0) {
@@ -479,39 +683,68 @@ public static INodeSection.INodeDirectory.Builder buildINodeDirectory(
     void serializeINodeDirectorySection(OutputStream out) throws IOException {
       Iterator<INodeWithAdditionalFields> iter = fsn.getFSDirectory()
           .getINodeMap().getMapIterator();
-      final ArrayList<INodeReference> refList = parent.getSaverContext()
-          .getRefList();
-      int i = 0;
-      while (iter.hasNext()) {
-        INodeWithAdditionalFields n = iter.next();
-        if (!n.isDirectory()) {
-          continue;
+      if (parent.isWritingSubSections()) {
+        parent.saveSubSections(summary,
+            FSImageFormatProtobuf.SectionName.INODE_DIR_SUB,
+            new INodeBatches(iter, parent.getInodesPerSubSection()) {
+              @Override
+              long weight(INodeWithAdditionalFields n) {
+                return n.isDirectory() ? n.asDirectory().getChildrenList(
+                    Snapshot.CURRENT_STATE_ID).size() : 0;
+              }
+            },
+            new FSImageFormatProtobuf.SubSectionSerializer<
+                INodeWithAdditionalFields>() {
+              @Override
+              public void serialize(OutputStream out,
+                  List<INodeWithAdditionalFields> items) throws IOException {
+                for (INodeWithAdditionalFields n : items) {
+                  saveDirEntry(out, n.asDirectory());
+                }
+              }
+            });
+      } else {
+        int i = 0;
+        while (iter.hasNext()) {
+          INodeWithAdditionalFields n = iter.next();
+          if (!n.isDirectory()) {
+            continue;
+          }
+          saveDirEntry(out, n.asDirectory());
+
+          ++i;
+          if (i % FSImageFormatProtobuf.Saver.CHECK_CANCEL_INTERVAL == 0) {
+            context.checkCancelled();
+          }
         }
+      }
+      parent.commitSection(summary,
+          FSImageFormatProtobuf.SectionName.INODE_DIR);
+    }
 
-        ReadOnlyList<INode> children = n.asDirectory().getChildrenList(
-            Snapshot.CURRENT_STATE_ID);
-        if (children.size() > 0) {
-          INodeDirectorySection.DirEntry.Builder b = INodeDirectorySection.
-              DirEntry.newBuilder().setParent(n.getId());
-          for (INode inode : children) {
-            if (!inode.isReference()) {
-              b.addChildren(inode.getId());
-            } else {
+    private void saveDirEntry(OutputStream out, INodeDirectory n)
+        throws IOException {
+      ReadOnlyList<INode> children = n.getChildrenList(
+          Snapshot.CURRENT_STATE_ID);
+      if (children.size() > 0) {
+        final ArrayList<INodeReference> refList = parent.getSaverContext()
+            .getRefList();
+        INodeDirectorySection.DirEntry.Builder b = INodeDirectorySection.
+            DirEntry.newBuilder().setParent(n.getId());
+        for (INode inode : children) {
+          if (!inode.isReference()) {
+            b.addChildren(inode.getId());
+          } else {
+            // Sub-sections may be serialized concurrently.
+            synchronized (refList) {
               refList.add(inode.asReference());
               b.addRefChildren(refList.size() - 1);
             }
           }
-          INodeDirectorySection.DirEntry e = b.build();
-          e.writeDelimitedTo(out);
-        }
-
-        ++i;
-        if (i % FSImageFormatProtobuf.Saver.CHECK_CANCEL_INTERVAL == 0) {
-          context.checkCancelled();
         }
+        INodeDirectorySection.DirEntry e = b.build();
+        e.writeDelimitedTo(out);
       }
-      parent.commitSection(summary,
-          FSImageFormatProtobuf.SectionName.INODE_DIR);
     }
 
     void serializeINodeSection(OutputStream out) throws IOException {
@@ -522,14 +755,35 @@ void serializeINodeSection(OutputStream out) throws IOException {
       INodeSection s = b.build();
       s.writeDelimitedTo(out);
 
-      int i = 0;
       Iterator<INodeWithAdditionalFields> iter = inodesMap.getMapIterator();
-      while (iter.hasNext()) {
-        INodeWithAdditionalFields n = iter.next();
-        save(out, n);
-        ++i;
-        if (i % FSImageFormatProtobuf.Saver.CHECK_CANCEL_INTERVAL == 0) {
-          context.checkCancelled();
+      if (parent.isWritingSubSections()) {
+        parent.saveSubSections(summary,
+            FSImageFormatProtobuf.SectionName.INODE_SUB,
+            new INodeBatches(iter, parent.getInodesPerSubSection()) {
+              @Override
+              long weight(INodeWithAdditionalFields n) {
+                return 1;
+              }
+            },
+            new FSImageFormatProtobuf.SubSectionSerializer<
+                INodeWithAdditionalFields>() {
+              @Override
+              public void serialize(OutputStream out,
+                  List<INodeWithAdditionalFields> items) throws IOException {
+                for (INodeWithAdditionalFields n : items) {
+                  save(out, n);
+                }
+              }
+            });
+      } else {
+        int i = 0;
+        while (iter.hasNext()) {
+          INodeWithAdditionalFields n = iter.next();
+          save(out, n);
+          ++i;
+          if (i % FSImageFormatProtobuf.Saver.CHECK_CANCEL_INTERVAL == 0) {
+            context.checkCancelled();
+          }
         }
       }
       parent.commitSection(summary, FSImageFormatProtobuf.SectionName.INODE);
@@ -623,6 +877,61 @@ private final INodeSection.INode.Builder buildINodeCommon(INode n) {
     }
   }
 
+  /**
+   * Groups the inodes of an iterator into batches for sub-sections. Each
+   * batch holds inodes until their total weight reaches the batch size, and
+   * inodes of weight 0 are skipped.
+   */
+  private abstract static class INodeBatches
+      implements Iterator<List<INodeWithAdditionalFields>> {
+    private final Iterator<INodeWithAdditionalFields> iter;
+    private final long batchSize;
+    private List<INodeWithAdditionalFields> next;
+
+    INodeBatches(Iterator<INodeWithAdditionalFields> iter, long batchSize) {
+      this.iter = iter;
+      this.batchSize = batchSize;
+    }
+
+    abstract long weight(INodeWithAdditionalFields n);
+
+    @Override
+    public boolean hasNext() {
+      if (next == null) {
+        List<INodeWithAdditionalFields> batch =
+            new ArrayList<INodeWithAdditionalFields>();
+        long total = 0;
+        while (total < batchSize && iter.hasNext()) {
+          INodeWithAdditionalFields n = iter.next();
+          long w = weight(n);
+          if (w > 0) {
+            batch.add(n);
+            total += w;
+          }
+        }
+        if (!batch.isEmpty()) {
+          next = batch;
+        }
+      }
+      return next != null;
+    }
+
+    @Override
+    public List<INodeWithAdditionalFields> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      List<INodeWithAdditionalFields> batch = next;
+      next = null;
+      return batch;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
   private FSImageFormatPBINode() {
   }
 }
@@ -22,29 +22,42 @@
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.security.DigestOutputStream;
 import java.security.MessageDigest;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.hadoop.io.compress.CompressionOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.CacheDirectiveInfoProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.CachePoolInfoProto;
@@ -56,6 +69,7 @@
 import org.apache.hadoop.hdfs.server.namenode.FsImageProto.NameSystemSection;
 import org.apache.hadoop.hdfs.server.namenode.FsImageProto.SecretManagerSection;
 import org.apache.hadoop.hdfs.server.namenode.FsImageProto.StringTableSection;
+import org.apache.hadoop.hdfs.server.namenode.metrics.NameNodeMetrics;
 import org.apache.hadoop.hdfs.server.namenode.snapshot.FSImageFormatPBSnapshot;
 import org.apache.hadoop.hdfs.server.namenode.startupprogress.Phase;
 import org.apache.hadoop.hdfs.server.namenode.startupprogress.StartupProgress;
@@ -64,12 +78,16 @@
 import org.apache.hadoop.hdfs.server.namenode.startupprogress.StepType;
 import org.apache.hadoop.hdfs.util.MD5FileUtils;
 import org.apache.hadoop.io.MD5Hash;
+import org.apache.hadoop.io.compress.CodecPool;
 import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.Compressor;
 import org.apache.hadoop.util.LimitInputStream;
+import org.apache.hadoop.util.StringUtils;
 import org.apache.hadoop.util.Time;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.protobuf.CodedOutputStream;
 
 /**
@@ -102,7 +120,8 @@ static <T> DeduplicationMap<T> newMap() {
         return new DeduplicationMap<T>();
       }
 
-      int getId(E value) {
+      // Called concurrently when sub-sections are serialized in parallel.
+      synchronized int getId(E value) {
         if (value == null) {
           return 0;
         }
@@ -152,6 +171,8 @@ public static final class Loader implements FSImageFormat.AbstractLoader {
      * when we're doing (rollingUpgrade rollback).
      */
     private final boolean requireSameLayoutVersion;
+    /** The image file being loaded, reopened for each parallel sub-section */
+    private File filename;
 
     Loader(Configuration conf, FSNamesystem fsn,
         boolean requireSameLayoutVersion) {
@@ -176,6 +197,7 @@ public LoaderContext getLoaderContext() {
     }
 
     void load(File file) throws IOException {
+      filename = file;
       long start = Time.monotonicNow();
       imgDigest = MD5FileUtils.computeMd5ForFile(file);
       RandomAccessFile raFile = new RandomAccessFile(file, "r");
@@ -235,64 +257,163 @@ public int compare(FileSummary.Section s1, FileSummary.Section s2) {
        */
       Step currentStep = null;
 
-      for (FileSummary.Section s : sections) {
-        channel.position(s.getOffset());
-        InputStream in = new BufferedInputStream(new LimitInputStream(fin,
-            s.getLength()));
-
-        in = FSImageUtil.wrapInputStreamForCompression(conf,
-            summary.getCodec(), in);
-
-        String n = s.getName();
-
-        switch (SectionName.fromString(n)) {
-        case NS_INFO:
-          loadNameSystemSection(in);
-          break;
-        case STRING_TABLE:
-          loadStringTableSection(in);
-          break;
-        case INODE: {
-          currentStep = new Step(StepType.INODES);
-          prog.beginStep(Phase.LOADING_FSIMAGE, currentStep);
-          inodeLoader.loadINodeSection(in, prog, currentStep);
+      boolean parallel = conf.getBoolean(
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_KEY,
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_DEFAULT);
+      Map<SectionName, List<FileSummary.Section>> subSections =
+          getSubSectionsByParent(sections);
+      ExecutorService executorService = null;
+      if (!subSections.isEmpty()) {
+        if (parallel) {
+          executorService = getParallelExecutorService();
+        } else if (summary.hasCodec()) {
+          // Each sub-section of a compressed image is compressed on its own,
+          // so read them one at a time rather than as a single stream.
+          executorService = Executors.newSingleThreadExecutor(
+              new ThreadFactoryBuilder().setDaemon(true)
+                  .setNameFormat("FsImageLoader-%d").build());
         }
-          break;
-        case INODE_REFERENCE:
-          snapshotLoader.loadINodeReferenceSection(in);
-          break;
-        case INODE_DIR:
-          inodeLoader.loadINodeDirectorySection(in);
-          break;
-        case FILES_UNDERCONSTRUCTION:
-          inodeLoader.loadFilesUnderConstructionSection(in);
-          break;
-        case SNAPSHOT:
-          snapshotLoader.loadSnapshotSection(in);
-          break;
-        case SNAPSHOT_DIFF:
-          snapshotLoader.loadSnapshotDiffSection(in);
-          break;
-        case SECRET_MANAGER: {
-          prog.endStep(Phase.LOADING_FSIMAGE, currentStep);
-          Step step = new Step(StepType.DELEGATION_TOKENS);
-          prog.beginStep(Phase.LOADING_FSIMAGE, step);
-          loadSecretManagerSection(in, prog, step);
-          prog.endStep(Phase.LOADING_FSIMAGE, step);
+      }
+
+      try {
+        for (FileSummary.Section s : sections) {
+          channel.position(s.getOffset());
+          InputStream in = new BufferedInputStream(new LimitInputStream(fin,
+              s.getLength()));
+
+          in = FSImageUtil.wrapInputStreamForCompression(conf,
+              summary.getCodec(), in);
+
+          String n = s.getName();
+
+          switch (SectionName.fromString(n)) {
+          case NS_INFO:
+            loadNameSystemSection(in);
+            break;
+          case STRING_TABLE:
+            loadStringTableSection(in);
+            break;
+          case INODE: {
+            currentStep = new Step(StepType.INODES);
+            prog.beginStep(Phase.LOADING_FSIMAGE, currentStep);
+            List<FileSummary.Section> subs =
+                subSections.get(SectionName.INODE_SUB);
+            if (executorService != null && subs != null) {
+              inodeLoader.loadINodeSectionInParallel(executorService, subs,
+                  summary.getCodec(), prog, currentStep);
+            } else {
+              inodeLoader.loadINodeSection(in, prog, currentStep);
+            }
+          }
+            break;
+          case INODE_REFERENCE:
+            snapshotLoader.loadINodeReferenceSection(in);
+            break;
+          case INODE_DIR: {
+            List<FileSummary.Section> subs =
+                subSections.get(SectionName.INODE_DIR_SUB);
+            if (executorService != null && subs != null) {
+              inodeLoader.loadINodeDirectorySectionInParallel(executorService,
+                  subs, summary.getCodec());
+            } else {
+              inodeLoader.loadINodeDirectorySection(in);
+            }
+          }
+            break;
+          case INODE_SUB:
+          case INODE_DIR_SUB:
+            // Sub-sections are read together with their parent section.
+            break;
+          case FILES_UNDERCONSTRUCTION:
+            inodeLoader.loadFilesUnderConstructionSection(in);
+            break;
+          case SNAPSHOT:
+            snapshotLoader.loadSnapshotSection(in);
+            break;
+          case SNAPSHOT_DIFF:
+            snapshotLoader.loadSnapshotDiffSection(in);
+            break;
+          case SECRET_MANAGER: {
+            prog.endStep(Phase.LOADING_FSIMAGE, currentStep);
+            Step step = new Step(StepType.DELEGATION_TOKENS);
+            prog.beginStep(Phase.LOADING_FSIMAGE, step);
+            loadSecretManagerSection(in, prog, step);
+            prog.endStep(Phase.LOADING_FSIMAGE, step);
+          }
+            break;
+          case CACHE_MANAGER: {
+            Step step = new Step(StepType.CACHE_POOLS);
+            prog.beginStep(Phase.LOADING_FSIMAGE, step);
+            loadCacheManagerSection(in, prog, step);
+            prog.endStep(Phase.LOADING_FSIMAGE, step);
+          }
+            break;
+          default:
+            LOG.warn("Unrecognized section {}", n);
+            break;
+          }
         }
-          break;
-        case CACHE_MANAGER: {
-          Step step = new Step(StepType.CACHE_POOLS);
-          prog.beginStep(Phase.LOADING_FSIMAGE, step);
-          loadCacheManagerSection(in, prog, step);
-          prog.endStep(Phase.LOADING_FSIMAGE, step);
+      } finally {
+        if (executorService != null) {
+          executorService.shutdown();
         }
-          break;
-        default:
-          LOG.warn("Unrecognized section {}", n);
-          break;
+      }
+    }
+
+    /**
+     * Group the sub-sections of the image by the section they belong to.
+     */
+    private static Map<SectionName, List<FileSummary.Section>>
+        getSubSectionsByParent(List<FileSummary.Section> sections) {
+      Map<SectionName, List<FileSummary.Section>> subSections =
+          new EnumMap<SectionName, List<FileSummary.Section>>(
+              SectionName.class);
+      for (FileSummary.Section s : sections) {
+        SectionName name = SectionName.fromString(s.getName());
+        if (name == SectionName.INODE_SUB ||
+            name == SectionName.INODE_DIR_SUB) {
+          List<FileSummary.Section> list = subSections.get(name);
+          if (list == null) {
+            list = Lists.newArrayList();
+            subSections.put(name, list);
+          }
+          list.add(s);
         }
       }
+      return subSections;
+    }
+
+    private ExecutorService getParallelExecutorService() {
+      int threads = conf.getInt(DFSConfigKeys.DFS_IMAGE_PARALLEL_THREADS_KEY,
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_THREADS_DEFAULT);
+      if (threads < 1) {
+        LOG.warn("Parallel image loading is enabled but {} is {}. Using {} "
+            + "threads.", DFSConfigKeys.DFS_IMAGE_PARALLEL_THREADS_KEY,
+            threads, DFSConfigKeys.DFS_IMAGE_PARALLEL_THREADS_DEFAULT);
+        threads = DFSConfigKeys.DFS_IMAGE_PARALLEL_THREADS_DEFAULT;
+      }
+      LOG.info("Loading image sub-sections with {} threads", threads);
+      return Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+          .setDaemon(true).setNameFormat("FsImageLoader-%d").build());
+    }
+
+    /**
+     * Open an independent stream over one section of the image, so that
+     * sub-sections can be read concurrently.
+     */
+    InputStream getInputStreamForSection(FileSummary.Section section,
+        String compressionCodec) throws IOException {
+      FileInputStream fin = new FileInputStream(filename);
+      try {
+        fin.getChannel().position(section.getOffset());
+        InputStream in = new BufferedInputStream(new LimitInputStream(fin,
+            section.getLength()));
+        return FSImageUtil.wrapInputStreamForCompression(conf,
+            compressionCodec, in);
+      } catch (IOException e) {
+        fin.close();
+        throw e;
+      }
     }
 
     private void loadNameSystemSection(InputStream in) throws IOException {
@@ -364,8 +485,21 @@ private void loadCacheManagerSection(InputStream in, StartupProgress prog,
 
   }
 
+  /**
+   * Writes the items of one sub-section to a stream.
+   */
+  interface SubSectionSerializer<T> {
+    void serialize(OutputStream out, List<T> items) throws IOException;
+  }
+
   public static final class Saver {
     public static final int CHECK_CANCEL_INTERVAL = 4096;
+    /**
+     * Upper bound on the inodes in one sub-section. Sub-sections are
+     * buffered in memory while they are serialized, so this bounds the
+     * memory used by each save thread.
+     */
+    static final long MAX_INODES_PER_SUB_SECTION = 100000;
 
     private final SaveNamespaceContext context;
     private final SaverContext saverContext;
@@ -378,9 +512,33 @@ public static final class Saver {
     private CompressionCodec codec;
     private OutputStream underlyingOutputStream;
 
-    Saver(SaveNamespaceContext context) {
+    private final boolean parallelLoad;
+    private final int targetSections;
+    private final int inodeThreshold;
+    private final int saveThreads;
+    // Whether sub-section offsets are written for the image being saved
+    private boolean writeSubSections = false;
+    private long inodesPerSubSection = Long.MAX_VALUE;
+    private long subSectionOffset = FSImageUtil.MAGIC_HEADER.length;
+    // Serializes sub-sections when saveThreads > 1, null otherwise
+    private ExecutorService saveExecutor;
+    private long sectionStartTime;
+
+    Saver(SaveNamespaceContext context, Configuration conf) {
       this.context = context;
       this.saverContext = new SaverContext();
+      this.parallelLoad = conf.getBoolean(
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_KEY,
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_DEFAULT);
+      this.targetSections = conf.getInt(
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_TARGET_SECTIONS_KEY,
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_TARGET_SECTIONS_DEFAULT);
+      this.inodeThreshold = conf.getInt(
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_INODE_THRESHOLD_KEY,
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_INODE_THRESHOLD_DEFAULT);
+      this.saveThreads = Math.max(1, conf.getInt(
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_SAVE_THREADS_KEY,
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_SAVE_THREADS_DEFAULT));
     }
 
     public MD5Hash getSavedDigest() {
@@ -409,6 +567,139 @@ public void commitSection(FileSummary.Builder summary, SectionName name)
       summary.addSections(FileSummary.Section.newBuilder().setName(name.name)
           .setLength(length).setOffset(currentOffset));
       currentOffset += length;
+      subSectionOffset = currentOffset;
+
+      long now = monotonicNow();
+      long elapsed = now - sectionStartTime;
+      sectionStartTime = now;
+      LOG.debug("Saved section {} of {} bytes in {} ms", name.name, length,
+          elapsed);
+      NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+      if (metrics != null) {
+        metrics.addImageSectionSaveTime(
+            StringUtils.camelize(name.name), elapsed);
+      }
+    }
+
+    /**
+     * @return whether the INODE and INODE_DIR sections of this image are
+     * written as sub-sections through {@link #saveSubSections}.
+     */
+    boolean isWritingSubSections() {
+      return writeSubSections;
+    }
+
+    /**
+     * @return the number of inodes to write in each sub-section, or
+     * {@link Long#MAX_VALUE} if sub-sections are not being written.
+     */
+    long getInodesPerSubSection() {
+      return inodesPerSubSection;
+    }
+
+    /**
+     * Write the rest of the current section as sub-sections, one for each
+     * batch. Whatever was already written to the section, such as its
+     * header, becomes the first sub-section. Each batch is serialized, and
+     * compressed if the image is, into a buffer of its own, on the save
+     * threads if there are several. The buffers are appended to the image in
+     * order, so every sub-section can be decompressed and parsed on its own.
+     * The section stream must not be used again before the section is
+     * committed.
+     */
+    <T> void saveSubSections(FileSummary.Builder summary, SectionName name,
+        Iterator<List<T>> batches, final SubSectionSerializer<T> serializer)
+        throws IOException {
+      flushSectionOutputStream();
+      long length = fileChannel.position() - subSectionOffset;
+      if (length > 0) {
+        addSubSection(summary, name, length);
+      }
+
+      Deque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+      try {
+        while (batches.hasNext()) {
+          final List<T> batch = batches.next();
+          if (saveExecutor == null) {
+            writeSubSection(summary, name,
+                serializeSubSection(batch, serializer));
+          } else {
+            pending.add(saveExecutor.submit(new Callable<byte[]>() {
+              @Override
+              public byte[] call() throws IOException {
+                return serializeSubSection(batch, serializer);
+              }
+            }));
+            // Bound the number of buffered sub-sections.
+            if (pending.size() >= 2 * saveThreads) {
+              writeSubSection(summary, name, getSubSection(pending.poll()));
+            }
+          }
+          context.checkCancelled();
+        }
+        while (!pending.isEmpty()) {
+          writeSubSection(summary, name, getSubSection(pending.poll()));
+        }
+      } finally {
+        for (Future<byte[]> f : pending) {
+          f.cancel(true);
+        }
+        if (codec != null) {
+          sectionOutputStream = codec.createOutputStream(
+              underlyingOutputStream);
+        }
+      }
+    }
+
+    private <T> byte[] serializeSubSection(List<T> batch,
+        SubSectionSerializer<T> serializer) throws IOException {
+      ByteArrayOutputStream buf = new ByteArrayOutputStream();
+      if (codec == null) {
+        serializer.serialize(buf, batch);
+        return buf.toByteArray();
+      }
+      Compressor compressor = CodecPool.getCompressor(codec);
+      try {
+        CompressionOutputStream cout = compressor == null
+            ? codec.createOutputStream(buf)
+            : codec.createOutputStream(buf, compressor);
+        OutputStream out = new BufferedOutputStream(cout);
+        serializer.serialize(out, batch);
+        out.flush();
+        cout.finish();
+      } finally {
+        CodecPool.returnCompressor(compressor);
+      }
+      return buf.toByteArray();
+    }
+
+    private static byte[] getSubSection(Future<byte[]> f) throws IOException {
+      try {
+        return f.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException(
+            "Interrupted while saving the image in parallel");
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof IOException) {
+          throw (IOException) e.getCause();
+        }
+        throw new IOException("Failed to save an image sub-section",
+            e.getCause());
+      }
+    }
+
+    private void writeSubSection(FileSummary.Builder summary,
+        SectionName name, byte[] data) throws IOException {
+      underlyingOutputStream.write(data);
+      addSubSection(summary, name, data.length);
+    }
+
+    private void addSubSection(FileSummary.Builder summary, SectionName name,
+        long length) {
+      summary.addSections(FileSummary.Section.newBuilder().setName(name.name)
+          .setLength(length).setOffset(subSectionOffset));
+      subSectionOffset += length;
     }
 
     private void flushSectionOutputStream() throws IOException {
@@ -428,6 +719,7 @@ long save(File file, FSImageCompression compression) throws IOException {
       try {
         LOG.info("Saving image file {} using {}", file, compression);
         long startTime = monotonicNow();
+        sectionStartTime = startTime;
         long numErrors = saveInternal(
             fout, compression, file.getAbsolutePath());
         LOG.info("Image file {} of size {} bytes saved in {} seconds {}.", file,
@@ -435,6 +727,10 @@ long save(File file, FSImageCompression compression) throws IOException {
             (numErrors > 0 ? (" with" + numErrors + " errors") : ""));
         return numErrors;
       } finally {
+        if (saveExecutor != null) {
+          saveExecutor.shutdownNow();
+          saveExecutor = null;
+        }
         fout.close();
       }
     }
@@ -501,6 +797,7 @@ private long saveInternal(FileOutputStream fout,
       } else {
         sectionOutputStream = underlyingOutputStream;
       }
+      enableSubSections();
 
       saveNameSystemSection(b);
       // Check for cancellation right after serializing the name system section.
@@ -537,6 +834,28 @@ private long saveInternal(FileOutputStream fout,
       return numErrors;
     }
 
+    private void enableSubSections() {
+      writeSubSections = false;
+      inodesPerSubSection = Long.MAX_VALUE;
+      if (!parallelLoad) {
+        return;
+      }
+      long numInodes = context.getSourceNamesystem().dir.getINodeMap().size();
+      if (numInodes < inodeThreshold || targetSections <= 1) {
+        return;
+      }
+      writeSubSections = true;
+      inodesPerSubSection = Math.max(1, Math.min(numInodes / targetSections,
+          MAX_INODES_PER_SUB_SECTION));
+      if (saveThreads > 1) {
+        saveExecutor = Executors.newFixedThreadPool(saveThreads,
+            new ThreadFactoryBuilder().setDaemon(true)
+                .setNameFormat("FsImageSaver-%d").build());
+      }
+      LOG.info("Saving the image with sub-sections of {} inodes using {} "
+          + "threads", inodesPerSubSection, saveThreads);
+    }
+
     private void saveSecretManagerSection(FileSummary.Builder summary)
         throws IOException {
       final FSNamesystem fsn = context.getSourceNamesystem();
@@ -617,9 +936,11 @@ public enum SectionName {
     STRING_TABLE("STRING_TABLE"),
     EXTENDED_ACL("EXTENDED_ACL"),
     INODE("INODE"),
+    INODE_SUB("INODE_SUB"),
     INODE_REFERENCE("INODE_REFERENCE"),
     SNAPSHOT("SNAPSHOT"),
     INODE_DIR("INODE_DIR"),
+    INODE_DIR_SUB("INODE_DIR_SUB"),
     FILES_UNDERCONSTRUCTION("FILES_UNDERCONSTRUCTION"),
     SNAPSHOT_DIFF("SNAPSHOT_DIFF"),
     SECRET_MANAGER("SECRET_MANAGER"),
@@ -17,11 +17,16 @@
  */
 package org.apache.hadoop.hdfs.server.namenode;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.conf.Configuration;
@@ -29,6 +34,7 @@
 import org.apache.hadoop.hdfs.server.namenode.FSImageFormatProtobuf.Loader;
 import org.apache.hadoop.hdfs.server.namenode.FsImageProto.FileSummary;
 import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.util.LimitInputStream;
 
 @InterfaceAudience.Private
 public final class FSImageUtil {
@@ -89,4 +95,95 @@ public static InputStream wrapInputStreamForCompression(
     return imageCodec.createInputStream(in);
   }
 
+  /**
+   * Open a section of the image for reading. A section of a compressed image
+   * that was saved as sub-sections holds one compressed stream for each
+   * sub-section, so these are decompressed one after the other and read as
+   * if the section were a single stream.
+   *
+   * @param fin the image file, which is repositioned as the section is read
+   */
+  public static InputStream openSection(Configuration conf,
+      FileSummary summary, FileInputStream fin, FileSummary.Section section)
+      throws IOException {
+    List<FileSummary.Section> subSections =
+        new ArrayList<FileSummary.Section>();
+    if (!summary.getCodec().isEmpty()) {
+      long end = section.getOffset() + section.getLength();
+      for (FileSummary.Section s : summary.getSectionsList()) {
+        if (s.getOffset() >= section.getOffset() &&
+            s.getOffset() + s.getLength() <= end &&
+            s.getLength() < section.getLength()) {
+          subSections.add(s);
+        }
+      }
+    }
+    if (subSections.isEmpty()) {
+      return openStream(conf, summary.getCodec(), fin, section);
+    }
+    return new SubSectionInputStream(conf, summary.getCodec(), fin,
+        subSections.iterator());
+  }
+
+  private static InputStream openStream(Configuration conf, String codec,
+      FileInputStream fin, FileSummary.Section section) throws IOException {
+    fin.getChannel().position(section.getOffset());
+    return wrapInputStreamForCompression(conf, codec,
+        new BufferedInputStream(new LimitInputStream(fin,
+            section.getLength())));
+  }
+
+  /**
+   * Reads the sub-sections of a section in turn, opening each one when the
+   * previous one is exhausted.
+   */
+  private static final class SubSectionInputStream extends InputStream {
+    private final Configuration conf;
+    private final String codec;
+    private final FileInputStream fin;
+    private final Iterator<FileSummary.Section> subSections;
+    private InputStream current;
+
+    SubSectionInputStream(Configuration conf, String codec,
+        FileInputStream fin, Iterator<FileSummary.Section> subSections)
+        throws IOException {
+      this.conf = conf;
+      this.codec = codec;
+      this.fin = fin;
+      this.subSections = subSections;
+      this.current = openStream(conf, codec, fin, subSections.next());
+    }
+
+    @Override
+    public int read() throws IOException {
+      while (current != null) {
+        int b = current.read();
+        if (b >= 0) {
+          return b;
+        }
+        next();
+      }
+      return -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      while (current != null) {
+        int n = current.read(b, off, len);
+        if (n > 0) {
+          return n;
+        }
+        next();
+      }
+      return -1;
+    }
+
+    private void next() throws IOException {
+      current = subSections.hasNext() ?
+          openStream(conf, codec, fin, subSections.next()) : null;
+    }
+  }
 }
@@ -34,6 +34,10 @@
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_ENCRYPT_DATA_TRANSFER_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_HA_STANDBY_CHECKPOINTS_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_HA_STANDBY_CHECKPOINTS_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_HA_STANDBY_READS_ENABLED_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_HA_STANDBY_READS_ENABLED_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_HA_TAILEDITS_INPROGRESS_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_HA_TAILEDITS_INPROGRESS_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_ACCESSTIME_PRECISION_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_ACCESSTIME_PRECISION_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOGGERS_KEY;
@@ -44,6 +48,7 @@
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUTHORIZATION_PROVIDER_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_CHECKPOINT_TXNS_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_CHECKPOINT_TXNS_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_BATCHED_AUDIT_LOGGER_NAME;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_DEFAULT_AUDIT_LOGGER_NAME;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_DELEGATION_KEY_UPDATE_INTERVAL_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_DELEGATION_KEY_UPDATE_INTERVAL_KEY;
@@ -61,6 +66,10 @@
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_EDIT_LOG_AUTOROLL_MULTIPLIER_THRESHOLD_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_ENABLE_RETRY_CACHE_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_ENABLE_RETRY_CACHE_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_HOT_FILE_REPLICATION_ENABLED_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_HOT_FILE_REPLICATION_ENABLED_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_STORAGE_TIERING_ENABLED_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_STORAGE_TIERING_ENABLED_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_LAZY_PERSIST_FILE_SCRUB_INTERVAL_SEC;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_LAZY_PERSIST_FILE_SCRUB_INTERVAL_SEC_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_MAX_OBJECTS_DEFAULT;
@@ -71,6 +80,8 @@
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_REPL_QUEUE_THRESHOLD_PCT_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_RESOURCE_CHECK_INTERVAL_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_RESOURCE_CHECK_INTERVAL_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_METRICS_SNAPSHOT_INTERVAL_MS_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_METRICS_SNAPSHOT_INTERVAL_MS_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_RETRY_CACHE_EXPIRYTIME_MILLIS_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_RETRY_CACHE_EXPIRYTIME_MILLIS_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_RETRY_CACHE_HEAP_PERCENT_DEFAULT;
@@ -102,6 +113,7 @@
 
 import java.io.BufferedWriter;
 import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.DataInput;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
@@ -116,6 +128,7 @@
 import java.net.InetAddress;
 import java.net.URI;
 import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
 import java.security.PrivilegedExceptionAction;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -167,6 +180,7 @@
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.FsServerDefaults;
 import org.apache.hadoop.fs.InvalidPathException;
+import org.apache.hadoop.fs.InvalidRequestException;
 import org.apache.hadoop.fs.Options;
 import org.apache.hadoop.fs.Options.Rename;
 import org.apache.hadoop.fs.ParentNotDirectoryException;
@@ -191,6 +205,7 @@
 import org.apache.hadoop.hdfs.XAttrHelper;
 import org.apache.hadoop.hdfs.protocol.AclException;
 import org.apache.hadoop.hdfs.protocol.AlreadyBeingCreatedException;
+import org.apache.hadoop.hdfs.protocol.BatchedDirectoryListing;
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveEntry;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveInfo;
@@ -208,6 +223,8 @@
 import org.apache.hadoop.hdfs.protocol.HdfsConstants.ReencryptAction;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants.SafeModeAction;
 import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+import org.apache.hadoop.hdfs.protocol.HdfsPartialListing;
+import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.BatchedListingKeyProto;
 import org.apache.hadoop.hdfs.protocol.LocatedBlock;
 import org.apache.hadoop.hdfs.protocol.LocatedBlocks;
 import org.apache.hadoop.hdfs.protocol.OpenFileEntry;
@@ -218,6 +235,7 @@
 import org.apache.hadoop.hdfs.protocol.SnapshotAccessControlException;
 import org.apache.hadoop.hdfs.protocol.SnapshotException;
 import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport;
+import org.apache.hadoop.hdfs.protocol.SnapshotDiffReportListing;
 import org.apache.hadoop.hdfs.protocol.SnapshottableDirectoryStatus;
 import org.apache.hadoop.hdfs.protocol.ZoneReencryptionStatus;
 import org.apache.hadoop.hdfs.protocol.datatransfer.ReplaceDatanodeOnFailure;
@@ -284,11 +302,14 @@
 import org.apache.hadoop.io.EnumSetWritable;
 import org.apache.hadoop.hdfs.util.LightWeightHashSet;
 import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.MD5Hash;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.ipc.RemoteException;
 import org.apache.hadoop.ipc.RetriableException;
 import org.apache.hadoop.ipc.RetryCache;
 import org.apache.hadoop.ipc.RetryCache.CacheEntry;
 import org.apache.hadoop.ipc.RetryCache.CacheEntryWithPayload;
+import org.apache.hadoop.ipc.RpcConstants;
 import org.apache.hadoop.ipc.Server;
 import org.apache.hadoop.ipc.StandbyException;
 import org.apache.hadoop.metrics2.annotation.Metric;
@@ -325,6 +346,7 @@
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.protobuf.ByteString;
 
 /***************************************************
  * FSNamesystem does the actual bookkeeping work for the
@@ -481,6 +503,18 @@ private void logAuditEvent(boolean succeeded,
   // from the name space.
   Daemon lazyPersistFileScrubber = null;
 
+  // Raises the replication of files read very often, null if disabled
+  private final HotFileReplicationMonitor hotFileMonitor;
+
+  // Moves files between storage tiers by their use, null if disabled
+  private final StorageTieringMonitor storageTieringMonitor;
+
+  // Serves the datanode JMX metrics from a periodically refreshed snapshot,
+  // null while metrics are computed on demand
+  private volatile DatanodeMetricsSnapshot datanodeMetricsSnapshot = null;
+  private final long datanodeMetricsSnapshotInterval;
+  private Daemon datanodeMetricsSnapshotThread = null;
+
   // Executor to warm up EDEK cache
   private ExecutorService edekCacheLoader = null;
   private final int edekCacheLoaderDelay;
@@ -520,6 +554,7 @@ private void logAuditEvent(boolean succeeded,
   private volatile SafeModeInfo safeMode;  // safe mode information
 
   private final long maxFsObjects;          // maximum number of fs objects
+  private final int batchedListingLimit;   // maximum paths per batched listing
 
   private final long minBlockSize;         // minimum block size
   private final long maxBlocksPerFile;     // maximum # of blocks per file
@@ -585,6 +620,9 @@ private void logAuditEvent(boolean succeeded,
 
   private final boolean haEnabled;
 
+  /** Whether the standby serves reads consistent with the active. */
+  private final boolean standbyReadsEnabled;
+
   /** flag indicating whether replication queues have been initialized */
   boolean initializedReplQueues = false;
 
@@ -631,7 +669,7 @@ void setImageLoaded() {
       dir.markNameCacheInitialized();
       cond.signalAll();
     } finally {
-      writeUnlock();
+      writeUnlock("setImageLoaded");
     }
   }
 
@@ -662,7 +700,7 @@ void waitForLoadingFSImage() {
           }
         }
       } finally {
-        writeUnlock();
+        writeUnlock("waitForLoadingFSImage");
       }
     }
   }
@@ -720,6 +758,10 @@ LeaseManager getLeaseManager() {
   boolean isHaEnabled() {
     return haEnabled;
   }
+
+  boolean isStandbyReadsEnabled() {
+    return standbyReadsEnabled;
+  }
   
   /**
    * Check the supplied configuration for correctness.
@@ -851,6 +893,9 @@ static FSNamesystem loadFromDisk(Configuration conf) throws IOException {
       resourceRecheckInterval = conf.getLong(
           DFS_NAMENODE_RESOURCE_CHECK_INTERVAL_KEY,
           DFS_NAMENODE_RESOURCE_CHECK_INTERVAL_DEFAULT);
+      this.datanodeMetricsSnapshotInterval = conf.getLong(
+          DFS_NAMENODE_METRICS_SNAPSHOT_INTERVAL_MS_KEY,
+          DFS_NAMENODE_METRICS_SNAPSHOT_INTERVAL_MS_DEFAULT);
 
       this.blockManager = new BlockManager(this, this, conf);
       this.datanodeStatistics = blockManager.getDatanodeManager().getDatanodeStatistics();
@@ -873,6 +918,9 @@ static FSNamesystem loadFromDisk(Configuration conf) throws IOException {
       // so that the standby has up-to-date namespace information
       nameserviceId = DFSUtil.getNamenodeNameServiceId(conf);
       this.haEnabled = HAUtil.isHAEnabled(conf, nameserviceId);  
+      this.standbyReadsEnabled = haEnabled && conf.getBoolean(
+          DFS_HA_STANDBY_READS_ENABLED_KEY,
+          DFS_HA_STANDBY_READS_ENABLED_DEFAULT);
       
       // Sanity check the HA-related config.
       if (nameserviceId != null) {
@@ -884,6 +932,13 @@ static FSNamesystem loadFromDisk(Configuration conf) throws IOException {
         throw new IOException("Invalid configuration: a shared edits dir " +
             "must not be specified if HA is not enabled.");
       }
+      if (standbyReadsEnabled && !conf.getBoolean(
+          DFS_HA_TAILEDITS_INPROGRESS_KEY,
+          DFS_HA_TAILEDITS_INPROGRESS_DEFAULT)) {
+        throw new IOException("Invalid configuration: " +
+            DFS_HA_STANDBY_READS_ENABLED_KEY + " requires " +
+            DFS_HA_TAILEDITS_INPROGRESS_KEY);
+      }
 
       // Get the checksum type from config
       String checksumTypeStr = conf.get(DFS_CHECKSUM_TYPE_KEY, DFS_CHECKSUM_TYPE_DEFAULT);
@@ -910,6 +965,9 @@ static FSNamesystem loadFromDisk(Configuration conf) throws IOException {
 
       this.maxFsObjects = conf.getLong(DFS_NAMENODE_MAX_OBJECTS_KEY, 
                                        DFS_NAMENODE_MAX_OBJECTS_DEFAULT);
+      this.batchedListingLimit = conf.getInt(
+          DFSConfigKeys.DFS_NAMENODE_BATCHED_LISTING_LIMIT,
+          DFSConfigKeys.DFS_NAMENODE_BATCHED_LISTING_LIMIT_DEFAULT);
 
       this.minBlockSize = conf.getLong(DFSConfigKeys.DFS_NAMENODE_MIN_BLOCK_SIZE_KEY,
           DFSConfigKeys.DFS_NAMENODE_MIN_BLOCK_SIZE_DEFAULT);
@@ -946,6 +1004,20 @@ static FSNamesystem loadFromDisk(Configuration conf) throws IOException {
             DFS_NAMENODE_LAZY_PERSIST_FILE_SCRUB_INTERVAL_SEC + " must be non-zero.");
       }
 
+      this.hotFileMonitor = conf.getBoolean(
+          DFS_NAMENODE_HOT_FILE_REPLICATION_ENABLED_KEY,
+          DFS_NAMENODE_HOT_FILE_REPLICATION_ENABLED_DEFAULT) ?
+          new HotFileReplicationMonitor(this, conf) : null;
+      this.storageTieringMonitor = conf.getBoolean(
+          DFS_NAMENODE_STORAGE_TIERING_ENABLED_KEY,
+          DFS_NAMENODE_STORAGE_TIERING_ENABLED_DEFAULT) ?
+          new StorageTieringMonitor(this, conf) : null;
+      if (storageTieringMonitor != null && !isStoragePolicyEnabled) {
+        throw new IllegalArgumentException(
+            DFS_NAMENODE_STORAGE_TIERING_ENABLED_KEY + " requires "
+            + DFS_STORAGE_POLICY_ENABLED_KEY);
+      }
+
       this.edekCacheLoaderDelay = conf.getInt(
           DFSConfigKeys.DFS_NAMENODE_EDEKCACHELOADER_INITIAL_DELAY_MS_KEY,
           DFSConfigKeys.DFS_NAMENODE_EDEKCACHELOADER_INITIAL_DELAY_MS_DEFAULT);
@@ -1102,6 +1174,8 @@ private List<AuditLogger> initAuditLoggers(Configuration conf) {
           AuditLogger logger;
           if (DFS_NAMENODE_DEFAULT_AUDIT_LOGGER_NAME.equals(className)) {
             logger = new DefaultAuditLogger();
+          } else if (DFS_NAMENODE_BATCHED_AUDIT_LOGGER_NAME.equals(className)) {
+            logger = new BatchedAuditLogger();
           } else {
             logger = (AuditLogger) Class.forName(className).newInstance();
           }
@@ -1128,6 +1202,7 @@ private List<AuditLogger> initAuditLoggers(Configuration conf) {
         DefaultMetricsSystem.instance().register(TOPMETRICS_METRICS_SOURCE_NAME,
             "Top N operations by user", topMetrics);
       }
+      fsLock.setTopMetrics(topMetrics);
       auditLoggers.add(new TopAuditLogger(topMetrics));
     }
 
@@ -1180,7 +1255,7 @@ private void loadFSImage(StartupOption startOpt) throws IOException {
       if (!success) {
         fsImage.close();
       }
-      writeUnlock();
+      writeUnlock("loadFSImage");
     }
     imageLoadComplete();
   }
@@ -1243,7 +1318,7 @@ void startCommonServices(Configuration conf, HAContext haContext) throws IOExcep
       setBlockTotal(completeBlocksTotal);
       blockManager.activate(conf);
     } finally {
-      writeUnlock();
+      writeUnlock("startCommonServices");
     }
     
     registerMXBean();
@@ -1257,12 +1332,26 @@ void startCommonServices(Configuration conf, HAContext haContext) throws IOExcep
     AuthorizationProvider.initUsersToBypassExtProvider(conf);
     AuthorizationProvider.set(authzProvider);
     snapshotManager.initAuthorizationProvider();
+    if (datanodeMetricsSnapshotInterval > 0) {
+      // take the first snapshot before the MBeans can observe a null one
+      datanodeMetricsSnapshot = new DatanodeMetricsSnapshot(this);
+      datanodeMetricsSnapshotThread = new Daemon(
+          new DatanodeMetricsSnapshotRefresher());
+      datanodeMetricsSnapshotThread.setName("DatanodeMetricsSnapshotRefresher");
+      datanodeMetricsSnapshotThread.start();
+    }
   }
   
   /** 
    * Stop services common to both active and standby states
    */
   void stopCommonServices() {
+    if (datanodeMetricsSnapshotThread != null) {
+      ((DatanodeMetricsSnapshotRefresher) datanodeMetricsSnapshotThread
+          .getRunnable()).stop();
+      datanodeMetricsSnapshotThread.interrupt();
+      datanodeMetricsSnapshotThread = null;
+    }
     writeLock();
     if (authzProvider != null) {
       // format does not start common services
@@ -1271,7 +1360,7 @@ void stopCommonServices() {
     try {
       if (blockManager != null) blockManager.close();
     } finally {
-      writeUnlock();
+      writeUnlock("stopCommonServices");
     }
     RetryCache.clear(retryCache);
   }
@@ -1324,6 +1413,7 @@ void startActiveServices() throws IOException {
 
       // Initialize the quota.
       dir.updateCountForQuota();
+      dir.initContentSummaryTracking();
       // Enable quota checks.
       dir.enableQuotaChecks();
       dir.ezManager.startReencryptThreads();
@@ -1352,6 +1442,13 @@ void startActiveServices() throws IOException {
         lazyPersistFileScrubber.start();
       }
 
+      if (hotFileMonitor != null) {
+        hotFileMonitor.start();
+      }
+      if (storageTieringMonitor != null) {
+        storageTieringMonitor.start();
+      }
+
       cacheManager.startMonitorThread();
       blockManager.getDatanodeManager().setShouldSendCachingCommands(true);
       if (provider != null) {
@@ -1365,7 +1462,7 @@ void startActiveServices() throws IOException {
     } finally {
       startingActiveService = false;
       checkSafeMode();
-      writeUnlock();
+      writeUnlock("startActiveServices");
     }
   }
 
@@ -1420,6 +1517,14 @@ void stopActiveServices() {
         ((LazyPersistFileScrubber) lazyPersistFileScrubber.getRunnable()).stop();
         lazyPersistFileScrubber.interrupt();
       }
+      if (hotFileMonitor != null && hotFileMonitor.isRunning()) {
+        hotFileMonitor.stop();
+        // the edit log is still open, so the change reaches the standby
+        hotFileMonitor.restoreAll();
+      }
+      if (storageTieringMonitor != null) {
+        storageTieringMonitor.stop();
+      }
       if (dir != null && getFSImage() != null) {
         if (getFSImage().editLog != null) {
           getFSImage().editLog.close();
@@ -1443,7 +1548,7 @@ void stopActiveServices() {
       }
       initializedReplQueues = false;
     } finally {
-      writeUnlock();
+      writeUnlock("stopActiveServices");
     }
   }
   
@@ -1512,9 +1617,39 @@ void stopStandbyServices() throws IOException {
   public void checkOperation(OperationCategory op) throws StandbyException {
     if (haContext != null) {
       // null in some unit tests
+      if (op == OperationCategory.READ && isCoordinatedStandbyRead()) {
+        // Only wait before the read takes the lock, the tailer needs it
+        if (!hasReadLock()) {
+          waitForClientStateId();
+        }
+        return;
+      }
       haContext.checkOperation(op);
     }
   }
+
+  /**
+   * @return true if the current call is a read the standby may serve: one of
+   *         the operations listed by {@link NameNodeStateIdContext}, sent
+   *         with the last transaction ID its client has seen.
+   */
+  private boolean isCoordinatedStandbyRead() {
+    return standbyReadsEnabled &&
+        Server.getClientStateId() != RpcConstants.INVALID_STATE_ID &&
+        isInStandbyState();
+  }
+
+  /**
+   * Wait until the standby has loaded the transactions the client of the
+   * current call has seen, so that the standby can serve it.
+   */
+  private void waitForClientStateId() throws StandbyException {
+    final EditLogTailer tailer = editLogTailer;
+    if (tailer == null) {
+      throw new StandbyException("StandbyNode is not tailing edits yet");
+    }
+    tailer.waitForTxId(Server.getClientStateId());
+  }
   
   /**
    * @throws RetriableException
@@ -1683,6 +1818,10 @@ public void readUnlock() {
     this.fsLock.readUnlock();
   }
   @Override
+  public void readUnlock(String opName) {
+    this.fsLock.readUnlock(opName);
+  }
+  @Override
   public void writeLock() {
     this.fsLock.writeLock();
   }
@@ -1695,6 +1834,10 @@ public void writeUnlock() {
     this.fsLock.writeUnlock();
   }
   @Override
+  public void writeUnlock(String opName) {
+    this.fsLock.writeUnlock(opName);
+  }
+  @Override
   public boolean hasWriteLock() {
     return this.fsLock.isWriteLockedByCurrentThread();
   }
@@ -1703,6 +1846,126 @@ public boolean hasReadLock() {
     return this.fsLock.getReadHoldCount() > 0 || hasWriteLock();
   }
 
+  /**
+   * @return true if the current thread holds the write lock of a namespace
+   *         partition.
+   */
+  boolean hasPartitionWriteLock() {
+    return this.fsLock.isPartitionWriteLockedByCurrentThread();
+  }
+
+  /**
+   * Check whether the lock taken for {@code partition} is enough to update
+   * the attributes of the inode at {@code src}. The global write lock always
+   * is; a partition lock only when the inode is confined to its partition.
+   */
+  private boolean isAttributeUpdateCovered(int partition, String src)
+      throws IOException {
+    return partition == FSNamesystemLock.GLOBAL_PARTITION ||
+        isPartitionLocal(dir.getINodesInPath(src, true));
+  }
+
+  /**
+   * Check whether the lock taken for {@code partition} is enough to rename or
+   * delete the inodes at {@code srcs}. Besides the paths being confined to
+   * the partition, no snapshottable directory may be among their ancestors or
+   * descendants, as removing one also updates the snapshot manager. A deleted
+   * subtree must not hold references or snapshot diffs either, since those
+   * can be shared with snapshots in other partitions; finding out walks the
+   * subtree, which the delete itself does again.
+   */
+  @VisibleForTesting
+  boolean isNamespaceUpdateCovered(int partition,
+      boolean deletesSubtree, String... srcs) throws IOException {
+    if (partition == FSNamesystemLock.GLOBAL_PARTITION) {
+      return true;
+    }
+    // references and snapshot diffs do not outlive the last snapshot
+    final INodeDirectory[] snapshottableDirs =
+        snapshotManager.getNumSnapshottableDirs() > 0 ?
+            snapshotManager.getSnapshottableDirs() : null;
+    for (String src : srcs) {
+      final INodesInPath iip = dir.getINodesInPath(src, false);
+      if (!isPartitionLocal(iip)) {
+        return false;
+      }
+      final INode inode = iip.getLastINode();
+      if (snapshottableDirs == null || inode == null) {
+        continue;
+      }
+      // the root always has the snapshottable feature, so only the
+      // directories known to the snapshot manager count
+      final List<INode> ancestors = Arrays.asList(iip.getINodes());
+      for (INodeDirectory snapshottable : snapshottableDirs) {
+        if (ancestors.contains(snapshottable)) {
+          return false;
+        }
+        for (INode i = snapshottable; i != null; i = i.getParent()) {
+          if (i == inode) {
+            return false;
+          }
+        }
+      }
+      if (deletesSubtree && hasSnapshotState(inode)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return true if the subtree at {@code inode} holds a reference or a
+   *         directory with snapshot state.
+   */
+  private static boolean hasSnapshotState(INode inode) {
+    if (inode.isReference()) {
+      return true;
+    }
+    if (!inode.isDirectory()) {
+      return false;
+    }
+    final INodeDirectory directory = inode.asDirectory();
+    if (directory.isSnapshottable() || directory.isWithSnapshot()) {
+      return true;
+    }
+    for (INode child : directory.getChildrenList(Snapshot.CURRENT_STATE_ID)) {
+      if (hasSnapshotState(child)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the partition shared by a rename source and destination, or
+   *         {@link FSNamesystemLock#GLOBAL_PARTITION} if they differ.
+   */
+  private int getRenamePartition(String src, String dst) {
+    final int partition = fsLock.getPartition(src);
+    return partition == fsLock.getPartition(dst) ?
+        partition : FSNamesystemLock.GLOBAL_PARTITION;
+  }
+
+  /**
+   * An inode is confined to the partition of its path unless it is the root
+   * or a top-level directory, which every partition resolves through, or it
+   * can also be reached through a snapshot or a reference. Attribute updates
+   * of such inodes need the global write lock.
+   */
+  private static boolean isPartitionLocal(INodesInPath iip) {
+    final INode[] inodes = iip.getINodes();
+    if (inodes.length < 3 || iip.isSnapshot() ||
+        iip.getLatestSnapshotId() != Snapshot.CURRENT_STATE_ID) {
+      return false;
+    }
+    for (INode inode : inodes) {
+      if (inode != null && inode.isReference()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   public int getReadHoldCount() {
     return this.fsLock.getReadHoldCount();
   }
@@ -1732,7 +1995,7 @@ NamespaceInfo getNamespaceInfo() {
     try {
       return unprotectedGetNamespaceInfo();
     } finally {
-      readUnlock();
+      readUnlock("getNamespaceInfo");
     }
   }
 
@@ -1764,6 +2027,19 @@ void close() {
       } finally {
         IOUtils.cleanup(LOG, dir);
         IOUtils.cleanup(LOG, fsImage);
+        closeAuditLoggers();
+      }
+    }
+  }
+
+  /** Flush and close the audit loggers which hold resources. */
+  private void closeAuditLoggers() {
+    if (auditLoggers == null) {
+      return;
+    }
+    for (AuditLogger logger : auditLoggers) {
+      if (logger instanceof Closeable) {
+        IOUtils.cleanup(LOG, (Closeable) logger);
       }
     }
   }
@@ -1801,7 +2077,7 @@ void metaSave(String filename) throws IOException {
       out.flush();
       out.close();
     } finally {
-      writeUnlock();
+      writeUnlock("metaSave");
     }
   }
 
@@ -1851,7 +2127,7 @@ BatchedListEntries<OpenFileEntry> listOpenFiles(long prevId,
       logAuditEvent(false, operationName, null);
       throw e;
     } finally {
-      readUnlock();
+      readUnlock("listOpenFiles");
     }
     logAuditEvent(true, operationName, null);
     return batchedListEntries;
@@ -1949,17 +2225,26 @@ private void setPermissionInt(final String srcArg, FsPermission permission)
     FSPermissionChecker pc = getPermissionChecker();
     checkOperation(OperationCategory.WRITE);
     byte[][] pathComponents = FSDirectory.getPathComponentsForReservedPath(src);
-    writeLock();
-    try {
-      checkOperation(OperationCategory.WRITE);
-      checkNameNodeSafeMode("Cannot set permission for " + src);
-      src = dir.resolvePath(pc, src, pathComponents);
-      checkOwner(pc, src);
-      dir.setPermission(src, permission);
-      getEditLog().logSetPermissions(src, permission);
-      resultingStat = getAuditFileInfo(src, false);
-    } finally {
-      writeUnlock();
+    int partition = fsLock.getPartition(srcArg);
+    while (true) {
+      final int locked = partition;
+      fsLock.writeLock(locked);
+      try {
+        checkOperation(OperationCategory.WRITE);
+        checkNameNodeSafeMode("Cannot set permission for " + srcArg);
+        src = dir.resolvePath(pc, srcArg, pathComponents);
+        if (!isAttributeUpdateCovered(locked, src)) {
+          partition = FSNamesystemLock.GLOBAL_PARTITION;
+          continue;
+        }
+        checkOwner(pc, src);
+        dir.setPermission(src, permission);
+        getEditLog().logSetPermissions(src, permission);
+        resultingStat = getAuditFileInfo(src, false);
+        break;
+      } finally {
+        fsLock.writeUnlock(locked, "setPermission");
+      }
     }
     getEditLog().logSync();
     logAuditEvent(true, "setPermission", srcArg, null, resultingStat);
@@ -1988,25 +2273,36 @@ private void setOwnerInt(final String srcArg, String username, String group)
     FSPermissionChecker pc = getPermissionChecker();
     checkOperation(OperationCategory.WRITE);
     byte[][] pathComponents = FSDirectory.getPathComponentsForReservedPath(src);
-    writeLock();
-    try {
-      checkOperation(OperationCategory.WRITE);
-      checkNameNodeSafeMode("Cannot set owner for " + src);
-      src = dir.resolvePath(pc, src, pathComponents);
-      checkOwner(pc, src);
-      if (!pc.isSuperUser()) {
-        if (username != null && !pc.getUser().equals(username)) {
-          throw new AccessControlException("Non-super user cannot change owner");
+    int partition = fsLock.getPartition(srcArg);
+    while (true) {
+      final int locked = partition;
+      fsLock.writeLock(locked);
+      try {
+        checkOperation(OperationCategory.WRITE);
+        checkNameNodeSafeMode("Cannot set owner for " + srcArg);
+        src = dir.resolvePath(pc, srcArg, pathComponents);
+        if (!isAttributeUpdateCovered(locked, src)) {
+          partition = FSNamesystemLock.GLOBAL_PARTITION;
+          continue;
         }
-        if (group != null && !pc.containsGroup(group)) {
-          throw new AccessControlException("User does not belong to " + group);
+        checkOwner(pc, src);
+        if (!pc.isSuperUser()) {
+          if (username != null && !pc.getUser().equals(username)) {
+            throw new AccessControlException(
+                "Non-super user cannot change owner");
+          }
+          if (group != null && !pc.containsGroup(group)) {
+            throw new AccessControlException(
+                "User does not belong to " + group);
+          }
         }
+        dir.setOwner(src, username, group);
+        getEditLog().logSetOwner(src, username, group);
+        resultingStat = getAuditFileInfo(src, false);
+        break;
+      } finally {
+        fsLock.writeUnlock(locked, "setOwner");
       }
-      dir.setOwner(src, username, group);
-      getEditLog().logSetOwner(src, username, group);
-      resultingStat = getAuditFileInfo(src, false);
-    } finally {
-      writeUnlock();
     }
     getEditLog().logSync();
     logAuditEvent(true, "setOwner", srcArg, null, resultingStat);
@@ -2034,7 +2330,8 @@ LocatedBlocks getBlockLocations(String clientMachine, String srcArg,
     checkOperation(OperationCategory.READ);
     GetBlockLocationsResult res = null;
     FSPermissionChecker pc = getPermissionChecker();
-    readLock();
+    final int partition = fsLock.getPartition(srcArg);
+    fsLock.readLock(partition);
     try {
       checkOperation(OperationCategory.READ);
       res = getBlockLocations(pc, srcArg, offset, length, true, true);
@@ -2042,72 +2339,107 @@ LocatedBlocks getBlockLocations(String clientMachine, String srcArg,
       logAuditEvent(false, "open", srcArg);
       throw e;
     } finally {
-      readUnlock();
+      fsLock.readUnlock(partition, "getBlockLocations");
     }
 
     logAuditEvent(true, "open", srcArg);
 
-    if (res.updateAccessTime()) {
+    if (standbyReadsEnabled && isInStandbyState()) {
+      checkBlockLocationsOnStandby(srcArg, res.blocks);
+    } else if (res.updateAccessTime()) {
       byte[][] pathComponents = FSDirectory.getPathComponentsForReservedPath(
           srcArg);
       String src = srcArg;
-      writeLock();
-      final long now = now();
-      try {
-        checkOperation(OperationCategory.WRITE);
-        /**
-         * Resolve the path again and update the atime only when the file
-         * exists.
-         *
-         * XXX: Races can still occur even after resolving the path again.
-         * For example:
-         *
-         * <ul>
-         *   <li>Get the block location for "/a/b"</li>
-         *   <li>Rename "/a/b" to "/c/b"</li>
-         *   <li>The second resolution still points to "/a/b", which is
-         *   wrong.</li>
-         * </ul>
-         *
-         * The behavior is incorrect but consistent with the one before
-         * HDFS-7463. A better fix is to change the edit log of SetTime to
-         * use inode id instead of a path.
-         */
-        src = dir.resolvePath(pc, srcArg, pathComponents);
-        final INodesInPath iip = dir.getINodesInPath(src, true);
-        INode inode = iip.getLastINode();
-        boolean updateAccessTime = inode != null &&
-            now > inode.getAccessTime() + getAccessTimePrecision();
-        if (!isInSafeMode() && updateAccessTime) {
-          boolean changed = dir.setTimes(
-              inode, -1, now, false, iip.getLatestSnapshotId());
-          if (changed) {
-            getEditLog().logTimes(src, -1, now);
+      int atimePartition = partition;
+      while (true) {
+        final int locked = atimePartition;
+        fsLock.writeLock(locked);
+        final long now = now();
+        try {
+          checkOperation(OperationCategory.WRITE);
+          /**
+           * Resolve the path again and update the atime only when the file
+           * exists.
+           *
+           * XXX: Races can still occur even after resolving the path again.
+           * For example:
+           *
+           * <ul>
+           *   <li>Get the block location for "/a/b"</li>
+           *   <li>Rename "/a/b" to "/c/b"</li>
+           *   <li>The second resolution still points to "/a/b", which is
+           *   wrong.</li>
+           * </ul>
+           *
+           * The behavior is incorrect but consistent with the one before
+           * HDFS-7463. A better fix is to change the edit log of SetTime to
+           * use inode id instead of a path.
+           */
+          src = dir.resolvePath(pc, srcArg, pathComponents);
+          final INodesInPath iip = dir.getINodesInPath(src, true);
+          if (locked != FSNamesystemLock.GLOBAL_PARTITION &&
+              !isPartitionLocal(iip)) {
+            atimePartition = FSNamesystemLock.GLOBAL_PARTITION;
+            continue;
           }
+          INode inode = iip.getLastINode();
+          boolean updateAccessTime = inode != null &&
+              now > inode.getAccessTime() + getAccessTimePrecision();
+          if (!isInSafeMode() && updateAccessTime) {
+            boolean changed = dir.setTimes(
+                inode, -1, now, false, iip.getLatestSnapshotId());
+            if (changed) {
+              getEditLog().logTimes(src, -1, now);
+            }
+          }
+        } catch (Throwable e) {
+          LOG.warn("Failed to update the access time of " + src, e);
+        } finally {
+          fsLock.writeUnlock(locked, "getBlockLocations");
         }
-      } catch (Throwable e) {
-        LOG.warn("Failed to update the access time of " + src, e);
-      } finally {
-        writeUnlock();
+        break;
       }
     }
 
     LocatedBlocks blocks = res.blocks;
     if (blocks != null) {
-      blockManager.getDatanodeManager().sortLocatedBlocks(
-          clientMachine, blocks.getLocatedBlocks());
-
       // lastBlock is not part of getLocatedBlocks(), might need to sort it too
+      // in the same pass
+      List<LocatedBlock> toSort = blocks.getLocatedBlocks();
       LocatedBlock lastBlock = blocks.getLastLocatedBlock();
       if (lastBlock != null) {
-        ArrayList<LocatedBlock> lastBlockList = Lists.newArrayList(lastBlock);
-        blockManager.getDatanodeManager().sortLocatedBlocks(
-            clientMachine, lastBlockList);
+        toSort = new ArrayList<LocatedBlock>(toSort.size() + 1);
+        toSort.addAll(blocks.getLocatedBlocks());
+        toSort.add(lastBlock);
       }
+      blockManager.getDatanodeManager().sortLocatedBlocks(
+          clientMachine, toSort);
     }
     return blocks;
   }
 
+  /**
+   * The standby may load a block from the edits before datanodes report it.
+   * Send the client to the active rather than return no locations.
+   */
+  private static void checkBlockLocationsOnStandby(String src,
+      LocatedBlocks blocks) throws StandbyException {
+    if (blocks == null) {
+      return;
+    }
+    List<LocatedBlock> located = new ArrayList<LocatedBlock>(
+        blocks.getLocatedBlocks());
+    if (blocks.getLastLocatedBlock() != null) {
+      located.add(blocks.getLastLocatedBlock());
+    }
+    for (LocatedBlock b : located) {
+      if (b.getLocations() == null || b.getLocations().length == 0) {
+        throw new StandbyException("StandbyNode has no locations yet for "
+            + b.getBlock() + " of " + src);
+      }
+    }
+  }
+
   /**
    * Get block locations within the specified range.
    * @see ClientProtocol#getBlockLocations(String, long, long)
@@ -2164,6 +2496,9 @@ private GetBlockLocationsResult getBlockLocationsInt(
         ? inode.computeFileSize(iip.getPathSnapshotId())
         : inode.computeFileSizeNotIncludingLastUcBlock();
     boolean isUc = inode.isUnderConstruction();
+    if (hotFileMonitor != null && !iip.isSnapshot()) {
+      hotFileMonitor.recordAccess(inode);
+    }
     if (iip.isSnapshot()) {
       // if src indicates a snapshot file, we need to make sure the returned
       // blocks do not exceed the size of the snapshot file.
@@ -2257,7 +2592,7 @@ private void concatInt(String target, String [] srcs,
       concatInternal(pc, target, srcs, logRetryCache);
       resultingStat = getAuditFileInfo(target, false);
     } finally {
-      writeUnlock();
+      writeUnlock("concat");
     }
     getEditLog().logSync();
     logAuditEvent(true, "concat", Arrays.toString(srcs), target, resultingStat);
@@ -2377,6 +2712,10 @@ private void concatInternal(FSPermissionChecker pc, String target,
 
     long timestamp = now();
     dir.concat(target, srcs, timestamp);
+    for (String src : srcs) {
+      cacheManager.markPathChanged(src, true);
+    }
+    cacheManager.markPathChanged(target, false);
     getEditLog().logConcat(target, srcs, timestamp, logRetryCache);
   }
   
@@ -2406,30 +2745,39 @@ private void setTimesInt(final String srcArg, long mtime, long atime)
     FSPermissionChecker pc = getPermissionChecker();
     checkOperation(OperationCategory.WRITE);
     byte[][] pathComponents = FSDirectory.getPathComponentsForReservedPath(src);
-    writeLock();
-    try {
-      checkOperation(OperationCategory.WRITE);
-      checkNameNodeSafeMode("Cannot set times " + src);
-      src = dir.resolvePath(pc, src, pathComponents);
+    int partition = fsLock.getPartition(srcArg);
+    while (true) {
+      final int locked = partition;
+      fsLock.writeLock(locked);
+      try {
+        checkOperation(OperationCategory.WRITE);
+        checkNameNodeSafeMode("Cannot set times " + srcArg);
+        src = dir.resolvePath(pc, srcArg, pathComponents);
+        if (!isAttributeUpdateCovered(locked, src)) {
+          partition = FSNamesystemLock.GLOBAL_PARTITION;
+          continue;
+        }
 
-      // Write access is required to set access and modification times
-      if (isPermissionEnabled) {
-        checkPathAccess(pc, src, FsAction.WRITE);
-      }
-      final INodesInPath iip = dir.getINodesInPath4Write(src);
-      final INode inode = iip.getLastINode();
-      if (inode != null) {
-        boolean changed = dir.setTimes(inode, mtime, atime, true,
-                iip.getLatestSnapshotId());
-        if (changed) {
-          getEditLog().logTimes(src, mtime, atime);
+        // Write access is required to set access and modification times
+        if (isPermissionEnabled) {
+          checkPathAccess(pc, src, FsAction.WRITE);
         }
-        resultingStat = getAuditFileInfo(src, false);
-      } else {
-        throw new FileNotFoundException("File/Directory " + src + " does not exist.");
+        final INodesInPath iip = dir.getINodesInPath4Write(src);
+        final INode inode = iip.getLastINode();
+        if (inode != null) {
+          boolean changed = dir.setTimes(inode, mtime, atime, true,
+                  iip.getLatestSnapshotId());
+          if (changed) {
+            getEditLog().logTimes(src, mtime, atime);
+          }
+          resultingStat = getAuditFileInfo(src, false);
+        } else {
+          throw new FileNotFoundException("File/Directory " + src + " does not exist.");
+        }
+        break;
+      } finally {
+        fsLock.writeUnlock(locked, "setTimes");
       }
-    } finally {
-      writeUnlock();
     }
     logAuditEvent(true, "setTimes", srcArg, null, resultingStat);
   }
@@ -2500,7 +2848,7 @@ private void createSymlinkInt(String target, final String linkArg,
       addSymlink(link, target, dirPerms, createParent, logRetryCache);
       resultingStat = getAuditFileInfo(link, false);
     } finally {
-      writeUnlock();
+      writeUnlock("createSymlink");
     }
     getEditLog().logSync();
     logAuditEvent(true, "createSymlink", linkArg, target, resultingStat);
@@ -2555,7 +2903,7 @@ private boolean setReplicationInt(final String srcArg,
         blockManager.setReplication(blockRepls[0], blockRepls[1], src, blocks);
       }
     } finally {
-      writeUnlock();
+      writeUnlock("setReplication");
     }
 
     getEditLog().logSync();
@@ -2565,6 +2913,37 @@ private boolean setReplicationInt(final String srcArg,
     return isFile;
   }
 
+  /**
+   * Change the replication of a file on behalf of the NameNode itself,
+   * without permission checks or audit logging. The caller must hold the
+   * write lock and sync the edit log.
+   *
+   * @return whether the replication was changed
+   */
+  boolean setReplicationInternal(INodeFile file, short replication)
+      throws IOException {
+    assert hasWriteLock();
+    final String src = file.getFullPathName();
+    // a deleted file may still be reachable through a snapshot
+    if (dir.getINode(src) != file) {
+      return false;
+    }
+    blockManager.verifyReplication(src, replication, null);
+    final short[] blockRepls = new short[2]; // 0: old, 1: new
+    final BlockInfo[] blocks = dir.setReplication(src, replication, blockRepls);
+    if (blocks == null) {
+      return false;
+    }
+    getEditLog().logSetReplication(src, replication);
+    blockManager.setReplication(blockRepls[0], blockRepls[1], src, blocks);
+    return true;
+  }
+
+  @VisibleForTesting
+  HotFileReplicationMonitor getHotFileMonitor() {
+    return hotFileMonitor;
+  }
+
   /**
    * Set the storage policy for a file or a directory.
    *
@@ -2619,13 +2998,38 @@ private void setStoragePolicyInt(String src, final String policyName)
       getEditLog().logSetStoragePolicy(src, policy.getId());
       fileStat = getAuditFileInfo(src, false);
     } finally {
-      writeUnlock();
+      writeUnlock("setStoragePolicy");
     }
 
     getEditLog().logSync();
     logAuditEvent(true, "setStoragePolicy", src, null, fileStat);
   }
 
+  /**
+   * Set the storage policy of a file on behalf of the NameNode itself,
+   * without permission checks or audit logging. The caller must hold the
+   * write lock and sync the edit log.
+   *
+   * @return whether the storage policy was changed
+   */
+  boolean setStoragePolicyInternal(INodeFile file, byte policyId)
+      throws IOException {
+    assert hasWriteLock();
+    final String src = file.getFullPathName();
+    // a deleted file may still be reachable through a snapshot
+    if (dir.getINode(src) != file) {
+      return false;
+    }
+    dir.setStoragePolicy(src, policyId);
+    getEditLog().logSetStoragePolicy(src, policyId);
+    return true;
+  }
+
+  @VisibleForTesting
+  StorageTieringMonitor getStorageTieringMonitor() {
+    return storageTieringMonitor;
+  }
+
   /**
    * @return All the existing block storage policies
    */
@@ -2637,7 +3041,7 @@ BlockStoragePolicy[] getStoragePolicies() throws IOException {
       checkOperation(OperationCategory.READ);
       return blockManager.getStoragePolicies();
     } finally {
-      readUnlock();
+      readUnlock("getStoragePolicies");
     }
   }
 
@@ -2655,7 +3059,7 @@ long getPreferredBlockSize(String filename)
       }
       return dir.getPreferredBlockSize(filename);
     } finally {
-      readUnlock();
+      readUnlock("getPreferredBlockSize");
     }
   }
 
@@ -2866,7 +3270,7 @@ private HdfsFileStatus startFileInt(final String srcArg,
           Preconditions.checkNotNull(ezKeyName);
         }
       } finally {
-        readUnlock();
+        readUnlock("create");
       }
 
       Preconditions.checkState(
@@ -2896,7 +3300,7 @@ private HdfsFileStatus startFileInt(final String srcArg,
       skipSync = true;
       throw se;
     } finally {
-      writeUnlock();
+      writeUnlock("create");
       // There might be transactions logged while trying to recover the lease.
       // They need to be sync'ed even when an exception was thrown.
       if (!skipSync) {
@@ -3165,7 +3569,9 @@ LocatedBlock prepareFileForWrite(String src, INodeFile file,
     final INodesInPath iip = dir.getINodesInPath4Write(src, true);
     final long dsDelta = verifyQuotaForUCBlock(file, iip);
     file.recordModification(latestSnapshot);
+    dir.updateContentSummaryCount(file, false);
     final INodeFile cons = file.toUnderConstruction(leaseHolder, clientMachine);
+    dir.updateContentSummaryCount(cons, true);
 
     leaseManager.addLease(cons.getFileUnderConstructionFeature()
         .getClientName(), file.getId());
@@ -3264,7 +3670,7 @@ boolean recoverLease(String src, String holder, String clientMachine)
       skipSync = true;
       throw se;
     } finally {
-      writeUnlock();
+      writeUnlock("recoverLease");
       // There might be transactions logged while trying to recover the lease.
       // They need to be sync'ed even when an exception was thrown.
       if (!skipSync) {
@@ -3413,7 +3819,7 @@ private LastBlockWithStatus appendFileInt(final String srcArg, String holder,
       skipSync = true;
       throw se;
     } finally {
-      writeUnlock();
+      writeUnlock("append");
       // There might be transactions logged while trying to recover the lease.
       // They need to be sync'ed even when an exception was thrown.
       if (!skipSync) {
@@ -3497,7 +3903,7 @@ LocatedBlock getAdditionalBlock(String src, long fileId, String clientName,
       replication = pendingFile.getFileReplication();
       storagePolicyID = pendingFile.getStoragePolicyID();
     } finally {
-      readUnlock();
+      readUnlock("addBlock");
     }
 
     if (clientNode == null) {
@@ -3552,7 +3958,7 @@ LocatedBlock getAdditionalBlock(String src, long fileId, String clientName,
       persistNewBlock(src, pendingFile);
       offset = pendingFile.computeFileSize();
     } finally {
-      writeUnlock();
+      writeUnlock("addBlock");
     }
     getEditLog().logSync();
 
@@ -3745,7 +4151,7 @@ LocatedBlock getAdditionalDatanode(String src, long fileId,
       final DatanodeManager dm = blockManager.getDatanodeManager();
       chosen = Arrays.asList(dm.getDatanodeStorageInfos(existings, storageIDs));
     } finally {
-      readUnlock();
+      readUnlock("getAdditionalDatanode");
     }
 
     if (clientnode == null) {
@@ -3803,7 +4209,7 @@ boolean abandonBlock(ExtendedBlock b, long fileId, String src, String holder)
           "removed from pendingCreates", b);
       persistBlocks(src, file, false);
     } finally {
-      writeUnlock();
+      writeUnlock("abandonBlock");
     }
     getEditLog().logSync();
 
@@ -3877,7 +4283,7 @@ boolean completeFile(final String srcArg, String holder,
       success = completeFileInternal(src, holder,
         ExtendedBlock.getLocalBlock(last), fileId);
     } finally {
-      writeUnlock();
+      writeUnlock("complete");
     }
     getEditLog().logSync();
     if (success) {
@@ -4011,7 +4417,7 @@ boolean checkFileProgress(INodeFile v, boolean checkall) {
       }
       return true;
     } finally {
-      readUnlock();
+      readUnlock("checkFileProgress");
     }
   }
 
@@ -4066,20 +4472,29 @@ private boolean renameToInt(final String srcArg, final String dstArg,
     byte[][] dstComponents = FSDirectory.getPathComponentsForReservedPath(dst);
     boolean status = false;
     HdfsFileStatus resultingStat = null;
-    writeLock();
-    try {
-      checkOperation(OperationCategory.WRITE);
-      checkNameNodeSafeMode("Cannot rename " + src);
-      waitForLoadingFSImage();
-      src = dir.resolvePath(pc, src, srcComponents);
-      dst = dir.resolvePath(pc, dst, dstComponents);
-      checkOperation(OperationCategory.WRITE);
-      status = renameToInternal(pc, src, dst, logRetryCache);
-      if (status) {
-        resultingStat = getAuditFileInfo(dst, false);
+    int partition = getRenamePartition(srcArg, dstArg);
+    while (true) {
+      final int locked = partition;
+      fsLock.writeLock(locked);
+      try {
+        checkOperation(OperationCategory.WRITE);
+        checkNameNodeSafeMode("Cannot rename " + src);
+        waitForLoadingFSImage();
+        src = dir.resolvePath(pc, srcArg, srcComponents);
+        dst = dir.resolvePath(pc, dstArg, dstComponents);
+        if (!isNamespaceUpdateCovered(locked, false, src, dst)) {
+          partition = FSNamesystemLock.GLOBAL_PARTITION;
+          continue;
+        }
+        checkOperation(OperationCategory.WRITE);
+        status = renameToInternal(pc, src, dst, logRetryCache);
+        if (status) {
+          resultingStat = getAuditFileInfo(dst, false);
+        }
+        break;
+      } finally {
+        fsLock.writeUnlock(locked, "rename");
       }
-    } finally {
-      writeUnlock();
     }
     getEditLog().logSync();
     if (status) {
@@ -4093,7 +4508,7 @@ private boolean renameToInt(final String srcArg, final String dstArg,
   private boolean renameToInternal(FSPermissionChecker pc, String src,
       String dst, boolean logRetryCache) throws IOException,
       UnresolvedLinkException {
-    assert hasWriteLock();
+    assert hasWriteLock() || hasPartitionWriteLock();
     String actualdst = dir.isDir(dst)?
         dst + Path.SEPARATOR + new Path(src).getName(): dst;
     if (isPermissionEnabled) {
@@ -4113,6 +4528,8 @@ private boolean renameToInternal(FSPermissionChecker pc, String src,
 
     long mtime = now();
     if (dir.renameTo(src, dst, mtime)) {
+      cacheManager.markPathChanged(src, true);
+      cacheManager.markPathChanged(actualdst, false);
       getEditLog().logRename(src, actualdst, mtime, logRetryCache);
       return true;
     }
@@ -4142,19 +4559,33 @@ void renameTo(final String srcArg, final String dstArg,
     byte[][] dstComponents = FSDirectory.getPathComponentsForReservedPath(dst);
     HdfsFileStatus resultingStat = null;
     boolean success = false;
-    writeLock();
     BlocksMapUpdateInfo collectedBlocks = new BlocksMapUpdateInfo();
+    int partition = getRenamePartition(srcArg, dstArg);
     try {
-      checkOperation(OperationCategory.WRITE);
-      checkNameNodeSafeMode("Cannot rename " + src);
-      src = dir.resolvePath(pc, src, srcComponents);
-      dst = dir.resolvePath(pc, dst, dstComponents);
-      renameToInternal(pc, src, dst, cacheEntry != null, 
-          collectedBlocks, options);
-      resultingStat = getAuditFileInfo(dst, false);
-      success = true;
+      while (true) {
+        final int locked = partition;
+        fsLock.writeLock(locked);
+        try {
+          checkOperation(OperationCategory.WRITE);
+          checkNameNodeSafeMode("Cannot rename " + src);
+          src = dir.resolvePath(pc, srcArg, srcComponents);
+          dst = dir.resolvePath(pc, dstArg, dstComponents);
+          // an overwritten destination is deleted along with the rename
+          if (!isNamespaceUpdateCovered(locked, false, src) ||
+              !isNamespaceUpdateCovered(locked, true, dst)) {
+            partition = FSNamesystemLock.GLOBAL_PARTITION;
+            continue;
+          }
+          renameToInternal(pc, src, dst, cacheEntry != null,
+              collectedBlocks, options);
+          resultingStat = getAuditFileInfo(dst, false);
+          success = true;
+          break;
+        } finally {
+          fsLock.writeUnlock(locked, "rename2");
+        }
+      }
     } finally {
-      writeUnlock();
       RetryCache.setState(cacheEntry, success);
     }
     getEditLog().logSync();
@@ -4175,7 +4606,7 @@ void renameTo(final String srcArg, final String dstArg,
   private void renameToInternal(FSPermissionChecker pc, String src, 
       String dst, boolean logRetryCache, BlocksMapUpdateInfo collectedBlocks, 
       Options.Rename... options) throws IOException {
-    assert hasWriteLock();
+    assert hasWriteLock() || hasPartitionWriteLock();
     if (isPermissionEnabled) {
       boolean renameToTrash = false;
       if (null != options &&
@@ -4208,6 +4639,8 @@ private void renameToInternal(FSPermissionChecker pc, String src,
     waitForLoadingFSImage();
     long mtime = now();
     dir.renameTo(src, dst, mtime, collectedBlocks, options);
+    cacheManager.markPathChanged(src, true);
+    cacheManager.markPathChanged(dst, false);
     getEditLog().logRename(src, dst, mtime, logRetryCache, options);
   }
   
@@ -4278,33 +4711,46 @@ private boolean deleteInternal(String src, boolean recursive,
     boolean ret = false;
 
     waitForLoadingFSImage();
-    writeLock();
-    try {
-      checkOperation(OperationCategory.WRITE);
-      checkNameNodeSafeMode("Cannot delete " + src);
-      src = dir.resolvePath(pc, src, pathComponents);
-      if (!recursive && dir.isNonEmptyDirectory(src)) {
-        throw new PathIsNotEmptyDirectoryException(src + " is non empty");
-      }
-      if (enforcePermission && isPermissionEnabled) {
-        checkPermission(pc, src, false, null, FsAction.WRITE, null,
-            FsAction.ALL, true, false);
-      }
+    final String srcArg = src;
+    // callers already holding the write lock keep deleting under it
+    int partition = hasWriteLock() ?
+        FSNamesystemLock.GLOBAL_PARTITION : fsLock.getPartition(srcArg);
+    while (true) {
+      final int locked = partition;
+      fsLock.writeLock(locked);
+      try {
+        checkOperation(OperationCategory.WRITE);
+        checkNameNodeSafeMode("Cannot delete " + srcArg);
+        src = dir.resolvePath(pc, srcArg, pathComponents);
+        if (!isNamespaceUpdateCovered(locked, true, src)) {
+          partition = FSNamesystemLock.GLOBAL_PARTITION;
+          continue;
+        }
+        if (!recursive && dir.isNonEmptyDirectory(src)) {
+          throw new PathIsNotEmptyDirectoryException(src + " is non empty");
+        }
+        if (enforcePermission && isPermissionEnabled) {
+          checkPermission(pc, src, false, null, FsAction.WRITE, null,
+              FsAction.ALL, true, false);
+        }
 
-      long mtime = now();
-      // Unlink the target directory from directory tree
-      long filesRemoved = dir.delete(src, collectedBlocks, removedINodes,
-          removedUCFiles, mtime);
-      if (filesRemoved < 0) {
-        return false;
+        long mtime = now();
+        // Unlink the target directory from directory tree
+        long filesRemoved = dir.delete(src, collectedBlocks, removedINodes,
+            removedUCFiles, mtime);
+        if (filesRemoved < 0) {
+          return false;
+        }
+        cacheManager.markPathChanged(src, true);
+        getEditLog().logDelete(src, mtime, logRetryCache);
+        incrDeletedFileCount(filesRemoved);
+        // Blocks/INodes will be handled later
+        removePathAndBlocks(src, null, removedUCFiles, removedINodes, true);
+        ret = true;
+        break;
+      } finally {
+        fsLock.writeUnlock(locked, "delete");
       }
-      getEditLog().logDelete(src, mtime, logRetryCache);
-      incrDeletedFileCount(filesRemoved);
-      // Blocks/INodes will be handled later
-      removePathAndBlocks(src, null, removedUCFiles, removedINodes, true);
-      ret = true;
-    } finally {
-      writeUnlock();
     }
     removeBlocks(collectedBlocks); // Incremental deletion of blocks
     collectedBlocks.clear();
@@ -4335,7 +4781,7 @@ void removeBlocks(BlocksMapUpdateInfo blocks) {
           blockManager.removeBlock(iter.next());
         }
       } finally {
-        writeUnlock();
+        writeUnlock("removeBlocks");
       }
     }
   }
@@ -4351,7 +4797,7 @@ void removeBlocks(BlocksMapUpdateInfo blocks) {
   void removePathAndBlocks(String src, BlocksMapUpdateInfo blocks,
       List<Long> removedUCFiles, List<INode> removedINodes,
       final boolean acquireINodeMapLock) {
-    assert hasWriteLock();
+    assert hasWriteLock() || hasPartitionWriteLock();
     leaseManager.removeLeases(removedUCFiles);
     // remove inodes from inodesMap
     if (removedINodes != null) {
@@ -4447,7 +4893,8 @@ HdfsFileStatus getFileInfo(final String srcArg, boolean resolveLink)
     FSPermissionChecker pc = getPermissionChecker();
     checkOperation(OperationCategory.READ);
     byte[][] pathComponents = FSDirectory.getPathComponentsForReservedPath(src);
-    readLock();
+    final int partition = fsLock.getPartition(srcArg);
+    fsLock.readLock(partition);
     try {
       checkOperation(OperationCategory.READ);
       src = dir.resolvePath(pc, src, pathComponents);
@@ -4461,7 +4908,7 @@ HdfsFileStatus getFileInfo(final String srcArg, boolean resolveLink)
       logAuditEvent(false, "getfileinfo", srcArg);
       throw e;
     } finally {
-      readUnlock();
+      fsLock.readUnlock(partition, "getFileInfo");
     }
     logAuditEvent(true, "getfileinfo", srcArg);
     return stat;
@@ -4491,7 +4938,7 @@ boolean isFileClosed(final String srcArg)
       }
       throw e;
     } finally {
-      readUnlock();
+      readUnlock("isFileClosed");
     }
   }
 
@@ -4534,7 +4981,7 @@ private boolean mkdirsInt(final String srcArg, PermissionStatus permissions,
         resultingStat = getAuditFileInfo(src, false);
       }
     } finally {
-      writeUnlock();
+      writeUnlock("mkdirs");
     }
     getEditLog().logSync();
     if (status) {
@@ -4716,7 +5163,7 @@ ContentSummary getContentSummary(final String srcArg) throws IOException {
       success = false;
       throw ace;
     } finally {
-      readUnlock();
+      readUnlock("getContentSummary");
       logAuditEvent(success, "contentSummary", srcArg);
     }
   }
@@ -4743,7 +5190,7 @@ void setQuota(String path, long nsQuota, long dsQuota)
                 q.get(Quota.NAMESPACE), q.get(Quota.DISKSPACE));
       }
     } finally {
-      writeUnlock();
+      writeUnlock("setQuota");
     }
     getEditLog().logSync();
   }
@@ -4787,7 +5234,7 @@ void fsync(String src, long fileId, String clientName, long lastBlockLength)
       }
       persistBlocks(src, pendingFile, false);
     } finally {
-      writeUnlock();
+      writeUnlock("fsync");
     }
     getEditLog().logSync();
   }
@@ -4982,13 +5429,16 @@ private void finalizeINodeFileUnderConstruction(String src,
     // The file is no longer pending.
     // Create permanent INode, update blocks. No need to replace the inode here
     // since we just remove the uc feature from pendingFile
+    dir.updateContentSummaryCount(pendingFile, false);
     final INodeFile newFile = pendingFile.toCompleteFile(now());
+    dir.updateContentSummaryCount(newFile, true);
 
     leaseManager.removeLease(uc.getClientName(), pendingFile);
 
     waitForLoadingFSImage();
     // close file and persist block allocations for this file
     closeFile(src, newFile);
+    cacheManager.markPathChanged(newFile.getFullPathName(), false);
 
     blockManager.checkReplication(newFile);
   }
@@ -5174,7 +5624,7 @@ void commitBlockSynchronization(ExtendedBlock lastblock,
       }
       blockManager.successfulBlockRecovery(storedBlock);
     } finally {
-      writeUnlock();
+      writeUnlock("commitBlockSynchronization");
     }
     getEditLog().logSync();
     if (closeFile) {
@@ -5220,7 +5670,7 @@ void renewLease(String holder) throws IOException {
       checkNameNodeSafeMode("Cannot renew lease for " + holder);
       leaseManager.renewLease(holder);
     } finally {
-      readUnlock();
+      readUnlock("renewLease");
     }
   }
 
@@ -5250,47 +5700,152 @@ DirectoryListing getListing(String src, byte[] startAfter,
   private DirectoryListing getListingInt(final String srcArg, byte[] startAfter,
       boolean needLocation)
     throws AccessControlException, UnresolvedLinkException, IOException {
-    String src = srcArg;
     DirectoryListing dl;
     FSPermissionChecker pc = getPermissionChecker();
     checkOperation(OperationCategory.READ);
+    final int partition = fsLock.getPartition(srcArg);
+    fsLock.readLock(partition);
+    try {
+      checkOperation(OperationCategory.READ);
+      dl = getListingLocked(pc, srcArg, startAfter, needLocation);
+    } finally {
+      fsLock.readUnlock(partition, "getListing");
+    }
+    return dl;
+  }
+
+  /**
+   * Get a partial listing of the indicated directory. The caller holds the
+   * read lock of the partition of the directory.
+   */
+  private DirectoryListing getListingLocked(FSPermissionChecker pc,
+      final String srcArg, byte[] startAfter, boolean needLocation)
+      throws AccessControlException, UnresolvedLinkException, IOException {
+    String src = srcArg;
     byte[][] pathComponents = FSDirectory.getPathComponentsForReservedPath(src);
     String startAfterString = new String(startAfter);
-    readLock();
+    src = dir.resolvePath(pc, src, pathComponents);
+
+    // Get file name when startAfter is an INodePath
+    if (FSDirectory.isReservedName(startAfterString)) {
+      byte[][] startAfterComponents = FSDirectory
+          .getPathComponentsForReservedPath(startAfterString);
+      try {
+        String tmp = FSDirectory.resolvePath(src, startAfterComponents, dir);
+        byte[][] regularPath = INode.getPathComponents(tmp);
+        startAfter = regularPath[regularPath.length - 1];
+      } catch (IOException e) {
+        // Possibly the inode is deleted
+        throw new DirectoryListingStartAfterNotFoundException(
+            "Can't find startAfter " + startAfterString);
+      }
+    }
+
+    boolean isSuperUser = true;
+    if (isPermissionEnabled) {
+      if (dir.isDir(src)) {
+        checkPathAccess(pc, src, FsAction.READ_EXECUTE);
+      } else {
+        checkTraverse(pc, src);
+      }
+      isSuperUser = pc.isSuperUser();
+    }
+    logAuditEvent(true, "listStatus", srcArg);
+    return dir.getListing(src, startAfter, needLocation, isSuperUser);
+  }
+
+  /**
+   * Get a partial listing of many directories under a single acquisition of
+   * the namesystem lock. A page holds the listings of as many directories as
+   * fit in about {@link FSDirectory#getLsLimit()} entries. The position of
+   * the next page is encoded in a {@link BatchedListingKeyProto} along with
+   * a checksum of the paths, so it cannot be used with another batch.
+   *
+   * @see ClientProtocol#getBatchedListing(String[], byte[], boolean)
+   */
+  BatchedDirectoryListing getBatchedListing(String[] srcs, byte[] startAfter,
+      boolean needLocation) throws IOException {
+    if (srcs.length == 0 || srcs.length > batchedListingLimit) {
+      throw new InvalidRequestException("Cannot list " + srcs.length
+          + " paths in a batch, the limit "
+          + DFSConfigKeys.DFS_NAMENODE_BATCHED_LISTING_LIMIT + " is "
+          + batchedListingLimit);
+    }
+    final byte[] checksum = getBatchedListingChecksum(srcs);
+    int srcsIndex = 0;
+    byte[] indexStartAfter = DFSUtil.EMPTY_BYTES;
+    if (startAfter.length > 0) {
+      final BatchedListingKeyProto key =
+          BatchedListingKeyProto.parseFrom(startAfter);
+      if (!Arrays.equals(key.getChecksum().toByteArray(), checksum)
+          || key.getPathIndex() >= srcs.length) {
+        throw new InvalidRequestException(
+            "The listing position does not belong to the given paths");
+      }
+      srcsIndex = key.getPathIndex();
+      indexStartAfter = key.getStartAfter().toByteArray();
+    }
+
+    final List<HdfsPartialListing> listings =
+        new ArrayList<HdfsPartialListing>();
+    FSPermissionChecker pc = getPermissionChecker();
+    checkOperation(OperationCategory.READ);
+    final int[] partitions = fsLock.getPartitions(
+        Arrays.copyOfRange(srcs, srcsIndex, srcs.length));
+    fsLock.readLock(partitions);
     try {
       checkOperation(OperationCategory.READ);
-      src = dir.resolvePath(pc, src, pathComponents);
-
-      // Get file name when startAfter is an INodePath
-      if (FSDirectory.isReservedName(startAfterString)) {
-        byte[][] startAfterComponents = FSDirectory
-            .getPathComponentsForReservedPath(startAfterString);
+      int numEntries = 0;
+      while (srcsIndex < srcs.length && numEntries < dir.getLsLimit()) {
+        DirectoryListing listing = null;
         try {
-          String tmp = FSDirectory.resolvePath(src, startAfterComponents, dir);
-          byte[][] regularPath = INode.getPathComponents(tmp);
-          startAfter = regularPath[regularPath.length - 1];
+          listing = getListingLocked(pc, srcs[srcsIndex], indexStartAfter,
+              needLocation);
+          if (listing == null) {
+            throw new FileNotFoundException(
+                "Path " + srcs[srcsIndex] + " does not exist");
+          }
+          listings.add(new HdfsPartialListing(srcsIndex,
+              listing.getPartialListing()));
+          numEntries += listing.getPartialListing().length;
         } catch (IOException e) {
-          // Possibly the inode is deleted
-          throw new DirectoryListingStartAfterNotFoundException(
-              "Can't find startAfter " + startAfterString);
+          if (e instanceof AccessControlException) {
+            logAuditEvent(false, "listStatus", srcs[srcsIndex]);
+          }
+          listings.add(new HdfsPartialListing(srcsIndex,
+              new RemoteException(e.getClass().getName(), e.getMessage())));
         }
-      }
-
-      boolean isSuperUser = true;
-      if (isPermissionEnabled) {
-        if (dir.isDir(src)) {
-          checkPathAccess(pc, src, FsAction.READ_EXECUTE);
-        } else {
-          checkTraverse(pc, src);
+        if (listing != null && listing.hasMore()) {
+          // continue with the rest of this directory on the next page
+          indexStartAfter = listing.getLastName();
+          break;
         }
-        isSuperUser = pc.isSuperUser();
+        srcsIndex++;
+        indexStartAfter = DFSUtil.EMPTY_BYTES;
       }
-      logAuditEvent(true, "listStatus", srcArg);
-      dl = dir.getListing(src, startAfter, needLocation, isSuperUser);
     } finally {
-      readUnlock();
+      fsLock.readUnlock(partitions, "getBatchedListing");
     }
-    return dl;
+
+    final boolean hasMore = srcsIndex < srcs.length;
+    final byte[] nextStartAfter = !hasMore ? DFSUtil.EMPTY_BYTES
+        : BatchedListingKeyProto.newBuilder()
+            .setChecksum(ByteString.copyFrom(checksum))
+            .setPathIndex(srcsIndex)
+            .setStartAfter(ByteString.copyFrom(indexStartAfter))
+            .build().toByteArray();
+    return new BatchedDirectoryListing(
+        listings.toArray(new HdfsPartialListing[listings.size()]),
+        hasMore, nextStartAfter);
+  }
+
+  private static byte[] getBatchedListingChecksum(String[] srcs) {
+    final MessageDigest digester = MD5Hash.getDigester();
+    for (String src : srcs) {
+      digester.update(DFSUtil.string2Bytes(src));
+      digester.update((byte) 0);
+    }
+    return digester.digest();
   }
 
   /////////////////////////////////////////////////////////
@@ -5327,7 +5882,7 @@ void registerDatanode(DatanodeRegistration nodeReg) throws IOException {
       getBlockManager().getDatanodeManager().registerDatanode(nodeReg);
       checkSafeMode();
     } finally {
-      writeUnlock();
+      writeUnlock("registerDatanode");
     }
   }
   
@@ -5360,11 +5915,9 @@ HeartbeatResponse handleHeartbeat(DatanodeRegistration nodeReg,
     readLock();
     try {
       //get datanode commands
-      final int maxTransfer = blockManager.getMaxReplicationStreams()
-          - xmitsInProgress;
       DatanodeCommand[] cmds = blockManager.getDatanodeManager().handleHeartbeat(
           nodeReg, reports, blockPoolId, cacheCapacity, cacheUsed,
-          xceiverCount, maxTransfer, failedVolumes, volumeFailureSummary);
+          xceiverCount, xmitsInProgress, failedVolumes, volumeFailureSummary);
       long blockReportLeaseId = 0;
       if (requestFullBlockReportLease) {
         blockReportLeaseId =  blockManager.requestBlockReportLeaseId(nodeReg);
@@ -5377,7 +5930,7 @@ HeartbeatResponse handleHeartbeat(DatanodeRegistration nodeReg,
       return new HeartbeatResponse(cmds, haState, rollingUpgradeInfo,
           blockReportLeaseId);
     } finally {
-      readUnlock();
+      readUnlock("sendHeartbeat");
     }
   }
 
@@ -5505,6 +6058,39 @@ public void stopMonitor() {
     }
  }
 
+  /**
+   * Periodically rebuilds the {@link DatanodeMetricsSnapshot} served by the
+   * datanode MBean getters. Neither the namesystem lock nor the datanode map
+   * lock is held by a JMX scrape while this thread runs.
+   */
+  class DatanodeMetricsSnapshotRefresher implements Runnable {
+    private volatile boolean shouldRun = true;
+
+    @Override
+    public void run() {
+      while (fsRunning && shouldRun) {
+        try {
+          Thread.sleep(datanodeMetricsSnapshotInterval);
+        } catch (InterruptedException ie) {
+          FSNamesystem.LOG.info(getClass().getSimpleName()
+              + " was interrupted, exiting");
+          break;
+        }
+        try {
+          datanodeMetricsSnapshot = new DatanodeMetricsSnapshot(
+              FSNamesystem.this);
+        } catch (Exception e) {
+          FSNamesystem.LOG.warn("Failed to refresh the datanode metrics"
+              + " snapshot, serving the previous one", e);
+        }
+      }
+    }
+
+    public void stop() {
+      shouldRun = false;
+    }
+  }
+
   class NameNodeEditLogRoller implements Runnable {
 
     private boolean shouldRun = true;
@@ -5588,7 +6174,7 @@ private void clearCorruptLazyPersistFiles()
           changed |= deleteInternal(bc.getName(), false, false, false);
         }
       } finally {
-        writeUnlock();
+        writeUnlock("addSymlink");
       }
       if (changed) {
         getEditLog().logSync();
@@ -5790,7 +6376,7 @@ int getNumberOfDatanodes(DatanodeReportType type) {
       return getBlockManager().getDatanodeManager().getDatanodeListForReport(
           type).size(); 
     } finally {
-      readUnlock();
+      readUnlock("getNumberOfDatanodes");
     }
   }
 
@@ -5810,7 +6396,7 @@ DatanodeInfo[] datanodeReport(final DatanodeReportType type
       }
       return arr;
     } finally {
-      readUnlock();
+      readUnlock("datanodeReport");
     }
   }
 
@@ -5832,7 +6418,7 @@ DatanodeStorageReport[] getDatanodeStorageReport(final DatanodeReportType type
       }
       return reports;
     } finally {
-      readUnlock();
+      readUnlock("getDatanodeStorageReport");
     }
   }
 
@@ -5866,7 +6452,7 @@ void saveNamespace() throws AccessControlException, IOException {
       getFSImage().saveNamespace(this);
       success = true;
     } finally {
-      readUnlock();
+      readUnlock("saveNamespace");
       cpUnlock();
       RetryCache.setState(cacheEntry, success);
     }
@@ -5897,7 +6483,7 @@ boolean restoreFailedStorage(String arg) throws AccessControlException,
       
       return val;
     } finally {
-      writeUnlock();
+      writeUnlock("restoreFailedStorage");
       cpUnlock();
     }
   }
@@ -5915,7 +6501,7 @@ void finalizeUpgrade() throws IOException {
       checkOperation(OperationCategory.UNCHECKED);
       getFSImage().finalizeUpgrade(this.isHaEnabled() && inActiveState());
     } finally {
-      writeUnlock();
+      writeUnlock("finalizeUpgrade");
       cpUnlock();
     }
   }
@@ -6169,7 +6755,8 @@ private synchronized boolean canLeave() {
      */
     private boolean needEnter() {
       return (threshold != 0 && blockSafe < blockThreshold) ||
-        (datanodeThreshold != 0 && getNumLiveDataNodes() < datanodeThreshold) ||
+        (datanodeThreshold != 0 &&
+            computeNumLiveDataNodes() < datanodeThreshold) ||
         (!nameNodeHasResourcesAvailable());
     }
       
@@ -6325,7 +6912,7 @@ String getTurnOffTip() {
       }
 
       boolean thresholdsMet = true;
-      int numLive = getNumLiveDataNodes();
+      int numLive = computeNumLiveDataNodes();
       String msg = "";
       if (blockSafe < blockThreshold) {
         msg += String.format(
@@ -6454,7 +7041,7 @@ public void run() {
             break;
           }
         } finally {
-          writeUnlock();
+          writeUnlock("persistNewBlock");
         }
 
         try {
@@ -6627,7 +7214,7 @@ public long getCompleteBlocksTotal() {
       numUCBlocks = leaseManager.getNumUnderConstructionBlocks();
       return getBlocksTotal() - numUCBlocks;
     } finally {
-      readUnlock();
+      readUnlock("getCompleteBlocksTotal");
     }
   }
 
@@ -6666,7 +7253,7 @@ void enterSafeMode(boolean resourcesLow) throws IOException {
       NameNode.stateChangeLog.info("STATE* Safe mode is ON"
           + safeMode.getTurnOffTip());
     } finally {
-      writeUnlock();
+      writeUnlock("enterSafeMode");
     }
   }
 
@@ -6682,7 +7269,7 @@ void leaveSafeMode() {
       }
       safeMode.leave();
     } finally {
-      writeUnlock();
+      writeUnlock("leaveSafeMode");
     }
   }
     
@@ -6717,7 +7304,7 @@ CheckpointSignature rollEditLog() throws IOException {
       }
       return getFSImage().rollEditLog();
     } finally {
-      writeUnlock();
+      writeUnlock("rollEditLog");
     }
   }
 
@@ -6740,7 +7327,7 @@ NamenodeCommand startCheckpoint(NamenodeRegistration backupNode,
       getEditLog().logSync();
       return cmd;
     } finally {
-      writeUnlock();
+      writeUnlock("startCheckpoint");
       RetryCache.setState(cacheEntry, cmd != null, cmd);
     }
   }
@@ -6752,7 +7339,7 @@ public void processIncrementalBlockReport(final DatanodeID nodeID,
     try {
       blockManager.processIncrementalBlockReport(nodeID, srdb);
     } finally {
-      writeUnlock();
+      writeUnlock("blockReceivedAndDeleted");
     }
   }
   
@@ -6773,7 +7360,7 @@ void endCheckpoint(NamenodeRegistration registration,
       getFSImage().endCheckpoint(sig);
       success = true;
     } finally {
-      readUnlock();
+      readUnlock("endCheckpoint");
       RetryCache.setState(cacheEntry, success);
     }
   }
@@ -7013,16 +7600,43 @@ void shutdown() {
 
   @Override // FSNamesystemMBean
   public int getNumLiveDataNodes() {
+    final DatanodeMetricsSnapshot snapshot = datanodeMetricsSnapshot;
+    return snapshot != null ? snapshot.getNumLiveDataNodes()
+        : computeNumLiveDataNodes();
+  }
+
+  /**
+   * @return the snapshot served by the datanode metrics getters, or null if
+   *         metrics are computed on demand.
+   */
+  @VisibleForTesting
+  DatanodeMetricsSnapshot getDatanodeMetricsSnapshot() {
+    return datanodeMetricsSnapshot;
+  }
+
+  int computeNumLiveDataNodes() {
     return getBlockManager().getDatanodeManager().getNumLiveDataNodes();
   }
 
   @Override // FSNamesystemMBean
   public int getNumDeadDataNodes() {
+    final DatanodeMetricsSnapshot snapshot = datanodeMetricsSnapshot;
+    return snapshot != null ? snapshot.getNumDeadDataNodes()
+        : computeNumDeadDataNodes();
+  }
+
+  int computeNumDeadDataNodes() {
     return getBlockManager().getDatanodeManager().getNumDeadDataNodes();
   }
   
   @Override // FSNamesystemMBean
   public int getNumDecomLiveDataNodes() {
+    final DatanodeMetricsSnapshot snapshot = datanodeMetricsSnapshot;
+    return snapshot != null ? snapshot.getNumDecomLiveDataNodes()
+        : computeNumDecomLiveDataNodes();
+  }
+
+  int computeNumDecomLiveDataNodes() {
     final List<DatanodeDescriptor> live = new ArrayList<DatanodeDescriptor>();
     getBlockManager().getDatanodeManager().fetchDatanodes(live, null, false);
     int liveDecommissioned = 0;
@@ -7034,6 +7648,12 @@ public int getNumDecomLiveDataNodes() {
 
   @Override // FSNamesystemMBean
   public int getNumDecomDeadDataNodes() {
+    final DatanodeMetricsSnapshot snapshot = datanodeMetricsSnapshot;
+    return snapshot != null ? snapshot.getNumDecomDeadDataNodes()
+        : computeNumDecomDeadDataNodes();
+  }
+
+  int computeNumDecomDeadDataNodes() {
     final List<DatanodeDescriptor> dead = new ArrayList<DatanodeDescriptor>();
     getBlockManager().getDatanodeManager().fetchDatanodes(null, dead, false);
     int deadDecommissioned = 0;
@@ -7045,6 +7665,12 @@ public int getNumDecomDeadDataNodes() {
 
   @Override // FSNamesystemMBean
   public int getVolumeFailuresTotal() {
+    final DatanodeMetricsSnapshot snapshot = datanodeMetricsSnapshot;
+    return snapshot != null ? snapshot.getVolumeFailuresTotal()
+        : computeVolumeFailuresTotal();
+  }
+
+  int computeVolumeFailuresTotal() {
     List<DatanodeDescriptor> live = new ArrayList<DatanodeDescriptor>();
     getBlockManager().getDatanodeManager().fetchDatanodes(live, null, false);
     int volumeFailuresTotal = 0;
@@ -7056,6 +7682,12 @@ public int getVolumeFailuresTotal() {
 
   @Override // FSNamesystemMBean
   public long getEstimatedCapacityLostTotal() {
+    final DatanodeMetricsSnapshot snapshot = datanodeMetricsSnapshot;
+    return snapshot != null ? snapshot.getEstimatedCapacityLostTotal()
+        : computeEstimatedCapacityLostTotal();
+  }
+
+  long computeEstimatedCapacityLostTotal() {
     List<DatanodeDescriptor> live = new ArrayList<DatanodeDescriptor>();
     getBlockManager().getDatanodeManager().fetchDatanodes(live, null, false);
     long estimatedCapacityLostTotal = 0;
@@ -7071,6 +7703,12 @@ public long getEstimatedCapacityLostTotal() {
 
   @Override // FSNamesystemMBean
   public int getNumDecommissioningDataNodes() {
+    final DatanodeMetricsSnapshot snapshot = datanodeMetricsSnapshot;
+    return snapshot != null ? snapshot.getNumDecommissioningDataNodes()
+        : computeNumDecommissioningDataNodes();
+  }
+
+  int computeNumDecommissioningDataNodes() {
     return getBlockManager().getDatanodeManager().getDecommissioningNodes()
         .size();
   }
@@ -7112,6 +7750,27 @@ public String getTopUserOpCounts() {
     return null;
   }
 
+  @Override // FSNamesystemMBean
+  public String getTopLockHolders() {
+    if (!topConf.isEnabled) {
+      return null;
+    }
+
+    Date now = new Date();
+    final List<RollingWindowManager.TopWindow> topWindows =
+        topMetrics.getTopLockHolderWindows();
+    Map<String, Object> topMap = new TreeMap<String, Object>();
+    topMap.put("windows", topWindows);
+    topMap.put("timestamp", DFSUtil.dateToIso8601String(now));
+    ObjectMapper mapper = new ObjectMapper();
+    try {
+      return mapper.writeValueAsString(topMap);
+    } catch (IOException e) {
+      LOG.warn("Failed to fetch top lock holder metrics", e);
+    }
+    return null;
+  }
+
   /**
    * Sets the current generation stamp for legacy blocks
    */
@@ -7356,7 +8015,7 @@ void reportBadBlocks(LocatedBlock[] blocks) throws IOException {
         }
       }
     } finally {
-      writeUnlock();
+      writeUnlock("reportBadBlocks");
     }
   }
 
@@ -7389,7 +8048,7 @@ LocatedBlock updateBlockForPipeline(ExtendedBlock block,
       locatedBlock = new LocatedBlock(block, new DatanodeInfo[0]);
       blockManager.setBlockToken(locatedBlock, AccessMode.WRITE);
     } finally {
-      writeUnlock();
+      writeUnlock("updateBlockForPipeline");
     }
     // Ensure we record the new generation stamp
     getEditLog().logSync();
@@ -7430,7 +8089,7 @@ void updatePipeline(String clientName, ExtendedBlock oldBlock,
           newStorageIDs, cacheEntry != null);
       success = true;
     } finally {
-      writeUnlock();
+      writeUnlock("updatePipeline");
       RetryCache.setState(cacheEntry, success);
     }
     getEditLog().logSync();
@@ -7497,7 +8156,7 @@ void registerBackupNode(NamenodeRegistration bnReg,
             bnReg, nnReg);
       }
     } finally {
-      writeUnlock();
+      writeUnlock("registerBackupNode");
     }
   }
 
@@ -7522,7 +8181,7 @@ void releaseBackupNode(NamenodeRegistration registration)
             " node namespaceID = " + registration.getNamespaceID());
       getEditLog().releaseBackupStream(registration);
     } finally {
-      writeUnlock();
+      writeUnlock("releaseBackupNode");
     }
   }
 
@@ -7607,7 +8266,7 @@ Collection<CorruptFileBlockInfo> listCorruptFileBlocks(String path,
       }
       return corruptFiles;
     } finally {
-      readUnlock();
+      readUnlock("listCorruptFileBlocks");
     }
   }
 
@@ -7691,7 +8350,7 @@ Token<DelegationTokenIdentifier> getDelegationToken(Text renewer)
       long expiryTime = dtSecretManager.getTokenExpiryTime(dtId);
       getEditLog().logGetDelegationToken(dtId, expiryTime);
     } finally {
-      writeUnlock();
+      writeUnlock("getDelegationToken");
     }
     getEditLog().logSync();
     return token;
@@ -7725,7 +8384,7 @@ long renewDelegationToken(Token<DelegationTokenIdentifier> token)
       id.readFields(in);
       getEditLog().logRenewDelegationToken(id, expiryTime);
     } finally {
-      writeUnlock();
+      writeUnlock("renewDelegationToken");
     }
     getEditLog().logSync();
     return expiryTime;
@@ -7749,7 +8408,7 @@ void cancelDelegationToken(Token<DelegationTokenIdentifier> token)
         .cancelToken(token, canceller);
       getEditLog().logCancelDelegationToken(id);
     } finally {
-      writeUnlock();
+      writeUnlock("cancelDelegationToken");
     }
     getEditLog().logSync();
   }
@@ -7990,6 +8649,11 @@ public int getThreads() {
    */
   @Override // NameNodeMXBean
   public String getLiveNodes() {
+    final DatanodeMetricsSnapshot snapshot = datanodeMetricsSnapshot;
+    return snapshot != null ? snapshot.getLiveNodes() : computeLiveNodes();
+  }
+
+  String computeLiveNodes() {
     final Map<String, Map<String,Object>> info = 
       new HashMap<String, Map<String,Object>>();
     final List<DatanodeDescriptor> live = new ArrayList<DatanodeDescriptor>();
@@ -8039,6 +8703,11 @@ public String getLiveNodes() {
    */
   @Override // NameNodeMXBean
   public String getDeadNodes() {
+    final DatanodeMetricsSnapshot snapshot = datanodeMetricsSnapshot;
+    return snapshot != null ? snapshot.getDeadNodes() : computeDeadNodes();
+  }
+
+  String computeDeadNodes() {
     final Map<String, Map<String, Object>> info = 
       new HashMap<String, Map<String, Object>>();
     final List<DatanodeDescriptor> dead = new ArrayList<DatanodeDescriptor>();
@@ -8062,6 +8731,11 @@ public String getDeadNodes() {
    */
   @Override // NameNodeMXBean
   public String getDecomNodes() {
+    final DatanodeMetricsSnapshot snapshot = datanodeMetricsSnapshot;
+    return snapshot != null ? snapshot.getDecomNodes() : computeDecomNodes();
+  }
+
+  String computeDecomNodes() {
     final Map<String, Map<String, Object>> info = 
       new HashMap<String, Map<String, Object>>();
     final List<DatanodeDescriptor> decomNodeList = blockManager.getDatanodeManager(
@@ -8089,6 +8763,12 @@ public String getDecomNodes() {
    */
   @Override // NameNodeMXBean
   public String getEnteringMaintenanceNodes() {
+    final DatanodeMetricsSnapshot snapshot = datanodeMetricsSnapshot;
+    return snapshot != null ? snapshot.getEnteringMaintenanceNodes()
+        : computeEnteringMaintenanceNodes();
+  }
+
+  String computeEnteringMaintenanceNodes() {
     final Map<String, Map<String, Object>> nodesMap =
         new HashMap<String, Map<String, Object>>();
     final List<DatanodeDescriptor> enteringMaintenanceNodeList =
@@ -8153,6 +8833,11 @@ public String getNameDirStatuses() {
 
   @Override // NameNodeMXBean
   public String getNodeUsage() {
+    final DatanodeMetricsSnapshot snapshot = datanodeMetricsSnapshot;
+    return snapshot != null ? snapshot.getNodeUsage() : computeNodeUsage();
+  }
+
+  String computeNodeUsage() {
     float median = 0;
     float max = 0;
     float min = 0;
@@ -8483,11 +9168,11 @@ void allowSnapshot(String path) throws SafeModeException, IOException {
       }
       getEditLog().logAllowSnapshot(path);
     } finally {
-      writeUnlock();
+      writeUnlock("allowSnapshot");
     }
     getEditLog().logSync();
 
-    if (auditLog.isInfoEnabled() && isExternalInvocation()) {
+    if (isAuditEnabled() && isExternalInvocation()) {
       logAuditEvent(true, "allowSnapshot", path, null, null);
     }
   }
@@ -8509,11 +9194,11 @@ void disallowSnapshot(String path) throws SafeModeException, IOException {
       }
       getEditLog().logDisallowSnapshot(path);
     } finally {
-      writeUnlock();
+      writeUnlock("disallowSnapshot");
     }
     getEditLog().logSync();
     
-    if (auditLog.isInfoEnabled() && isExternalInvocation()) {
+    if (isAuditEnabled() && isExternalInvocation()) {
       logAuditEvent(true, "disallowSnapshot", path, null, null);
     }
   }
@@ -8561,12 +9246,12 @@ String createSnapshot(String snapshotRoot, String snapshotName)
       getEditLog().logCreateSnapshot(snapshotRoot, snapshotName,
           cacheEntry != null);
     } finally {
-      writeUnlock();
+      writeUnlock("createSnapshot");
       RetryCache.setState(cacheEntry, snapshotPath != null, snapshotPath);
     }
     getEditLog().logSync();
     
-    if (auditLog.isInfoEnabled() && isExternalInvocation()) {
+    if (isAuditEnabled() && isExternalInvocation()) {
       logAuditEvent(true, "createSnapshot", snapshotRoot, snapshotPath, null);
     }
     return snapshotPath;
@@ -8606,12 +9291,12 @@ void renameSnapshot(String path, String snapshotOldName,
           cacheEntry != null);
       success = true;
     } finally {
-      writeUnlock();
+      writeUnlock("renameSnapshot");
       RetryCache.setState(cacheEntry, success);
     }
     getEditLog().logSync();
     
-    if (auditLog.isInfoEnabled() && isExternalInvocation()) {
+    if (isAuditEnabled() && isExternalInvocation()) {
       String oldSnapshotRoot = Snapshot.getSnapshotPath(path, snapshotOldName);
       String newSnapshotRoot = Snapshot.getSnapshotPath(path, snapshotNewName);
       logAuditEvent(true, "renameSnapshot", oldSnapshotRoot, newSnapshotRoot, null);
@@ -8636,9 +9321,9 @@ public SnapshottableDirectoryStatus[] getSnapshottableDirListing()
       final String user = checker.isSuperUser()? null : checker.getUser();
       status = snapshotManager.getSnapshottableDirListing(user);
     } finally {
-      readUnlock();
+      readUnlock("getSnapshottableDirListing");
     }
-    if (auditLog.isInfoEnabled() && isExternalInvocation()) {
+    if (isAuditEnabled() && isExternalInvocation()) {
       logAuditEvent(true, "listSnapshottableDirectory", null, null, null);
     }
     return status;
@@ -8673,10 +9358,54 @@ SnapshotDiffReport getSnapshotDiffReport(String path,
       }
       diffs = snapshotManager.diff(path, fromSnapshot, toSnapshot);
     } finally {
-      readUnlock();
+      readUnlock("getSnapshotDiffReport");
     }
 
-    if (auditLog.isInfoEnabled() && isExternalInvocation()) {
+    if (isAuditEnabled() && isExternalInvocation()) {
+      logAuditEvent(true, "computeSnapshotDiff", null, null, null);
+    }
+    return diffs;
+  }
+
+  /**
+   * Get one page of the difference between two snapshots (or between a
+   * snapshot and the current status) of a snapshottable directory. The lock
+   * is only held while computing the page, so that large diffs do not block
+   * other operations for the whole listing.
+   *
+   * @param path The full path of the snapshottable directory.
+   * @param fromSnapshot Name of the snapshot to calculate the diff from. Null
+   *          or empty string indicates the current tree.
+   * @param toSnapshot Name of the snapshot to calculated the diff to. Null or
+   *          empty string indicates the current tree.
+   * @param startPath The path to continue listing from, relative to the
+   *          snapshottable directory.
+   * @param index The index of the next entry of startPath.
+   * @return A page of the difference between {@code fromSnapshot} and
+   *         {@code toSnapshot}.
+   * @throws IOException
+   * @see ClientProtocol#getSnapshotDiffReportListing
+   */
+  SnapshotDiffReportListing getSnapshotDiffReportListing(String path,
+      String fromSnapshot, String toSnapshot, byte[] startPath, int index)
+      throws IOException {
+    SnapshotDiffReportListing diffs;
+    checkOperation(OperationCategory.READ);
+    final FSPermissionChecker pc = getPermissionChecker();
+    readLock();
+    try {
+      checkOperation(OperationCategory.READ);
+      if (isPermissionEnabled) {
+        checkSubtreeReadPermission(pc, path, fromSnapshot);
+        checkSubtreeReadPermission(pc, path, toSnapshot);
+      }
+      diffs = snapshotManager.diff(path, fromSnapshot, toSnapshot, startPath,
+          index);
+    } finally {
+      readUnlock("getSnapshotDiffReportListing");
+    }
+
+    if (isAuditEnabled() && isExternalInvocation()) {
       logAuditEvent(true, "computeSnapshotDiff", null, null, null);
     }
     return diffs;
@@ -8729,7 +9458,7 @@ void deleteSnapshot(String snapshotRoot, String snapshotName)
           cacheEntry != null);
       success = true;
     } finally {
-      writeUnlock();
+      writeUnlock("deleteSnapshot");
       RetryCache.setState(cacheEntry, success);
     }
     getEditLog().logSync();
@@ -8737,7 +9466,7 @@ void deleteSnapshot(String snapshotRoot, String snapshotName)
     removeBlocks(collectedBlocks);
     collectedBlocks.clear();
 
-    if (auditLog.isInfoEnabled() && isExternalInvocation()) {
+    if (isAuditEnabled() && isExternalInvocation()) {
       String rootPath = Snapshot.getSnapshotPath(snapshotRoot, snapshotName);
       logAuditEvent(true, "deleteSnapshot", rootPath, null, null);
     }
@@ -8766,7 +9495,7 @@ RollingUpgradeInfo queryRollingUpgrade() throws IOException {
       rollingUpgradeInfo.setCreatedRollbackImages(hasRollbackImage);
       return rollingUpgradeInfo;
     } finally {
-      readUnlock();
+      readUnlock("queryRollingUpgrade");
     }
   }
 
@@ -8793,11 +9522,11 @@ RollingUpgradeInfo startRollingUpgrade() throws IOException {
         getFSImage().rollEditLog();
       }
     } finally {
-      writeUnlock();
+      writeUnlock("startRollingUpgrade");
     }
 
     getEditLog().logSync();
-    if (auditLog.isInfoEnabled() && isExternalInvocation()) {
+    if (isAuditEnabled() && isExternalInvocation()) {
       logAuditEvent(true, "startRollingUpgrade", null, null, null);
     }
     return rollingUpgradeInfo;
@@ -8883,7 +9612,7 @@ public RollingUpgradeInfo.Bean getRollingUpgradeStatus() {
     } catch (IOException ioe) {
       LOG.warn("Encountered exception setting Rollback Image", ioe);
     } finally {
-      readUnlock();
+      readUnlock("getRollingUpgradeStatus");
     }
     return new RollingUpgradeInfo.Bean(upgradeInfo);
   }
@@ -8922,7 +9651,7 @@ RollingUpgradeInfo finalizeRollingUpgrade() throws IOException {
       getFSImage().renameCheckpoint(NameNodeFile.IMAGE_ROLLBACK,
           NameNodeFile.IMAGE);
     } finally {
-      writeUnlock();
+      writeUnlock("finalizeRollingUpgrade");
     }
 
     if (!haEnabled) {
@@ -8930,7 +9659,7 @@ RollingUpgradeInfo finalizeRollingUpgrade() throws IOException {
       getEditLog().logSync();
     }
 
-    if (auditLog.isInfoEnabled() && isExternalInvocation()) {
+    if (isAuditEnabled() && isExternalInvocation()) {
       logAuditEvent(true, "finalizeRollingUpgrade", null, null, null);
     }
     return rollingUpgradeInfo;
@@ -8972,7 +9701,7 @@ long addCacheDirective(CacheDirectiveInfo directive, EnumSet<CacheFlag> flags)
       effectiveDirectiveStr = effectiveDirective.toString();
       success = true;
     } finally {
-      writeUnlock();
+      writeUnlock("addCacheDirective");
       if (success) {
         getEditLog().logSync();
       }
@@ -9005,7 +9734,7 @@ void modifyCacheDirective(CacheDirectiveInfo directive,
           cacheEntry != null);
       success = true;
     } finally {
-      writeUnlock();
+      writeUnlock("modifyCacheDirective");
       if (success) {
         getEditLog().logSync();
       }
@@ -9033,7 +9762,7 @@ void removeCacheDirective(Long id) throws IOException {
       getEditLog().logRemoveCacheDirectiveInfo(id, cacheEntry != null);
       success = true;
     } finally {
-      writeUnlock();
+      writeUnlock("removeCacheDirective");
       if (isAuditEnabled() && isExternalInvocation()) {
         String idStr = "{id: " + id.toString() + "}";
         logAuditEvent(success, "removeCacheDirective", idStr, null,
@@ -9059,7 +9788,7 @@ BatchedListEntries<CacheDirectiveEntry> listCacheDirectives(
           cacheManager.listCacheDirectives(startId, filter, pc);
       success = true;
     } finally {
-      readUnlock();
+      readUnlock("listCacheDirectives");
       if (isAuditEnabled() && isExternalInvocation()) {
         logAuditEvent(success, "listCacheDirectives", filter.toString(), null,
             null);
@@ -9090,7 +9819,7 @@ public void addCachePool(CachePoolInfo req) throws IOException {
       getEditLog().logAddCachePool(info, cacheEntry != null);
       success = true;
     } finally {
-      writeUnlock();
+      writeUnlock("addCachePool");
       if (isAuditEnabled() && isExternalInvocation()) {
         logAuditEvent(success, "addCachePool", poolInfoStr, null, null);
       }
@@ -9120,7 +9849,7 @@ public void modifyCachePool(CachePoolInfo req) throws IOException {
       getEditLog().logModifyCachePool(req, cacheEntry != null);
       success = true;
     } finally {
-      writeUnlock();
+      writeUnlock("modifyCachePool");
       if (isAuditEnabled() && isExternalInvocation()) {
         String poolNameStr = "{poolName: " + req.getPoolName() + "}";
         logAuditEvent(success, "modifyCachePool", poolNameStr, req.toString(), null);
@@ -9150,7 +9879,7 @@ public void removeCachePool(String cachePoolName) throws IOException {
       getEditLog().logRemoveCachePool(cachePoolName, cacheEntry != null);
       success = true;
     } finally {
-      writeUnlock();
+      writeUnlock("removeCachePool");
       if (isAuditEnabled() && isExternalInvocation()) {
         String poolNameStr = "{poolName: " + cachePoolName + "}";
         logAuditEvent(success, "removeCachePool", poolNameStr, null, null);
@@ -9175,7 +9904,7 @@ public BatchedListEntries<CachePoolEntry> listCachePools(String prevKey)
       results = cacheManager.listCachePools(pc, prevKey);
       success = true;
     } finally {
-      readUnlock();
+      readUnlock("listCachePools");
       if (isAuditEnabled() && isExternalInvocation()) {
         logAuditEvent(success, "listCachePools", null, null, null);
       }
@@ -9204,7 +9933,7 @@ void modifyAclEntries(final String srcArg, List<AclEntry> aclSpec)
       logAuditEvent(false, "modifyAclEntries", srcArg);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("modifyAclEntries");
     }
     getEditLog().logSync();
     logAuditEvent(true, "modifyAclEntries", srcArg, null, resultingStat);
@@ -9231,7 +9960,7 @@ void removeAclEntries(final String srcArg, List<AclEntry> aclSpec)
       logAuditEvent(false, "removeAclEntries", srcArg);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("removeAclEntries");
     }
     getEditLog().logSync();
     logAuditEvent(true, "removeAclEntries", srcArg, null, resultingStat);
@@ -9257,7 +9986,7 @@ void removeDefaultAcl(final String srcArg) throws IOException {
       logAuditEvent(false, "removeDefaultAcl", srcArg);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("removeDefaultAcl");
     }
     getEditLog().logSync();
     logAuditEvent(true, "removeDefaultAcl", srcArg, null, resultingStat);
@@ -9283,7 +10012,7 @@ void removeAcl(final String srcArg) throws IOException {
       logAuditEvent(false, "removeAcl", srcArg);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("removeAcl");
     }
     getEditLog().logSync();
     logAuditEvent(true, "removeAcl", srcArg, null, resultingStat);
@@ -9309,7 +10038,7 @@ void setAcl(final String srcArg, List<AclEntry> aclSpec) throws IOException {
       logAuditEvent(false, "setAcl", srcArg);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("setAcl");
     }
     getEditLog().logSync();
     logAuditEvent(true, "setAcl", srcArg, null, resultingStat);
@@ -9332,7 +10061,7 @@ AclStatus getAclStatus(String src) throws IOException {
       success = true;
       return ret;
     } finally {
-      readUnlock();
+      readUnlock("getAclStatus");
       logAuditEvent(success, "getAclStatus", src);
     }
   }
@@ -9418,7 +10147,7 @@ private void createEncryptionZoneInt(final String srcArg, String cipher,
       getEditLog().logSetXAttrs(src, xAttrs, logRetryCache);
       resultingStat = getAuditFileInfo(src, false);
     } finally {
-      writeUnlock();
+      writeUnlock("createEncryptionZone");
     }
     getEditLog().logSync();
     logAuditEvent(true, "createEncryptionZone", srcArg, null, resultingStat);
@@ -9454,7 +10183,7 @@ EncryptionZone getEZForPath(final String srcArg)
       success = true;
       return ret;
     } finally {
-      readUnlock();
+      readUnlock("getEZForPath");
       logAuditEvent(success, "getEZForPath", srcArg, null, resultingStat);
     }
   }
@@ -9473,7 +10202,7 @@ BatchedListEntries<EncryptionZone> listEncryptionZones(long prevId)
       success = true;
       return ret;
     } finally {
-      readUnlock();
+      readUnlock("listEncryptionZones");
       logAuditEvent(success, "listEncryptionZones", null);
     }
   }
@@ -9515,7 +10244,7 @@ BatchedListEntries<ZoneReencryptionStatus> listReencryptionStatus(
       success = true;
       return ret;
     } finally {
-      readUnlock();
+      readUnlock("listReencryptionStatus");
       logAuditEvent(success, operationName, null);
     }
   }
@@ -9568,7 +10297,7 @@ private void reencryptEncryptionZoneInt(final String zone,
         getEditLog().logSetXAttrs(zone, xattrs, logRetryCache);
       }
     } finally {
-      writeUnlock();
+      writeUnlock("reencryptEncryptionZone");
     }
     getEditLog().logSync();
   }
@@ -9628,7 +10357,7 @@ private void setXAttrInt(final String srcArg, XAttr xAttr,
       getEditLog().logSetXAttrs(src, xAttrs, logRetryCache);
       resultingStat = getAuditFileInfo(src, false);
     } finally {
-      writeUnlock();
+      writeUnlock("setXAttr");
     }
     getEditLog().logSync();
     logAuditEvent(true, "setXAttr", srcArg, null, resultingStat);
@@ -9710,7 +10439,7 @@ List<XAttr> getXAttrs(final String srcArg, List<XAttr> xAttrs)
       logAuditEvent(false, "getXAttrs", srcArg);
       throw e;
     } finally {
-      readUnlock();
+      readUnlock("getXAttrs");
     }
   }
 
@@ -9735,7 +10464,7 @@ List<XAttr> listXAttrs(String src) throws IOException {
       logAuditEvent(false, "listXAttrs", src);
       throw e;
     } finally {
-      readUnlock();
+      readUnlock("listXAttrs");
     }
   }
   
@@ -9795,7 +10524,7 @@ void removeXAttrInt(final String srcArg, XAttr xAttr, boolean logRetryCache)
       }
       resultingStat = getAuditFileInfo(src, false);
     } finally {
-      writeUnlock();
+      writeUnlock("removeXAttr");
     }
     getEditLog().logSync();
     logAuditEvent(true, "removeXAttr", srcArg, null, resultingStat);
@@ -9837,7 +10566,7 @@ void checkAccess(String src, FsAction mode) throws AccessControlException,
       logAuditEvent(false, "checkAccess", src);
       throw e;
     } finally {
-      readUnlock();
+      readUnlock("checkAccess");
     }
   }
 
@@ -10039,6 +10768,12 @@ public void run() {
 
   @Override // FSNamesystemMBean
   public int getNumInMaintenanceLiveDataNodes() {
+    final DatanodeMetricsSnapshot snapshot = datanodeMetricsSnapshot;
+    return snapshot != null ? snapshot.getNumInMaintenanceLiveDataNodes()
+        : computeNumInMaintenanceLiveDataNodes();
+  }
+
+  int computeNumInMaintenanceLiveDataNodes() {
     final List<DatanodeDescriptor> live = new ArrayList<DatanodeDescriptor>();
     getBlockManager().getDatanodeManager().fetchDatanodes(live, null, true);
     int liveInMaintenance = 0;
@@ -10050,6 +10785,12 @@ public int getNumInMaintenanceLiveDataNodes() {
 
   @Override // FSNamesystemMBean
   public int getNumInMaintenanceDeadDataNodes() {
+    final DatanodeMetricsSnapshot snapshot = datanodeMetricsSnapshot;
+    return snapshot != null ? snapshot.getNumInMaintenanceDeadDataNodes()
+        : computeNumInMaintenanceDeadDataNodes();
+  }
+
+  int computeNumInMaintenanceDeadDataNodes() {
     final List<DatanodeDescriptor> dead = new ArrayList<DatanodeDescriptor>();
     getBlockManager().getDatanodeManager().fetchDatanodes(null, dead, true);
     int deadInMaintenance = 0;
@@ -10061,6 +10802,12 @@ public int getNumInMaintenanceDeadDataNodes() {
 
   @Override // FSNamesystemMBean
   public int getNumEnteringMaintenanceDataNodes() {
+    final DatanodeMetricsSnapshot snapshot = datanodeMetricsSnapshot;
+    return snapshot != null ? snapshot.getNumEnteringMaintenanceDataNodes()
+        : computeNumEnteringMaintenanceDataNodes();
+  }
+
+  int computeNumEnteringMaintenanceDataNodes() {
     return getBlockManager().getDatanodeManager().getEnteringMaintenanceNodes()
         .size();
   }
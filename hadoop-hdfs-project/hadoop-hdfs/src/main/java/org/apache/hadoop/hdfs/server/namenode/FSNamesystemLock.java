@@ -19,14 +19,22 @@
 
 package org.apache.hadoop.hdfs.server.namenode;
 
+import java.util.TreeSet;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.AbstractQueuedSynchronizer;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.server.namenode.metrics.NameNodeMetrics;
+import org.apache.hadoop.hdfs.server.namenode.top.metrics.TopMetrics;
+import org.apache.hadoop.ipc.Server;
+import org.apache.hadoop.security.UserGroupInformation;
 import org.apache.hadoop.util.StringUtils;
 import org.apache.hadoop.util.Timer;
 
@@ -34,6 +42,12 @@
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_LOCK_SUPPRESS_WARNING_INTERVAL_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_FSLOCK_FAIR_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_FSLOCK_FAIR_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_FSLOCK_PARTITIONED_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_FSLOCK_PARTITIONED_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_FSLOCK_PARTITIONS_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_FSLOCK_PARTITIONS_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_LOCK_DETAILED_METRICS_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_LOCK_DETAILED_METRICS_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_READ_LOCK_REPORTING_THRESHOLD_MS_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_READ_LOCK_REPORTING_THRESHOLD_MS_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_WRITE_LOCK_REPORTING_THRESHOLD_MS_DEFAULT;
@@ -42,13 +56,53 @@
 /**
  * Mimics a ReentrantReadWriteLock but does not directly implement the interface
  * so more sophisticated locking capabilities and logging/metrics are possible.
+ *
+ * When partitioned locking is enabled, the namespace is additionally split
+ * into partitions keyed by the top-level directory of a path. A partition
+ * lock is always taken while holding the coarse lock in read mode, so the
+ * coarse write lock still excludes every partition. Operations that only
+ * touch a single subtree can then exclude each other per partition instead
+ * of through the coarse write lock. A reader of the whole namespace, which
+ * takes {@link #readLock()}, excludes the partition writers, so it never sees
+ * one half way through an update. Readers of the whole namespace share a
+ * single counter with the partition writers for this, rather than taking the
+ * read lock of every partition.
+ *
+ * When detailed metrics are enabled, every release of the coarse lock records
+ * how long it was held under the name of the operation that held it, in
+ * {@link NameNodeMetrics} and, if nntop is enabled, in the lock holder
+ * windows of {@link TopMetrics}.
  */
 class FSNamesystemLock {
+  /** Partition of operations that are not confined to one subtree. */
+  static final int GLOBAL_PARTITION = -1;
+
+  /** Operation name recorded for lock holds which do not give one. */
+  static final String OP_NAME_OTHER = "OTHER";
+
+  /** User recorded for lock holds outside of an RPC call. */
+  static final String INTERNAL_USER = "(internal)";
+
   @VisibleForTesting
   protected ReentrantReadWriteLock coarseLock;
 
+  /** Per-partition locks, or null if partitioned locking is disabled. */
+  private final ReentrantReadWriteLock[] partitionLocks;
+
+  /**
+   * Excludes partition writers from readers of the whole namespace, or null
+   * if partitioned locking is disabled.
+   */
+  private final GlobalReadExclusion globalReadExclusion;
+
   private final Timer timer;
 
+  /** Whether lock hold times are recorded per operation. */
+  private final boolean metricsEnabled;
+
+  /** Where the top lock holders are recorded, or null if nntop is off. */
+  private volatile TopMetrics topMetrics;
+
   /**
    * Log statements about long lock hold times will not be produced more
    * frequently than this interval.
@@ -57,7 +111,10 @@ class FSNamesystemLock {
 
   /** Threshold (ms) for long holding write lock report. */
   private final long writeLockReportingThreshold;
-  /** Last time stamp for write lock. Keep the longest one for multi-entrance.*/
+  /**
+   * Last time stamp, in nanoseconds, for write lock. Keep the longest one for
+   * multi-entrance.
+   */
   private long writeLockHeldTimeStamp;
   private int numWriteLockWarningsSuppressed = 0;
   private long timeStampOfLastWriteLockReport = 0;
@@ -66,7 +123,7 @@ class FSNamesystemLock {
   /** Threshold (ms) for long holding read lock report. */
   private final long readLockReportingThreshold;
   /**
-   * Last time stamp for read lock. Keep the longest one for
+   * Last time stamp, in nanoseconds, for read lock. Keep the longest one for
    * multi-entrance. This is ThreadLocal since there could be
    * many read locks held simultaneously.
    */
@@ -77,6 +134,25 @@ public Long initialValue() {
           return Long.MAX_VALUE;
         }
       };
+  /**
+   * Whether the outermost read hold of the current thread is a read of the
+   * whole namespace, which excludes partition writers.
+   */
+  private final ThreadLocal<Boolean> globalReadLocked =
+      new ThreadLocal<Boolean>() {
+        @Override
+        public Boolean initialValue() {
+          return false;
+        }
+      };
+  /** The partition the current thread holds the write lock of, if any. */
+  private final ThreadLocal<Integer> writeLockedPartition =
+      new ThreadLocal<Integer>() {
+        @Override
+        public Integer initialValue() {
+          return GLOBAL_PARTITION;
+        }
+      };
   private final AtomicInteger numReadLockWarningsSuppressed =
       new AtomicInteger(0);
   private final AtomicLong timeStampOfLastReadLockReport = new AtomicLong(0);
@@ -94,6 +170,24 @@ public Long initialValue() {
     this.coarseLock = new ReentrantReadWriteLock(fair);
     this.timer = timer;
 
+    if (conf.getBoolean(DFS_NAMENODE_FSLOCK_PARTITIONED_KEY,
+        DFS_NAMENODE_FSLOCK_PARTITIONED_DEFAULT)) {
+      int numPartitions = conf.getInt(DFS_NAMENODE_FSLOCK_PARTITIONS_KEY,
+          DFS_NAMENODE_FSLOCK_PARTITIONS_DEFAULT);
+      Preconditions.checkArgument(numPartitions > 0,
+          DFS_NAMENODE_FSLOCK_PARTITIONS_KEY + " must be positive");
+      FSNamesystem.LOG.info("fsLock is partitioned into " + numPartitions +
+          " namespace partitions");
+      this.partitionLocks = new ReentrantReadWriteLock[numPartitions];
+      for (int i = 0; i < numPartitions; i++) {
+        partitionLocks[i] = new ReentrantReadWriteLock(fair);
+      }
+      this.globalReadExclusion = new GlobalReadExclusion(fair);
+    } else {
+      this.partitionLocks = null;
+      this.globalReadExclusion = null;
+    }
+
     this.writeLockReportingThreshold = conf.getLong(
         DFS_NAMENODE_WRITE_LOCK_REPORTING_THRESHOLD_MS_KEY,
         DFS_NAMENODE_WRITE_LOCK_REPORTING_THRESHOLD_MS_DEFAULT);
@@ -103,31 +197,90 @@ public Long initialValue() {
     this.lockSuppressWarningInterval = conf.getTimeDuration(
         DFS_LOCK_SUPPRESS_WARNING_INTERVAL_KEY,
         DFS_LOCK_SUPPRESS_WARNING_INTERVAL_DEFAULT, TimeUnit.MILLISECONDS);
+    this.metricsEnabled = conf.getBoolean(
+        DFS_NAMENODE_LOCK_DETAILED_METRICS_KEY,
+        DFS_NAMENODE_LOCK_DETAILED_METRICS_DEFAULT);
+    FSNamesystem.LOG.info("Detailed lock hold time metrics enabled: " +
+        this.metricsEnabled);
   }
 
+  /**
+   * Record the top lock holders in the given TopMetrics as well.
+   */
+  void setTopMetrics(TopMetrics topMetrics) {
+    this.topMetrics = topMetrics;
+  }
+
+  /**
+   * Acquire the coarse lock in read mode. If this is the outermost hold and
+   * locking is partitioned, partition writers are excluded as well. A nested
+   * hold, e.g. within a partition lock, stays confined to the partitions
+   * already held, so it cannot deadlock with partition writers.
+   */
   public void readLock() {
-    coarseLock.readLock().lock();
-    if (coarseLock.getReadHoldCount() == 1) {
-      readLockHeldTimeStamp.set(timer.monotonicNow());
+    coarseReadLock();
+    if (globalReadExclusion != null && coarseLock.getReadHoldCount() == 1) {
+      globalReadExclusion.acquireShared(GlobalReadExclusion.READER);
+      globalReadLocked.set(true);
     }
   }
 
   public void readLockInterruptibly() throws InterruptedException {
     coarseLock.readLock().lockInterruptibly();
     if (coarseLock.getReadHoldCount() == 1) {
-      readLockHeldTimeStamp.set(timer.monotonicNow());
+      readLockHeldTimeStamp.set(timer.monotonicNowNanos());
+      if (globalReadExclusion != null) {
+        boolean excluded = false;
+        try {
+          globalReadExclusion.acquireSharedInterruptibly(
+              GlobalReadExclusion.READER);
+          excluded = true;
+        } finally {
+          if (!excluded) {
+            coarseLock.readLock().unlock();
+            readLockHeldTimeStamp.remove();
+          }
+        }
+        globalReadLocked.set(true);
+      }
+    }
+  }
+
+  /**
+   * Acquire the coarse lock in read mode only, for a hold confined to some
+   * partitions.
+   */
+  private void coarseReadLock() {
+    coarseLock.readLock().lock();
+    if (coarseLock.getReadHoldCount() == 1) {
+      readLockHeldTimeStamp.set(timer.monotonicNowNanos());
     }
   }
 
   public void readUnlock() {
+    readUnlock(OP_NAME_OTHER);
+  }
+
+  /**
+   * Release the read lock, recording its hold time under the given operation
+   * name if this is the outermost hold.
+   */
+  public void readUnlock(String opName) {
     final boolean needReport = coarseLock.getReadHoldCount() == 1;
-    final long readLockInterval =
-        timer.monotonicNow() - readLockHeldTimeStamp.get();
+    final long readLockIntervalNanos =
+        timer.monotonicNowNanos() - readLockHeldTimeStamp.get();
+    if (needReport && globalReadLocked.get()) {
+      globalReadExclusion.releaseShared(GlobalReadExclusion.READER);
+      globalReadLocked.remove();
+    }
     coarseLock.readLock().unlock();
 
     if (needReport) {
       readLockHeldTimeStamp.remove();
+      addMetric(opName, readLockIntervalNanos, false);
     }
+    final long readLockInterval =
+        TimeUnit.NANOSECONDS.toMillis(readLockIntervalNanos);
     if (needReport && readLockInterval >= this.readLockReportingThreshold) {
       long localLongestReadLock;
       do {
@@ -152,7 +305,7 @@ public void readUnlock() {
       int numSuppressedWarnings = numReadLockWarningsSuppressed.getAndSet(0);
       long longestLockHeldInterval = longestReadLockHeldInterval.getAndSet(0);
       FSNamesystem.LOG.info("FSNamesystem read lock held for " +
-          readLockInterval + " ms via\n" +
+          readLockInterval + " ms by " + opName + " via\n" +
           StringUtils.getStackTrace(Thread.currentThread()) +
           "\tNumber of suppressed read-lock reports: " + numSuppressedWarnings +
           "\n\tLongest read-lock held interval: " + longestLockHeldInterval);
@@ -162,22 +315,34 @@ public void readUnlock() {
   public void writeLock() {
     coarseLock.writeLock().lock();
     if (coarseLock.getWriteHoldCount() == 1) {
-      writeLockHeldTimeStamp = timer.monotonicNow();
+      writeLockHeldTimeStamp = timer.monotonicNowNanos();
     }
   }
 
   public void writeLockInterruptibly() throws InterruptedException {
     coarseLock.writeLock().lockInterruptibly();
     if (coarseLock.getWriteHoldCount() == 1) {
-      writeLockHeldTimeStamp = timer.monotonicNow();
+      writeLockHeldTimeStamp = timer.monotonicNowNanos();
     }
   }
 
   public void writeUnlock() {
+    writeUnlock(OP_NAME_OTHER);
+  }
+
+  /**
+   * Release the write lock, recording its hold time under the given operation
+   * name if this is the outermost hold.
+   */
+  public void writeUnlock(String opName) {
     final boolean needReport = coarseLock.getWriteHoldCount() == 1 &&
         coarseLock.isWriteLockedByCurrentThread();
-    final long currentTime = timer.monotonicNow();
-    final long writeLockInterval = currentTime - writeLockHeldTimeStamp;
+    final long currentTimeNanos = timer.monotonicNowNanos();
+    final long writeLockIntervalNanos =
+        currentTimeNanos - writeLockHeldTimeStamp;
+    final long currentTime = TimeUnit.NANOSECONDS.toMillis(currentTimeNanos);
+    final long writeLockInterval =
+        TimeUnit.NANOSECONDS.toMillis(writeLockIntervalNanos);
 
     boolean logReport = false;
     int numSuppressedWarnings = 0;
@@ -201,9 +366,12 @@ public void writeUnlock() {
 
     coarseLock.writeLock().unlock();
 
+    if (needReport) {
+      addMetric(opName, writeLockIntervalNanos, true);
+    }
     if (logReport) {
       FSNamesystem.LOG.info("FSNamesystem write lock held for " +
-          writeLockInterval + " ms via\n" +
+          writeLockInterval + " ms by " + opName + " via\n" +
           StringUtils.getStackTrace(Thread.currentThread()) +
           "\tNumber of suppressed write-lock reports: " +
           numSuppressedWarnings + "\n\tLongest write-lock held interval: " +
@@ -211,6 +379,228 @@ public void writeUnlock() {
     }
   }
 
+  /**
+   * @return true if namespace partition locks are in use.
+   */
+  public boolean isPartitioned() {
+    return partitionLocks != null;
+  }
+
+  /**
+   * Map a path to the namespace partition that owns it. The partition is
+   * derived from the first path component, so all paths below a top-level
+   * directory, including its snapshot paths, share a partition. The root,
+   * top-level directories themselves and reserved paths are not confined
+   * to one partition.
+   *
+   * @param src the path, as sent by the client
+   * @return the partition of the path, or {@link #GLOBAL_PARTITION}
+   */
+  int getPartition(String src) {
+    if (partitionLocks == null || src == null) {
+      return GLOBAL_PARTITION;
+    }
+    int start = 0;
+    while (start < src.length() && src.charAt(start) == Path.SEPARATOR_CHAR) {
+      start++;
+    }
+    int end = src.indexOf(Path.SEPARATOR_CHAR, start);
+    if (start == 0 || end < 0 || start == end) {
+      return GLOBAL_PARTITION;
+    }
+    String topLevel = src.substring(start, end);
+    if (topLevel.equals(FSDirectory.DOT_RESERVED_STRING)) {
+      return GLOBAL_PARTITION;
+    }
+    return (topLevel.hashCode() & Integer.MAX_VALUE) % partitionLocks.length;
+  }
+
+  /**
+   * Get the partitions of several paths, e.g. for a batched read.
+   * @return the distinct partitions in ascending order, empty if partitioned
+   *         locking is disabled, or null if any of the paths is not confined
+   *         to one partition and the whole namespace has to be read locked.
+   */
+  int[] getPartitions(String[] srcs) {
+    if (partitionLocks == null) {
+      return new int[0];
+    }
+    TreeSet<Integer> partitions = new TreeSet<Integer>();
+    for (String src : srcs) {
+      int partition = getPartition(src);
+      if (partition == GLOBAL_PARTITION) {
+        return null;
+      }
+      partitions.add(partition);
+    }
+    int[] result = new int[partitions.size()];
+    int i = 0;
+    for (int partition : partitions) {
+      result[i++] = partition;
+    }
+    return result;
+  }
+
+  /**
+   * Acquire the coarse lock in read mode and the read locks of the given
+   * partitions, as returned by {@link #getPartitions(String[])}. Taking them
+   * in ascending order cannot deadlock with other holders of several
+   * partition locks. Falls back to {@link #readLock()} for null, when some
+   * path is not confined to one partition.
+   */
+  public void readLock(int[] partitions) {
+    if (partitions == null) {
+      readLock();
+      return;
+    }
+    coarseReadLock();
+    for (int partition : partitions) {
+      partitionLocks[partition].readLock().lock();
+    }
+  }
+
+  public void readUnlock(int[] partitions, String opName) {
+    if (partitions != null) {
+      for (int i = partitions.length - 1; i >= 0; i--) {
+        partitionLocks[partitions[i]].readLock().unlock();
+      }
+    }
+    readUnlock(opName);
+  }
+
+  /**
+   * Acquire the coarse lock in read mode and the read lock of the given
+   * partition. Falls back to {@link #readLock()} for the global partition.
+   */
+  public void readLock(int partition) {
+    if (partition == GLOBAL_PARTITION) {
+      readLock();
+      return;
+    }
+    coarseReadLock();
+    partitionLocks[partition].readLock().lock();
+  }
+
+  public void readUnlock(int partition, String opName) {
+    if (partition != GLOBAL_PARTITION) {
+      partitionLocks[partition].readLock().unlock();
+    }
+    readUnlock(opName);
+  }
+
+  /**
+   * Acquire the coarse lock in read mode and the write lock of the given
+   * partition. Falls back to {@link #writeLock()} for the global partition.
+   */
+  public void writeLock(int partition) {
+    if (partition == GLOBAL_PARTITION) {
+      writeLock();
+      return;
+    }
+    coarseReadLock();
+    // only the outermost partition write hold joins the partition writers,
+    // a nested one must not queue behind waiting readers
+    final boolean outermost =
+        writeLockedPartition.get() == GLOBAL_PARTITION;
+    if (outermost) {
+      globalReadExclusion.acquireShared(GlobalReadExclusion.WRITER);
+    }
+    partitionLocks[partition].writeLock().lock();
+    writeLockedPartition.set(partition);
+  }
+
+  /**
+   * Release the locks taken by {@link #writeLock(int)}. For a namespace
+   * partition, the hold time is recorded as a read hold of the coarse lock.
+   */
+  public void writeUnlock(int partition, String opName) {
+    if (partition == GLOBAL_PARTITION) {
+      writeUnlock(opName);
+      return;
+    }
+    partitionLocks[partition].writeLock().unlock();
+    if (partitionLocks[partition].getWriteHoldCount() == 0) {
+      writeLockedPartition.remove();
+      globalReadExclusion.releaseShared(GlobalReadExclusion.WRITER);
+    }
+    readUnlock(opName);
+  }
+
+  /**
+   * @return true if the current thread holds the write lock of any
+   *         namespace partition.
+   */
+  public boolean isPartitionWriteLockedByCurrentThread() {
+    return writeLockedPartition.get() != GLOBAL_PARTITION;
+  }
+
+  /**
+   * Lets readers of the whole namespace and partition writers exclude each
+   * other, while holders of the same kind share it. The state is the number
+   * of holders, positive for readers and negative for writers, so a reader
+   * only updates one counter instead of taking the read lock of every
+   * partition. Arrivals wait behind queued threads whenever the lock is held,
+   * and always when it is fair, so neither kind starves the other.
+   */
+  private static class GlobalReadExclusion
+      extends AbstractQueuedSynchronizer {
+    static final int READER = 1;
+    static final int WRITER = -1;
+
+    private final boolean fair;
+
+    GlobalReadExclusion(boolean fair) {
+      this.fair = fair;
+    }
+
+    @Override
+    protected int tryAcquireShared(int kind) {
+      while (true) {
+        final int holders = getState();
+        if (holders != 0 && (holders > 0) != (kind > 0)) {
+          return -1;
+        }
+        if ((fair || holders != 0) && hasQueuedPredecessors()) {
+          return -1;
+        }
+        if (compareAndSetState(holders, holders + kind)) {
+          return 1;
+        }
+      }
+    }
+
+    @Override
+    protected boolean tryReleaseShared(int kind) {
+      while (true) {
+        final int holders = getState();
+        final int remaining = holders - kind;
+        if (compareAndSetState(holders, remaining)) {
+          return remaining == 0;
+        }
+      }
+    }
+  }
+
+  /**
+   * Record a lock hold time for the given operation.
+   */
+  private void addMetric(String opName, long heldNanos, boolean isWrite) {
+    if (!metricsEnabled) {
+      return;
+    }
+    final NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+    if (metrics != null) {
+      metrics.addLockHoldTime(opName, isWrite, heldNanos);
+    }
+    final TopMetrics top = topMetrics;
+    if (top != null) {
+      UserGroupInformation ugi = Server.getRemoteUser();
+      top.reportLockHold(ugi != null ? ugi.getShortUserName() : INTERNAL_USER,
+          (isWrite ? "write." : "read.") + opName,
+          TimeUnit.NANOSECONDS.toMicros(heldNanos));
+    }
+  }
+
   public int getReadHoldCount() {
     return coarseLock.getReadHoldCount();
   }
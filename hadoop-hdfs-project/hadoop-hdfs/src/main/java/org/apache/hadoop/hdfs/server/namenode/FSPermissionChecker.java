@@ -27,6 +27,7 @@
 import org.apache.hadoop.fs.UnresolvedLinkException;
 import org.apache.hadoop.fs.permission.FsAction;
 import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.hdfs.server.namenode.snapshot.Snapshot;
 import org.apache.hadoop.security.AccessControlException;
 import org.apache.hadoop.security.UserGroupInformation;
 
@@ -144,14 +145,38 @@ void checkPermission(String path, FSDirectory dir, boolean doCheckOwner,
           + ", ignoreEmptyDir=" + ignoreEmptyDir
           + ", resolveLink=" + resolveLink);
     }
+    final PermissionTraverseCache traverseCache = dir.getTraverseCache();
+    // read before resolving the path so a concurrent change is not missed
+    final long modCount = traverseCache == null ? 0 :
+        traverseCache.getModificationCount();
     // check if (parentAccess != null) && file exists, then check sb
     // If resolveLink, the check is performed on the link target.
     final INodesInPath inodesInPath = dir.getINodesInPath(path, resolveLink);
     final int snapshotId = inodesInPath.getPathSnapshotId();
     final INode[] inodes = inodesInPath.getINodes();
-    AuthorizationProvider.get().checkPermission(user, groups, inodes, 
-        snapshotId, doCheckOwner, ancestorAccess, parentAccess, access, 
-        subAccess, ignoreEmptyDir);
+    final AuthorizationProvider provider = AuthorizationProvider.get();
+    // only the default provider is known to check traverse by permissions
+    // and ACLs alone
+    if (traverseCache == null || snapshotId != Snapshot.CURRENT_STATE_ID
+        || provider.getClass() != DefaultAuthorizationProvider.class) {
+      provider.checkPermission(user, groups, inodes, snapshotId,
+          doCheckOwner, ancestorAccess, parentAccess, access, subAccess,
+          ignoreEmptyDir);
+      return;
+    }
+
+    final int ancestorIndex =
+        DefaultAuthorizationProvider.getAncestorIndex(inodes);
+    final INode ancestor = ancestorIndex >= 0 ? inodes[ancestorIndex] : null;
+    final boolean cacheable = ancestor != null && ancestor.isDirectory();
+    final boolean traversable = cacheable &&
+        traverseCache.isTraversable(user, groups, ancestor.getId(), modCount);
+    ((DefaultAuthorizationProvider) provider).checkPermission(user, groups,
+        inodes, snapshotId, !traversable, doCheckOwner, ancestorAccess,
+        parentAccess, access, subAccess, ignoreEmptyDir);
+    if (cacheable && !traversable) {
+      traverseCache.setTraversable(user, groups, ancestor.getId(), modCount);
+    }
   }
 
   /**
@@ -345,6 +345,14 @@ synchronized public void selectInputStreams(
     addStreamsToCollectionFromFiles(elfs, streams, fromTxId,
         getLastReadableTxId(), inProgressOk);
   }
+
+  @Override
+  public void selectInputStreams(Collection<EditLogInputStream> streams,
+      long fromTxId, boolean inProgressOk, boolean onlyDurableTxns)
+      throws IOException {
+    // The writer may not have synced the tail of an in-progress file yet.
+    selectInputStreams(streams, fromTxId, inProgressOk && !onlyDurableTxns);
+  }
   
   static void addStreamsToCollectionFromFiles(Collection<EditLogFile> elfs,
       Collection<EditLogInputStream> streams, long fromTxId, long maxTxIdToValidate,
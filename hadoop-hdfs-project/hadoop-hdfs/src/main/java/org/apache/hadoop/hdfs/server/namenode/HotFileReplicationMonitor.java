@@ -0,0 +1,327 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.apache.hadoop.hdfs.DFSConfigKeys.*;
+import static org.apache.hadoop.hdfs.server.common.HdfsServerConstants.HOT_FILE_XATTR_ORIGINAL_REPLICATION;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.XAttr;
+import org.apache.hadoop.fs.XAttrSetFlag;
+import org.apache.hadoop.hdfs.XAttrHelper;
+import org.apache.hadoop.hdfs.util.DecayingCountMinSketch;
+import org.apache.hadoop.util.Daemon;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Shorts;
+
+/**
+ * Raises the replication of files which are read very often, so that the
+ * reads are spread over more DataNodes, and lowers it again once the files
+ * cool down.
+ * <p>
+ * Every call to get the block locations of a file is counted in a decaying
+ * count-min sketch keyed by inode id. The counts are halved every interval,
+ * so a file read at a steady rate of r calls per interval settles at a count
+ * of about 2r. When the count of a file reaches the hot threshold, the file
+ * is queued, and the monitor raises its replication with an ordinary, logged
+ * replication change. The original replication is first stored in a system
+ * xattr of the file, logged with the same sync, so a NameNode which becomes
+ * active after a crash or failover still knows the raised files. It is
+ * restored once the count drops below the cool threshold, which is right
+ * away on a new active as the counts start from zero, or when the NameNode
+ * leaves the active state.
+ */
+class HotFileReplicationMonitor implements Runnable {
+  static final Log LOG = LogFactory.getLog(HotFileReplicationMonitor.class);
+
+  private static final int SKETCH_DEPTH = 4;
+  private static final int SKETCH_WIDTH = 1 << 16;
+
+  private final FSNamesystem namesystem;
+  private final DecayingCountMinSketch sketch =
+      new DecayingCountMinSketch(SKETCH_DEPTH, SKETCH_WIDTH);
+  private final int hotThreshold;
+  private final int coolThreshold;
+  private final short hotReplication;
+  private final int maxHotFiles;
+  private final long intervalMs;
+
+  /** Files found hot and waiting for the monitor, by inode id */
+  private final Set<Long> candidates =
+      Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+  /** The thread running the monitor, null while it is stopped */
+  private volatile Daemon runner = null;
+
+  HotFileReplicationMonitor(FSNamesystem namesystem, Configuration conf) {
+    this.namesystem = namesystem;
+    this.hotThreshold = conf.getInt(DFS_NAMENODE_HOT_FILE_THRESHOLD_KEY,
+        DFS_NAMENODE_HOT_FILE_THRESHOLD_DEFAULT);
+    this.coolThreshold = conf.getInt(DFS_NAMENODE_HOT_FILE_COOL_THRESHOLD_KEY,
+        DFS_NAMENODE_HOT_FILE_COOL_THRESHOLD_DEFAULT);
+    this.hotReplication = (short) conf.getInt(
+        DFS_NAMENODE_HOT_FILE_REPLICATION_KEY,
+        DFS_NAMENODE_HOT_FILE_REPLICATION_DEFAULT);
+    this.maxHotFiles = conf.getInt(DFS_NAMENODE_HOT_FILE_MAX_FILES_KEY,
+        DFS_NAMENODE_HOT_FILE_MAX_FILES_DEFAULT);
+    this.intervalMs = conf.getLong(DFS_NAMENODE_HOT_FILE_INTERVAL_MS_KEY,
+        DFS_NAMENODE_HOT_FILE_INTERVAL_MS_DEFAULT);
+    Preconditions.checkArgument(coolThreshold < hotThreshold,
+        "%s = %s must be less than %s = %s",
+        DFS_NAMENODE_HOT_FILE_COOL_THRESHOLD_KEY, coolThreshold,
+        DFS_NAMENODE_HOT_FILE_THRESHOLD_KEY, hotThreshold);
+    Preconditions.checkArgument(
+        hotReplication <= namesystem.getBlockManager().maxReplication,
+        "%s = %s exceeds the maximum replication",
+        DFS_NAMENODE_HOT_FILE_REPLICATION_KEY, hotReplication);
+    Preconditions.checkArgument(intervalMs > 0, "%s = %s must be positive",
+        DFS_NAMENODE_HOT_FILE_INTERVAL_MS_KEY, intervalMs);
+    LOG.info("Raising the replication of files with " + hotThreshold
+        + " reads per " + intervalMs + " ms to " + hotReplication);
+  }
+
+  /**
+   * Count a read of the file. Called with the read lock held, so it only
+   * queues the file when it becomes hot.
+   */
+  void recordAccess(INodeFile file) {
+    final long id = file.getId();
+    if (sketch.add(id) >= hotThreshold
+        && file.getFileReplication() < hotReplication
+        && !raised().contains(id)
+        && raised().size() + candidates.size() < maxHotFiles) {
+      candidates.add(id);
+    }
+  }
+
+  /**
+   * Start the monitor in a new thread. Called every time the NameNode
+   * becomes active, so the monitor may be started again after a stop.
+   */
+  void start() {
+    final Daemon thread = new Daemon(this);
+    thread.setName(getClass().getSimpleName());
+    runner = thread;
+    thread.start();
+  }
+
+  /**
+   * Stop the thread running the monitor. A thread which was stopped exits
+   * even if the monitor was started again in the meantime.
+   */
+  void stop() {
+    final Daemon thread = runner;
+    runner = null;
+    if (thread != null) {
+      thread.interrupt();
+    }
+  }
+
+  boolean isRunning() {
+    return runner != null;
+  }
+
+  @Override
+  public void run() {
+    while (runner == Thread.currentThread()) {
+      try {
+        Thread.sleep(intervalMs);
+      } catch (InterruptedException e) {
+        LOG.info(getClass().getSimpleName() + " was interrupted, exiting");
+        break;
+      }
+      try {
+        check();
+      } catch (Exception e) {
+        LOG.error("Ignoring exception in " + getClass().getSimpleName(), e);
+      }
+    }
+  }
+
+  /**
+   * Raise the replication of the queued files, restore it for the files
+   * which cooled down, then age the counts.
+   */
+  @VisibleForTesting
+  void check() throws IOException {
+    if (!namesystem.isInSafeMode()) {
+      boolean changed = false;
+      namesystem.writeLock();
+      try {
+        // a stopped thread may get the lock after the NameNode left the
+        // active state and closed the edit log
+        if (namesystem.getEditLog().isOpenForWrite()) {
+          changed |= raiseHotFiles();
+          changed |= restoreFiles(false);
+        }
+      } finally {
+        namesystem.writeUnlock("hotFileReplication");
+      }
+      if (changed) {
+        namesystem.getEditLog().logSync();
+      }
+    }
+    sketch.decay();
+  }
+
+  private boolean raiseHotFiles() throws IOException {
+    boolean changed = false;
+    for (Iterator<Long> it = candidates.iterator(); it.hasNext(); ) {
+      final long id = it.next();
+      it.remove();
+      final INodeFile file = getFile(id);
+      if (file == null || file.isUnderConstruction()
+          || file.getFileReplication() >= hotReplication
+          || raised().contains(id) || !isReachable(file)) {
+        continue;
+      }
+      final String src = file.getFullPathName();
+      final short original = file.getFileReplication();
+      final List<XAttr> xAttrs = Lists.newArrayList(XAttrHelper.buildXAttr(
+          HOT_FILE_XATTR_ORIGINAL_REPLICATION, Shorts.toByteArray(original)));
+      final FSDirectory dir = namesystem.getFSDirectory();
+      dir.writeLock();
+      try {
+        dir.unprotectedSetXAttrs(src, xAttrs, EnumSet.of(XAttrSetFlag.CREATE));
+      } finally {
+        dir.writeUnlock();
+      }
+      namesystem.getEditLog().logSetXAttrs(src, xAttrs, false);
+      changed = true;
+      if (namesystem.setReplicationInternal(file, hotReplication)) {
+        LOG.info("Raised the replication of hot file " + src + " from "
+            + original + " to " + hotReplication);
+      } else {
+        removeXAttr(file, src);
+      }
+    }
+    return changed;
+  }
+
+  /**
+   * Restore the original replication of the raised files.
+   * @param all whether to restore all files or only those which cooled down
+   * @return whether any replication or xattr was changed
+   */
+  private boolean restoreFiles(boolean all) throws IOException {
+    boolean changed = false;
+    for (Long id : raised()) {
+      final INodeFile file = getFile(id);
+      if (file == null || !isReachable(file)) {
+        // only left in a snapshot, which cannot be changed
+        raised().remove(id);
+        continue;
+      }
+      if (!all && sketch.estimate(id) >= coolThreshold) {
+        continue;
+      }
+      final String src = file.getFullPathName();
+      final Short original = getOriginalReplication(file);
+      // leave the file alone if its replication was changed by a user
+      if (original != null && file.getFileReplication() == hotReplication
+          && namesystem.setReplicationInternal(file, original)) {
+        LOG.info("Restored the replication of " + src + " to " + original);
+      }
+      removeXAttr(file, src);
+      changed = true;
+    }
+    return changed;
+  }
+
+  /**
+   * Restore the replication of all raised files, as the counts are lost
+   * when the NameNode leaves the active state. The caller must hold the
+   * write lock, and the edit log must still be open.
+   */
+  void restoreAll() {
+    candidates.clear();
+    try {
+      restoreFiles(true);
+    } catch (IOException e) {
+      LOG.warn("Failed to restore the replication of hot files", e);
+    }
+  }
+
+  private void removeXAttr(INodeFile file, String src) throws IOException {
+    final List<XAttr> xAttrs = Lists.newArrayList(
+        XAttrHelper.buildXAttr(HOT_FILE_XATTR_ORIGINAL_REPLICATION));
+    final FSDirectory dir = namesystem.getFSDirectory();
+    final List<XAttr> removed;
+    dir.writeLock();
+    try {
+      removed = dir.unprotectedRemoveXAttrs(src, xAttrs);
+    } finally {
+      dir.writeUnlock();
+    }
+    if (removed != null && !removed.isEmpty()) {
+      namesystem.getEditLog().logRemoveXAttrs(src, removed, false);
+    }
+    raised().remove(file.getId());
+  }
+
+  /** @return the replication stored in the xattr of the file, if any */
+  private static Short getOriginalReplication(INodeFile file) {
+    final XAttrFeature xaf = file.getXAttrFeature();
+    if (xaf != null) {
+      for (XAttr xattr : xaf.getXAttrs()) {
+        if (HOT_FILE_XATTR_ORIGINAL_REPLICATION.equals(
+            XAttrHelper.getPrefixName(xattr))
+            && xattr.getValue() != null
+            && xattr.getValue().length == Shorts.BYTES) {
+          return Shorts.fromByteArray(xattr.getValue());
+        }
+      }
+    }
+    return null;
+  }
+
+  /** @return whether the file is in the current tree, not only a snapshot */
+  private boolean isReachable(INodeFile file) throws IOException {
+    return namesystem.getFSDirectory().getINode(file.getFullPathName())
+        == file;
+  }
+
+  /** @return the raised files, by inode id, as tracked by their xattr */
+  private Set<Long> raised() {
+    return namesystem.getFSDirectory().getHotFileIds();
+  }
+
+  /** @return the file with the given id, or null if it is not a file */
+  private INodeFile getFile(long id) {
+    final INode inode = namesystem.getFSDirectory().getInode(id);
+    return inode != null && inode.isFile() ? inode.asFile() : null;
+  }
+
+  @VisibleForTesting
+  boolean isRaised(long id) {
+    return raised().contains(id);
+  }
+}
@@ -20,6 +20,7 @@
 import java.io.FileNotFoundException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
@@ -187,6 +188,34 @@ DirectoryWithQuotaFeature addDirectoryWithQuotaFeature(
     return quota;
   }
 
+  /**
+   * If the directory contains a {@link DirectoryWithContentSummaryFeature},
+   * return it; otherwise, return null.
+   */
+  final DirectoryWithContentSummaryFeature
+      getDirectoryWithContentSummaryFeature() {
+    return getFeature(DirectoryWithContentSummaryFeature.class);
+  }
+
+  /** Start tracking the content summary of this directory. */
+  DirectoryWithContentSummaryFeature addDirectoryWithContentSummaryFeature(
+      Content.Counts counts, Collection<Long> openFiles) {
+    removeDirectoryWithContentSummaryFeature();
+    final DirectoryWithContentSummaryFeature cs =
+        new DirectoryWithContentSummaryFeature(counts, openFiles);
+    addFeature(cs);
+    return cs;
+  }
+
+  /** Stop tracking the content summary of this directory. */
+  void removeDirectoryWithContentSummaryFeature() {
+    final DirectoryWithContentSummaryFeature cs =
+        getDirectoryWithContentSummaryFeature();
+    if (cs != null) {
+      removeFeature(cs);
+    }
+  }
+
   int searchChildren(byte[] name) {
     return children == null? -1: Collections.binarySearch(children, name);
   }
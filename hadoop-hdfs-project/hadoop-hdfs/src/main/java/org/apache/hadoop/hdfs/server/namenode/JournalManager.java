@@ -19,6 +19,7 @@
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.Collection;
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
@@ -67,6 +68,19 @@ EditLogOutputStream startLogSegment(long txId, int layoutVersion)
    * Recover segments which have not been finalized.
    */
   void recoverUnfinalizedSegments() throws IOException;
+
+  /**
+   * Get a list of edit log input streams, like
+   * {@link #selectInputStreams(Collection, long, boolean)}.
+   *
+   * @param onlyDurableTxns if true, in-progress streams must only hold the
+   *        transactions which are known to have been durably written, so
+   *        that a reader can safely tail them. A journal which cannot tell
+   *        which transactions are durable returns no in-progress stream.
+   */
+  void selectInputStreams(Collection<EditLogInputStream> streams,
+      long fromTxId, boolean inProgressOk, boolean onlyDurableTxns)
+      throws IOException;
   
   /**
    * Perform any steps that must succeed across all JournalManagers involved in
@@ -76,6 +76,7 @@
 import org.apache.hadoop.hdfs.inotify.EventBatchList;
 import org.apache.hadoop.hdfs.protocol.AclException;
 import org.apache.hadoop.hdfs.protocol.AlreadyBeingCreatedException;
+import org.apache.hadoop.hdfs.protocol.BatchedDirectoryListing;
 import org.apache.hadoop.hdfs.protocol.BlockListAsLongs;
 import org.apache.hadoop.hdfs.protocol.BlockStoragePolicy;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveEntry;
@@ -97,6 +98,7 @@
 import org.apache.hadoop.hdfs.protocol.HdfsConstants.RollingUpgradeAction;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants.SafeModeAction;
 import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+import org.apache.hadoop.hdfs.protocol.HdfsPartialListing;
 import org.apache.hadoop.hdfs.protocol.LocatedBlock;
 import org.apache.hadoop.hdfs.protocol.LocatedBlocks;
 import org.apache.hadoop.hdfs.protocol.NSQuotaExceededException;
@@ -108,6 +110,7 @@
 import org.apache.hadoop.hdfs.protocol.ZoneReencryptionStatus;
 import org.apache.hadoop.hdfs.protocol.RollingUpgradeInfo;
 import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport;
+import org.apache.hadoop.hdfs.protocol.SnapshotDiffReportListing;
 import org.apache.hadoop.hdfs.protocol.SnapshottableDirectoryStatus;
 import org.apache.hadoop.hdfs.protocol.UnregisteredNodeException;
 import org.apache.hadoop.hdfs.protocol.UnresolvedPathException;
@@ -427,6 +430,10 @@ public NameNodeRpcServer(Configuration conf, NameNode nn)
     if (serviceRpcServer != null) {
       serviceRpcServer.setTracer(nn.tracer);
     }
+    if (namesystem.isStandbyReadsEnabled()) {
+      clientRpcServer.setAlignmentContext(
+          new NameNodeStateIdContext(namesystem));
+    }
  }
 
   /** Allow access to the client RPC server for testing */
@@ -905,6 +912,22 @@ public DirectoryListing getListing(String src, byte[] startAfter,
     return files;
   }
 
+  @Override // ClientProtocol
+  public BatchedDirectoryListing getBatchedListing(String[] srcs,
+      byte[] startAfter, boolean needLocation) throws IOException {
+    checkNNStartup();
+    BatchedDirectoryListing result = namesystem.getBatchedListing(
+        srcs, startAfter, needLocation);
+    metrics.incrGetBatchedListingOps();
+    for (HdfsPartialListing listing : result.getListings()) {
+      if (listing.getPartialListing() != null) {
+        metrics.incrFilesInGetListingOps(
+            listing.getPartialListing().length);
+      }
+    }
+    return result;
+  }
+
   @Override // ClientProtocol
   public HdfsFileStatus getFileInfo(String src)  throws IOException {
     checkNNStartup();
@@ -1222,7 +1245,7 @@ public DatanodeCommand blockReport(final DatanodeRegistration nodeReg,
       // call of this loop is the final updated value for noStaleStorage.
       //
       final int index = r;
-      noStaleStorages = bm.runBlockOp(new Callable<Boolean>() {
+      noStaleStorages = bm.runUnlockedBlockOp(new Callable<Boolean>() {
         @Override
         public Boolean call() throws IOException {
           return bm.processReport(nodeReg, reports[index].getStorage(),
@@ -1549,6 +1572,19 @@ public SnapshotDiffReport getSnapshotDiffReport(String snapshotRoot,
     return report;
   }
 
+  @Override // ClientProtocol
+  public SnapshotDiffReportListing getSnapshotDiffReportListing(
+      String snapshotRoot, String earlierSnapshotName,
+      String laterSnapshotName, byte[] startPath, int index)
+      throws IOException {
+    checkNNStartup();
+    SnapshotDiffReportListing report = namesystem
+        .getSnapshotDiffReportListing(snapshotRoot, earlierSnapshotName,
+            laterSnapshotName, startPath, index);
+    metrics.incrSnapshotDiffReportOps();
+    return report;
+  }
+
   @Override // ClientProtocol
   public long addCacheDirective(
       CacheDirectiveInfo path, EnumSet<CacheFlag> flags) throws IOException {
@@ -0,0 +1,84 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.lang.reflect.Method;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.hadoop.hdfs.protocol.ClientProtocol;
+import org.apache.hadoop.hdfs.protocolPB.ClientNamenodeProtocolPB;
+import org.apache.hadoop.hdfs.server.namenode.ha.ReadOnly;
+import org.apache.hadoop.ipc.AlignmentContext;
+import org.apache.hadoop.ipc.RPC;
+import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcRequestHeaderProto;
+import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcResponseHeaderProto;
+
+/**
+ * The NameNode side of the state ID alignment used by standby reads. Every
+ * response carries the last transaction ID of the namesystem. The
+ * {@link ClientProtocol} methods marked {@link ReadOnly} are the only calls
+ * a StandbyNode serves; they wait until it has applied the transaction ID
+ * sent by their client, see {@link FSNamesystem#checkOperation}.
+ */
+class NameNodeStateIdContext implements AlignmentContext {
+
+  private static final String CLIENT_PROTOCOL_NAME =
+      RPC.getProtocolName(ClientNamenodeProtocolPB.class);
+
+  /** The read operations a StandbyNode may serve. */
+  private static final Set<String> COORDINATED_METHODS = new HashSet<String>();
+  static {
+    for (Method method : ClientProtocol.class.getMethods()) {
+      if (method.isAnnotationPresent(ReadOnly.class)) {
+        COORDINATED_METHODS.add(method.getName());
+      }
+    }
+  }
+
+  private final FSNamesystem namesystem;
+
+  NameNodeStateIdContext(FSNamesystem namesystem) {
+    this.namesystem = namesystem;
+  }
+
+  @Override
+  public void updateResponseState(RpcResponseHeaderProto.Builder header) {
+    header.setStateId(namesystem.getFSImage().getLastAppliedOrWrittenTxId());
+  }
+
+  @Override
+  public boolean isCoordinatedCall(String protocolName, String methodName) {
+    return CLIENT_PROTOCOL_NAME.equals(protocolName) &&
+        COORDINATED_METHODS.contains(methodName);
+  }
+
+  /**
+   * The NameNode does not send requests with this context.
+   */
+  @Override
+  public void updateRequestState(RpcRequestHeaderProto.Builder header) {
+  }
+
+  /**
+   * The NameNode does not receive responses with this context.
+   */
+  @Override
+  public void receiveResponseState(RpcResponseHeaderProto header) {
+  }
+}
@@ -475,7 +475,7 @@ void check(String parent, HdfsFileStatus file, Result res) throws IOException {
     } catch (FileNotFoundException fnfe) {
       blocks = null;
     } finally {
-      fsn.readUnlock();
+      fsn.readUnlock("fsck");
     }
     if (blocks == null) { // the file is deleted
       return;
@@ -0,0 +1,120 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Remembers which directories a user has recently been allowed to traverse,
+ * so that the traverse check of a deep path does not have to visit every
+ * ancestor on each call.
+ * <p>
+ * An entry is keyed by the user and the deepest directory checked, and
+ * records the groups of the user and the modification count of the
+ * namespace at the time of the check. Any change of permissions, owners,
+ * ACLs or of the tree structure through a rename increments the
+ * modification count, which makes all entries stale.
+ * <p>
+ * The modification count must be read with {@link #getModificationCount()}
+ * before the path is resolved, and {@link #invalidate()} must be called
+ * after a change is made, so that a check racing with a change is never
+ * recorded as current.
+ */
+class PermissionTraverseCache {
+  private static class Key {
+    private final String user;
+    private final long inodeId;
+
+    Key(String user, long inodeId) {
+      this.user = user;
+      this.inodeId = inodeId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key that = (Key) o;
+      return inodeId == that.inodeId && user.equals(that.user);
+    }
+
+    @Override
+    public int hashCode() {
+      return user.hashCode() * 31 + (int) (inodeId ^ (inodeId >>> 32));
+    }
+  }
+
+  private static class Entry {
+    private final Set<String> groups;
+    private final long modificationCount;
+
+    Entry(Set<String> groups, long modificationCount) {
+      this.groups = groups;
+      this.modificationCount = modificationCount;
+    }
+  }
+
+  private final AtomicLong modificationCount = new AtomicLong();
+  private final Cache<Key, Entry> cache;
+
+  PermissionTraverseCache(int maxSize) {
+    cache = CacheBuilder.newBuilder().maximumSize(maxSize).build();
+  }
+
+  /** @return the current modification count of the namespace */
+  long getModificationCount() {
+    return modificationCount.get();
+  }
+
+  /** Make all entries stale after a permission or rename change. */
+  void invalidate() {
+    modificationCount.incrementAndGet();
+  }
+
+  /**
+   * @return true if the user with the given groups was allowed to traverse
+   * the path to the directory, and nothing has changed since.
+   */
+  boolean isTraversable(String user, Set<String> groups, long inodeId,
+      long modCount) {
+    Entry entry = cache.getIfPresent(new Key(user, inodeId));
+    return entry != null && entry.modificationCount == modCount
+        && entry.groups.equals(groups);
+  }
+
+  /**
+   * Record that the user may traverse the path to the directory.
+   * @param modCount the modification count read before the path was
+   * resolved
+   */
+  void setTraversable(String user, Set<String> groups, long inodeId,
+      long modCount) {
+    cache.put(new Key(user, inodeId), new Entry(groups, modCount));
+  }
+
+  @VisibleForTesting
+  long size() {
+    return cache.size();
+  }
+}
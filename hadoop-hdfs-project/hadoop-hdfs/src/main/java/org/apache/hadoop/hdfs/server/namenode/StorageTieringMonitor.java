@@ -0,0 +1,396 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.apache.hadoop.hdfs.DFSConfigKeys.*;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.HadoopIllegalArgumentException;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSUtil;
+import org.apache.hadoop.hdfs.protocol.BlockStoragePolicy;
+import org.apache.hadoop.hdfs.server.blockmanagement.BlockInfo;
+import org.apache.hadoop.hdfs.server.blockmanagement.BlockManager;
+import org.apache.hadoop.hdfs.server.blockmanagement.BlockStoragePolicySuite;
+import org.apache.hadoop.hdfs.server.namenode.snapshot.Snapshot;
+import org.apache.hadoop.hdfs.util.ReadOnlyList;
+import org.apache.hadoop.util.Daemon;
+import org.apache.hadoop.util.Time;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+
+/**
+ * Assigns storage policies to files by how long they have not been used,
+ * and moves their blocks to the storage types of the policies.
+ * <p>
+ * The rules map an idle time, the time since the file was last accessed or
+ * modified, to a storage policy. A file gets the policy of the rule with the
+ * longest idle time it has reached. Only the files below the configured
+ * paths whose policy is the default one or one of the rule policies are
+ * managed, so other explicitly chosen policies are left alone.
+ * <p>
+ * The monitor walks the paths in rounds, visiting a bounded number of files
+ * per write lock hold. A large directory is visited over several holds,
+ * resuming after the name of the last child visited. When the replicas of a block of a managed file are
+ * not on the storage types its policy requires, a transfer of a replica to
+ * a required type is scheduled with the usual replication commands, and the
+ * replica left behind is removed as an excess replica. At most a bounded
+ * number of moves is scheduled per round; the remaining blocks are moved in
+ * later rounds.
+ */
+class StorageTieringMonitor implements Runnable {
+  static final Log LOG = LogFactory.getLog(StorageTieringMonitor.class);
+
+  /** A storage policy for files idle for at least a given time. */
+  static class Rule {
+    final BlockStoragePolicy policy;
+    final long minIdleMs;
+
+    Rule(BlockStoragePolicy policy, long minIdleMs) {
+      this.policy = policy;
+      this.minIdleMs = minIdleMs;
+    }
+
+    @Override
+    public String toString() {
+      return policy.getName() + ":" + minIdleMs + "ms";
+    }
+  }
+
+  private final FSNamesystem namesystem;
+  private final BlockManager blockManager;
+  private final String[] paths;
+  /** The rules, sorted by decreasing idle time */
+  private final List<Rule> rules;
+  /** Ids of the policies the monitor may replace */
+  private final Set<Byte> managedPolicies = new HashSet<Byte>();
+  private final long intervalMs;
+  private final int batchSize;
+  private final int maxMoves;
+
+  /** Directories still to visit in the current round, by inode id */
+  private final Deque<Long> pendingDirs = new ArrayDeque<Long>();
+  /** The directory being visited, by inode id, or null */
+  private Long currentDir = null;
+  /** The name of the last child visited in the current directory */
+  private byte[] lastChild = DFSUtil.EMPTY_BYTES;
+  private int movesInRound;
+  private int batchesInRound;
+
+  /** The thread running the monitor, null while it is stopped */
+  private volatile Daemon runner = null;
+
+  StorageTieringMonitor(FSNamesystem namesystem, Configuration conf) {
+    this.namesystem = namesystem;
+    this.blockManager = namesystem.getBlockManager();
+    this.paths = conf.getTrimmedStrings(DFS_NAMENODE_STORAGE_TIERING_PATHS_KEY);
+    this.rules = parseRules(blockManager,
+        conf.getTrimmedStrings(DFS_NAMENODE_STORAGE_TIERING_RULES_KEY));
+    this.intervalMs = conf.getLong(DFS_NAMENODE_STORAGE_TIERING_INTERVAL_MS_KEY,
+        DFS_NAMENODE_STORAGE_TIERING_INTERVAL_MS_DEFAULT);
+    this.batchSize = conf.getInt(DFS_NAMENODE_STORAGE_TIERING_BATCH_SIZE_KEY,
+        DFS_NAMENODE_STORAGE_TIERING_BATCH_SIZE_DEFAULT);
+    this.maxMoves = conf.getInt(DFS_NAMENODE_STORAGE_TIERING_MAX_MOVES_KEY,
+        DFS_NAMENODE_STORAGE_TIERING_MAX_MOVES_DEFAULT);
+    Preconditions.checkArgument(paths.length > 0, "%s is not set",
+        DFS_NAMENODE_STORAGE_TIERING_PATHS_KEY);
+    Preconditions.checkArgument(intervalMs > 0 && batchSize > 0,
+        "%s and %s must be positive", DFS_NAMENODE_STORAGE_TIERING_INTERVAL_MS_KEY,
+        DFS_NAMENODE_STORAGE_TIERING_BATCH_SIZE_KEY);
+    managedPolicies.add(blockManager.getStoragePolicy(
+        BlockStoragePolicySuite.ID_UNSPECIFIED).getId());
+    for (Rule rule : rules) {
+      managedPolicies.add(rule.policy.getId());
+    }
+    LOG.info("Tiering the storage of " + paths.length + " paths with rules "
+        + rules);
+  }
+
+  /**
+   * Parse rules of the form <code>POLICY:IDLE</code>, where the idle time
+   * takes a unit suffix of ms, s, m, h or d and defaults to milliseconds.
+   */
+  @VisibleForTesting
+  static List<Rule> parseRules(BlockManager blockManager, String[] specs) {
+    if (specs.length == 0) {
+      throw new HadoopIllegalArgumentException(
+          DFS_NAMENODE_STORAGE_TIERING_RULES_KEY + " is not set");
+    }
+    final List<Rule> rules = new ArrayList<Rule>(specs.length);
+    for (String spec : specs) {
+      final int colon = spec.indexOf(':');
+      if (colon < 0) {
+        throw new HadoopIllegalArgumentException("Invalid rule \"" + spec
+            + "\" in " + DFS_NAMENODE_STORAGE_TIERING_RULES_KEY);
+      }
+      final String name = spec.substring(0, colon).trim();
+      final BlockStoragePolicy policy = blockManager.getStoragePolicy(name);
+      if (policy == null || policy.isCopyOnCreateFile()) {
+        throw new HadoopIllegalArgumentException("Storage policy " + name
+            + " cannot be used in " + DFS_NAMENODE_STORAGE_TIERING_RULES_KEY);
+      }
+      rules.add(new Rule(policy, parseDuration(spec.substring(colon + 1))));
+    }
+    Collections.sort(rules, new Comparator<Rule>() {
+      @Override
+      public int compare(Rule a, Rule b) {
+        return Long.compare(b.minIdleMs, a.minIdleMs);
+      }
+    });
+    return rules;
+  }
+
+  private static long parseDuration(String s) {
+    s = s.trim().toLowerCase();
+    TimeUnit unit = TimeUnit.MILLISECONDS;
+    if (s.endsWith("ms")) {
+      s = s.substring(0, s.length() - 2);
+    } else if (s.endsWith("s")) {
+      unit = TimeUnit.SECONDS;
+    } else if (s.endsWith("m")) {
+      unit = TimeUnit.MINUTES;
+    } else if (s.endsWith("h")) {
+      unit = TimeUnit.HOURS;
+    } else if (s.endsWith("d")) {
+      unit = TimeUnit.DAYS;
+    }
+    if (unit != TimeUnit.MILLISECONDS) {
+      s = s.substring(0, s.length() - 1);
+    }
+    try {
+      return unit.toMillis(Long.parseLong(s.trim()));
+    } catch (NumberFormatException e) {
+      throw new HadoopIllegalArgumentException("Invalid idle time \"" + s
+          + "\" in " + DFS_NAMENODE_STORAGE_TIERING_RULES_KEY);
+    }
+  }
+
+  /** @return the policy for a file idle for the given time, or null */
+  @VisibleForTesting
+  BlockStoragePolicy choosePolicy(long idleMs) {
+    for (Rule rule : rules) {
+      if (idleMs >= rule.minIdleMs) {
+        return rule.policy;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Start the monitor in a new thread. Called every time the NameNode
+   * becomes active, so the monitor may be started again after a stop.
+   */
+  void start() {
+    final Daemon thread = new Daemon(this);
+    thread.setName(getClass().getSimpleName());
+    runner = thread;
+    thread.start();
+  }
+
+  /**
+   * Stop the thread running the monitor. A thread which was stopped exits
+   * even if the monitor was started again in the meantime.
+   */
+  void stop() {
+    final Daemon thread = runner;
+    runner = null;
+    if (thread != null) {
+      thread.interrupt();
+    }
+  }
+
+  boolean isRunning() {
+    return runner != null;
+  }
+
+  @Override
+  public void run() {
+    while (runner == Thread.currentThread()) {
+      try {
+        Thread.sleep(intervalMs);
+      } catch (InterruptedException e) {
+        LOG.info(getClass().getSimpleName() + " was interrupted, exiting");
+        break;
+      }
+      try {
+        runRound();
+      } catch (Exception e) {
+        LOG.error("Ignoring exception in " + getClass().getSimpleName(), e);
+        endRound();
+      }
+    }
+  }
+
+  /** Walk all paths once, one batch of files per lock hold. */
+  @VisibleForTesting
+  void runRound() throws IOException {
+    if (namesystem.isInSafeMode()) {
+      return;
+    }
+    movesInRound = 0;
+    batchesInRound = 0;
+    startRound();
+    // a stopped thread is interrupted
+    while (!Thread.currentThread().isInterrupted()
+        && (currentDir != null || !pendingDirs.isEmpty())) {
+      boolean changed;
+      namesystem.writeLock();
+      try {
+        // the NameNode may have left the active state while waiting
+        if (namesystem.isInSafeMode()
+            || !namesystem.getEditLog().isOpenForWrite()) {
+          endRound();
+          return;
+        }
+        changed = processBatch(Time.now());
+        batchesInRound++;
+      } finally {
+        namesystem.writeUnlock("storageTiering");
+      }
+      if (changed) {
+        namesystem.getEditLog().logSync();
+      }
+    }
+    if (movesInRound > 0) {
+      LOG.info("Scheduled " + movesInRound + " block moves in "
+          + batchesInRound + " batches");
+    }
+  }
+
+  private void endRound() {
+    pendingDirs.clear();
+    currentDir = null;
+    lastChild = DFSUtil.EMPTY_BYTES;
+  }
+
+  @VisibleForTesting
+  int getBatchesInRound() {
+    return batchesInRound;
+  }
+
+  private void startRound() throws IOException {
+    // drop what is left of a round a stopped thread did not finish
+    endRound();
+    namesystem.readLock();
+    try {
+      for (String path : paths) {
+        final INode inode = namesystem.getFSDirectory().getINode(path);
+        if (inode != null) {
+          pendingDirs.add(inode.getId());
+        }
+      }
+    } finally {
+      namesystem.readUnlock("storageTiering");
+    }
+  }
+
+  /**
+   * Visit directories until a batch of files has been seen. A directory
+   * with more children than fit in the batch is left as the current one,
+   * and the next batch resumes after the last child visited.
+   * @return whether any storage policy was changed
+   */
+  private boolean processBatch(long now) throws IOException {
+    final FSDirectory dir = namesystem.getFSDirectory();
+    boolean changed = false;
+    int files = 0;
+    while (files < batchSize) {
+      if (currentDir == null) {
+        if (pendingDirs.isEmpty()) {
+          break;
+        }
+        final INode inode = dir.getInode(pendingDirs.poll());
+        if (inode != null && inode.isFile()) {
+          changed |= processFile(inode.asFile(), now);
+          files++;
+        } else if (inode != null && inode.isDirectory()) {
+          currentDir = inode.getId();
+          lastChild = DFSUtil.EMPTY_BYTES;
+        }
+        continue;
+      }
+      final INode inode = dir.getInode(currentDir);
+      if (inode == null || !inode.isDirectory()) {
+        currentDir = null;
+        continue;
+      }
+      final ReadOnlyList<INode> children =
+          inode.asDirectory().getChildrenList(Snapshot.CURRENT_STATE_ID);
+      int i = INodeDirectory.nextChild(children, lastChild);
+      for (; i < children.size() && files < batchSize; i++) {
+        final INode child = children.get(i);
+        if (child.isDirectory()) {
+          pendingDirs.add(child.getId());
+        } else if (child.isFile()) {
+          changed |= processFile(child.asFile(), now);
+          files++;
+        }
+        lastChild = child.getLocalNameBytes();
+      }
+      if (i >= children.size()) {
+        currentDir = null;
+      }
+    }
+    return changed;
+  }
+
+  /**
+   * Assign the policy chosen by the rules to the file, and schedule moves
+   * for its blocks not yet stored as the policy requires.
+   * @return whether the storage policy was changed
+   */
+  private boolean processFile(INodeFile file, long now) throws IOException {
+    if (file.isUnderConstruction()) {
+      return false;
+    }
+    final BlockStoragePolicy current =
+        blockManager.getStoragePolicy(file.getStoragePolicyID());
+    if (!managedPolicies.contains(current.getId())) {
+      return false;
+    }
+    final long idle = now - Math.max(file.getAccessTime(),
+        file.getModificationTime());
+    final BlockStoragePolicy target = choosePolicy(idle);
+    boolean changed = false;
+    if (target != null && target.getId() != current.getId()) {
+      changed = namesystem.setStoragePolicyInternal(file, target.getId());
+    }
+    for (BlockInfo block : file.getBlocks()) {
+      if (movesInRound >= maxMoves) {
+        break;
+      }
+      if (blockManager.scheduleStorageMove(block)) {
+        movesInRound++;
+      }
+    }
+    return changed;
+  }
+}
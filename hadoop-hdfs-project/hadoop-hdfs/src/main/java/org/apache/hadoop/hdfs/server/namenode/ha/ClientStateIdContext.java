@@ -0,0 +1,80 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode.ha;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.ipc.AlignmentContext;
+import org.apache.hadoop.ipc.RpcConstants;
+import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcRequestHeaderProto;
+import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcResponseHeaderProto;
+
+/**
+ * The client side of the state ID alignment used by
+ * {@link StandbyReadProxyProvider}: remembers the highest transaction ID any
+ * NameNode has replied with, and sends it with every call so a StandbyNode
+ * serves a read only once it has applied the writes the client has seen.
+ * One instance is shared by the proxies of all the NameNodes.
+ */
+class ClientStateIdContext implements AlignmentContext {
+
+  private final AtomicLong lastSeenStateId =
+      new AtomicLong(RpcConstants.INVALID_STATE_ID);
+
+  long getLastSeenStateId() {
+    return lastSeenStateId.get();
+  }
+
+  @Override
+  public void updateRequestState(RpcRequestHeaderProto.Builder header) {
+    long stateId = lastSeenStateId.get();
+    if (stateId != RpcConstants.INVALID_STATE_ID) {
+      header.setStateId(stateId);
+    }
+  }
+
+  @Override
+  public void receiveResponseState(RpcResponseHeaderProto header) {
+    if (!header.hasStateId()) {
+      return;
+    }
+    long stateId = header.getStateId();
+    long current;
+    do {
+      current = lastSeenStateId.get();
+      if (stateId <= current) {
+        return;
+      }
+    } while (!lastSeenStateId.compareAndSet(current, stateId));
+  }
+
+  /**
+   * Clients do not send responses with this context.
+   */
+  @Override
+  public void updateResponseState(RpcResponseHeaderProto.Builder header) {
+  }
+
+  /**
+   * Clients do not serve calls, so none of them is coordinated.
+   */
+  @Override
+  public boolean isCoordinatedCall(String protocolName, String methodName) {
+    return false;
+  }
+}
@@ -55,6 +55,7 @@
 import org.apache.hadoop.ipc.StandbyException;
 import org.apache.hadoop.security.SecurityUtil;
 
+import static org.apache.hadoop.util.Time.monotonicNow;
 import static org.apache.hadoop.util.Time.now;
 import static org.apache.hadoop.util.ExitUtil.terminate;
 
@@ -89,7 +90,22 @@ public class EditLogTailer {
   /**
    * The highest transaction ID loaded by the Standby.
    */
-  private long lastLoadedTxnId = HdfsConstants.INVALID_TXID;
+  private volatile long lastLoadedTxnId = HdfsConstants.INVALID_TXID;
+
+  /**
+   * The highest transaction ID that reads served by the Standby are waiting
+   * for, and until when the last of them waits. Guarded by catchupLock, which
+   * is also notified whenever more edits have been loaded.
+   */
+  private long catchupTxId = HdfsConstants.INVALID_TXID;
+  private long catchupDeadline = 0;
+  private final Object catchupLock = new Object();
+
+  /**
+   * The maximum time a read served by the Standby waits for it to catch up
+   * with the transactions its client has seen.
+   */
+  private final long standbyReadMaxWaitMs;
 
   /**
    * The last time we successfully loaded a non-zero number of edits from the
@@ -98,9 +114,9 @@ public class EditLogTailer {
   private long lastLoadTimestamp;
 
   /**
-   * How often the Standby should roll edit logs. Since the Standby only reads
-   * from finalized log segments, the Standby will only be as up-to-date as how
-   * often the logs are rolled.
+   * How often the Standby should roll edit logs. Unless it tails the
+   * in-progress segment, the Standby only reads from finalized log segments,
+   * so it will only be as up-to-date as how often the logs are rolled.
    */
   private final long logRollPeriodMs;
 
@@ -120,6 +136,12 @@ public class EditLogTailer {
    * available to be read from.
    */
   private final long sleepTimeMs;
+
+  /**
+   * Whether the Standby also tails the durable edits of the in-progress
+   * segment, rather than only finalized segments.
+   */
+  private final boolean inProgressOk;
   
   public EditLogTailer(FSNamesystem namesystem, Configuration conf) {
     this.tailerThread = new EditLogTailerThread();
@@ -131,6 +153,9 @@ public EditLogTailer(FSNamesystem namesystem, Configuration conf) {
 
     logRollPeriodMs = conf.getInt(DFSConfigKeys.DFS_HA_LOGROLL_PERIOD_KEY,
         DFSConfigKeys.DFS_HA_LOGROLL_PERIOD_DEFAULT) * 1000;
+    standbyReadMaxWaitMs = conf.getLong(
+        DFSConfigKeys.DFS_HA_STANDBY_READS_MAX_WAIT_MS_KEY,
+        DFSConfigKeys.DFS_HA_STANDBY_READS_MAX_WAIT_MS_DEFAULT);
     if (logRollPeriodMs >= 0) {
       this.activeAddr = getActiveNodeAddress();
       Preconditions.checkArgument(activeAddr.getPort() > 0,
@@ -143,8 +168,14 @@ public EditLogTailer(FSNamesystem namesystem, Configuration conf) {
           DFSConfigKeys.DFS_HA_LOGROLL_PERIOD_KEY + " is negative.");
     }
     
-    sleepTimeMs = conf.getInt(DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_KEY,
-        DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_DEFAULT) * 1000;
+    sleepTimeMs = conf.getTimeDuration(
+        DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_KEY,
+        DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_DEFAULT,
+        TimeUnit.SECONDS, TimeUnit.MILLISECONDS);
+
+    inProgressOk = conf.getBoolean(
+        DFSConfigKeys.DFS_HA_TAILEDITS_INPROGRESS_KEY,
+        DFSConfigKeys.DFS_HA_TAILEDITS_INPROGRESS_DEFAULT);
 
     rollEditsTimeoutMs = conf.getInt(
         DFSConfigKeys.DFS_HA_TAILEDITS_ROLLEDITS_TIMEOUT_KEY,
@@ -224,12 +255,16 @@ public Void run() throws Exception {
     });
   }
   
+  /**
+   * @return the number of edits loaded
+   */
   @VisibleForTesting
-  void doTailEdits() throws IOException, InterruptedException {
+  long doTailEdits() throws IOException, InterruptedException {
     // Write lock needs to be interruptible here because the 
     // transitionToActive RPC takes the write lock before calling
     // tailer.stop() -- so if we're not interruptible, it will
     // deadlock.
+    long editsLoaded = 0;
     namesystem.writeLockInterruptibly();
     try {
       FSImage image = namesystem.getFSImage();
@@ -241,14 +276,15 @@ void doTailEdits() throws IOException, InterruptedException {
       }
       Collection<EditLogInputStream> streams;
       try {
-        streams = editLog.selectInputStreams(lastTxnId + 1, 0, null, false);
+        streams = editLog.selectInputStreams(lastTxnId + 1, 0, null,
+            inProgressOk, true);
       } catch (IOException ioe) {
         // This is acceptable. If we try to tail edits in the middle of an edits
         // log roll, i.e. the last one has been finalized but the new inprogress
         // edits file hasn't been started yet.
         LOG.warn("Edits tailer failed to find any streams. Will try again " +
             "later.", ioe);
-        return;
+        return 0;
       }
       if (LOG.isDebugEnabled()) {
         LOG.debug("edit streams to load from: " + streams.size());
@@ -257,7 +293,6 @@ void doTailEdits() throws IOException, InterruptedException {
       // Once we have streams to load, errors encountered are legitimate cause
       // for concern, so we don't catch them here. Simple errors reading from
       // disk are ignored.
-      long editsLoaded = 0;
       try {
         editsLoaded = image.loadEdits(streams, namesystem);
       } catch (EditLogInputException elie) {
@@ -275,7 +310,64 @@ void doTailEdits() throws IOException, InterruptedException {
       }
       lastLoadedTxnId = image.getLastAppliedTxId();
     } finally {
-      namesystem.writeUnlock();
+      namesystem.writeUnlock("doTailEdits");
+    }
+    synchronized (catchupLock) {
+      catchupLock.notifyAll();
+    }
+    return editsLoaded;
+  }
+
+  /**
+   * Wait until the Standby has loaded the given transaction, so that a read
+   * served by the Standby afterwards observes all the writes its client has
+   * seen. Must not be called with the namesystem lock held.
+   *
+   * @param txid the last transaction ID seen by the client of the read
+   * @throws StandbyException if the Standby did not catch up in time
+   */
+  public void waitForTxId(long txid) throws StandbyException {
+    if (lastLoadedTxnId >= txid) {
+      return;
+    }
+    final long deadline = monotonicNow() + standbyReadMaxWaitMs;
+    synchronized (catchupLock) {
+      catchupDeadline = Math.max(catchupDeadline, deadline);
+      if (txid > catchupTxId) {
+        catchupTxId = txid;
+        catchupLock.notifyAll();
+      }
+      long remaining;
+      while (lastLoadedTxnId < txid &&
+          (remaining = deadline - monotonicNow()) > 0) {
+        try {
+          catchupLock.wait(remaining);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+      }
+      if (lastLoadedTxnId < txid) {
+        throw new StandbyException("StandbyNode has loaded transactions up "
+            + "to " + lastLoadedTxnId + " but the client has seen " + txid);
+      }
+    }
+  }
+
+  private long getCatchupTxId() {
+    synchronized (catchupLock) {
+      return catchupTxId;
+    }
+  }
+
+  /**
+   * @return true if reads served by the Standby still wait for edits that
+   *         have not been loaded yet.
+   */
+  private boolean isCatchupRequested() {
+    synchronized (catchupLock) {
+      return catchupTxId > lastLoadedTxnId &&
+          monotonicNow() < catchupDeadline;
     }
   }
 
@@ -370,6 +462,8 @@ public Object run() {
     
     private void doWork() {
       while (shouldRun) {
+        // The highest transaction ID reads were waiting for before tailing
+        long tailedCatchupTxId = getCatchupTxId();
         try {
           // There's no point in triggering a log roll if the Standby hasn't
           // read any more transactions since the last time a roll was
@@ -390,14 +484,22 @@ private void doWork() {
           // Prevent reading of name system while being modified. The full
           // name system lock will be acquired to further block even the block
           // state updates.
+          long editsLoaded;
           namesystem.cpLockInterruptibly();
           try {
-            doTailEdits();
+            editsLoaded = doTailEdits();
           } finally {
             namesystem.cpUnlock();
           }
           //Update NameDirSize Metric
           namesystem.getFSImage().getStorage().updateNameDirSize();
+          // Reads may still wait for edits of the in-progress segment, so
+          // tail again right away as long as edits come in. An empty fetch
+          // waits for the next period.
+          if (shouldRun && inProgressOk && editsLoaded > 0 &&
+              isCatchupRequested()) {
+            continue;
+          }
         } catch (EditLogInputException elie) {
           LOG.warn("Error while reading edits from disk. Will try again.", elie);
         } catch (InterruptedException ie) {
@@ -410,7 +512,16 @@ private void doWork() {
         }
 
         try {
-          Thread.sleep(sleepTimeMs);
+          // Sleep until the next period, or until a read waits for edits
+          // which were not requested yet when tailing
+          final long wakeUp = monotonicNow() + sleepTimeMs;
+          synchronized (catchupLock) {
+            long remaining;
+            while (catchupTxId <= tailedCatchupTxId &&
+                (remaining = wakeUp - monotonicNow()) > 0) {
+              catchupLock.wait(remaining);
+            }
+          }
         } catch (InterruptedException e) {
           LOG.warn("Edit log tailer interrupted", e);
         }
@@ -0,0 +1,173 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode.ha;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.NameNodeProxies;
+import org.apache.hadoop.hdfs.server.namenode.SafeModeException;
+import org.apache.hadoop.ipc.AlignmentContext;
+import org.apache.hadoop.ipc.RemoteException;
+import org.apache.hadoop.ipc.RetriableException;
+import org.apache.hadoop.ipc.StandbyException;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.hadoop.util.Time;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * A FailoverProxyProvider implementation which sends the calls marked
+ * {@link ReadOnly} to the StandbyNode, and all other calls to the active
+ * NameNode like {@link ConfiguredFailoverProxyProvider}. The StandbyNode must
+ * have {@link DFSConfigKeys#DFS_HA_STANDBY_READS_ENABLED_KEY} set. Every call
+ * carries the highest transaction ID the client has seen from any NameNode,
+ * and the StandbyNode holds a read until it has applied that transaction, so
+ * reads observe the writes completed before them. A read the StandbyNode
+ * cannot serve is sent to the active instead.
+ */
+public class StandbyReadProxyProvider<T> extends
+    ConfiguredFailoverProxyProvider<T> {
+
+  private static final Log LOG =
+      LogFactory.getLog(StandbyReadProxyProvider.class);
+
+  /** How long reads go to the active after a StandbyNode was unreachable. */
+  private final long backoffMs;
+  private volatile long standbyReadsResumeTime = 0;
+
+  public StandbyReadProxyProvider(Configuration conf, URI uri,
+      Class<T> xface) {
+    this(conf, uri, xface,
+        new AlignedProxyFactory<T>(new ClientStateIdContext()));
+  }
+
+  @VisibleForTesting
+  StandbyReadProxyProvider(Configuration conf, URI uri, Class<T> xface,
+      ProxyFactory<T> factory) {
+    super(conf, uri, xface, factory);
+    this.backoffMs = conf.getLong(
+        DFSConfigKeys.DFS_CLIENT_FAILOVER_STANDBY_READS_BACKOFF_MS_KEY,
+        DFSConfigKeys.DFS_CLIENT_FAILOVER_STANDBY_READS_BACKOFF_MS_DEFAULT);
+  }
+
+  /**
+   * Creates proxies which all carry the same {@link ClientStateIdContext}, so
+   * the transaction IDs learnt from the active are sent to the StandbyNodes.
+   */
+  private static class AlignedProxyFactory<T> implements ProxyFactory<T> {
+    private final AlignmentContext alignmentContext;
+
+    AlignedProxyFactory(AlignmentContext alignmentContext) {
+      this.alignmentContext = alignmentContext;
+    }
+
+    @Override
+    public T createProxy(Configuration conf, InetSocketAddress nnAddr,
+        Class<T> xface, UserGroupInformation ugi, boolean withRetries,
+        AtomicBoolean fallbackToSimpleAuth) throws IOException {
+      return NameNodeProxies.createNonHAProxy(conf, nnAddr, xface, ugi, false,
+          fallbackToSimpleAuth, alignmentContext).getProxy();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public synchronized ProxyInfo<T> getProxy() {
+    final int activeIndex = getCurrentProxyIndex();
+    final ProxyInfo<T> active = getProxy(activeIndex);
+    T wrappedProxy = (T) Proxy.newProxyInstance(
+        StandbyReadInvocationHandler.class.getClassLoader(),
+        new Class<?>[]{xface},
+        new StandbyReadInvocationHandler(activeIndex, active));
+    return new ProxyInfo<T>(wrappedProxy, active.proxyInfo);
+  }
+
+  /**
+   * Sends a read to the NameNodes other than the active one in turn, and
+   * falls back to the active if none of them served it.
+   */
+  private class StandbyReadInvocationHandler implements InvocationHandler {
+    private final int activeIndex;
+    private final ProxyInfo<T> active;
+
+    StandbyReadInvocationHandler(int activeIndex, ProxyInfo<T> active) {
+      this.activeIndex = activeIndex;
+      this.active = active;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args)
+        throws Throwable {
+      if (method.isAnnotationPresent(ReadOnly.class) &&
+          Time.monotonicNow() >= standbyReadsResumeTime) {
+        for (int i = 0; i < proxies.size(); i++) {
+          if (i == activeIndex) {
+            continue;
+          }
+          ProxyInfo<T> standby = getProxy(i);
+          try {
+            return method.invoke(standby.proxy, args);
+          } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (!shouldFallBack(cause)) {
+              throw cause;
+            }
+            if (LOG.isDebugEnabled()) {
+              LOG.debug("Sending " + method.getName() + " to the active "
+                  + active.proxyInfo + " as " + standby.proxyInfo
+                  + " did not serve it", cause);
+            }
+            if (!(cause instanceof RemoteException)) {
+              standbyReadsResumeTime = Time.monotonicNow() + backoffMs;
+            }
+          }
+        }
+      }
+      try {
+        return method.invoke(active.proxy, args);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+    }
+  }
+
+  /**
+   * @return true if a read failed on a StandbyNode because it could not
+   *         serve it, rather than because of the read itself.
+   */
+  private static boolean shouldFallBack(Throwable t) {
+    if (t instanceof RemoteException) {
+      String className = ((RemoteException) t).getClassName();
+      return StandbyException.class.getName().equals(className) ||
+          SafeModeException.class.getName().equals(className) ||
+          RetriableException.class.getName().equals(className);
+    }
+    return t instanceof IOException;
+  }
+}
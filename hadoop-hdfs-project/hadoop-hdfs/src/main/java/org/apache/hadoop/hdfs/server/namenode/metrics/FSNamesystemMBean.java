@@ -185,6 +185,16 @@ public interface FSNamesystemMBean {
    */
   public String getTopUserOpCounts();
 
+  /**
+   * Returns a nested JSON object listing, over the same time windows as
+   * {@link #getTopUserOpCounts()}, the users who held the namesystem lock the
+   * longest for each operation. The counts are in microseconds, and are only
+   * kept when detailed lock metrics are enabled.
+   *
+   * @return JSON string
+   */
+  public String getTopLockHolders();
+
   /**
    * Return the number of encryption zones in the system.
    */
@@ -20,6 +20,10 @@
 import static org.apache.hadoop.metrics2.impl.MsInfo.ProcessName;
 import static org.apache.hadoop.metrics2.impl.MsInfo.SessionId;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.lang.StringUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.NamenodeRole;
@@ -48,6 +52,7 @@ public class NameNodeMetrics {
   @Metric MutableCounterLong getBlockLocations;
   @Metric MutableCounterLong filesRenamed;
   @Metric MutableCounterLong getListingOps;
+  @Metric MutableCounterLong getBatchedListingOps;
   @Metric MutableCounterLong deleteFileOps;
   @Metric("Number of files/dirs deleted by delete or rename operations")
   MutableCounterLong filesDeleted;
@@ -91,6 +96,7 @@ public long totalFileOps(){
       filesRenamed.value() +
       deleteFileOps.value() +
       getListingOps.value() +
+      getBatchedListingOps.value() +
       fileInfoOps.value() +
       getLinkTargetOps.value() +
       createSnapshotOps.value() +
@@ -111,6 +117,11 @@ public long totalFileOps(){
   MutableCounterLong transactionsBatchedInSync;
   @Metric("Block report") MutableRate blockReport;
   final MutableQuantiles[] blockReportQuantiles;
+  @Metric("Write lock hold time of block report")
+  MutableRate blockReportLockHold;
+  final MutableQuantiles[] blockReportLockHoldQuantiles;
+  @Metric("Number of times block report processing released the write lock")
+  MutableCounterLong blockReportLockYields;
   @Metric("Cache report") MutableRate cacheReport;
   final MutableQuantiles[] cacheReportQuantiles;
 
@@ -127,15 +138,43 @@ public long totalFileOps(){
   MutableRate putImage;
 
   JvmMetrics jvmMetrics = null;
+
+  /** The rate and quantiles of the lock hold times of one operation. */
+  private static class LockHoldMetrics {
+    private final MutableRate rate;
+    private final MutableQuantiles[] quantiles;
+
+    LockHoldMetrics(MutableRate rate, MutableQuantiles[] quantiles) {
+      this.rate = rate;
+      this.quantiles = quantiles;
+    }
+
+    void add(long heldNanos) {
+      rate.add(heldNanos);
+      for (MutableQuantiles q : quantiles) {
+        q.add(heldNanos);
+      }
+    }
+  }
+
+  /**
+   * Lock hold time metrics by metric name, registered the first time an
+   * operation releases the lock.
+   */
+  private final ConcurrentMap<String, LockHoldMetrics> lockHoldMetrics =
+      new ConcurrentHashMap<String, LockHoldMetrics>();
+  private final int[] intervals;
   
   NameNodeMetrics(String processName, String sessionId, int[] intervals,
       final JvmMetrics jvmMetrics) {
     this.jvmMetrics = jvmMetrics;
+    this.intervals = intervals;
     registry.tag(ProcessName, processName).tag(SessionId, sessionId);
     
     final int len = intervals.length;
     syncsQuantiles = new MutableQuantiles[len];
     blockReportQuantiles = new MutableQuantiles[len];
+    blockReportLockHoldQuantiles = new MutableQuantiles[len];
     cacheReportQuantiles = new MutableQuantiles[len];
     
     for (int i = 0; i < len; i++) {
@@ -146,6 +185,9 @@ public long totalFileOps(){
       blockReportQuantiles[i] = registry.newQuantiles(
           "blockReport" + interval + "s", 
           "Block report", "ops", "latency", interval);
+      blockReportLockHoldQuantiles[i] = registry.newQuantiles(
+          "blockReportLockHold" + interval + "s",
+          "Write lock hold time of block report", "ops", "latency", interval);
       cacheReportQuantiles[i] = registry.newQuantiles(
           "cacheReport" + interval + "s",
           "Cache report", "ops", "latency", interval);
@@ -213,6 +255,10 @@ public void incrGetListingOps() {
     getListingOps.incr();
   }
 
+  public void incrGetBatchedListingOps() {
+    getBatchedListingOps.incr();
+  }
+
   public void incrFilesInGetListingOps(int delta) {
     filesInGetListingOps.incr(delta);
   }
@@ -299,6 +345,17 @@ public void addBlockReport(long latency) {
     }
   }
 
+  public void addBlockReportLockHold(long latency) {
+    blockReportLockHold.add(latency);
+    for (MutableQuantiles q : blockReportLockHoldQuantiles) {
+      q.add(latency);
+    }
+  }
+
+  public void incrBlockReportLockYields() {
+    blockReportLockYields.incr();
+  }
+
   public void addCacheBlockReport(long latency) {
     cacheReport.add(latency);
     for (MutableQuantiles q : cacheReportQuantiles) {
@@ -321,4 +378,52 @@ public void addGetImage(long latency) {
   public void addPutImage(long latency) {
     putImage.add(latency);
   }
+
+  /**
+   * Add the time an operation held the FSNamesystem lock, as the
+   * FSN(Read|Write)Lock[OperationName]Nanos rate and quantiles. These are
+   * registered the first time the operation releases the lock.
+   */
+  public void addLockHoldTime(String opName, boolean isWrite,
+      long heldNanos) {
+    String name = (isWrite ? "FSNWriteLock" : "FSNReadLock") +
+        StringUtils.capitalize(opName) + "Nanos";
+    LockHoldMetrics metrics = lockHoldMetrics.get(name);
+    if (metrics == null) {
+      synchronized (registry) {
+        metrics = lockHoldMetrics.get(name);
+        if (metrics == null) {
+          String desc = "Time the " + opName + " operation held the " +
+              (isWrite ? "write" : "read") + " lock in nanoseconds";
+          MutableQuantiles[] quantiles =
+              new MutableQuantiles[intervals.length];
+          for (int i = 0; i < intervals.length; i++) {
+            quantiles[i] = registry.newQuantiles(name + intervals[i] + "s",
+                desc, "ops", "latency", intervals[i]);
+          }
+          metrics = new LockHoldMetrics(
+              registry.newRate(name, desc, false), quantiles);
+          lockHoldMetrics.put(name, metrics);
+        }
+      }
+    }
+    metrics.add(heldNanos);
+  }
+
+  /**
+   * Add the time spent saving one section of an image. The rate for each
+   * section is registered the first time the section is saved.
+   */
+  public void addImageSectionSaveTime(String section, long elapsed) {
+    String name = "SaveImageSection" + section;
+    MutableRate rate;
+    synchronized (registry) {
+      rate = (MutableRate) registry.get(name);
+      if (rate == null) {
+        rate = registry.newRate(name,
+            "Time spent saving the " + section + " section of an image", false);
+      }
+    }
+    rate.add(elapsed);
+  }
 }
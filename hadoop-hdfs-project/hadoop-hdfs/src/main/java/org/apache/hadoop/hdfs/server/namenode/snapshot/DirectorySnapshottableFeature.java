@@ -294,6 +294,43 @@ SnapshotDiffInfo computeDiff(final INodeDirectory snapshotRootDir,
     return diffs;
   }
 
+  /**
+   * Compute one page of the difference between two snapshots (or a snapshot
+   * and the current directory) of the directory, continuing from a position
+   * returned with the previous page.
+   *
+   * @param snapshotRootDir the snapshottable directory
+   * @param snapshotDiffScopeDir the descendant directory under snapshot root
+   *          to which the diff calculation is scoped
+   * @param from The name of the start point of the comparison.
+   * @param to The name of the end point.
+   * @param startPath The path to continue listing from, relative to the
+   *          scope dir.
+   * @param startIndex The index of the next entry of startPath.
+   * @param limit The maximum number of entries in the page.
+   * @return The page of the difference. Null if from equals to.
+   * @throws SnapshotException If there is no snapshot matching the starting
+   *           snapshot, or if the ending snapshot is null.
+   */
+  SnapshotDiffListingInfo computeDiff(final INodeDirectory snapshotRootDir,
+      final INodeDirectory snapshotDiffScopeDir, final String from,
+      final String to, byte[][] startPath, int startIndex, int limit)
+      throws SnapshotException {
+    Preconditions.checkArgument(snapshotDiffScopeDir
+        .isDescendantOfSnapshotRoot(snapshotRootDir));
+    Snapshot fromSnapshot = getSnapshotByName(snapshotRootDir, from);
+    Snapshot toSnapshot = getSnapshotByName(snapshotRootDir, to);
+    if (from.equals(to)) {
+      return null;
+    }
+    SnapshotDiffListingInfo diffs = new SnapshotDiffListingInfo(
+        snapshotRootDir, snapshotDiffScopeDir, fromSnapshot, toSnapshot,
+        limit);
+    computeDiffRecursively(snapshotDiffScopeDir, snapshotDiffScopeDir,
+        new ArrayList<byte[]>(), startPath, startIndex, diffs);
+    return diffs;
+  }
+
   /**
    * Find the snapshot matching the given name.
    *
@@ -377,6 +414,132 @@ private void computeDiffRecursively(final INodeDirectory snapshotDir,
     }
   }
 
+  /**
+   * Recursively list the difference between snapshots under a given
+   * directory/file, in the same order as the listing of the earlier
+   * snapshot, skipping the entries listed by previous pages.
+   * @param snapshotDir The directory where snapshots were taken. Can be a
+   *                    snapshot root directory or any descendant directory
+   *                    under snapshot root directory.
+   * @param node The directory/file under which the diff is computed.
+   * @param parentPath Relative path (corresponding to the snapshot root) of
+   *                   the node's parent.
+   * @param startPath The path to continue listing from if the node is on it,
+   *                  null otherwise.
+   * @param startIndex The index of the next entry of startPath.
+   * @param diffReport data structure used to store the diff.
+   * @return False if the page is full, true otherwise.
+   */
+  private boolean computeDiffRecursively(final INodeDirectory snapshotDir,
+      INode node, List<byte[]> parentPath, byte[][] startPath,
+      int startIndex, SnapshotDiffListingInfo diffReport) {
+    final Snapshot earlierSnapshot = diffReport.isFromEarlier() ?
+        diffReport.getFrom() : diffReport.getTo();
+    final Snapshot laterSnapshot = diffReport.isFromEarlier() ?
+        diffReport.getTo() : diffReport.getFrom();
+    final int laterSnapshotId = laterSnapshot == null ?
+        Snapshot.CURRENT_STATE_ID : laterSnapshot.getId();
+    final int level = parentPath.size();
+    // the entries of the ancestors of the start path were listed before it
+    int firstIndex = 0;
+    if (startPath != null) {
+      firstIndex = level == startPath.length ? startIndex : Integer.MAX_VALUE;
+    }
+    byte[][] relativePath = parentPath.toArray(new byte[parentPath.size()][]);
+    if (node.isDirectory()) {
+      final ChildrenDiff diff = new ChildrenDiff();
+      INodeDirectory dir = node.asDirectory();
+      DirectoryWithSnapshotFeature sf = dir.getDirectoryWithSnapshotFeature();
+      if (sf != null) {
+        boolean change = sf.computeDiffBetweenSnapshots(earlierSnapshot,
+            laterSnapshot, diff, dir);
+        if (change && !addDirDiff(snapshotDir, dir, relativePath, diff,
+            firstIndex, laterSnapshotId, diffReport)) {
+          return false;
+        }
+      }
+      final boolean beforeStart = startPath != null
+          && level < startPath.length;
+      ReadOnlyList<INode> children = dir.getChildrenList(earlierSnapshot
+          .getId());
+      for (INode child : children) {
+        final byte[] name = child.getLocalNameBytes();
+        byte[][] childStartPath = null;
+        if (beforeStart) {
+          int cmp = child.compareTo(startPath[level]);
+          if (cmp < 0) {
+            continue;
+          }
+          childStartPath = cmp == 0 ? startPath : null;
+        }
+        boolean toProcess = diff.searchIndex(ListType.DELETED, name) < 0;
+        if (!toProcess && child instanceof INodeReference.WithName) {
+          toProcess = findRenameTargetPath(snapshotDir, (WithName) child,
+              laterSnapshotId) != null;
+        }
+        if (toProcess) {
+          parentPath.add(name);
+          boolean more = computeDiffRecursively(snapshotDir, child,
+              parentPath, childStartPath, startIndex, diffReport);
+          parentPath.remove(parentPath.size() - 1);
+          if (!more) {
+            return false;
+          }
+        }
+      }
+    } else if (node.isFile() && node.asFile().isWithSnapshot()) {
+      INodeFile file = node.asFile();
+      boolean change = file.getFileWithSnapshotFeature()
+          .changedBetweenSnapshots(file, earlierSnapshot, laterSnapshot);
+      if (change && firstIndex == 0) {
+        return diffReport.addModifiedEntry(file, relativePath, 0);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Add the entries of a changed directory from the given index on: the
+   * modification of the directory, then its created and deleted children.
+   * @return False if the page is full, true otherwise.
+   */
+  private boolean addDirDiff(final INodeDirectory snapshotDir,
+      INodeDirectory dir, byte[][] relativePath, ChildrenDiff diff,
+      int firstIndex, int laterSnapshotId,
+      SnapshotDiffListingInfo diffReport) {
+    final List<INode> created = diff.getList(ListType.CREATED);
+    final List<INode> deleted = diff.getList(ListType.DELETED);
+    if (firstIndex > created.size() + deleted.size()) {
+      return true;
+    }
+    int index = 0;
+    if (index >= firstIndex
+        && !diffReport.addModifiedEntry(dir, relativePath, index)) {
+      return false;
+    }
+    index++;
+    for (INode cnode : created) {
+      if (index >= firstIndex
+          && !diffReport.addCreatedEntry(dir, relativePath, cnode, index)) {
+        return false;
+      }
+      index++;
+    }
+    for (INode dnode : deleted) {
+      if (index >= firstIndex) {
+        byte[][] renameTargetPath = dnode instanceof INodeReference.WithName ?
+            findRenameTargetPath(snapshotDir, (WithName) dnode,
+                laterSnapshotId) : null;
+        if (!diffReport.addDeletedEntry(dir, relativePath, dnode,
+            renameTargetPath, index)) {
+          return false;
+        }
+      }
+      index++;
+    }
+    return true;
+  }
+
   /**
    * We just found a deleted WithName node as the source of a rename operation.
    * However, we should include it in our snapshot diff report as rename only
@@ -0,0 +1,173 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode.snapshot;
+
+import java.util.List;
+
+import org.apache.hadoop.hdfs.DFSUtil;
+import org.apache.hadoop.hdfs.protocol.SnapshotDiffReportListing;
+import org.apache.hadoop.hdfs.protocol.SnapshotDiffReportListing.DiffReportListingEntry;
+import org.apache.hadoop.hdfs.server.namenode.INode;
+import org.apache.hadoop.hdfs.server.namenode.INodeDirectory;
+import org.apache.hadoop.hdfs.server.namenode.INodeReference;
+
+import com.google.common.base.Preconditions;
+import org.apache.hadoop.util.ChunkedArrayList;
+
+/**
+ * A class collecting one page of the difference between snapshots of a
+ * snapshottable directory. Every changed inode has a list of entries: its
+ * modification first, then the children created in it and the children
+ * deleted from it if it is a directory. The page ends once it holds
+ * {@link #limit} entries, and records the path and the index of the next
+ * entry so that the listing can be continued by another call.
+ */
+class SnapshotDiffListingInfo {
+  /** The root directory of the snapshots */
+  private final INodeDirectory snapshotRoot;
+  /** The scope directory under which snapshot diff is calculated */
+  private final INodeDirectory snapshotDiffScopeDir;
+  /** The starting point of the difference */
+  private final Snapshot from;
+  /** The end point of the difference */
+  private final Snapshot to;
+  /** The maximum number of entries in this page */
+  private final int limit;
+
+  private final List<DiffReportListingEntry> modifiedList =
+      new ChunkedArrayList<DiffReportListingEntry>();
+  private final List<DiffReportListingEntry> createdList =
+      new ChunkedArrayList<DiffReportListingEntry>();
+  private final List<DiffReportListingEntry> deletedList =
+      new ChunkedArrayList<DiffReportListingEntry>();
+  private int numEntries = 0;
+
+  /** Position of the next entry, once the page is full */
+  private byte[] lastPath = DFSUtil.EMPTY_BYTES;
+  private int lastIndex = SnapshotDiffReportListing.NO_MORE_ENTRIES;
+
+  SnapshotDiffListingInfo(INodeDirectory snapshotRootDir,
+      INodeDirectory snapshotDiffScopeDir, Snapshot start, Snapshot end,
+      int limit) {
+    Preconditions.checkArgument(snapshotRootDir.isSnapshottable() &&
+        snapshotDiffScopeDir.isDescendantOfSnapshotRoot(snapshotRootDir));
+    Preconditions.checkArgument(limit > 0, "limit must be positive");
+    this.snapshotRoot = snapshotRootDir;
+    this.snapshotDiffScopeDir = snapshotDiffScopeDir;
+    this.from = start;
+    this.to = end;
+    this.limit = limit;
+  }
+
+  Snapshot getFrom() {
+    return from;
+  }
+
+  Snapshot getTo() {
+    return to;
+  }
+
+  /** @return True if {@link #from} is earlier than {@link #to} */
+  boolean isFromEarlier() {
+    return Snapshot.ID_COMPARATOR.compare(from, to) < 0;
+  }
+
+  /**
+   * Record the position of the next entry if the page is full.
+   * @return True if the page is full
+   */
+  private boolean checkFull(byte[][] path, int index) {
+    if (numEntries < limit) {
+      numEntries++;
+      return false;
+    }
+    lastPath = DFSUtil.byteArray2bytes(path);
+    lastIndex = index;
+    return true;
+  }
+
+  /**
+   * Add a modified file or directory.
+   * @return False if the page is full and the entry was not added
+   */
+  boolean addModifiedEntry(INode node, byte[][] relativePath, int index) {
+    if (checkFull(relativePath, index)) {
+      return false;
+    }
+    modifiedList.add(new DiffReportListingEntry(node.getId(), node.getId(),
+        relativePath, false, null));
+    return true;
+  }
+
+  /**
+   * Add a child created in a directory.
+   * @return False if the page is full and the entry was not added
+   */
+  boolean addCreatedEntry(INodeDirectory dir, byte[][] dirPath,
+      INode created, int index) {
+    if (checkFull(dirPath, index)) {
+      return false;
+    }
+    createdList.add(new DiffReportListingEntry(dir.getId(), created.getId(),
+        childPath(dirPath, created), created.isReference(), null));
+    return true;
+  }
+
+  /**
+   * Add a child deleted from a directory.
+   * @param renameTargetPath the path the child was renamed to if it is a
+   *                         reference renamed within the scope dir
+   * @return False if the page is full and the entry was not added
+   */
+  boolean addDeletedEntry(INodeDirectory dir, byte[][] dirPath,
+      INode deleted, byte[][] renameTargetPath, int index) {
+    if (checkFull(dirPath, index)) {
+      return false;
+    }
+    // only a WithName reference is the source of a rename
+    deletedList.add(new DiffReportListingEntry(dir.getId(), deleted.getId(),
+        childPath(dirPath, deleted),
+        deleted instanceof INodeReference.WithName, renameTargetPath));
+    return true;
+  }
+
+  private static byte[][] childPath(byte[][] parentPath, INode child) {
+    byte[][] path = new byte[parentPath.length + 1][];
+    System.arraycopy(parentPath, 0, path, 0, parentPath.length);
+    path[path.length - 1] = child.getLocalNameBytes();
+    return path;
+  }
+
+  /**
+   * Generate a {@link SnapshotDiffReportListing} of the collected entries.
+   * @return A {@link SnapshotDiffReportListing} describing this page
+   */
+  public SnapshotDiffReportListing generateReport() {
+    return new SnapshotDiffReportListing(modifiedList, createdList,
+        deletedList, isFromEarlier(), lastPath, lastIndex);
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + ": root="
+        + snapshotRoot.getFullPathName() + ", scope="
+        + snapshotDiffScopeDir.getFullPathName() + ", from="
+        + Snapshot.getSnapshotName(from) + ", to="
+        + Snapshot.getSnapshotName(to) + ", entries=" + numEntries;
+  }
+}
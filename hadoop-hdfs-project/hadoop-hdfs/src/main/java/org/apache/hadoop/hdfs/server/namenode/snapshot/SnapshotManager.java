@@ -37,9 +37,12 @@
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.DFSUtil;
 import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport;
+import org.apache.hadoop.hdfs.protocol.SnapshotDiffReportListing;
+import org.apache.hadoop.hdfs.protocol.SnapshotDiffReportListing.DiffReportListingEntry;
 import org.apache.hadoop.hdfs.protocol.SnapshotException;
 import org.apache.hadoop.hdfs.protocol.SnapshotInfo;
 import org.apache.hadoop.hdfs.protocol.SnapshottableDirectoryStatus;
@@ -89,6 +92,8 @@ public class SnapshotManager implements SnapshotStatsMXBean {
    * directory.
    */
   private final boolean snapshotDiffAllowSnapRootDescendant;
+  /** The maximum number of entries of a snapshot diff listing page */
+  private final int snapshotDiffListingLimit;
 
   private final AtomicInteger numSnapshots = new AtomicInteger();
   private static final int SNAPSHOT_ID_BIT_WIDTH = 24;
@@ -112,11 +117,18 @@ public SnapshotManager(final Configuration conf, final FSDirectory fsdir) {
         DFSConfigKeys.DFS_NAMENODE_SNAPSHOT_DIFF_ALLOW_SNAP_ROOT_DESCENDANT,
         DFSConfigKeys.
             DFS_NAMENODE_SNAPSHOT_DIFF_ALLOW_SNAP_ROOT_DESCENDANT_DEFAULT);
+    this.snapshotDiffListingLimit = conf.getInt(
+        DFSConfigKeys.DFS_NAMENODE_SNAPSHOT_DIFF_LISTING_LIMIT,
+        DFSConfigKeys.DFS_NAMENODE_SNAPSHOT_DIFF_LISTING_LIMIT_DEFAULT);
+    Preconditions.checkArgument(snapshotDiffListingLimit > 0,
+        DFSConfigKeys.DFS_NAMENODE_SNAPSHOT_DIFF_LISTING_LIMIT
+        + " must be positive");
     LOG.info("Loaded config captureOpenFiles: " + captureOpenFiles
         + ", skipCaptureAccessTimeOnlyChange: "
         + skipCaptureAccessTimeOnlyChange
         + ", snapshotDiffAllowSnapRootDescendant: "
-        + snapshotDiffAllowSnapRootDescendant);
+        + snapshotDiffAllowSnapRootDescendant
+        + ", snapshotDiffListingLimit: " + snapshotDiffListingLimit);
   }
 
   /**
@@ -317,6 +329,7 @@ public String createSnapshot(final LeaseManager leaseManager,
     AuthorizationProvider.get().createSnapshot(srcRoot, snapshotCounter);
     srcRoot.addSnapshot(snapshotCounter, snapshotName,
         leaseManager, this.captureOpenFiles);
+    fsdir.updateContentSummarySnapshotCount(srcRoot, 1);
 
     //create success, update id
     snapshotCounter++;
@@ -340,6 +353,7 @@ public void deleteSnapshot(final String path, final String snapshotName,
     INodeDirectory srcRoot = getSnapshottableRoot(path);
     AuthorizationProvider.get().removeSnapshot(srcRoot, snapshotCounter);
     srcRoot.removeSnapshot(snapshotName, collectedBlocks, removedINodes);
+    fsdir.updateContentSummarySnapshotCount(srcRoot, -1);
     numSnapshots.getAndDecrement();
   }
 
@@ -387,7 +401,7 @@ void setSnapshotCounter(int counter) {
     snapshotCounter = counter;
   }
 
-  INodeDirectory[] getSnapshottableDirs() {
+  public INodeDirectory[] getSnapshottableDirs() {
     return snapshottables.values().toArray(
         new INodeDirectory[snapshottables.size()]);
   }
@@ -467,17 +481,9 @@ public SnapshottableDirectoryStatus[] getSnapshottableDirListing(
    */
   public SnapshotDiffReport diff(String path, final String from,
       final String to) throws IOException {
-    // Find the source root directory path where the snapshots were taken.
-    // All the check for path has been included in the valueOf method.
-    INodeDirectory snapshotRootDir;
     path = fsdir.resolvePath(path);
     INodesInPath iip = fsdir.getINodesInPath4Write(path);
-    if (this.snapshotDiffAllowSnapRootDescendant) {
-      snapshotRootDir = getSnapshottableAncestorDir(iip);
-    } else {
-      snapshotRootDir = getSnapshottableRoot(path);
-    }
-    Preconditions.checkNotNull(snapshotRootDir);
+    INodeDirectory snapshotRootDir = getSnapshotDiffRootDir(path, iip);
     INodeDirectory snapshotDescendantDir = INodeDirectory.valueOf(
         iip.getLastINode(), path);
 
@@ -493,6 +499,58 @@ public SnapshotDiffReport diff(String path, final String from,
     return diffs != null ? diffs.generateReport() : new SnapshotDiffReport(
         path, from, to, Collections.<DiffReportEntry> emptyList());
   }
+
+  /**
+   * Compute one page of the difference between two snapshots of a directory,
+   * or between a snapshot of the directory and its current tree, continuing
+   * from the given position.
+   */
+  public SnapshotDiffReportListing diff(String path, final String from,
+      final String to, byte[] startPath, int index) throws IOException {
+    path = fsdir.resolvePath(path);
+    INodesInPath iip = fsdir.getINodesInPath4Write(path);
+    INodeDirectory snapshotRootDir = getSnapshotDiffRootDir(path, iip);
+    INodeDirectory snapshotDescendantDir = INodeDirectory.valueOf(
+        iip.getLastINode(), path);
+
+    if ((from == null || from.isEmpty())
+        && (to == null || to.isEmpty())) {
+      // both fromSnapshot and toSnapshot indicate the current tree
+      return emptyDiffListing();
+    }
+    final byte[][] startPathComponents = startPath.length == 0 ?
+        new byte[0][] :
+        DFSUtil.bytes2byteArray(startPath, (byte) Path.SEPARATOR_CHAR);
+    final SnapshotDiffListingInfo diffs = snapshotRootDir
+        .getDirectorySnapshottableFeature().computeDiff(snapshotRootDir,
+            snapshotDescendantDir, from, to, startPathComponents, index,
+            snapshotDiffListingLimit);
+    return diffs != null ? diffs.generateReport() : emptyDiffListing();
+  }
+
+  private static SnapshotDiffReportListing emptyDiffListing() {
+    return new SnapshotDiffReportListing(
+        Collections.<DiffReportListingEntry>emptyList(),
+        Collections.<DiffReportListingEntry>emptyList(),
+        Collections.<DiffReportListingEntry>emptyList(), true,
+        DFSUtil.EMPTY_BYTES, SnapshotDiffReportListing.NO_MORE_ENTRIES);
+  }
+
+  /**
+   * Find the source root directory path where the snapshots were taken.
+   * All the check for path has been included in the valueOf method.
+   */
+  private INodeDirectory getSnapshotDiffRootDir(String path,
+      INodesInPath iip) throws IOException {
+    INodeDirectory snapshotRootDir;
+    if (this.snapshotDiffAllowSnapRootDescendant) {
+      snapshotRootDir = getSnapshottableAncestorDir(iip);
+    } else {
+      snapshotRootDir = getSnapshottableRoot(path);
+    }
+    Preconditions.checkNotNull(snapshotRootDir);
+    return snapshotRootDir;
+  }
   
   public void clearSnapshottableDirs() {
     snapshottables.clear();
@@ -63,6 +63,12 @@
  * done by calling {@link org.apache.hadoop.hdfs.server.namenode.top.window
  * .RollingWindowManager#snapshot} on each RollingWindowManager.
  * <p/>
+ * TopMetrics also tracks, over the same time intervals, how long each user
+ * held the FSNamesystem lock per operation, in microseconds, when the
+ * FSNamesystemLock reports it. These windows are published separately via
+ * {@link org.apache.hadoop.hdfs.server.namenode.metrics
+ * .FSNamesystemMBean#getTopLockHolders}.
+ * <p/>
  * Thread-safe: relies on thread-safety of RollingWindowManager
  */
 @InterfaceAudience.Private
@@ -88,11 +94,20 @@ private static void logConf(Configuration conf) {
   final Map<Integer, RollingWindowManager> rollingWindowManagers =
       new HashMap<Integer, RollingWindowManager>();
 
+  /**
+   * A map from reporting periods to the WindowManager of lock hold times.
+   * Like rollingWindowManagers, it is not changed after construction.
+   */
+  final Map<Integer, RollingWindowManager> lockHoldWindowManagers =
+      new HashMap<Integer, RollingWindowManager>();
+
   public TopMetrics(Configuration conf, int[] reportingPeriods) {
     logConf(conf);
     for (int i = 0; i < reportingPeriods.length; i++) {
       rollingWindowManagers.put(reportingPeriods[i], new RollingWindowManager(
           conf, reportingPeriods[i]));
+      lockHoldWindowManagers.put(reportingPeriods[i], new RollingWindowManager(
+          conf, reportingPeriods[i]));
     }
     isMetricsSourceEnabled = conf.getBoolean(DFSConfigKeys.NNTOP_ENABLED_KEY,
         DFSConfigKeys.NNTOP_ENABLED_DEFAULT);
@@ -103,10 +118,23 @@ public TopMetrics(Configuration conf, int[] reportingPeriods) {
    * time interval.
    */
   public List<TopWindow> getTopWindows() {
+    return snapshot(rollingWindowManagers);
+  }
+
+  /**
+   * Get a list of the current lock hold time statistics, one TopWindow per
+   * tracked time interval. The counts are in microseconds.
+   */
+  public List<TopWindow> getTopLockHolderWindows() {
+    return snapshot(lockHoldWindowManagers);
+  }
+
+  private static List<TopWindow> snapshot(
+      Map<Integer, RollingWindowManager> windowManagers) {
     long monoTime = Time.monotonicNow();
     List<TopWindow> windows = Lists.newArrayListWithCapacity
-        (rollingWindowManagers.size());
-    for (Entry<Integer, RollingWindowManager> entry : rollingWindowManagers
+        (windowManagers.size());
+    for (Entry<Integer, RollingWindowManager> entry : windowManagers
         .entrySet()) {
       TopWindow window = entry.getValue().snapshot(monoTime);
       windows.add(window);
@@ -142,6 +170,29 @@ public void report(long currTime, String userName, String cmd) {
     }
   }
 
+  public void reportLockHold(String userName, String cmd, long heldMicros) {
+    long currTime = Time.monotonicNow();
+    reportLockHold(currTime, userName, cmd, heldMicros);
+  }
+
+  /**
+   * Charge the time a user held the FSNamesystem lock for an operation.
+   *
+   * @param currTime the monotonic time, in ms, the lock was released at
+   * @param userName the user the lock was held for
+   * @param cmd the operation which held the lock
+   * @param heldMicros how long the lock was held, in microseconds
+   */
+  public void reportLockHold(long currTime, String userName, String cmd,
+      long heldMicros) {
+    for (RollingWindowManager rollingWindowManager : lockHoldWindowManagers
+        .values()) {
+      rollingWindowManager.recordMetric(currTime, cmd, userName, heldMicros);
+      rollingWindowManager.recordMetric(currTime,
+          TopConf.ALL_CMDS, userName, heldMicros);
+    }
+  }
+
   /**
    * Flatten out the top window metrics into
    * {@link org.apache.hadoop.metrics2.MetricsRecord}s for consumption by
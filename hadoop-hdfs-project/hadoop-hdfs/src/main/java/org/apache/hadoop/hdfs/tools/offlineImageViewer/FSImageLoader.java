@@ -17,7 +17,6 @@
  */
 package org.apache.hadoop.hdfs.tools.offlineImageViewer;
 
-import java.io.BufferedInputStream;
 import java.io.EOFException;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -50,7 +49,6 @@
 import org.apache.hadoop.hdfs.server.namenode.INodeId;
 import org.apache.hadoop.hdfs.web.JsonUtil;
 import org.apache.hadoop.io.IOUtils;
-import org.apache.hadoop.util.LimitInputStream;
 import org.codehaus.jackson.map.ObjectMapper;
 
 import com.google.common.base.Preconditions;
@@ -144,10 +142,7 @@ public int compare(FsImageProto.FileSummary.Section s1,
           });
 
       for (FsImageProto.FileSummary.Section s : sections) {
-        fin.getChannel().position(s.getOffset());
-        InputStream is = FSImageUtil.wrapInputStreamForCompression(conf,
-            summary.getCodec(), new BufferedInputStream(new LimitInputStream(
-            fin, s.getLength())));
+        InputStream is = FSImageUtil.openSection(conf, summary, fin, s);
 
         if (LOG.isDebugEnabled()) {
           LOG.debug("Loading section " + s.getName() + " length: " + s.getLength
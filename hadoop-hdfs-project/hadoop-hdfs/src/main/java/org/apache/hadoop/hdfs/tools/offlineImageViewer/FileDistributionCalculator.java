@@ -17,7 +17,6 @@
  */
 package org.apache.hadoop.hdfs.tools.offlineImageViewer;
 
-import java.io.BufferedInputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -31,7 +30,6 @@
 import org.apache.hadoop.hdfs.server.namenode.FsImageProto.FileSummary;
 import org.apache.hadoop.hdfs.server.namenode.FsImageProto.INodeSection;
 import org.apache.hadoop.io.IOUtils;
-import org.apache.hadoop.util.LimitInputStream;
 
 import com.google.common.base.Preconditions;
 
@@ -104,10 +102,7 @@ void visit(RandomAccessFile file) throws IOException {
           continue;
         }
 
-        in.getChannel().position(s.getOffset());
-        InputStream is = FSImageUtil.wrapInputStreamForCompression(conf,
-            summary.getCodec(), new BufferedInputStream(new LimitInputStream(
-                in, s.getLength())));
+        InputStream is = FSImageUtil.openSection(conf, summary, in, s);
         run(is);
         output();
       }
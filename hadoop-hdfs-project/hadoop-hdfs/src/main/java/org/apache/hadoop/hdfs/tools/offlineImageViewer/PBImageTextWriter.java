@@ -20,7 +20,6 @@
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
-import com.google.common.io.LimitInputStream;
 import org.apache.commons.io.FileUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
@@ -43,7 +42,6 @@
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedInputStream;
 import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
@@ -461,10 +459,7 @@ public int compare(FsImageProto.FileSummary.Section s1,
 
       ImmutableList<Long> refIdList = null;
       for (FileSummary.Section section : sections) {
-        fin.getChannel().position(section.getOffset());
-        is = FSImageUtil.wrapInputStreamForCompression(conf,
-            summary.getCodec(), new BufferedInputStream(new LimitInputStream(
-                fin, section.getLength())));
+        is = FSImageUtil.openSection(conf, summary, fin, section);
         switch (SectionName.fromString(section.getName())) {
         case STRING_TABLE:
           LOG.info("Loading string table");
@@ -496,10 +491,7 @@ private void output(Configuration conf, FileSummary summary,
     out.println(getHeader());
     for (FileSummary.Section section : sections) {
       if (SectionName.fromString(section.getName()) == SectionName.INODE) {
-        fin.getChannel().position(section.getOffset());
-        is = FSImageUtil.wrapInputStreamForCompression(conf,
-            summary.getCodec(), new BufferedInputStream(new LimitInputStream(
-                fin, section.getLength())));
+        is = FSImageUtil.openSection(conf, summary, fin, section);
         outputINodes(is);
       }
     }
@@ -521,10 +513,8 @@ private void loadDirectories(
     for (FileSummary.Section section : sections) {
       if (SectionName.fromString(section.getName())
           == SectionName.INODE) {
-        fin.getChannel().position(section.getOffset());
-        InputStream is = FSImageUtil.wrapInputStreamForCompression(conf,
-            summary.getCodec(), new BufferedInputStream(new LimitInputStream(
-                fin, section.getLength())));
+        InputStream is = FSImageUtil.openSection(conf, summary, fin,
+            section);
         loadDirectoriesInINodeSection(is);
       }
     }
@@ -541,10 +531,8 @@ private void loadINodeDirSection(
     for (FileSummary.Section section : sections) {
       if (SectionName.fromString(section.getName())
           == SectionName.INODE_DIR) {
-        fin.getChannel().position(section.getOffset());
-        InputStream is = FSImageUtil.wrapInputStreamForCompression(conf,
-            summary.getCodec(), new BufferedInputStream(
-                new LimitInputStream(fin, section.getLength())));
+        InputStream is = FSImageUtil.openSection(conf, summary, fin,
+            section);
         buildNamespace(is, refIdList);
       }
     }
@@ -17,7 +17,6 @@
  */
 package org.apache.hadoop.hdfs.tools.offlineImageViewer;
 
-import java.io.BufferedInputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -60,7 +59,6 @@
 import org.apache.hadoop.hdfs.server.namenode.FsImageProto.StringTableSection;
 import org.apache.hadoop.hdfs.util.XMLUtils;
 import org.apache.hadoop.io.IOUtils;
-import org.apache.hadoop.util.LimitInputStream;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import org.apache.hadoop.util.VersionInfo;
@@ -284,10 +282,7 @@ public int compare(FileSummary.Section s1, FileSummary.Section s2) {
       });
 
       for (FileSummary.Section s : sections) {
-        fin.getChannel().position(s.getOffset());
-        InputStream is = FSImageUtil.wrapInputStreamForCompression(conf,
-            summary.getCodec(), new BufferedInputStream(new LimitInputStream(
-                fin, s.getLength())));
+        InputStream is = FSImageUtil.openSection(conf, summary, fin, s);
 
         switch (SectionName.fromString(s.getName())) {
         case NS_INFO:
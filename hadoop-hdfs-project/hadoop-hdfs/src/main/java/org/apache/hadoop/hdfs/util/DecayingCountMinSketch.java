@@ -0,0 +1,97 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.util;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A count-min sketch of long keys whose counts can be halved to let old
+ * events fade out. The counters are updated without locking, so increments
+ * may race with {@link #decay()}; the counts are estimates anyway.
+ * <p>
+ * An estimate is never lower than the number of times the key was added
+ * since the last decay, and it is higher only when other keys collide with
+ * it in every row.
+ */
+public class DecayingCountMinSketch {
+  private final int depth;
+  private final int mask;
+  private final AtomicIntegerArray counts;
+
+  /**
+   * @param depth the number of hash rows
+   * @param width the number of counters per row, rounded up to a power of 2
+   */
+  public DecayingCountMinSketch(int depth, int width) {
+    Preconditions.checkArgument(depth > 0 && width > 0,
+        "depth = %s and width = %s must be positive", depth, width);
+    this.depth = depth;
+    final int w = Integer.highestOneBit(width) == width ?
+        width : Integer.highestOneBit(width) << 1;
+    this.mask = w - 1;
+    this.counts = new AtomicIntegerArray(depth * w);
+  }
+
+  /** @return the index of the key's counter in the given row. */
+  private int index(long key, int row) {
+    // the 64-bit finalizer of MurmurHash3, seeded differently per row
+    long h = key + (row + 1) * 0x9E3779B97F4A7C15L;
+    h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+    h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return row * (mask + 1) + ((int) h & mask);
+  }
+
+  /**
+   * Count one more occurrence of the key.
+   * @return the estimated count of the key, including this occurrence.
+   */
+  public int add(long key) {
+    int min = Integer.MAX_VALUE;
+    for (int row = 0; row < depth; row++) {
+      final int i = index(key, row);
+      int c;
+      do {
+        c = counts.get(i);
+      } while (c < Integer.MAX_VALUE && !counts.compareAndSet(i, c, c + 1));
+      min = Math.min(min, c == Integer.MAX_VALUE ? c : c + 1);
+    }
+    return min;
+  }
+
+  /** @return the estimated count of the key. */
+  public int estimate(long key) {
+    int min = Integer.MAX_VALUE;
+    for (int row = 0; row < depth; row++) {
+      min = Math.min(min, counts.get(index(key, row)));
+    }
+    return min;
+  }
+
+  /** Halve all counts. */
+  public void decay() {
+    for (int i = 0; i < counts.length(); i++) {
+      int c;
+      do {
+        c = counts.get(i);
+      } while (c != 0 && !counts.compareAndSet(i, c, c >>> 1));
+    }
+  }
+}
@@ -251,6 +251,13 @@ private TreeSetIterator(FoldedTreeSet<E> tree) {
       }
     }
 
+    private TreeSetIterator(FoldedTreeSet<E> tree, Node<E> node, int index) {
+      this.tree = tree;
+      this.iteratorModCount = tree.modCount;
+      this.node = node;
+      this.index = index;
+    }
+
     @Override
     public boolean hasNext() {
       checkForModification();
@@ -479,6 +486,54 @@ public Iterator<E> iterator() {
     return new TreeSetIterator<>(this);
   }
 
+  /**
+   * Return an iterator positioned at the first stored object that is greater
+   * than or equal to the lookup key, using a user provided comparator.
+   *
+   * @param obj Lookup key
+   * @param cmp User provided Comparator. The comparator should expect that the
+   *            proved obj will always be the first method parameter and any
+   *            stored object will be the second parameter.
+   *
+   * @return An iterator over the stored objects not less than the key
+   */
+  public Iterator<E> tailIterator(Object obj, Comparator<?> cmp) {
+    Objects.requireNonNull(obj);
+
+    Node<E> found = null;
+    int foundIndex = 0;
+    Node<E> node = root;
+    while (node != null) {
+      E[] entries = node.entries;
+
+      int leftIndex = node.leftIndex;
+      int rightIndex = node.rightIndex;
+      if (compare(obj, entries[leftIndex], cmp) <= 0) {
+        // Every entry in this node qualifies, look for a lower one
+        found = node;
+        foundIndex = leftIndex;
+        node = node.left;
+      } else if (compare(obj, entries[rightIndex], cmp) > 0) {
+        node = node.right;
+      } else {
+        int low = leftIndex + 1;
+        int high = rightIndex;
+        while (low < high) {
+          int mid = (low + high) >>> 1;
+          if (compare(obj, entries[mid], cmp) > 0) {
+            low = mid + 1;
+          } else {
+            high = mid;
+          }
+        }
+        found = node;
+        foundIndex = low;
+        break;
+      }
+    }
+    return new TreeSetIterator<>(this, found, foundIndex);
+  }
+
   @Override
   public Object[] toArray() {
     Object[] objects = new Object[size];
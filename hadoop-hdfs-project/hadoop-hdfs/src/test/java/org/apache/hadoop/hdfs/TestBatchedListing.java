@@ -0,0 +1,171 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.InvalidRequestException;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.PartialListing;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.hdfs.protocol.BatchedDirectoryListing;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Test listing many directories with the batched listing call.
+ */
+public class TestBatchedListing {
+  private static final int NUM_DIRS = 7;
+  private static final int FILES_PER_DIR = 5;
+  private static final int LS_LIMIT = 3;
+  private static final int BATCH_LIMIT = 3;
+
+  private static MiniDFSCluster cluster;
+  private static DistributedFileSystem dfs;
+  private static final List<Path> dirs = new ArrayList<Path>();
+
+  @BeforeClass
+  public static void setUp() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setInt(DFSConfigKeys.DFS_LIST_LIMIT, LS_LIMIT);
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_BATCHED_LISTING_LIMIT,
+        BATCH_LIMIT);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    cluster.waitActive();
+    dfs = cluster.getFileSystem();
+    for (int i = 0; i < NUM_DIRS; i++) {
+      Path dir = new Path("/table/part=" + i);
+      for (int j = 0; j < FILES_PER_DIR; j++) {
+        DFSTestUtil.createFile(dfs, new Path(dir, "file" + j), 10, (short) 1,
+            0L);
+      }
+      dirs.add(dir);
+    }
+  }
+
+  @AfterClass
+  public static void tearDown() {
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  @Test (timeout=60000)
+  public void testBatchedListing() throws Exception {
+    Map<Path, List<FileStatus>> listed =
+        new LinkedHashMap<Path, List<FileStatus>>();
+    RemoteIterator<PartialListing<FileStatus>> it =
+        dfs.batchedListStatusIterator(dirs);
+    while (it.hasNext()) {
+      PartialListing<FileStatus> listing = it.next();
+      if (!listed.containsKey(listing.getListedPath())) {
+        listed.put(listing.getListedPath(), new ArrayList<FileStatus>());
+      }
+      listed.get(listing.getListedPath()).addAll(listing.get());
+    }
+    assertEquals(dirs, new ArrayList<Path>(listed.keySet()));
+    for (Path dir : dirs) {
+      List<FileStatus> expected = new ArrayList<FileStatus>();
+      for (FileStatus stat : dfs.listStatus(dir)) {
+        expected.add(stat);
+      }
+      assertEquals(expected, listed.get(dir));
+    }
+  }
+
+  @Test (timeout=60000)
+  public void testBatchedLocatedListing() throws Exception {
+    int numFiles = 0;
+    RemoteIterator<PartialListing<LocatedFileStatus>> it =
+        dfs.batchedListLocatedStatusIterator(dirs);
+    while (it.hasNext()) {
+      for (LocatedFileStatus stat : it.next().get()) {
+        assertEquals(1, stat.getBlockLocations().length);
+        numFiles++;
+      }
+    }
+    assertEquals(NUM_DIRS * FILES_PER_DIR, numFiles);
+  }
+
+  @Test (timeout=60000)
+  public void testMissingDirectory() throws Exception {
+    List<Path> paths = new ArrayList<Path>();
+    paths.add(dirs.get(0));
+    paths.add(new Path("/table/missing"));
+    paths.add(dirs.get(1));
+    int numFiles = 0;
+    int numErrors = 0;
+    RemoteIterator<PartialListing<FileStatus>> it =
+        dfs.batchedListStatusIterator(paths);
+    while (it.hasNext()) {
+      PartialListing<FileStatus> listing = it.next();
+      try {
+        numFiles += listing.get().size();
+      } catch (FileNotFoundException e) {
+        assertEquals(new Path("/table/missing"), listing.getListedPath());
+        numErrors++;
+      }
+    }
+    assertEquals(2 * FILES_PER_DIR, numFiles);
+    assertEquals(1, numErrors);
+  }
+
+  @Test (timeout=60000)
+  public void testTooManyPaths() throws Exception {
+    String[] srcs = new String[BATCH_LIMIT + 1];
+    for (int i = 0; i < srcs.length; i++) {
+      srcs[i] = dirs.get(i).toString();
+    }
+    try {
+      dfs.getClient().batchedListPaths(srcs, new byte[0], false);
+      fail("Listing more paths than the limit should fail");
+    } catch (InvalidRequestException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains(
+          DFSConfigKeys.DFS_NAMENODE_BATCHED_LISTING_LIMIT));
+    }
+  }
+
+  @Test (timeout=60000)
+  public void testStartAfterOfOtherBatch() throws Exception {
+    String[] srcs = { dirs.get(0).toString(), dirs.get(1).toString() };
+    BatchedDirectoryListing listing =
+        dfs.getClient().batchedListPaths(srcs, new byte[0], false);
+    assertTrue(listing.hasMore());
+    String[] others = { dirs.get(2).toString(), dirs.get(3).toString() };
+    try {
+      dfs.getClient().batchedListPaths(others, listing.getStartAfter(), false);
+      fail("A listing position of another batch should be rejected");
+    } catch (InvalidRequestException e) {
+      assertTrue(e.getMessage(),
+          e.getMessage().contains("does not belong to the given paths"));
+    }
+  }
+}
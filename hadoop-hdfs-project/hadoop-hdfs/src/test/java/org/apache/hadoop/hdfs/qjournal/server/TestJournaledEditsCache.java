@@ -0,0 +1,124 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.qjournal.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.apache.hadoop.hdfs.qjournal.QJMTestUtil;
+import org.apache.hadoop.hdfs.qjournal.protocol.JournaledEdits;
+import org.apache.hadoop.hdfs.server.namenode.EditLogFileInputStream;
+import org.apache.hadoop.hdfs.server.namenode.EditLogInputStream;
+import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp;
+import org.apache.hadoop.hdfs.server.namenode.NameNodeLayoutVersion;
+import org.junit.Test;
+
+public class TestJournaledEditsCache {
+  private static final int LAYOUT_VERSION =
+      NameNodeLayoutVersion.CURRENT_LAYOUT_VERSION;
+
+  private static void storeTxns(JournaledEditsCache cache, int firstTxId,
+      int numTxns) throws Exception {
+    cache.storeEdits(QJMTestUtil.createTxnData(firstTxId, numTxns),
+        firstTxId, firstTxId + numTxns - 1, LAYOUT_VERSION);
+  }
+
+  /**
+   * Check that the edits hold the given range of txids, and that reading
+   * them from fromTxId on yields exactly count transactions.
+   */
+  private static void assertTxns(JournaledEdits edits, long firstTxId,
+      long fromTxId, int count) throws IOException {
+    assertEquals(count, edits.getTxnCount());
+    EditLogInputStream in = EditLogFileInputStream.fromByteArray(
+        edits.getEditLog(), "test", firstTxId, fromTxId + count - 1, true);
+    try {
+      long expected = firstTxId;
+      FSEditLogOp op;
+      while ((op = in.readOp()) != null) {
+        assertEquals(expected++, op.getTransactionId());
+      }
+      assertEquals(fromTxId + count, expected);
+    } finally {
+      in.close();
+    }
+  }
+
+  private static void assertCacheMiss(JournaledEditsCache cache,
+      long fromTxId) throws IOException {
+    try {
+      cache.retrieveEdits(fromTxId, 100);
+      fail("Expected a cache miss for txid " + fromTxId);
+    } catch (JournaledEditsCache.CacheMissException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testRetrieveEdits() throws Exception {
+    JournaledEditsCache cache = new JournaledEditsCache(1024 * 1024);
+    assertCacheMiss(cache, 1);
+
+    storeTxns(cache, 1, 10);
+    storeTxns(cache, 11, 10);
+    storeTxns(cache, 21, 10);
+
+    assertTxns(cache.retrieveEdits(1, 100), 1, 1, 30);
+    // Edits are returned from the start of the batch holding the txid
+    assertTxns(cache.retrieveEdits(15, 100), 11, 15, 16);
+    // Whole batches are returned, up to the one reaching maxTxns
+    assertTxns(cache.retrieveEdits(1, 15), 1, 1, 20);
+    assertTxns(cache.retrieveEdits(21, 1), 21, 21, 10);
+    // Nothing has been written from txid 31 yet
+    assertEquals(0, cache.retrieveEdits(31, 100).getTxnCount());
+  }
+
+  @Test
+  public void testEviction() throws Exception {
+    // Room for the last two batches only
+    JournaledEditsCache cache = new JournaledEditsCache(
+        QJMTestUtil.createTxnData(11, 10).length +
+        QJMTestUtil.createTxnData(21, 10).length);
+    storeTxns(cache, 1, 10);
+    storeTxns(cache, 11, 10);
+    storeTxns(cache, 21, 10);
+
+    assertCacheMiss(cache, 5);
+    assertTxns(cache.retrieveEdits(11, 100), 11, 11, 20);
+
+    // A batch larger than the cache leaves it empty
+    storeTxns(cache, 31, 100);
+    assertCacheMiss(cache, 31);
+    assertEquals(0, cache.getSize());
+  }
+
+  @Test
+  public void testGapResetsCache() throws Exception {
+    JournaledEditsCache cache = new JournaledEditsCache(1024 * 1024);
+    storeTxns(cache, 1, 10);
+    storeTxns(cache, 21, 10);
+
+    assertCacheMiss(cache, 1);
+    assertTxns(cache.retrieveEdits(21, 100), 21, 21, 10);
+
+    cache.invalidate();
+    assertCacheMiss(cache, 21);
+  }
+}
@@ -91,4 +91,68 @@ public void testReplaceStorage() throws Exception {
     Assert.assertThat(added, is(false));
     Assert.assertThat(blockInfos[NUM_BLOCKS/2].getStorageInfo(0), is(storage2));
   }
+
+  @Test
+  public void testAddRemoveMoreStoragesThanInline() throws Exception {
+    final int NUM_STORAGES = BlockInfo.INLINE_STORAGES + 2;
+    DatanodeStorageInfo[] storages = new DatanodeStorageInfo[NUM_STORAGES];
+    for (int i = 0; i < NUM_STORAGES; i++) {
+      storages[i] = DFSTestUtil.createDatanodeStorageInfo("storageID" + i,
+          "127.0.0." + (i + 1));
+    }
+
+    // Grow past the inline storages.
+    BlockInfo blockInfo = new BlockInfo((short) 3);
+    assertEquals(BlockInfo.INLINE_STORAGES, blockInfo.getCapacity());
+    for (int i = 0; i < NUM_STORAGES; i++) {
+      Assert.assertTrue(blockInfo.addStorage(storages[i]));
+    }
+    assertEquals(NUM_STORAGES, blockInfo.numNodes());
+    assertEquals(NUM_STORAGES, blockInfo.getCapacity());
+    ArrayList<DatanodeStorageInfo> iterated =
+        new ArrayList<DatanodeStorageInfo>();
+    for (Iterator<DatanodeStorageInfo> it = blockInfo.getStorageInfos();
+        it.hasNext();) {
+      iterated.add(it.next());
+    }
+    assertEquals(NUM_STORAGES, iterated.size());
+    for (int i = 0; i < NUM_STORAGES; i++) {
+      assertEquals(storages[i], blockInfo.getStorageInfo(i));
+      assertEquals(i, blockInfo.findStorageInfo(storages[i]));
+      assertEquals(storages[i], iterated.get(i));
+    }
+
+    // Removing an inline storage moves the last one into its place.
+    Assert.assertTrue(blockInfo.removeStorage(storages[0]));
+    assertEquals(storages[NUM_STORAGES - 1], blockInfo.getStorageInfo(0));
+    assertEquals(NUM_STORAGES - 1, blockInfo.numNodes());
+
+    // The overflow array is released once it no longer holds storages.
+    Assert.assertTrue(blockInfo.removeStorage(storages[1]));
+    assertEquals(BlockInfo.INLINE_STORAGES, blockInfo.numNodes());
+    assertEquals(BlockInfo.INLINE_STORAGES, blockInfo.getCapacity());
+    Assert.assertFalse(blockInfo.removeStorage(storages[1]));
+  }
+
+  @Test
+  public void testHighReplicationKeepsCapacity() throws Exception {
+    final short REPLICATION = BlockInfo.INLINE_STORAGES + 2;
+    BlockInfo blockInfo = new BlockInfo(REPLICATION);
+    BlockCollection bc = Mockito.mock(BlockCollection.class);
+    Mockito.doReturn(REPLICATION).when(bc).getBlockReplication();
+    blockInfo.setBlockCollection(bc);
+    assertEquals(REPLICATION, blockInfo.getCapacity());
+
+    DatanodeStorageInfo[] storages = new DatanodeStorageInfo[REPLICATION];
+    for (int i = 0; i < REPLICATION; i++) {
+      storages[i] = DFSTestUtil.createDatanodeStorageInfo("storageID" + i,
+          "127.0.0." + (i + 1));
+      Assert.assertTrue(blockInfo.addStorage(storages[i]));
+    }
+    for (int i = REPLICATION - 1; i >= 0; i--) {
+      Assert.assertTrue(blockInfo.removeStorage(storages[i]));
+      assertEquals(REPLICATION, blockInfo.getCapacity());
+    }
+    assertEquals(0, blockInfo.numNodes());
+  }
 }
@@ -47,6 +47,7 @@
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.CreateFlag;
@@ -101,6 +102,8 @@
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import java.util.Collections;
 
@@ -683,6 +686,56 @@ public void testFavorDecomUntilHardLimit() throws Exception {
             UnderReplicatedBlocks.QUEUE_UNDER_REPLICATED));
   }
 
+  /**
+   * Test that the transfers a datanode reports as running count against its
+   * replication limits, and that the least loaded source node is chosen.
+   */
+  @Test
+  public void testSourceChoiceConsidersTransfersInProgress() throws Exception {
+    bm.maxReplicationStreams = 2;
+    bm.replicationStreamsHardLimit = 4;
+
+    long blockId = 42;         // arbitrary
+    Block aBlock = new Block(blockId, 0, 0);
+    List<DatanodeDescriptor> origNodes = getNodes(0, 1);
+    addBlockOnNodes(blockId, origNodes);
+
+    List<DatanodeDescriptor> cntNodes = new LinkedList<DatanodeDescriptor>();
+    List<DatanodeStorageInfo> liveNodes = new LinkedList<DatanodeStorageInfo>();
+
+    origNodes.get(0).setXmitsInProgress(1);
+    assertEquals("Chooses the source node with the fewest transfers running.",
+        origNodes.get(1),
+        bm.chooseSourceDatanode(
+            aBlock,
+            cntNodes,
+            liveNodes,
+            new NumberReplicas(),
+            UnderReplicatedBlocks.QUEUE_UNDER_REPLICATED));
+
+    origNodes.get(0).setXmitsInProgress(2);
+    origNodes.get(1).setXmitsInProgress(2);
+    assertNull("Does not choose a source node for a normal replication when"
+        + " all available nodes are running as many transfers as allowed.",
+        bm.chooseSourceDatanode(
+            aBlock,
+            cntNodes,
+            liveNodes,
+            new NumberReplicas(),
+            UnderReplicatedBlocks.QUEUE_UNDER_REPLICATED));
+
+    origNodes.get(0).setXmitsInProgress(4);
+    assertEquals("Chooses a source node below the hard limit for a"
+        + " highest-priority replication.",
+        origNodes.get(1),
+        bm.chooseSourceDatanode(
+            aBlock,
+            cntNodes,
+            liveNodes,
+            new NumberReplicas(),
+            UnderReplicatedBlocks.QUEUE_HIGHEST_PRIORITY));
+  }
+
 
 
   @Test
@@ -894,6 +947,75 @@ public void testFullBR() throws Exception {
     }
   }
 
+  @Test
+  public void testFullBRInBatches() throws Exception {
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_BLOCKREPORT_BATCH_SIZE_KEY, 4);
+    bm = new BlockManager(fsn, fsn, conf);
+    doReturn(true).when(fsn).isRunning();
+
+    DatanodeDescriptor node = nodes.get(0);
+    DatanodeStorageInfo ds = node.getStorageInfos()[0];
+    node.setAlive(true);
+    DatanodeRegistration nodeReg =  new DatanodeRegistration(node, null, null, "");
+    bm.getDatanodeManager().registerDatanode(nodeReg);
+    bm.getDatanodeManager().addDatanode(node);
+
+    ArrayList<BlockInfo> blocks = new ArrayList<>();
+    for (int id = 2; id <= 60; id += 2) {
+      blocks.add(addBlockToBM(id));
+    }
+    bm.processReport(node, new DatanodeStorage(ds.getStorageID()),
+        generateReport(blocks),
+        new BlockReportContext(1, 0, System.nanoTime(), 0, true));
+    assertEquals(blocks.size(), ds.numBlocks());
+
+    // Drop blocks in the middle and at the tail of the storage, and report
+    // blocks unknown to the namenode in between the stored ones
+    List<Long> dropped = Arrays.asList(6L, 20L, 22L, 24L, 52L, 54L, 56L, 58L,
+        60L);
+    ArrayList<BlockInfo> reported = new ArrayList<>();
+    for (BlockInfo block : blocks) {
+      if (!dropped.contains(block.getBlockId())) {
+        reported.add(block);
+      }
+    }
+    reported.add(new BlockInfo(new Block(7), (short) 3));
+    reported.add(new BlockInfo(new Block(9), (short) 3));
+    Collections.sort(reported);
+
+    // Count the times the write lock is fully released
+    final AtomicInteger holds = new AtomicInteger();
+    final AtomicInteger releases = new AtomicInteger();
+    Mockito.doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) {
+        holds.incrementAndGet();
+        return null;
+      }
+    }).when(fsn).writeLock();
+    Mockito.doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) {
+        if (holds.decrementAndGet() == 0) {
+          releases.incrementAndGet();
+        }
+        return null;
+      }
+    }).when(fsn).writeUnlock(Mockito.anyString());
+    bm.processReport(node, new DatanodeStorage(ds.getStorageID()),
+        generateReport(reported),
+        new BlockReportContext(1, 0, System.nanoTime(), 0, true));
+    // 23 replicas, 4 unreported blocks between them and 5 unreported tail
+    // blocks in batches of 4
+    assertEquals(8, releases.get());
+
+    assertEquals(blocks.size() - dropped.size(), ds.numBlocks());
+    for (BlockInfo block : blocks) {
+      assertEquals(!dropped.contains(block.getBlockId()),
+          block.findStorageInfo(ds) >= 0);
+    }
+  }
+
   private BlockListAsLongs generateReport(List<BlockInfo> blocks) {
     BlockListAsLongs.Builder builder = BlockListAsLongs.builder();
     for (BlockInfo block : blocks) {
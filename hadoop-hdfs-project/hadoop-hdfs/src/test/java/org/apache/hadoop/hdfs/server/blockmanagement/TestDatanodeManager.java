@@ -283,6 +283,65 @@ public void reloadCachedMappings(List<String> names) {
     }
   }
 
+  /**
+   * CountingResolver puts every host on the same rack and counts the hosts
+   * it was asked to resolve.
+   */
+  public static class CountingResolver implements DNSToSwitchMapping {
+    static int resolved = 0;
+
+    @Override
+    public List<String> resolve(List<String> names) {
+      resolved += names.size();
+      return Collections.nCopies(names.size(), "/rack1");
+    }
+
+    @Override
+    public void reloadCachedMappings() {
+    }
+
+    @Override
+    public void reloadCachedMappings(List<String> names) {
+    }
+  }
+
+  /**
+   * The node of a client which is not a datanode should only be resolved
+   * again after the topology changed.
+   */
+  @Test
+  public void testClientNodeCache() throws IOException {
+    FSNamesystem fsn = Mockito.mock(FSNamesystem.class);
+    Mockito.when(fsn.hasWriteLock()).thenReturn(true);
+    Configuration conf = new Configuration();
+    conf.setClass(
+        CommonConfigurationKeysPublic.NET_TOPOLOGY_NODE_SWITCH_MAPPING_IMPL_KEY,
+        CountingResolver.class, DNSToSwitchMapping.class);
+    DatanodeManager dm = mockDatanodeManager(fsn, conf);
+
+    List<LocatedBlock> blocks = new ArrayList<>();
+    for (int i = 0; i < 2; i++) {
+      DatanodeRegistration dr = Mockito.mock(DatanodeRegistration.class);
+      Mockito.when(dr.getDatanodeUuid()).thenReturn("UUID-" + i);
+      Mockito.when(dr.getIpAddr()).thenReturn("IP-" + i);
+      Mockito.when(dr.getXferAddr()).thenReturn("IP-" + i + ":9000");
+      Mockito.when(dr.getXferPort()).thenReturn(9000);
+      Mockito.when(dr.getSoftwareVersion()).thenReturn("version1");
+      dm.registerDatanode(dr);
+      DatanodeInfo[] locs = { dm.getDatanode("UUID-" + i) };
+      blocks.add(new LocatedBlock(new ExtendedBlock("somePoolID", i), locs));
+
+      int resolved = CountingResolver.resolved;
+      dm.sortLocatedBlocks("client", blocks);
+      dm.sortLocatedBlocks("client", blocks);
+      assertEquals(resolved + 1, CountingResolver.resolved);
+    }
+    // a datanode is found without resolving its host
+    int resolved = CountingResolver.resolved;
+    dm.sortLocatedBlocks("IP-0", blocks);
+    assertEquals(resolved, CountingResolver.resolved);
+  }
+
   /**
    * This test creates a LocatedBlock with 5 locations, sorts the locations
    * based on the network topology, and ensures the locations are still aligned
@@ -153,6 +153,71 @@ public void testReceivePacketMetrics() throws Exception {
     }
   }
 
+  @Test(timeout=120000)
+  public void testGroupCommitSyncMetrics() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    final int interval = 1;
+    final int numWriters = 4;
+    final int numSyncs = 10;
+    conf.set(DFSConfigKeys.DFS_METRICS_PERCENTILES_INTERVALS_KEY, "" + interval);
+    conf.setBoolean(DFSConfigKeys.DFS_DATANODE_SYNC_GROUP_COMMIT_ENABLED_KEY,
+        true);
+    conf.setLong(DFSConfigKeys.DFS_DATANODE_SYNC_GROUP_COMMIT_INTERVAL_MS_KEY,
+        10L);
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf).build();
+    try {
+      cluster.waitActive();
+      final DistributedFileSystem fs = cluster.getFileSystem();
+
+      // Concurrent writers hsync'ing on the same volume.
+      final FSDataOutputStream[] fouts = new FSDataOutputStream[numWriters];
+      for (int i = 0; i < numWriters; i++) {
+        fouts[i] = fs.create(new Path("/testGroupCommitSync" + i));
+      }
+      Thread[] writers = new Thread[numWriters];
+      final AtomicInteger failures = new AtomicInteger();
+      for (int i = 0; i < numWriters; i++) {
+        final FSDataOutputStream fout = fouts[i];
+        writers[i] = new Thread() {
+          @Override
+          public void run() {
+            try {
+              for (int j = 0; j < numSyncs; j++) {
+                fout.write(new byte[1]);
+                fout.hsync();
+              }
+              fout.close();
+            } catch (IOException e) {
+              LOG.error("Writer failed", e);
+              failures.incrementAndGet();
+            }
+          }
+        };
+        writers[i].start();
+      }
+      for (Thread writer : writers) {
+        writer.join();
+      }
+      assertEquals(0, failures.get());
+      for (int i = 0; i < numWriters; i++) {
+        assertEquals(numSyncs,
+            fs.getFileStatus(new Path("/testGroupCommitSync" + i)).getLen());
+      }
+
+      DataNode datanode = cluster.getDataNodes().get(0);
+      MetricsRecordBuilder dnMetrics = getMetrics(datanode.getMetrics().name());
+      // Every hsync is acked after a sync of the volume sync thread.
+      assertCounter("GroupCommitSyncNanosNumOps",
+          (long) numWriters * numSyncs, dnMetrics);
+      long batches = getLongCounter("GroupCommitSyncBatches", dnMetrics);
+      assertTrue(batches > 0 && batches <= numWriters * numSyncs);
+      Thread.sleep((interval + 1) * 1000);
+      assertQuantileGauges("GroupCommitSyncNanos" + interval + "s", dnMetrics);
+    } finally {
+      if (cluster != null) {cluster.shutdown();}
+    }
+  }
+
   /**
    * Tests that round-trip acks in a datanode write pipeline are correctly 
    * measured. 
@@ -0,0 +1,198 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.InputStream;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.ClientContext;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.PeerCache;
+import org.apache.hadoop.hdfs.net.Peer;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Supplier;
+import com.google.common.io.NullOutputStream;
+
+/**
+ * Test running xceivers on a worker pool, with kept-alive connections
+ * waiting for their next operation without a thread.
+ */
+public class TestDataXceiverWorkerPool {
+  private static final Path TEST_FILE = new Path("/test");
+  private static final int KEEPALIVE_TIMEOUT = 2000;
+  private static final int WORKER_THREADS = 2;
+  private static final int NUM_STREAMS = 10;
+
+  private final Configuration conf = new HdfsConfiguration();
+  private MiniDFSCluster cluster;
+  private DataNode dn;
+
+  @Before
+  public void setup() throws Exception {
+    conf.setInt(DFSConfigKeys.DFS_DATANODE_SOCKET_REUSE_KEEPALIVE_KEY,
+        KEEPALIVE_TIMEOUT);
+    conf.setInt(DFSConfigKeys.DFS_DATANODE_TRANSFER_WORKER_THREADS_KEY,
+        WORKER_THREADS);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    cluster.waitActive();
+    dn = cluster.getDataNodes().get(0);
+  }
+
+  @After
+  public void teardown() {
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  @Test(timeout=60000)
+  public void testIdlePeersHoldNoThread() throws Exception {
+    Configuration clientConf = new Configuration(conf);
+    clientConf.setLong(DFSConfigKeys.DFS_CLIENT_SOCKET_CACHE_EXPIRY_MSEC_KEY,
+        60000L);
+    clientConf.set(DFSConfigKeys.DFS_CLIENT_CONTEXT,
+        "testIdlePeersHoldNoThread");
+    DistributedFileSystem fs =
+        (DistributedFileSystem)FileSystem.get(cluster.getURI(), clientConf);
+    PeerCache peerCache = ClientContext.getFromConf(clientConf).getPeerCache();
+    DFSTestUtil.createFile(fs, TEST_FILE, 1L, (short)1, 0L);
+
+    // More concurrent connections than worker threads.
+    InputStream[] stms = new InputStream[NUM_STREAMS];
+    try {
+      for (int i = 0; i < stms.length; i++) {
+        stms[i] = fs.open(TEST_FILE);
+      }
+      for (InputStream stm : stms) {
+        IOUtils.copyBytes(stm, new NullOutputStream(), 1024);
+      }
+    } finally {
+      IOUtils.cleanup(null, stms);
+    }
+    assertEquals(NUM_STREAMS, peerCache.size());
+
+    final DataXceiverServer server = dn.getXferServer();
+    waitForIdlePeers(server, NUM_STREAMS);
+    assertEquals(0, server.getNumPooledXceivers());
+
+    // A parked connection serves the next operation.
+    DFSTestUtil.readFile(fs, TEST_FILE);
+    waitForIdlePeers(server, NUM_STREAMS);
+
+    // Idle connections are closed after the keepalive timeout.
+    waitForIdlePeers(server, 0);
+    Peer peer = peerCache.get(dn.getDatanodeId(), false);
+    assertNotNull(peer);
+    assertEquals(-1, peer.getInputStream().read());
+  }
+
+  @Test(timeout=60000)
+  public void testIdlePeersLimit() throws Exception {
+    final int maxIdlePeers = 4;
+    cluster.shutdown();
+    // long enough for the idle connections over the limit to stay open
+    conf.setInt(DFSConfigKeys.DFS_DATANODE_SOCKET_REUSE_KEEPALIVE_KEY,
+        30000);
+    conf.setInt(DFSConfigKeys.DFS_DATANODE_TRANSFER_MAX_IDLE_PEERS_KEY,
+        maxIdlePeers);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    cluster.waitActive();
+    dn = cluster.getDataNodes().get(0);
+    // the threads of the servers themselves
+    final int baseXceiverCount = dn.getXceiverCount();
+
+    Configuration clientConf = new Configuration(conf);
+    clientConf.setLong(DFSConfigKeys.DFS_CLIENT_SOCKET_CACHE_EXPIRY_MSEC_KEY,
+        60000L);
+    clientConf.set(DFSConfigKeys.DFS_CLIENT_CONTEXT, "testIdlePeersLimit");
+    FileSystem fs = FileSystem.get(cluster.getURI(), clientConf);
+    DFSTestUtil.createFile(fs, TEST_FILE, 1L, (short)1, 0L);
+
+    InputStream[] stms = new InputStream[NUM_STREAMS];
+    try {
+      for (int i = 0; i < stms.length; i++) {
+        stms[i] = fs.open(TEST_FILE);
+      }
+      for (InputStream stm : stms) {
+        IOUtils.copyBytes(stm, new NullOutputStream(), 1024);
+      }
+    } finally {
+      IOUtils.cleanup(null, stms);
+    }
+
+    // The idle connections over the limit keep their threads, and all of
+    // them count as xceivers.
+    final DataXceiverServer server = dn.getXferServer();
+    waitForIdlePeers(server, maxIdlePeers);
+    GenericTestUtils.waitFor(new Supplier<Boolean>() {
+      @Override
+      public Boolean get() {
+        return dn.getXceiverCount() == baseXceiverCount + NUM_STREAMS;
+      }
+    }, 50, 30000);
+    assertEquals(maxIdlePeers, server.getNumIdlePeers());
+  }
+
+  @Test(timeout=60000)
+  public void testMorePipelinesThanWorkers() throws Exception {
+    cluster.startDataNodes(conf, 1, true, null, null);
+    cluster.waitActive();
+    FileSystem fs = cluster.getFileSystem();
+
+    // Every pipeline holds a worker on both DataNodes until it is closed,
+    // so the later pipelines must not wait for a worker.
+    FSDataOutputStream[] outs = new FSDataOutputStream[NUM_STREAMS];
+    try {
+      for (int i = 0; i < outs.length; i++) {
+        outs[i] = fs.create(new Path("/pipeline" + i), (short)2);
+        outs[i].write(i);
+        outs[i].hflush();
+      }
+    } finally {
+      IOUtils.cleanup(null, outs);
+    }
+    for (int i = 0; i < outs.length; i++) {
+      assertEquals(1L, fs.getFileStatus(new Path("/pipeline" + i)).getLen());
+    }
+  }
+
+  private static void waitForIdlePeers(final DataXceiverServer server,
+      final int expected) throws Exception {
+    GenericTestUtils.waitFor(new Supplier<Boolean>() {
+      @Override
+      public Boolean get() {
+        return server.getNumIdlePeers() == expected;
+      }
+    }, 50, 30000);
+  }
+}
@@ -44,10 +44,13 @@
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsDatasetSpi;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
 import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.test.GenericTestUtils;
 import org.apache.hadoop.util.Time;
 import org.junit.Assert;
 import org.junit.Test;
 
+import com.google.common.base.Supplier;
+
 /** Test if a datanode can correctly upgrade itself */
 public class TestDatanodeRestart {
   // test finalized replicas persist across DataNode restarts
@@ -75,6 +78,67 @@ public class TestDatanodeRestart {
     }
   }
   
+  // test finalized replicas are loaded from the replica cache on restart
+  @Test(timeout=120000)
+  public void testFinalizedReplicasFromCache() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, 1024L);
+    conf.setInt(DFSConfigKeys.DFS_CLIENT_WRITE_PACKET_SIZE_KEY, 512);
+    conf.setBoolean(DFSConfigKeys.DFS_DATANODE_REPLICA_CACHE_ENABLED_KEY,
+        true);
+    MiniDFSCluster cluster =
+        new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    try {
+      cluster.waitActive();
+      FileSystem fs = cluster.getFileSystem();
+      String bpid = cluster.getNamesystem().getBlockPoolId();
+      final String TopDir = "/test";
+      DFSTestUtil util = new DFSTestUtil.Builder().
+          setName("TestDatanodeRestart").setNumFiles(2).build();
+      util.createFiles(fs, TopDir, (short)1);
+      Path victim = new Path("/victim");
+      DFSTestUtil.createFile(fs, victim, 1024L, (short)1, 0L);
+      final long victimId =
+          DFSTestUtil.getFirstBlock(fs, victim).getBlockId();
+
+      DataNode dn = cluster.getDataNodes().get(0);
+      int numReplicas = dataset(dn).volumeMap.size(bpid);
+      ReplicaInfo victimReplica = dataset(dn).volumeMap.get(bpid, victimId);
+      MiniDFSCluster.DataNodeProperties dnprop = cluster.stopDataNode(0);
+
+      File[] cacheFiles = new File[2];
+      for (int i = 0; i < cacheFiles.length; i++) {
+        File finalizedDir = MiniDFSCluster.getFinalizedDir(
+            cluster.getInstanceStorageDir(0, i), bpid);
+        cacheFiles[i] = new File(finalizedDir.getParentFile(), "replicas");
+        Assert.assertTrue(cacheFiles[i].exists());
+      }
+      // lose a replica while the datanode is down
+      Assert.assertTrue(victimReplica.getBlockFile().delete());
+      Assert.assertTrue(victimReplica.getMetaFile().delete());
+
+      Assert.assertTrue(cluster.restartDataNode(dnprop, true));
+      cluster.waitActive();
+      for (File cacheFile : cacheFiles) {
+        Assert.assertFalse(cacheFile.exists());
+      }
+      util.checkFiles(fs, TopDir);
+
+      // the validation pass drops the lost replica
+      final FsDatasetImpl dataset = dataset(cluster.getDataNodes().get(0));
+      final String poolId = bpid;
+      GenericTestUtils.waitFor(new Supplier<Boolean>() {
+        @Override
+        public Boolean get() {
+          return dataset.volumeMap.get(poolId, victimId) == null;
+        }
+      }, 100, 30000);
+      Assert.assertEquals(numReplicas - 1, dataset.volumeMap.size(bpid));
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
   // test rbw replicas persist across DataNode restarts
   public void testRbwReplicas() throws IOException {
     Configuration conf = new HdfsConfiguration();
@@ -37,22 +37,29 @@
 import org.apache.hadoop.hdfs.protocol.LocatedBlock;
 import org.apache.hadoop.hdfs.server.blockmanagement.BlockManagerTestUtil;
 import org.apache.hadoop.hdfs.server.common.HdfsServerConstants;
+import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.ReplicaState;
 import org.apache.hadoop.hdfs.server.common.Storage;
 import org.apache.hadoop.hdfs.server.common.StorageInfo;
 import org.apache.hadoop.hdfs.server.datanode.BlockScanner;
 import org.apache.hadoop.hdfs.server.datanode.DNConf;
 import org.apache.hadoop.hdfs.server.datanode.DataNode;
+import org.apache.hadoop.hdfs.server.datanode.DataNodeFaultInjector;
 import org.apache.hadoop.hdfs.server.datanode.DataNodeTestUtils;
 import org.apache.hadoop.hdfs.server.datanode.DataStorage;
 import org.apache.hadoop.hdfs.server.datanode.FinalizedReplica;
+import org.apache.hadoop.hdfs.server.datanode.ReplicaAlreadyExistsException;
 import org.apache.hadoop.hdfs.server.datanode.ReplicaHandler;
 import org.apache.hadoop.hdfs.server.datanode.ReplicaInfo;
 import org.apache.hadoop.hdfs.server.datanode.ShortCircuitRegistry;
 import org.apache.hadoop.hdfs.server.datanode.StorageLocation;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsDatasetSpi;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeReference;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.RoundRobinVolumeChoosingPolicy;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.VolumeChoosingPolicy;
+import org.apache.hadoop.hdfs.server.protocol.BlockRecoveryCommand.RecoveringBlock;
 import org.apache.hadoop.hdfs.server.protocol.NamespaceInfo;
+import org.apache.hadoop.hdfs.server.protocol.ReplicaRecoveryInfo;
 import org.apache.hadoop.io.MultipleIOException;
 import org.apache.hadoop.test.GenericTestUtils;
 import org.apache.hadoop.util.DiskChecker;
@@ -67,16 +74,19 @@
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.concurrent.CountDownLatch;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_SCAN_PERIOD_HOURS_KEY;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
@@ -686,4 +696,241 @@ public void testReportBadBlocks() throws Exception {
       cluster.shutdown();
     }
   }
+
+  /**
+   * A volume choosing policy which stalls until released, like a writer
+   * placed on a slow disk.
+   */
+  public static class BlockingVolumeChoosingPolicy<V extends FsVolumeSpi>
+      extends RoundRobinVolumeChoosingPolicy<V> {
+    static CountDownLatch entered;
+    static CountDownLatch release;
+
+    @Override
+    public V chooseVolume(List<V> volumes, long blockSize)
+        throws IOException {
+      entered.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+      return super.chooseVolume(volumes, blockSize);
+    }
+  }
+
+  @Test(timeout = 30000)
+  public void testSlowCreateTemporaryDoesNotBlockDataset() throws Exception {
+    conf.setClass(
+        DFSConfigKeys.DFS_DATANODE_FSDATASET_VOLUME_CHOOSING_POLICY_KEY,
+        BlockingVolumeChoosingPolicy.class, VolumeChoosingPolicy.class);
+    createStorageDirs(storage, conf, NUM_INIT_VOLUMES);
+    dataset = new FsDatasetImpl(datanode, storage, conf);
+    dataset.addBlockPool(BLOCKPOOL, conf);
+    BlockingVolumeChoosingPolicy.entered = new CountDownLatch(1);
+    BlockingVolumeChoosingPolicy.release = new CountDownLatch(1);
+
+    final ExtendedBlock eb = new ExtendedBlock(BLOCKPOOL, 1, 0, 1001);
+    Thread writer = new Thread() {
+      @Override
+      public void run() {
+        try (ReplicaHandler replica =
+                 dataset.createTemporary(StorageType.DEFAULT, eb)) {
+          LOG.info("CreateTemporary finished");
+        } catch (IOException e) {
+          LOG.warn("CreateTemporary failed", e);
+        }
+      }
+    };
+    writer.start();
+    BlockingVolumeChoosingPolicy.entered.await();
+
+    // the dataset stays usable while the writer is stuck on its volume
+    assertNull(dataset.getStoredBlock(BLOCKPOOL, 1));
+    assertNull(dataset.getStoredBlock(BLOCKPOOL, 2));
+
+    BlockingVolumeChoosingPolicy.release.countDown();
+    writer.join();
+    assertEquals(ReplicaState.TEMPORARY,
+        dataset.volumeMap.get(BLOCKPOOL, 1).getState());
+    try {
+      dataset.createTemporary(StorageType.DEFAULT, eb);
+      fail("Creating an existing replica should fail");
+    } catch (ReplicaAlreadyExistsException e) {
+      // expected
+    }
+  }
+
+  @Test(timeout = 30000)
+  public void testSlowCreateRbwDoesNotBlockDataset() throws Exception {
+    conf.setClass(
+        DFSConfigKeys.DFS_DATANODE_FSDATASET_VOLUME_CHOOSING_POLICY_KEY,
+        BlockingVolumeChoosingPolicy.class, VolumeChoosingPolicy.class);
+    createStorageDirs(storage, conf, NUM_INIT_VOLUMES);
+    dataset = new FsDatasetImpl(datanode, storage, conf);
+    dataset.addBlockPool(BLOCKPOOL, conf);
+    BlockingVolumeChoosingPolicy.entered = new CountDownLatch(1);
+    BlockingVolumeChoosingPolicy.release = new CountDownLatch(1);
+
+    final ExtendedBlock eb = new ExtendedBlock(BLOCKPOOL, 1, 0, 1001);
+    Thread writer = new Thread() {
+      @Override
+      public void run() {
+        try (ReplicaHandler replica =
+                 dataset.createRbw(StorageType.DEFAULT, eb, false)) {
+          LOG.info("CreateRbw finished");
+        } catch (IOException e) {
+          LOG.warn("CreateRbw failed", e);
+        }
+      }
+    };
+    writer.start();
+    BlockingVolumeChoosingPolicy.entered.await();
+
+    // the dataset stays usable while the writer is stuck on its volume
+    assertFalse(dataset.contains(eb));
+    assertNull(dataset.getStoredBlock(BLOCKPOOL, 2));
+
+    BlockingVolumeChoosingPolicy.release.countDown();
+    writer.join();
+    assertTrue(dataset.contains(eb));
+    try {
+      dataset.createRbw(StorageType.DEFAULT, eb, false);
+      fail("Creating an existing replica should fail");
+    } catch (ReplicaAlreadyExistsException e) {
+      // expected
+    }
+  }
+
+  /**
+   * A fault injector stalling the move of the finalized block files until
+   * released, like a slow disk.
+   */
+  private static class BlockingFinalizeInjector extends DataNodeFaultInjector {
+    final CountDownLatch entered = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+
+    @Override
+    public void finalizeBlockBeforeMove() throws IOException {
+      entered.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+    }
+  }
+
+  /**
+   * Start finalizing a new RBW replica, stalled before its files are moved.
+   * @return the thread finalizing the replica.
+   */
+  private Thread startStalledFinalize(final ExtendedBlock eb,
+      BlockingFinalizeInjector injector,
+      final AtomicReference<IOException> error) throws Exception {
+    try (ReplicaHandler replica =
+             dataset.createRbw(StorageType.DEFAULT, eb, false)) {
+      assertEquals(ReplicaState.RBW, replica.getReplica().getState());
+      // the meta file is written by the BlockReceiver
+      assertTrue(((ReplicaInfo) replica.getReplica()).getMetaFile()
+          .createNewFile());
+    }
+    DataNodeFaultInjector.set(injector);
+    Thread finalizer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          dataset.finalizeBlock(eb, false);
+        } catch (IOException e) {
+          error.set(e);
+        }
+      }
+    };
+    finalizer.start();
+    injector.entered.await();
+    return finalizer;
+  }
+
+  private static void waitForWaiting(final Thread t) throws Exception {
+    GenericTestUtils.waitFor(new Supplier<Boolean>() {
+      @Override
+      public Boolean get() {
+        return t.getState() == Thread.State.WAITING;
+      }
+    }, 10, 10000);
+  }
+
+  @Test(timeout = 30000)
+  public void testReadWaitsForFinalize() throws Exception {
+    final ExtendedBlock eb = new ExtendedBlock(BLOCK_POOL_IDS[0], 1, 0, 1001);
+    final BlockingFinalizeInjector injector = new BlockingFinalizeInjector();
+    final AtomicReference<IOException> finalizeError =
+        new AtomicReference<IOException>();
+    final AtomicReference<IOException> readError =
+        new AtomicReference<IOException>();
+    try {
+      Thread finalizer = startStalledFinalize(eb, injector, finalizeError);
+      Thread reader = new Thread() {
+        @Override
+        public void run() {
+          try (InputStream in = dataset.getBlockInputStream(eb, 0)) {
+            LOG.info("Opened " + eb);
+          } catch (IOException e) {
+            readError.set(e);
+          }
+        }
+      };
+      reader.start();
+      // the reader must not open the rbw file which is about to be moved
+      waitForWaiting(reader);
+
+      injector.release.countDown();
+      finalizer.join();
+      reader.join();
+      assertNull(finalizeError.get());
+      assertNull(readError.get());
+      assertEquals(ReplicaState.FINALIZED,
+          dataset.getReplicaInfo(eb).getState());
+    } finally {
+      DataNodeFaultInjector.set(new DataNodeFaultInjector());
+    }
+  }
+
+  @Test(timeout = 30000)
+  public void testRecoveryWaitsForFinalize() throws Exception {
+    final ExtendedBlock eb = new ExtendedBlock(BLOCK_POOL_IDS[0], 2, 0, 1001);
+    final BlockingFinalizeInjector injector = new BlockingFinalizeInjector();
+    final AtomicReference<IOException> finalizeError =
+        new AtomicReference<IOException>();
+    final AtomicReference<ReplicaRecoveryInfo> recovered =
+        new AtomicReference<ReplicaRecoveryInfo>();
+    try {
+      Thread finalizer = startStalledFinalize(eb, injector, finalizeError);
+      Thread recovery = new Thread() {
+        @Override
+        public void run() {
+          try {
+            recovered.set(dataset.initReplicaRecovery(
+                new RecoveringBlock(eb, null, 1002)));
+          } catch (IOException e) {
+            LOG.warn("Recovery failed", e);
+          }
+        }
+      };
+      recovery.start();
+      waitForWaiting(recovery);
+
+      injector.release.countDown();
+      finalizer.join();
+      recovery.join();
+      // the finalization completed, and the recovery saw its result
+      assertNull(finalizeError.get());
+      assertNotNull(recovered.get());
+      assertEquals(ReplicaState.FINALIZED,
+          recovered.get().getOriginalReplicaState());
+      assertEquals(ReplicaState.RUR, dataset.getReplicaInfo(eb).getState());
+    } finally {
+      DataNodeFaultInjector.set(new DataNodeFaultInjector());
+    }
+  }
 }
@@ -0,0 +1,118 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.CommonConfigurationKeysPublic;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.server.datanode.DataNodeTestUtils;
+import org.apache.hadoop.hdfs.server.datanode.ReplicaInfo;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Supplier;
+
+/**
+ * Test computing the space used by the block pool slices from the replica
+ * map instead of running du.
+ */
+public class TestReplicaCachingGetSpaceUsed {
+  private static final int BLOCK_SIZE = 4096;
+  private static final Path TEST_FILE = new Path("/test");
+
+  private final Configuration conf = new HdfsConfiguration();
+  private MiniDFSCluster cluster;
+  private DistributedFileSystem fs;
+
+  @Before
+  public void setup() throws Exception {
+    conf.set("fs.getspaceused.classname",
+        ReplicaCachingGetSpaceUsed.class.getName());
+    // only the increments and the refresh on startup apply
+    conf.setLong(CommonConfigurationKeysPublic.FS_DU_INTERVAL_KEY, 3600000L);
+    conf.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, BLOCK_SIZE);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    cluster.waitActive();
+    fs = cluster.getFileSystem();
+  }
+
+  @After
+  public void teardown() {
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  @Test(timeout=60000)
+  public void testDfsUsedFollowsReplicas() throws Exception {
+    DFSTestUtil.createFile(fs, TEST_FILE, 3 * BLOCK_SIZE + 100, (short) 1, 0L);
+    assertTrue(getDataset().getDfsUsed() > 3 * BLOCK_SIZE);
+    assertEquals(getReplicaFilesLength(), getDataset().getDfsUsed());
+
+    // The reopened last block is accounted once it is finalized again.
+    DFSTestUtil.appendFile(fs, TEST_FILE, 1000);
+    assertEquals(getReplicaFilesLength(), getDataset().getDfsUsed());
+
+    // The space used is computed from the loaded replicas on restart.
+    assertTrue(cluster.restartDataNode(0, true));
+    cluster.waitActive();
+    assertEquals(getReplicaFilesLength(), getDataset().getDfsUsed());
+
+    fs.delete(TEST_FILE, false);
+    GenericTestUtils.waitFor(new Supplier<Boolean>() {
+      @Override
+      public Boolean get() {
+        try {
+          return getDataset().getDfsUsed() == 0;
+        } catch (IOException e) {
+          return false;
+        }
+      }
+    }, 100, 30000);
+  }
+
+  private FsDatasetImpl getDataset() {
+    return (FsDatasetImpl) DataNodeTestUtils.getFSDataset(
+        cluster.getDataNodes().get(0));
+  }
+
+  private long getReplicaFilesLength() {
+    FsDatasetImpl dataset = getDataset();
+    String bpid = cluster.getNamesystem().getBlockPoolId();
+    long length = 0;
+    synchronized (dataset.volumeMap.getMutex()) {
+      for (ReplicaInfo replica : dataset.volumeMap.replicas(bpid)) {
+        length += replica.getBlockFile().length()
+            + replica.getMetaFile().length();
+      }
+    }
+    return length;
+  }
+}
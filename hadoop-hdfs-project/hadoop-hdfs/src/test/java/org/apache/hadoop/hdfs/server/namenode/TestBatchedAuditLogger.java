@@ -0,0 +1,161 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.apache.hadoop.hdfs.DFSConfigKeys.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.test.PathUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link BatchedAuditLogger}.
+ */
+public class TestBatchedAuditLogger {
+  private static final File TEST_DIR =
+      PathUtils.getTestDir(TestBatchedAuditLogger.class);
+
+  private File auditFile;
+  private Configuration conf;
+
+  @Before
+  public void setUp() throws Exception {
+    FileUtils.deleteDirectory(TEST_DIR);
+    auditFile = new File(TEST_DIR, "audit.log");
+    conf = new HdfsConfiguration();
+    conf.set(DFS_NAMENODE_AUDIT_LOG_BATCHED_FILE_KEY, auditFile.getPath());
+    conf.setLong(DFS_NAMENODE_AUDIT_LOG_BATCHED_FLUSH_INTERVAL_MS_KEY, 10);
+  }
+
+  private static void logEvents(BatchedAuditLogger logger, int num)
+      throws Exception {
+    FileStatus status = new FileStatus(0, false, 1, 1024, 0, 0,
+        new FsPermission((short) 0644), "owner", "group", new Path("/f"));
+    for (int i = 0; i < num; i++) {
+      logger.logAuditEvent(true, "user", InetAddress.getLoopbackAddress(),
+          "open", "/f" + i, null, i % 2 == 0 ? status : null, null, null);
+    }
+  }
+
+  @Test(timeout=60000)
+  public void testTextFormat() throws Exception {
+    conf.set(DFS_NAMENODE_AUDIT_LOG_DEBUG_CMDLIST, "getfileinfo");
+    BatchedAuditLogger logger = new BatchedAuditLogger();
+    logger.initialize(conf);
+    logEvents(logger, 10);
+    logger.logAuditEvent(true, "user", InetAddress.getLoopbackAddress(),
+        "getfileinfo", "/f", null, null, null, null);
+    logger.close();
+
+    List<String> lines = FileUtils.readLines(auditFile);
+    assertEquals(10, lines.size());
+    assertEquals("allowed=true\tugi=user\tip=" +
+        InetAddress.getLoopbackAddress() + "\tcmd=open\tsrc=/f0\tdst=null\t" +
+        "perm=owner:group:rw-r--r--\tproto=rpc", lines.get(0));
+    assertEquals("allowed=true\tugi=user\tip=" +
+        InetAddress.getLoopbackAddress() + "\tcmd=open\tsrc=/f1\tdst=null\t" +
+        "perm=null\tproto=rpc", lines.get(1));
+    assertEquals(10, logger.getWrittenEvents());
+    assertEquals(0, logger.getDroppedEvents());
+    assertEquals(0, logger.getQueueDepth());
+  }
+
+  @Test(timeout=60000)
+  public void testDelimitedFormat() throws Exception {
+    conf.set(DFS_NAMENODE_AUDIT_LOG_BATCHED_FORMAT_KEY, "delimited");
+    BatchedAuditLogger logger = new BatchedAuditLogger();
+    logger.initialize(conf);
+    logEvents(logger, 1);
+    logger.close();
+
+    List<String> lines = FileUtils.readLines(auditFile);
+    assertEquals(1, lines.size());
+    assertEquals("true\tuser\t" + InetAddress.getLoopbackAddress() +
+        "\topen\t/f0\tnull\towner:group:rw-r--r--\trpc", lines.get(0));
+  }
+
+  /**
+   * With a tiny queue some events are dropped, but every event is either
+   * written or counted as dropped.
+   */
+  @Test(timeout=60000)
+  public void testDroppedEvents() throws Exception {
+    conf.setInt(DFS_NAMENODE_AUDIT_LOG_BATCHED_QUEUE_SIZE_KEY, 2);
+    conf.setInt(DFS_NAMENODE_AUDIT_LOG_BATCHED_BATCH_SIZE_KEY, 1);
+    BatchedAuditLogger logger = new BatchedAuditLogger();
+    logger.initialize(conf);
+    logEvents(logger, 1000);
+    logger.close();
+
+    assertTrue(logger.getDroppedEvents() > 0);
+    assertEquals(1000, logger.getWrittenEvents() + logger.getDroppedEvents());
+    assertEquals(logger.getWrittenEvents(),
+        FileUtils.readLines(auditFile).size());
+  }
+
+  @Test(timeout=60000)
+  public void testRollOver() throws Exception {
+    conf.setLong(DFS_NAMENODE_AUDIT_LOG_BATCHED_MAX_FILE_SIZE_KEY, 1024);
+    conf.setInt(DFS_NAMENODE_AUDIT_LOG_BATCHED_MAX_BACKUPS_KEY, 2);
+    BatchedAuditLogger logger = new BatchedAuditLogger();
+    logger.initialize(conf);
+    logEvents(logger, 100);
+    logger.close();
+
+    File backup1 = new File(auditFile.getPath() + ".1");
+    File backup2 = new File(auditFile.getPath() + ".2");
+    assertTrue(backup1.exists());
+    assertTrue(backup2.exists());
+    assertTrue(!new File(auditFile.getPath() + ".3").exists());
+    for (File f : new File[] { auditFile, backup1, backup2 }) {
+      assertTrue(f + " is too large", f.length() <= 1024);
+    }
+    List<String> lines = FileUtils.readLines(auditFile);
+    assertTrue(lines.get(lines.size() - 1).contains("src=/f99"));
+  }
+
+  /** The NameNode writes to the batched logger and flushes it on shutdown. */
+  @Test(timeout=60000)
+  public void testNameNodeAuditLogging() throws Exception {
+    conf.set(DFS_NAMENODE_AUDIT_LOGGERS_KEY,
+        DFS_NAMENODE_BATCHED_AUDIT_LOGGER_NAME);
+    MiniDFSCluster cluster =
+        new MiniDFSCluster.Builder(conf).numDataNodes(0).build();
+    try {
+      cluster.waitClusterUp();
+      cluster.getFileSystem().mkdirs(new Path("/batched"));
+    } finally {
+      cluster.shutdown();
+    }
+    String log = FileUtils.readFileToString(auditFile);
+    assertTrue(log, log.contains("cmd=mkdirs\tsrc=/batched"));
+  }
+}
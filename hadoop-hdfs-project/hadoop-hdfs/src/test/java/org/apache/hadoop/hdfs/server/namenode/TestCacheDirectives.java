@@ -21,6 +21,7 @@
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_CACHEREPORT_INTERVAL_MSEC_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_MAX_LOCKED_MEMORY_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_HEARTBEAT_INTERVAL_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_PATH_BASED_CACHE_FULL_RESCAN_INTERVAL_MS;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_PATH_BASED_CACHE_REFRESH_INTERVAL_MS;
 import static org.apache.hadoop.hdfs.protocol.CachePoolInfo.RELATIVE_EXPIRY_NEVER;
 import static org.apache.hadoop.test.GenericTestUtils.assertExceptionContains;
@@ -1147,6 +1148,54 @@ public void testExpiry() throws Exception {
     }
   }
 
+  /**
+   * Test that incremental rescans pick up new and deleted files under a
+   * cached directory without a full rescan.
+   */
+  @Test(timeout=120000)
+  public void testIncrementalRescan() throws Exception {
+    cluster.shutdown();
+    conf = createCachingConf();
+    conf.setLong(DFS_NAMENODE_PATH_BASED_CACHE_FULL_RESCAN_INTERVAL_MS,
+        10 * 60 * 1000);
+    cluster =
+        new MiniDFSCluster.Builder(conf).numDataNodes(NUM_DATANODES).build();
+    cluster.waitActive();
+    dfs = cluster.getFileSystem();
+    proto = cluster.getNameNodeRpc();
+    namenode = cluster.getNameNode();
+
+    String pool = "pool1";
+    dfs.addCachePool(new CachePoolInfo(pool));
+    Path dir = new Path("/incremental");
+    DFSTestUtil.createFile(dfs, new Path(dir, "file1"), BLOCK_SIZE * 2,
+        (short)2, 0x999);
+    dfs.addCacheDirective(new CacheDirectiveInfo.Builder()
+        .setPath(dir)
+        .setPool(pool)
+        .setReplication((short)2)
+        .build());
+    waitForCachedBlocks(namenode, 2, 4, "testIncrementalRescan:1");
+
+    // A file closed in the cached directory is cached
+    Path file2 = new Path(dir, "file2");
+    DFSTestUtil.createFile(dfs, file2, BLOCK_SIZE * 2, (short)2, 0x999);
+    waitForCachedBlocks(namenode, 4, 8, "testIncrementalRescan:2");
+    waitForCacheDirectiveStats(dfs,
+        4 * BLOCK_SIZE * 2, 4 * BLOCK_SIZE * 2, 2, 2,
+        new CacheDirectiveInfo.Builder().setPath(dir).build(),
+        "testIncrementalRescan:2:directive");
+
+    // The blocks of a deleted file are uncached, and no longer counted by
+    // the directive
+    dfs.delete(file2, false);
+    waitForCachedBlocks(namenode, 2, 4, "testIncrementalRescan:3");
+    waitForCacheDirectiveStats(dfs,
+        2 * BLOCK_SIZE * 2, 2 * BLOCK_SIZE * 2, 1, 1,
+        new CacheDirectiveInfo.Builder().setPath(dir).build(),
+        "testIncrementalRescan:3:directive");
+  }
+
   @Test(timeout=120000)
   public void testLimit() throws Exception {
     try {
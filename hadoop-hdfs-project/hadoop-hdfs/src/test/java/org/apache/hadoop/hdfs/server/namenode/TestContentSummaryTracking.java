@@ -0,0 +1,193 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.ContentSummary;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Options;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test that the content summary kept on a tracked directory matches the one
+ * computed by walking the subtree.
+ */
+public class TestContentSummaryTracking {
+  private static final int BLOCKSIZE = 1024;
+  private static final short REPLICATION = 3;
+  private static final long seed = 0L;
+  private static final Path tracked = new Path("/tracked");
+  private static final Path other = new Path("/other");
+
+  private MiniDFSCluster cluster;
+  private FSDirectory fsdir;
+  private DistributedFileSystem dfs;
+
+  @Before
+  public void setUp() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, BLOCKSIZE);
+    conf.set(DFSConfigKeys.DFS_NAMENODE_CONTENT_SUMMARY_TRACKED_DIRS_KEY,
+        tracked.toString());
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(REPLICATION)
+        .build();
+    cluster.waitActive();
+    dfs = cluster.getFileSystem();
+
+    // the tracked directory must exist when the NameNode becomes active
+    dfs.mkdirs(new Path(tracked, "dir"));
+    DFSTestUtil.createFile(dfs, new Path(tracked, "dir/existing"),
+        BLOCKSIZE * 2, REPLICATION, seed);
+    dfs.mkdirs(other);
+    cluster.restartNameNode();
+    cluster.waitActive();
+    dfs = cluster.getFileSystem();
+    fsdir = cluster.getNamesystem().getFSDirectory();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  private void checkSummary() throws Exception {
+    final INode inode = fsdir.getINode(tracked.toString());
+    assertNotNull(inode.asDirectory().getDirectoryWithContentSummaryFeature());
+    final ContentSummary expected = inode.computeContentSummary();
+    final ContentSummary actual = dfs.getContentSummary(tracked);
+    assertEquals(expected.getLength(), actual.getLength());
+    assertEquals(expected.getFileCount(), actual.getFileCount());
+    assertEquals(expected.getDirectoryCount(), actual.getDirectoryCount());
+    assertEquals(expected.getSpaceConsumed(), actual.getSpaceConsumed());
+    assertEquals(expected.getQuota(), actual.getQuota());
+    assertEquals(expected.getSpaceQuota(), actual.getSpaceQuota());
+  }
+
+  @Test (timeout=60000)
+  public void testNamespaceChanges() throws Exception {
+    checkSummary();
+
+    final Path foo = new Path(tracked, "dir/foo");
+    DFSTestUtil.createFile(dfs, foo, BLOCKSIZE + BLOCKSIZE / 2,
+        REPLICATION, seed);
+    dfs.mkdirs(new Path(tracked, "a/b/c"));
+    dfs.createSymlink(foo, new Path(tracked, "link"), false);
+    checkSummary();
+
+    dfs.setReplication(foo, (short) 1);
+    checkSummary();
+
+    final FSDataOutputStream out = dfs.append(foo);
+    out.write(new byte[BLOCKSIZE]);
+    out.hflush();
+    checkSummary();
+    out.close();
+    checkSummary();
+
+    // rename into, within and out of the tracked directory
+    final Path outside = new Path(other, "outside");
+    DFSTestUtil.createFile(dfs, outside, BLOCKSIZE, REPLICATION, seed);
+    dfs.rename(outside, new Path(tracked, "a/inside"));
+    checkSummary();
+    dfs.rename(new Path(tracked, "a"), new Path(tracked, "dir/a"));
+    checkSummary();
+    dfs.rename(new Path(tracked, "dir/a"), new Path(other, "a"));
+    checkSummary();
+    DFSTestUtil.createFile(dfs, outside, BLOCKSIZE, REPLICATION, seed);
+    dfs.rename(outside, foo, Options.Rename.OVERWRITE);
+    checkSummary();
+
+    final Path target = new Path(tracked, "target");
+    final Path src1 = new Path(tracked, "src1");
+    final Path src2 = new Path(tracked, "src2");
+    DFSTestUtil.createFile(dfs, target, BLOCKSIZE, REPLICATION, seed);
+    DFSTestUtil.createFile(dfs, src1, BLOCKSIZE, REPLICATION, seed);
+    DFSTestUtil.createFile(dfs, src2, BLOCKSIZE, REPLICATION, seed);
+    dfs.concat(target, new Path[] {src1, src2});
+    checkSummary();
+
+    dfs.delete(new Path(tracked, "dir"), true);
+    checkSummary();
+  }
+
+  @Test (timeout=60000)
+  public void testFileUnderConstruction() throws Exception {
+    final Path bar = new Path(tracked, "dir/bar");
+    final FSDataOutputStream out = dfs.create(bar, REPLICATION);
+    out.write(new byte[BLOCKSIZE + BLOCKSIZE / 2]);
+    out.hflush();
+    checkSummary();
+    out.close();
+    checkSummary();
+  }
+
+  @Test (timeout=60000)
+  public void testOpenFilesAndSnapshots() throws Exception {
+    final DirectoryWithContentSummaryFeature sf = fsdir.getINode(
+        tracked.toString()).asDirectory().getDirectoryWithContentSummaryFeature();
+
+    // the feature follows the files under construction in the subtree
+    final Path bar = new Path(tracked, "dir/bar");
+    final FSDataOutputStream out = dfs.create(bar, REPLICATION);
+    out.write(new byte[BLOCKSIZE]);
+    out.hflush();
+    assertEquals(1, sf.getOpenFiles().size());
+    dfs.rename(bar, new Path(other, "bar"));
+    assertEquals(0, sf.getOpenFiles().size());
+    checkSummary();
+    dfs.rename(new Path(other, "bar"), bar);
+    assertEquals(1, sf.getOpenFiles().size());
+    checkSummary();
+    out.close();
+    assertEquals(0, sf.getOpenFiles().size());
+    checkSummary();
+
+    // and the snapshots taken in the subtree
+    final Path dir = new Path(tracked, "dir");
+    dfs.allowSnapshot(dir);
+    dfs.createSnapshot(dir, "s1");
+    assertEquals(1, sf.getCounts().get(Content.SNAPSHOT));
+    dfs.delete(bar, false);
+    checkSummary();
+    dfs.deleteSnapshot(dir, "s1");
+    assertEquals(0, sf.getCounts().get(Content.SNAPSHOT));
+    checkSummary();
+  }
+
+  @Test (timeout=60000)
+  public void testUntrackedDirectory() throws Exception {
+    final INode inode = fsdir.getINode(other.toString());
+    assertNull(inode.asDirectory().getDirectoryWithContentSummaryFeature());
+    DFSTestUtil.createFile(dfs, new Path(other, "baz"), BLOCKSIZE,
+        REPLICATION, seed);
+    assertEquals(1, dfs.getContentSummary(other).getFileCount());
+  }
+}
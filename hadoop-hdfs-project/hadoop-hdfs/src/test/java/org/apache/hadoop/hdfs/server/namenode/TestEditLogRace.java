@@ -51,6 +51,7 @@
 import org.apache.hadoop.hdfs.server.namenode.NNStorage.NameNodeDirType;
 import org.apache.hadoop.hdfs.server.protocol.NamenodeProtocols;
 import org.apache.hadoop.ipc.RemoteException;
+import org.apache.hadoop.test.GenericTestUtils;
 import org.apache.hadoop.util.Time;
 import org.apache.log4j.Level;
 import org.junit.Test;
@@ -97,6 +98,10 @@ public TestEditLogRace(boolean useAsyncEditLog) {
    */
   static final int NUM_ROLLS = 30;
 
+  // names the thread sending the deferred responses of the async edit log.
+  private static final String NOTIFY_THREAD_REGEX =
+      "FSEditLogAsync-NotifyThread-.*";
+
   /**
    * The number of times to save the fsimage and create an empty edit log.
    */
@@ -261,6 +266,79 @@ public void testEditLogRolling() throws Exception {
     }
   }
 
+  /**
+   * Tests that concurrent transactions keep completing when the pending
+   * queue of the async edit log is much smaller than the number of
+   * writers, so handlers routinely block on a full queue.
+   */
+  @Test
+  public void testTransactionsWithSmallPendingQueue() throws Exception {
+    Configuration conf = getConf();
+    conf.setInt(
+        DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING_PENDING_QUEUE_SIZE, 2);
+    final MiniDFSCluster cluster =
+        new MiniDFSCluster.Builder(conf).numDataNodes(NUM_DATA_NODES).build();
+    AtomicReference<Throwable> caughtErr = new AtomicReference<Throwable>();
+    try {
+      cluster.waitActive();
+      FSEditLog editLog = cluster.getNamesystem().getEditLog();
+      long startTxId = editLog.getLastWrittenTxId();
+      startTransactionWorkers(cluster, caughtErr);
+      for (int i = 0; i < 10 && caughtErr.get() == null; i++) {
+        Thread.sleep(100);
+        cluster.getNameNodeRpc().rollEditLog();
+      }
+      stopTransactionWorkers();
+      assertTrue(editLog.getLastWrittenTxId() > startTxId + NUM_THREADS);
+    } finally {
+      stopTransactionWorkers();
+      if (caughtErr.get() != null) {
+        throw new RuntimeException(caughtErr.get());
+      }
+      cluster.shutdown();
+    }
+  }
+
+  /**
+   * Tests that restarting and closing the async edit log stops the thread
+   * sending its deferred responses.
+   */
+  @Test
+  public void testNotifyThreadStoppedWithSyncThread() throws Exception {
+    Configuration conf = getConf();
+    MiniDFSCluster cluster = null;
+    try {
+      cluster = new MiniDFSCluster.Builder(conf).numDataNodes(0).build();
+      cluster.waitActive();
+      FileSystem fs = cluster.getFileSystem();
+      FSEditLog editLog = cluster.getNamesystem().getEditLog();
+      for (int i = 0; i < 3; i++) {
+        assertTrue(fs.mkdirs(new Path("/notify" + i)));
+        editLog.restart();
+      }
+      assertTrue(fs.mkdirs(new Path("/notify")));
+      assertTrue(countNotifyThreads() <= 1);
+      cluster.shutdown();
+      cluster = null;
+      GenericTestUtils.waitForThreadTermination(NOTIFY_THREAD_REGEX,
+          100, 10000);
+    } finally {
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+  }
+
+  private static int countNotifyThreads() {
+    int count = 0;
+    for (Thread t : Thread.getAllStackTraces().keySet()) {
+      if (t.getName().matches(NOTIFY_THREAD_REGEX)) {
+        count++;
+      }
+    }
+    return count;
+  }
+
   private long verifyEditLogs(FSNamesystem namesystem, FSImage fsimage, 
                               String logFileName, long startTxId)
     throws IOException {
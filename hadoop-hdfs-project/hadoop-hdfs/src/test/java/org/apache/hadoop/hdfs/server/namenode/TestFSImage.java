@@ -17,12 +17,15 @@
  */
 package org.apache.hadoop.hdfs.server.namenode;
 
+import static org.apache.hadoop.test.MetricsAsserts.getLongCounter;
+import static org.apache.hadoop.test.MetricsAsserts.getMetrics;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.util.EnumSet;
 
 import org.junit.Assert;
@@ -34,6 +37,7 @@
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.DFSOutputStream;
+import org.apache.hadoop.hdfs.DFSTestUtil;
 import org.apache.hadoop.hdfs.DistributedFileSystem;
 import org.apache.hadoop.hdfs.HdfsConfiguration;
 import org.apache.hadoop.hdfs.MiniDFSCluster;
@@ -43,6 +47,8 @@
 import org.apache.hadoop.hdfs.server.blockmanagement.BlockInfo;
 import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.BlockUCState;
 import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.StartupOption;
+import org.apache.hadoop.hdfs.server.namenode.FSImageFormatProtobuf.SectionName;
+import org.apache.hadoop.hdfs.server.namenode.FsImageProto.FileSummary;
 import org.apache.hadoop.hdfs.server.namenode.LeaseManager.Lease;
 import org.apache.hadoop.hdfs.server.namenode.NNStorage.NameNodeDirType;
 import org.apache.hadoop.hdfs.util.MD5FileUtils;
@@ -52,6 +58,7 @@
 
 public class TestFSImage {
 
+  private static final String NN_METRICS = "NameNodeActivity";
   private static final String HADOOP_2_7_ZER0_BLOCK_SIZE_TGZ =
       "image-with-zero-block-size.tar.gz";
   @Test
@@ -127,6 +134,118 @@ private void testPersistHelper(Configuration conf) throws IOException {
     }
   }
 
+  @Test
+  public void testParallelSaveAndLoad() throws IOException {
+    Configuration conf = new Configuration();
+    conf.setInt(DFSConfigKeys.DFS_IMAGE_PARALLEL_SAVE_THREADS_KEY, 3);
+    testParallelSaveAndLoadHelper(conf);
+  }
+
+  @Test
+  public void testParallelSaveAndLoadSingleSaveThread() throws IOException {
+    Configuration conf = new Configuration();
+    conf.setInt(DFSConfigKeys.DFS_IMAGE_PARALLEL_SAVE_THREADS_KEY, 1);
+    testParallelSaveAndLoadHelper(conf);
+  }
+
+  @Test
+  public void testParallelSaveAndLoadCompressed() throws IOException {
+    Configuration conf = new Configuration();
+    conf.setInt(DFSConfigKeys.DFS_IMAGE_PARALLEL_SAVE_THREADS_KEY, 3);
+    conf.setBoolean(DFSConfigKeys.DFS_IMAGE_COMPRESS_KEY, true);
+    conf.set(DFSConfigKeys.DFS_IMAGE_COMPRESSION_CODEC_KEY,
+        "org.apache.hadoop.io.compress.DefaultCodec");
+    testParallelSaveAndLoadHelper(conf);
+    conf.set(DFSConfigKeys.DFS_IMAGE_COMPRESSION_CODEC_KEY,
+        "org.apache.hadoop.io.compress.GzipCodec");
+    testParallelSaveAndLoadHelper(conf);
+  }
+
+  private void testParallelSaveAndLoadHelper(Configuration conf)
+      throws IOException {
+    conf.setBoolean(DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_KEY, true);
+    conf.setInt(DFSConfigKeys.DFS_IMAGE_PARALLEL_INODE_THRESHOLD_KEY, 5);
+    conf.setInt(DFSConfigKeys.DFS_IMAGE_PARALLEL_TARGET_SECTIONS_KEY, 4);
+    conf.setInt(DFSConfigKeys.DFS_IMAGE_PARALLEL_THREADS_KEY, 3);
+    MiniDFSCluster cluster = null;
+    try {
+      cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+      cluster.waitActive();
+      DistributedFileSystem fs = cluster.getFileSystem();
+      for (int i = 0; i < 5; i++) {
+        for (int j = 0; j < 5; j++) {
+          Path file = new Path("/dir" + i + "/sub" + j + "/f");
+          FSDataOutputStream out = fs.create(file);
+          out.writeBytes(file.toString());
+          out.close();
+        }
+      }
+      // create an under-construction file
+      final Path ucFile = new Path("/dir0/uc");
+      FSDataOutputStream out = fs.create(ucFile);
+      out.writeBytes("hello");
+      ((DFSOutputStream) out.getWrappedStream()).hsync(EnumSet
+          .of(SyncFlag.UPDATE_LENGTH));
+
+      fs.setSafeMode(SafeModeAction.SAFEMODE_ENTER);
+      fs.saveNamespace();
+      fs.setSafeMode(SafeModeAction.SAFEMODE_LEAVE);
+
+      File currentDir = FSImageTestUtil.getNameNodeCurrentDirs(cluster, 0).get(
+          0);
+      File fsimage = FSImageTestUtil.findNewestImageFile(currentDir
+          .getAbsolutePath());
+      assertTrue(countSections(fsimage, SectionName.INODE_SUB) > 1);
+      assertTrue(countSections(fsimage, SectionName.INODE_DIR_SUB) > 1);
+      assertEquals(MD5FileUtils.readStoredMd5ForFile(fsimage),
+          MD5FileUtils.computeMd5ForFile(fsimage));
+      assertTrue(getLongCounter("SaveImageSectionInodeNumOps",
+          getMetrics(NN_METRICS)) > 0);
+
+      // Load the image in parallel, then on a single thread.
+      for (boolean parallel : new boolean[] { true, false }) {
+        cluster.getConfiguration(0).setBoolean(
+            DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_KEY, parallel);
+        cluster.restartNameNode();
+        cluster.waitActive();
+        fs = cluster.getFileSystem();
+        FSNamesystem fsn = cluster.getNamesystem();
+        for (int i = 0; i < 5; i++) {
+          for (int j = 0; j < 5; j++) {
+            Path file = new Path("/dir" + i + "/sub" + j + "/f");
+            assertEquals(file.toString(), DFSTestUtil.readFile(fs, file));
+          }
+        }
+        INodeFile ucNode = fsn.dir.getINode4Write(ucFile.toString()).asFile();
+        assertTrue(ucNode.isUnderConstruction());
+        assertEquals("hello".length(), ucNode.computeFileSize());
+        Assert.assertNotNull(fsn.leaseManager.getLease(ucNode));
+        assertEquals(25 + 1, fsn.getBlockManager().getTotalBlocks());
+      }
+    } finally {
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+  }
+
+  private static int countSections(File fsimage, SectionName name)
+      throws IOException {
+    RandomAccessFile raFile = new RandomAccessFile(fsimage, "r");
+    try {
+      int count = 0;
+      FileSummary summary = FSImageUtil.loadSummary(raFile);
+      for (FileSummary.Section s : summary.getSectionsList()) {
+        if (SectionName.fromString(s.getName()) == name) {
+          count++;
+        }
+      }
+      return count;
+    } finally {
+      raFile.close();
+    }
+  }
+
    /**
    * On checkpointing , stale fsimage checkpoint file should be deleted.
    */
@@ -20,7 +20,19 @@
 
 import com.google.common.base.Supplier;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Options.Rename;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.server.namenode.top.TopConf;
+import org.apache.hadoop.hdfs.server.namenode.top.metrics.TopMetrics;
+import org.apache.hadoop.hdfs.server.namenode.top.window.RollingWindowManager.Op;
+import org.apache.hadoop.hdfs.server.namenode.top.window.RollingWindowManager.TopWindow;
 import org.apache.hadoop.test.GenericTestUtils;
 import org.apache.hadoop.test.GenericTestUtils.LogCapturer;
 import org.apache.hadoop.util.FakeTimer;
@@ -28,6 +40,8 @@
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -37,6 +51,9 @@
 
 import static org.junit.Assert.*;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_FSLOCK_FAIR_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_FSLOCK_PARTITIONED_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_FSLOCK_PARTITIONS_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_LOCK_DETAILED_METRICS_KEY;
 
 /**
  * Tests the FSNamesystemLock, looking at lock compatibilities and
@@ -302,9 +319,10 @@ public void run() {
     t2.start();
     t1.join();
     t2.join();
-    // Look for the differentiating class names in the stack trace
+    // Look for the differentiating class names in the stack trace, below
+    // readUnlock() and readUnlock(String)
     String stackTracePatternString =
-        String.format("INFO.+%s(.+\n){4}\\Q%%s\\E\\.run", readLockLogStmt);
+        String.format("INFO.+%s(.+\n){5}\\Q%%s\\E\\.run", readLockLogStmt);
     Pattern t1Pattern = Pattern.compile(
         String.format(stackTracePatternString, t1.getClass().getName()));
     assertTrue(t1Pattern.matcher(logs.getOutput()).find());
@@ -315,4 +333,358 @@ public void run() {
         "Number of suppressed read-lock reports: 2"));
   }
 
-}
\ No newline at end of file
+  @Test
+  public void testPartitionOfPath() {
+    FSNamesystemLock rwLock = new FSNamesystemLock(new Configuration());
+    assertFalse(rwLock.isPartitioned());
+    assertEquals(FSNamesystemLock.GLOBAL_PARTITION,
+        rwLock.getPartition("/a/b"));
+
+    Configuration conf = new Configuration();
+    conf.setBoolean(DFS_NAMENODE_FSLOCK_PARTITIONED_KEY, true);
+    conf.setInt(DFS_NAMENODE_FSLOCK_PARTITIONS_KEY, 16);
+    rwLock = new FSNamesystemLock(conf);
+    assertTrue(rwLock.isPartitioned());
+
+    // the root, top-level directories and reserved paths are global
+    assertEquals(FSNamesystemLock.GLOBAL_PARTITION, rwLock.getPartition("/"));
+    assertEquals(FSNamesystemLock.GLOBAL_PARTITION, rwLock.getPartition("/a"));
+    assertEquals(FSNamesystemLock.GLOBAL_PARTITION,
+        rwLock.getPartition("/.reserved/.inodes/16386"));
+    assertEquals(FSNamesystemLock.GLOBAL_PARTITION, rwLock.getPartition("a/b"));
+
+    // everything below a top-level directory shares its partition
+    int partition = rwLock.getPartition("/a/b");
+    assertTrue(partition >= 0 && partition < 16);
+    assertEquals(partition, rwLock.getPartition("/a/b/c/d"));
+    assertEquals(partition, rwLock.getPartition("//a//b"));
+    assertEquals(partition, rwLock.getPartition("/a/.snapshot/s1/b"));
+  }
+
+  @Test
+  public void testDetailedHoldMetrics() {
+    Configuration conf = new Configuration();
+    conf.setBoolean(DFS_NAMENODE_LOCK_DETAILED_METRICS_KEY, true);
+    FakeTimer timer = new FakeTimer();
+    FSNamesystemLock fsnLock = new FSNamesystemLock(conf, timer);
+    TopMetrics topMetrics = new TopMetrics(conf, new int[] {60000});
+    fsnLock.setTopMetrics(topMetrics);
+
+    fsnLock.readLock();
+    timer.advanceNanos(1200000);
+    fsnLock.readUnlock("foo");
+    fsnLock.readLock();
+    timer.advanceNanos(2400000);
+    fsnLock.readUnlock("foo");
+
+    fsnLock.writeLock();
+    timer.advanceNanos(1000000);
+    // only the outermost hold is recorded
+    fsnLock.writeLock();
+    timer.advanceNanos(1000000);
+    fsnLock.writeUnlock("bar");
+    timer.advanceNanos(1000000);
+    fsnLock.writeUnlock("baz");
+
+    fsnLock.writeLock();
+    timer.advanceNanos(500000);
+    fsnLock.writeUnlock();
+
+    TopWindow window = topMetrics.getTopLockHolderWindows().get(0);
+    Map<String, Long> holds = new HashMap<String, Long>();
+    for (Op op : window.getOps()) {
+      holds.put(op.getOpType(), op.getTotalCount());
+      if (!op.getOpType().equals(TopConf.ALL_CMDS)) {
+        assertEquals(FSNamesystemLock.INTERNAL_USER,
+            op.getTopUsers().get(0).getUser());
+      }
+    }
+    assertEquals(Long.valueOf(3600), holds.get("read.foo"));
+    assertEquals(Long.valueOf(3000), holds.get("write.baz"));
+    assertEquals(Long.valueOf(500),
+        holds.get("write." + FSNamesystemLock.OP_NAME_OTHER));
+    assertNull(holds.get("write.bar"));
+    assertEquals(Long.valueOf(7100), holds.get(TopConf.ALL_CMDS));
+  }
+
+  @Test
+  public void testDetailedHoldMetricsDisabled() {
+    Configuration conf = new Configuration();
+    FSNamesystemLock fsnLock = new FSNamesystemLock(conf, new FakeTimer());
+    TopMetrics topMetrics = new TopMetrics(conf, new int[] {60000});
+    fsnLock.setTopMetrics(topMetrics);
+
+    fsnLock.writeLock();
+    fsnLock.writeUnlock("bar");
+    assertTrue(topMetrics.getTopLockHolderWindows().get(0).getOps()
+        .isEmpty());
+  }
+
+  @Test(timeout=10000)
+  public void testPartitionLockCompatibility() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setBoolean(DFS_NAMENODE_FSLOCK_PARTITIONED_KEY, true);
+    conf.setInt(DFS_NAMENODE_FSLOCK_PARTITIONS_KEY, 2);
+    final FSNamesystemLock rwLock = new FSNamesystemLock(conf);
+
+    rwLock.writeLock(0);
+    assertTrue(rwLock.isPartitionWriteLockedByCurrentThread());
+    assertFalse(rwLock.isWriteLockedByCurrentThread());
+    assertEquals(1, rwLock.getReadHoldCount());
+
+    ExecutorService helper = Executors.newSingleThreadExecutor();
+    try {
+      // readers of other partitions proceed
+      helper.submit(new Runnable() {
+        @Override
+        public void run() {
+          rwLock.readLock(1);
+          assertFalse(rwLock.isPartitionWriteLockedByCurrentThread());
+          rwLock.readUnlock(1, "test");
+        }
+      }).get();
+
+      // readers of the locked partition, readers of the whole namespace and
+      // the global writer wait
+      final CountDownLatch done = new CountDownLatch(3);
+      helper.execute(new Runnable() {
+        @Override
+        public void run() {
+          rwLock.readLock(0);
+          rwLock.readUnlock(0, "test");
+          done.countDown();
+          rwLock.readLock();
+          rwLock.readUnlock();
+          done.countDown();
+          rwLock.writeLock();
+          rwLock.writeUnlock();
+          done.countDown();
+        }
+      });
+      assertFalse(done.await(200, TimeUnit.MILLISECONDS));
+      assertEquals(3, done.getCount());
+      rwLock.writeUnlock(0, "test");
+      assertFalse(rwLock.isPartitionWriteLockedByCurrentThread());
+      assertEquals(0, rwLock.getReadHoldCount());
+      done.await();
+    } finally {
+      helper.shutdownNow();
+    }
+  }
+
+  @Test(timeout=10000)
+  public void testGlobalReaderExcludesPartitionWriters() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setBoolean(DFS_NAMENODE_FSLOCK_PARTITIONED_KEY, true);
+    conf.setInt(DFS_NAMENODE_FSLOCK_PARTITIONS_KEY, 2);
+    final FSNamesystemLock rwLock = new FSNamesystemLock(conf);
+
+    rwLock.readLock();
+    // a partition hold nested in the outermost one is reentrant
+    rwLock.readLock(1);
+    rwLock.readUnlock(1, "test");
+    assertEquals(1, rwLock.getReadHoldCount());
+
+    ExecutorService helper = Executors.newSingleThreadExecutor();
+    try {
+      // other readers proceed, writers of any partition wait
+      helper.submit(new Runnable() {
+        @Override
+        public void run() {
+          rwLock.readLock();
+          rwLock.readUnlock();
+          rwLock.readLock(0);
+          rwLock.readUnlock(0, "test");
+        }
+      }).get();
+      final CountDownLatch done = new CountDownLatch(1);
+      helper.execute(new Runnable() {
+        @Override
+        public void run() {
+          rwLock.writeLock(1);
+          // a read hold nested in a partition write hold does not take the
+          // other partitions
+          rwLock.readLock();
+          rwLock.readUnlock();
+          rwLock.writeUnlock(1, "test");
+          done.countDown();
+        }
+      });
+      assertFalse(done.await(200, TimeUnit.MILLISECONDS));
+      rwLock.readUnlock();
+      assertEquals(0, rwLock.getReadHoldCount());
+      done.await();
+    } finally {
+      helper.shutdownNow();
+    }
+  }
+
+  @Test(timeout=10000)
+  public void testBatchedReadOfGlobalPaths() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setBoolean(DFS_NAMENODE_FSLOCK_PARTITIONED_KEY, true);
+    conf.setInt(DFS_NAMENODE_FSLOCK_PARTITIONS_KEY, 2);
+    final FSNamesystemLock rwLock = new FSNamesystemLock(conf);
+
+    final int[] partitions = rwLock.getPartitions(
+        new String[] {"/a/b", "/c/d", "/a/e"});
+    assertTrue(partitions.length >= 1 && partitions.length <= 2);
+    // a top-level directory is read under the lock of the whole namespace
+    assertNull(rwLock.getPartitions(new String[] {"/a/b", "/c"}));
+
+    rwLock.readLock((int[]) null);
+    assertEquals(1, rwLock.getReadHoldCount());
+    ExecutorService helper = Executors.newSingleThreadExecutor();
+    try {
+      final CountDownLatch done = new CountDownLatch(2);
+      helper.execute(new Runnable() {
+        @Override
+        public void run() {
+          rwLock.writeLock(0);
+          rwLock.writeUnlock(0, "test");
+          done.countDown();
+          rwLock.writeLock(1);
+          rwLock.writeUnlock(1, "test");
+          done.countDown();
+        }
+      });
+      assertFalse(done.await(200, TimeUnit.MILLISECONDS));
+      rwLock.readUnlock((int[]) null, "test");
+      assertEquals(0, rwLock.getReadHoldCount());
+      done.await();
+    } finally {
+      helper.shutdownNow();
+    }
+  }
+
+  @Test(timeout=60000)
+  public void testSnapshotScopeOfPartitionedUpdates() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setBoolean(DFS_NAMENODE_FSLOCK_PARTITIONED_KEY, true);
+    MiniDFSCluster cluster = null;
+    try {
+      cluster = new MiniDFSCluster.Builder(conf).numDataNodes(0).build();
+      cluster.waitActive();
+      DistributedFileSystem fs = cluster.getFileSystem();
+      final FSNamesystem fsn = cluster.getNamesystem();
+      // maps paths to the same partitions as the lock of the namesystem
+      final FSNamesystemLock fsLock = new FSNamesystemLock(conf);
+      fs.mkdirs(new Path("/top/dir/sub"));
+      fs.mkdirs(new Path("/snap/dir"));
+      fs.mkdirs(new Path("/nested/dir/snap/x"));
+      fs.allowSnapshot(new Path("/snap/dir"));
+      fs.createSnapshot(new Path("/snap/dir"), "s1");
+      fs.allowSnapshot(new Path("/nested/dir/snap"));
+
+      fsn.readLock();
+      try {
+        // snapshottable directories elsewhere do not matter
+        assertTrue(fsn.isNamespaceUpdateCovered(
+            fsLock.getPartition("/top/dir"), true, "/top/dir"));
+        // below a snapshottable directory, with or without snapshots
+        assertFalse(fsn.isNamespaceUpdateCovered(
+            fsLock.getPartition("/snap/dir/x"), false, "/snap/dir/x"));
+        assertFalse(fsn.isNamespaceUpdateCovered(
+            fsLock.getPartition("/nested/dir/snap/x"), false,
+            "/nested/dir/snap/x"));
+        // above a snapshottable directory
+        assertFalse(fsn.isNamespaceUpdateCovered(
+            fsLock.getPartition("/nested/dir"), false, "/nested/dir"));
+      } finally {
+        fsn.readUnlock();
+      }
+
+      // a reference left behind by a rename out of a snapshot keeps a
+      // delete of its subtree global
+      fs.mkdirs(new Path("/snap/dir/moved/child"));
+      fs.createSnapshot(new Path("/snap/dir"), "s2");
+      assertTrue(fs.rename(new Path("/snap/dir/moved"),
+          new Path("/top/dir/sub/moved")));
+      fsn.readLock();
+      try {
+        assertTrue(fsn.isNamespaceUpdateCovered(
+            fsLock.getPartition("/top/dir/sub"), false, "/top/dir/sub"));
+        assertFalse(fsn.isNamespaceUpdateCovered(
+            fsLock.getPartition("/top/dir/sub"), true, "/top/dir/sub"));
+      } finally {
+        fsn.readUnlock();
+      }
+      assertTrue(fs.delete(new Path("/top/dir/sub"), true));
+      assertTrue(fs.exists(new Path("/snap/dir/.snapshot/s2/moved/child")));
+    } finally {
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+  }
+
+  @Test(timeout=60000)
+  public void testUpdatesWithPartitionedLock() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setBoolean(DFS_NAMENODE_FSLOCK_PARTITIONED_KEY, true);
+    MiniDFSCluster cluster = null;
+    try {
+      cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+      cluster.waitActive();
+      DistributedFileSystem fs = cluster.getFileSystem();
+      final Path top = new Path("/top");
+      Path file = new Path(top, "dir/file");
+      DFSTestUtil.createFile(fs, file, 1024, (short) 1, 0L);
+
+      // updates confined to a partition
+      fs.setPermission(file, new FsPermission((short) 0600));
+      fs.setOwner(file, "user1", "group1");
+      fs.setTimes(file, 1000L, 2000L);
+      FileStatus stat = fs.getFileStatus(file);
+      assertEquals((short) 0600, stat.getPermission().toShort());
+      assertEquals("user1", stat.getOwner());
+      assertEquals("group1", stat.getGroup());
+      assertEquals(1000L, stat.getModificationTime());
+      assertEquals(2000L, stat.getAccessTime());
+
+      // updates of a top-level directory and of inodes in a snapshot fall
+      // back to the global lock
+      fs.setPermission(top, new FsPermission((short) 0700));
+      fs.allowSnapshot(top);
+      fs.createSnapshot(top, "s1");
+      fs.setPermission(file, new FsPermission((short) 0644));
+      assertEquals((short) 0700,
+          fs.getFileStatus(top).getPermission().toShort());
+      assertEquals((short) 0644,
+          fs.getFileStatus(file).getPermission().toShort());
+      assertEquals((short) 0600, fs.getFileStatus(
+          new Path(top, ".snapshot/s1/dir/file")).getPermission().toShort());
+
+      // renames and deletes below a top-level directory are confined to
+      // its partition unless a directory is snapshottable
+      fs.deleteSnapshot(top, "s1");
+      fs.disallowSnapshot(top);
+      final Path other = new Path("/other/dir");
+      fs.mkdirs(other);
+      final Path renamed = new Path(top, "renamed");
+      assertTrue(fs.rename(new Path(top, "dir"), renamed));
+      fs.rename(new Path(renamed, "file"), new Path(top, "file2"),
+          Rename.OVERWRITE);
+      DFSTestUtil.createFile(fs, new Path(other, "file3"), 1024, (short) 1,
+          0L);
+      assertTrue(fs.delete(renamed, true));
+      // a rename across partitions falls back to the global lock
+      file = new Path(other, "file");
+      assertTrue(fs.rename(new Path(top, "file2"), file));
+      assertFalse(fs.exists(renamed));
+      assertTrue(fs.exists(new Path(other, "file3")));
+
+      // the changes survive an edit log replay
+      cluster.restartNameNode();
+      fs = cluster.getFileSystem();
+      stat = fs.getFileStatus(file);
+      assertEquals((short) 0644, stat.getPermission().toShort());
+      assertEquals("user1", stat.getOwner());
+      assertEquals(1000L, stat.getModificationTime());
+    } finally {
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+  }
+}
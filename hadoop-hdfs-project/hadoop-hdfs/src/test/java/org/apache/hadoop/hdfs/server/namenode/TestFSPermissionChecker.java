@@ -32,6 +32,7 @@
 import static org.apache.hadoop.fs.permission.FsAction.WRITE;
 import static org.apache.hadoop.fs.permission.FsAction.WRITE_EXECUTE;
 import static org.apache.hadoop.hdfs.server.namenode.AclTestHelpers.aclEntry;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
@@ -394,6 +395,31 @@ public void testAclOther() throws IOException {
     assertPermissionDenied(CLARK, "/file1", ALL);
   }
 
+  @Test
+  public void testTraverseCache() throws IOException {
+    INodeDirectory inodeDir = createINodeDirectory(inodeRoot, "dir1", "bruce",
+      "execs", (short)0755);
+    createINodeFile(inodeDir, "file1", "bruce", "execs", (short)0644);
+    PermissionTraverseCache traverseCache = dir.getTraverseCache();
+    assertPermissionGranted(DIANA, "/dir1/file1", READ);
+    assertEquals(1, traverseCache.size());
+
+    // a change made behind the back of FSDirectory is not seen
+    inodeDir.setPermission(FsPermission.createImmutable((short)0700));
+    assertPermissionGranted(DIANA, "/dir1/file1", READ);
+
+    // but a change through FSDirectory makes the cached checks stale
+    dir.setPermission("/dir1", FsPermission.createImmutable((short)0700));
+    assertPermissionDenied(DIANA, "/dir1/file1", READ);
+    assertPermissionGranted(BRUCE, "/dir1/file1", READ);
+
+    dir.setPermission("/dir1", FsPermission.createImmutable((short)0755));
+    assertPermissionGranted(DIANA, "/dir1/file1", READ);
+    dir.setOwner("/dir1", null, "sales");
+    dir.setPermission("/dir1", FsPermission.createImmutable((short)0705));
+    assertPermissionDenied(DIANA, "/dir1/file1", READ);
+  }
+
   private void addAcl(INodeWithAdditionalFields inode, AclEntry... acl)
       throws IOException {
     AclStorage.updateINodeAcl(inode,
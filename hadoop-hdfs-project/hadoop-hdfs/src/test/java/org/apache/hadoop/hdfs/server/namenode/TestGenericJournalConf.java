@@ -179,6 +179,11 @@ public void selectInputStreams(Collection<EditLogInputStream> streams,
         long fromTxnId, boolean inProgressOk) {
     }
 
+    @Override
+    public void selectInputStreams(Collection<EditLogInputStream> streams,
+        long fromTxnId, boolean inProgressOk, boolean onlyDurableTxns) {
+    }
+
     @Override
     public void setOutputBufferCapacity(int size) {}
 
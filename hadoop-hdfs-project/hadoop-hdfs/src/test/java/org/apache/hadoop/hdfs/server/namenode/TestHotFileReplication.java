@@ -0,0 +1,218 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.MiniDFSNNTopology;
+import org.apache.hadoop.hdfs.server.namenode.ha.HATestUtil;
+import org.apache.hadoop.hdfs.server.protocol.NamenodeProtocols;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Supplier;
+
+/**
+ * Test raising the replication of files which are read very often.
+ */
+public class TestHotFileReplication {
+  private static final int THRESHOLD = 8;
+  private static final int COOL_THRESHOLD = 3;
+  private static final short HOT_REPLICATION = 3;
+
+  private MiniDFSCluster cluster;
+  private DistributedFileSystem fs;
+  private HotFileReplicationMonitor monitor;
+
+  @Before
+  public void setUp() throws Exception {
+    // the test runs the checks itself
+    Configuration conf = createConf(Long.MAX_VALUE);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(3).build();
+    cluster.waitActive();
+    fs = cluster.getFileSystem();
+    monitor = cluster.getNamesystem().getHotFileMonitor();
+  }
+
+  private static Configuration createConf(long intervalMs) {
+    Configuration conf = new HdfsConfiguration();
+    conf.setBoolean(
+        DFSConfigKeys.DFS_NAMENODE_HOT_FILE_REPLICATION_ENABLED_KEY, true);
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_HOT_FILE_THRESHOLD_KEY, THRESHOLD);
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_HOT_FILE_COOL_THRESHOLD_KEY,
+        COOL_THRESHOLD);
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_HOT_FILE_REPLICATION_KEY,
+        HOT_REPLICATION);
+    conf.setLong(DFSConfigKeys.DFS_NAMENODE_HOT_FILE_INTERVAL_MS_KEY,
+        intervalMs);
+    return conf;
+  }
+
+  @After
+  public void tearDown() {
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  private void read(Path file, int times) throws Exception {
+    NamenodeProtocols nn = cluster.getNameNodeRpc();
+    for (int i = 0; i < times; i++) {
+      nn.getBlockLocations(file.toString(), 0, Long.MAX_VALUE);
+    }
+  }
+
+  private long getId(Path file) throws Exception {
+    return cluster.getNamesystem().getFSDirectory()
+        .getINode(file.toString()).getId();
+  }
+
+  @Test(timeout=60000)
+  public void testRaiseAndRestore() throws Exception {
+    final Path hot = new Path("/hot");
+    final Path cold = new Path("/cold");
+    DFSTestUtil.createFile(fs, hot, 1024, (short) 1, 0L);
+    DFSTestUtil.createFile(fs, cold, 1024, (short) 1, 0L);
+
+    read(hot, THRESHOLD);
+    read(cold, THRESHOLD - 1);
+    monitor.check();
+    assertTrue(monitor.isRaised(getId(hot)));
+    assertFalse(monitor.isRaised(getId(cold)));
+    assertEquals(HOT_REPLICATION, fs.getFileStatus(hot).getReplication());
+    assertEquals(1, fs.getFileStatus(cold).getReplication());
+
+    // 8 halves to 4, then 2, which is below the cool threshold
+    monitor.check();
+    assertEquals(HOT_REPLICATION, fs.getFileStatus(hot).getReplication());
+    monitor.check();
+    assertFalse(monitor.isRaised(getId(hot)));
+    assertEquals(1, fs.getFileStatus(hot).getReplication());
+  }
+
+  @Test(timeout=60000)
+  public void testUserChangeIsKept() throws Exception {
+    final Path hot = new Path("/hot");
+    DFSTestUtil.createFile(fs, hot, 1024, (short) 1, 0L);
+    read(hot, THRESHOLD);
+    monitor.check();
+    assertEquals(HOT_REPLICATION, fs.getFileStatus(hot).getReplication());
+
+    fs.setReplication(hot, (short) 2);
+    for (int i = 0; i < 4; i++) {
+      monitor.check();
+    }
+    assertFalse(monitor.isRaised(getId(hot)));
+    assertEquals(2, fs.getFileStatus(hot).getReplication());
+  }
+
+  @Test(timeout=60000)
+  public void testRestoreOnLeavingActive() throws Exception {
+    final Path hot = new Path("/hot");
+    DFSTestUtil.createFile(fs, hot, 1024, (short) 1, 0L);
+    read(hot, THRESHOLD);
+    monitor.check();
+    assertEquals(HOT_REPLICATION, fs.getFileStatus(hot).getReplication());
+
+    cluster.restartNameNode();
+    fs = cluster.getFileSystem();
+    assertEquals(1, fs.getFileStatus(hot).getReplication());
+  }
+
+  /**
+   * A NameNode which did not get to restore the files, as after a crash,
+   * leaves the original replication in the namespace for the next active.
+   */
+  @Test(timeout=60000)
+  public void testRestoreAfterCrash() throws Exception {
+    final Path hot = new Path("/hot");
+    DFSTestUtil.createFile(fs, hot, 1024, (short) 1, 0L);
+    read(hot, THRESHOLD);
+    monitor.check();
+    assertEquals(HOT_REPLICATION, fs.getFileStatus(hot).getReplication());
+
+    // skip the restore done when leaving the active state
+    monitor.stop();
+    cluster.restartNameNode();
+    fs = cluster.getFileSystem();
+    monitor = cluster.getNamesystem().getHotFileMonitor();
+    assertEquals(HOT_REPLICATION, fs.getFileStatus(hot).getReplication());
+    assertTrue(monitor.isRaised(getId(hot)));
+
+    // the new active has no counts, so the file is cool right away
+    monitor.check();
+    assertFalse(monitor.isRaised(getId(hot)));
+    assertEquals(1, fs.getFileStatus(hot).getReplication());
+  }
+
+  /**
+   * The monitor runs again when the NameNode becomes active again after it
+   * was in the standby state.
+   */
+  @Test(timeout=120000)
+  public void testRestartAfterStandby() throws Exception {
+    cluster.shutdown();
+    cluster = new MiniDFSCluster.Builder(createConf(100))
+        .nnTopology(MiniDFSNNTopology.simpleHATopology())
+        .numDataNodes(3).build();
+    cluster.waitActive();
+    cluster.transitionToActive(0);
+    FileSystem haFs = HATestUtil.configureFailoverFs(cluster,
+        cluster.getConfiguration(0));
+    final Path hot = new Path("/hot");
+    DFSTestUtil.createFile(haFs, hot, 1024, (short) 1, 0L);
+
+    cluster.transitionToStandby(0);
+    cluster.transitionToActive(1);
+    cluster.transitionToStandby(1);
+    cluster.transitionToActive(0);
+    monitor = cluster.getNamesystem(0).getHotFileMonitor();
+    assertTrue(monitor.isRunning());
+    assertFalse(cluster.getNamesystem(1).getHotFileMonitor().isRunning());
+
+    final NamenodeProtocols nn = cluster.getNameNodeRpc(0);
+    GenericTestUtils.waitFor(new Supplier<Boolean>() {
+      @Override
+      public Boolean get() {
+        try {
+          // keep the file hot until the monitor raised it
+          for (int i = 0; i < THRESHOLD; i++) {
+            nn.getBlockLocations(hot.toString(), 0, Long.MAX_VALUE);
+          }
+          return cluster.getNamesystem(0).getFSDirectory()
+              .getINode(hot.toString()).asFile().getFileReplication()
+              == HOT_REPLICATION;
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      }
+    }, 100, 30000);
+  }
+}
@@ -31,6 +31,7 @@
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
 
+import com.google.common.base.Supplier;
 import com.google.common.util.concurrent.Uninterruptibles;
 import org.apache.commons.io.FileUtils;
 import org.apache.hadoop.conf.Configuration;
@@ -43,6 +44,7 @@
 import org.apache.hadoop.hdfs.MiniDFSNNTopology;
 import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants.SafeModeAction;
+import org.apache.hadoop.hdfs.server.blockmanagement.BlockManagerTestUtil;
 import org.apache.hadoop.hdfs.server.blockmanagement.CombinedHostFileManager;
 import org.apache.hadoop.hdfs.server.blockmanagement.DatanodeDescriptor;
 import org.apache.hadoop.hdfs.server.blockmanagement.DatanodeManager;
@@ -54,6 +56,7 @@
 import org.apache.hadoop.io.nativeio.NativeIO;
 import org.apache.hadoop.io.nativeio.NativeIO.POSIX.NoMlockCacheManipulator;
 import org.apache.hadoop.net.ServerSocketUtil;
+import org.apache.hadoop.test.GenericTestUtils;
 import org.apache.hadoop.util.Time;
 import org.apache.hadoop.util.VersionInfo;
 import org.codehaus.jackson.map.ObjectMapper;
@@ -601,4 +604,58 @@ private void checkNNDirSize(Collection<URI> nameDirUris, String metric){
           FileUtils.sizeOfDirectory(dir));
     }
   }
+
+  @Test(timeout = 120000)
+  public void testDatanodeMetricsSnapshot() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setLong(DFSConfigKeys.DFS_NAMENODE_METRICS_SNAPSHOT_INTERVAL_MS_KEY,
+        100);
+    MiniDFSCluster cluster = null;
+    try {
+      cluster = new MiniDFSCluster.Builder(conf).numDataNodes(2).build();
+      cluster.waitActive();
+      final FSNamesystem fsn = cluster.getNameNode().namesystem;
+      assertNotNull(fsn.getDatanodeMetricsSnapshot());
+
+      final MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+      final ObjectName mxbeanName = new ObjectName(
+          "Hadoop:service=NameNode,name=FSNamesystemState");
+      waitForAttribute(mbs, mxbeanName, "NumLiveDataNodes", 2);
+
+      // the snapshot lags behind a datanode that was just marked dead
+      String dnName = cluster.getDataNodes().get(0).getDatanodeId()
+          .getXferAddr();
+      cluster.stopDataNode(0);
+      BlockManagerTestUtil.noticeDeadDatanode(cluster.getNameNode(), dnName);
+      assertEquals(1, fsn.computeNumDeadDataNodes());
+
+      waitForAttribute(mbs, mxbeanName, "NumDeadDataNodes", 1);
+      assertEquals(1, mbs.getAttribute(mxbeanName, "NumLiveDataNodes"));
+      DatanodeMetricsSnapshot snapshot = fsn.getDatanodeMetricsSnapshot();
+      assertEquals(1, snapshot.getNumDeadDataNodes());
+      Map<String, Map<String, Object>> deadNodes =
+          (Map<String, Map<String, Object>>) JSON.parse(
+              snapshot.getDeadNodes());
+      assertEquals(1, deadNodes.size());
+    } finally {
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+  }
+
+  private static void waitForAttribute(final MBeanServer mbs,
+      final ObjectName name, final String attribute, final int expected)
+      throws Exception {
+    GenericTestUtils.waitFor(new Supplier<Boolean>() {
+      @Override
+      public Boolean get() {
+        try {
+          return expected == (Integer) mbs.getAttribute(name, attribute);
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      }
+    }, 100, 30000);
+  }
 }
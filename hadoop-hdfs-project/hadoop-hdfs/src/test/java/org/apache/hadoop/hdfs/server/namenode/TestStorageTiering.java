@@ -0,0 +1,198 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.MiniDFSNNTopology;
+import org.apache.hadoop.hdfs.StorageType;
+import org.apache.hadoop.hdfs.protocol.HdfsConstants;
+import org.apache.hadoop.hdfs.protocol.LocatedBlock;
+import org.apache.hadoop.hdfs.server.blockmanagement.BlockStoragePolicySuite;
+import org.apache.hadoop.hdfs.server.namenode.ha.HATestUtil;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.apache.hadoop.util.Time;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Supplier;
+
+/**
+ * Test assigning storage policies by idle time and moving blocks to match.
+ */
+public class TestStorageTiering {
+  private static final long HOUR = 60 * 60 * 1000L;
+
+  private MiniDFSCluster cluster;
+  private DistributedFileSystem fs;
+  private StorageTieringMonitor monitor;
+
+  @Before
+  public void setUp() throws Exception {
+    // the test runs the rounds itself
+    Configuration conf = createConf(Long.MAX_VALUE);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(2)
+        .storageTypes(new StorageType[] {StorageType.DISK, StorageType.ARCHIVE})
+        .build();
+    cluster.waitActive();
+    fs = cluster.getFileSystem();
+    monitor = cluster.getNamesystem().getStorageTieringMonitor();
+  }
+
+  private static Configuration createConf(long intervalMs) {
+    Configuration conf = new HdfsConfiguration();
+    conf.setBoolean(DFSConfigKeys.DFS_NAMENODE_STORAGE_TIERING_ENABLED_KEY,
+        true);
+    conf.set(DFSConfigKeys.DFS_NAMENODE_STORAGE_TIERING_PATHS_KEY, "/tier");
+    conf.set(DFSConfigKeys.DFS_NAMENODE_STORAGE_TIERING_RULES_KEY,
+        "COLD:1h, HOT:0");
+    conf.setLong(DFSConfigKeys.DFS_NAMENODE_STORAGE_TIERING_INTERVAL_MS_KEY,
+        intervalMs);
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_STORAGE_TIERING_BATCH_SIZE_KEY, 1);
+    conf.setLong(DFSConfigKeys.DFS_HEARTBEAT_INTERVAL_KEY, 1);
+    return conf;
+  }
+
+  @After
+  public void tearDown() {
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  @Test
+  public void testChoosePolicy() {
+    assertEquals("HOT", monitor.choosePolicy(0).getName());
+    assertEquals("HOT", monitor.choosePolicy(HOUR - 1).getName());
+    assertEquals("COLD", monitor.choosePolicy(HOUR).getName());
+    assertNull(monitor.choosePolicy(-1));
+  }
+
+  @Test(timeout=120000)
+  public void testMoveIdleFilesToArchive() throws Exception {
+    final Path idle = new Path("/tier/a/idle");
+    final Path used = new Path("/tier/b/used");
+    final Path outside = new Path("/other/idle");
+    final long past = Time.now() - 2 * HOUR;
+    for (Path p : new Path[] {idle, used, outside}) {
+      DFSTestUtil.createFile(fs, p, 1024, (short) 1, 0L);
+    }
+    fs.setTimes(idle, past, past);
+    fs.setTimes(outside, past, past);
+
+    monitor.runRound();
+    assertEquals(HdfsConstants.COLD_STORAGE_POLICY_ID,
+        fs.getClient().getFileInfo(idle.toString()).getStoragePolicy());
+    assertEquals(BlockStoragePolicySuite.ID_UNSPECIFIED,
+        fs.getClient().getFileInfo(used.toString()).getStoragePolicy());
+    assertEquals(BlockStoragePolicySuite.ID_UNSPECIFIED,
+        fs.getClient().getFileInfo(outside.toString()).getStoragePolicy());
+
+    // the replica is copied to ARCHIVE, then the DISK one is removed
+    StorageType[] types;
+    while (true) {
+      LocatedBlock lb =
+          fs.getClient().getLocatedBlocks(idle.toString(), 0).get(0);
+      types = lb.getStorageTypes();
+      if (types.length == 1 && types[0] == StorageType.ARCHIVE) {
+        break;
+      }
+      Thread.sleep(500);
+    }
+    assertArrayEquals(new StorageType[] {StorageType.DISK},
+        fs.getClient().getLocatedBlocks(used.toString(), 0).get(0)
+            .getStorageTypes());
+  }
+
+  /**
+   * A directory with more files than the batch size is visited over several
+   * lock holds, without skipping any file.
+   */
+  @Test(timeout=60000)
+  public void testLargeDirectoryInBatches() throws Exception {
+    final int numFiles = 5;
+    final long past = Time.now() - 2 * HOUR;
+    for (int i = 0; i < numFiles; i++) {
+      final Path file = new Path("/tier/d/f" + i);
+      DFSTestUtil.createFile(fs, file, 1024, (short) 1, 0L);
+      fs.setTimes(file, past, past);
+    }
+    monitor.runRound();
+    // one file per batch
+    assertEquals(numFiles, monitor.getBatchesInRound());
+    for (int i = 0; i < numFiles; i++) {
+      assertEquals(HdfsConstants.COLD_STORAGE_POLICY_ID, fs.getClient()
+          .getFileInfo("/tier/d/f" + i).getStoragePolicy());
+    }
+  }
+
+  /**
+   * The monitor runs again when the NameNode becomes active again after it
+   * was in the standby state.
+   */
+  @Test(timeout=120000)
+  public void testRestartAfterStandby() throws Exception {
+    cluster.shutdown();
+    cluster = new MiniDFSCluster.Builder(createConf(100))
+        .nnTopology(MiniDFSNNTopology.simpleHATopology())
+        .numDataNodes(0).build();
+    cluster.waitActive();
+    cluster.transitionToActive(0);
+    cluster.transitionToStandby(0);
+    cluster.transitionToActive(1);
+    cluster.transitionToStandby(1);
+    cluster.transitionToActive(0);
+    assertTrue(cluster.getNamesystem(0).getStorageTieringMonitor()
+        .isRunning());
+    assertFalse(cluster.getNamesystem(1).getStorageTieringMonitor()
+        .isRunning());
+
+    FileSystem haFs = HATestUtil.configureFailoverFs(cluster,
+        cluster.getConfiguration(0));
+    final Path file = new Path("/tier/file");
+    final long past = Time.now() - 2 * HOUR;
+    DFSTestUtil.createFile(haFs, file, 0, (short) 1, 0L);
+    haFs.setTimes(file, past, past);
+    GenericTestUtils.waitFor(new Supplier<Boolean>() {
+      @Override
+      public Boolean get() {
+        try {
+          return cluster.getNameNodeRpc(0).getFileInfo(file.toString())
+              .getStoragePolicy() == HdfsConstants.COLD_STORAGE_POLICY_ID;
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    }, 100, 30000);
+  }
+}
@@ -0,0 +1,139 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode.ha;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.HAUtil;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.qjournal.MiniQJMHACluster;
+import org.apache.hadoop.hdfs.server.namenode.NameNode;
+import org.apache.hadoop.hdfs.server.namenode.NameNodeAdapter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test that the StandbyNode tails the in-progress segment of the active
+ * from the edit caches of the JournalNodes.
+ */
+public class TestStandbyInProgressTail {
+  private Configuration conf;
+  private MiniQJMHACluster qjmhaCluster;
+  private MiniDFSCluster cluster;
+  private NameNode nn0;
+  private NameNode nn1;
+
+  @Before
+  public void setup() {
+    conf = new Configuration();
+    HAUtil.setAllowStandbyReads(conf, true);
+    conf.setBoolean(DFSConfigKeys.DFS_HA_TAILEDITS_INPROGRESS_KEY, true);
+    // Only roll and tail when the test asks for it
+    conf.setInt(DFSConfigKeys.DFS_HA_LOGROLL_PERIOD_KEY, -1);
+    conf.setInt(DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_KEY, 600);
+  }
+
+  private void startCluster() throws IOException {
+    qjmhaCluster = new MiniQJMHACluster.Builder(conf).build();
+    cluster = qjmhaCluster.getDfsCluster();
+    cluster.transitionToActive(0);
+    nn0 = cluster.getNameNode(0);
+    nn1 = cluster.getNameNode(1);
+  }
+
+  @After
+  public void shutdown() throws IOException {
+    if (qjmhaCluster != null) {
+      qjmhaCluster.shutdown();
+    }
+  }
+
+  private void mkdir(String dir) throws IOException {
+    FileSystem fs = cluster.getFileSystem(0);
+    fs.mkdirs(new Path(dir));
+  }
+
+  /**
+   * Tail until the standby has loaded every edit written by the active. A
+   * single tail may stop short, when a JournalNode of the quorum it reads
+   * from has not received the last edits yet.
+   */
+  private void tailToActive() throws Exception {
+    long txid = nn0.getNamesystem().getEditLog().getLastWrittenTxId();
+    while (nn1.getNamesystem().getFSImage().getLastAppliedTxId() < txid) {
+      nn1.getNamesystem().getEditLogTailer().doTailEdits();
+    }
+  }
+
+  @Test(timeout = 120000)
+  public void testTailInProgressEdits() throws Exception {
+    startCluster();
+
+    mkdir("/test");
+    assertNull(NameNodeAdapter.getFileInfo(nn1, "/test", true));
+    tailToActive();
+    assertNotNull(NameNodeAdapter.getFileInfo(nn1, "/test", true));
+    assertEquals(nn0.getNamesystem().getEditLog().getLastWrittenTxId(),
+        nn1.getNamesystem().getFSImage().getLastAppliedTxId());
+
+    // Tail again from the middle of the segment
+    mkdir("/test2");
+    mkdir("/test3");
+    tailToActive();
+    assertNotNull(NameNodeAdapter.getFileInfo(nn1, "/test2", true));
+    assertNotNull(NameNodeAdapter.getFileInfo(nn1, "/test3", true));
+
+    // Once the segment is finalized, the standby carries on from the middle
+    // of it
+    mkdir("/test4");
+    nn0.getRpcServer().rollEditLog();
+    mkdir("/test5");
+    tailToActive();
+    assertNotNull(NameNodeAdapter.getFileInfo(nn1, "/test4", true));
+    assertNotNull(NameNodeAdapter.getFileInfo(nn1, "/test5", true));
+
+    // And can take over from there
+    cluster.transitionToStandby(0);
+    cluster.transitionToActive(1);
+    assertNotNull(NameNodeAdapter.getFileInfo(nn1, "/test5", true));
+    cluster.getFileSystem(1).mkdirs(new Path("/test6"));
+  }
+
+  @Test(timeout = 120000)
+  public void testFallBackToFinalizedSegments() throws Exception {
+    conf.setInt(DFSConfigKeys.DFS_JOURNALNODE_EDIT_CACHE_SIZE_KEY, 0);
+    startCluster();
+
+    mkdir("/test");
+    nn1.getNamesystem().getEditLogTailer().doTailEdits();
+    assertNull(NameNodeAdapter.getFileInfo(nn1, "/test", true));
+
+    nn0.getRpcServer().rollEditLog();
+    nn1.getNamesystem().getEditLogTailer().doTailEdits();
+    assertNotNull(NameNodeAdapter.getFileInfo(nn1, "/test", true));
+  }
+}
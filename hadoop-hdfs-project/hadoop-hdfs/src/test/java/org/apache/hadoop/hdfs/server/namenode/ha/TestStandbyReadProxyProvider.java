@@ -0,0 +1,283 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode.ha;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.MiniDFSNNTopology;
+import org.apache.hadoop.hdfs.NameNodeProxies;
+import org.apache.hadoop.hdfs.protocol.ClientProtocol;
+import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+import org.apache.hadoop.hdfs.qjournal.MiniQJMHACluster;
+import org.apache.hadoop.hdfs.server.namenode.ha.ConfiguredFailoverProxyProvider.ProxyFactory;
+import org.apache.hadoop.hdfs.server.protocol.NamenodeProtocols;
+import org.apache.hadoop.ipc.RemoteException;
+import org.apache.hadoop.ipc.StandbyException;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.apache.hadoop.util.Time;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class TestStandbyReadProxyProvider {
+
+  private Configuration conf;
+  private URI nnUri;
+  private NamenodeProtocols nn1;
+  private NamenodeProtocols nn2;
+
+  @Before
+  public void setup() throws Exception {
+    String ns = "mycluster-" + Time.monotonicNow();
+    nnUri = new URI("hdfs://" + ns);
+    conf = new Configuration();
+    conf.set(DFSConfigKeys.DFS_NAMESERVICES, ns);
+    conf.set(
+        DFSConfigKeys.DFS_HA_NAMENODES_KEY_PREFIX + "." + ns, "nn1,nn2");
+    conf.set(
+        DFSConfigKeys.DFS_NAMENODE_RPC_ADDRESS_KEY + "." + ns + ".nn1",
+        "machine1.foo.bar:8020");
+    conf.set(
+        DFSConfigKeys.DFS_NAMENODE_RPC_ADDRESS_KEY + "." + ns + ".nn2",
+        "machine2.foo.bar:8020");
+    nn1 = Mockito.mock(NamenodeProtocols.class);
+    nn2 = Mockito.mock(NamenodeProtocols.class);
+  }
+
+  private StandbyReadProxyProvider<NamenodeProtocols> createProvider() {
+    return new StandbyReadProxyProvider<NamenodeProtocols>(conf, nnUri,
+        NamenodeProtocols.class, new ProxyFactory<NamenodeProtocols>() {
+          @Override
+          public NamenodeProtocols createProxy(Configuration conf,
+              InetSocketAddress nnAddr, Class<NamenodeProtocols> xface,
+              UserGroupInformation ugi, boolean withRetries,
+              AtomicBoolean fallbackToSimpleAuth) throws IOException {
+            return nnAddr.getHostName().startsWith("machine1") ? nn1 : nn2;
+          }
+        });
+  }
+
+  @Test
+  public void testReadsGoToStandby() throws Exception {
+    HdfsFileStatus status = Mockito.mock(HdfsFileStatus.class);
+    Mockito.when(nn2.getFileInfo("/foo")).thenReturn(status);
+    NamenodeProtocols proxy = createProvider().getProxy().proxy;
+
+    assertEquals(status, proxy.getFileInfo("/foo"));
+    proxy.mkdirs("/bar", FsPermission.getDefault(), true);
+    Mockito.verify(nn1, Mockito.never()).getFileInfo("/foo");
+    Mockito.verify(nn1).mkdirs("/bar", FsPermission.getDefault(), true);
+    Mockito.verify(nn2, Mockito.never()).mkdirs(
+        "/bar", FsPermission.getDefault(), true);
+  }
+
+  @Test
+  public void testFallBackToActive() throws Exception {
+    HdfsFileStatus status = Mockito.mock(HdfsFileStatus.class);
+    Mockito.when(nn1.getFileInfo("/foo")).thenReturn(status);
+    Mockito.when(nn2.getFileInfo("/foo")).thenThrow(new RemoteException(
+        StandbyException.class.getName(), "not caught up"));
+    Mockito.when(nn2.getFileInfo("/missing")).thenThrow(new RemoteException(
+        FileNotFoundException.class.getName(), "/missing"));
+    NamenodeProtocols proxy = createProvider().getProxy().proxy;
+
+    assertEquals(status, proxy.getFileInfo("/foo"));
+    // Errors of the read itself are not retried on the active
+    try {
+      proxy.getFileInfo("/missing");
+      fail("Expected the error of the standby");
+    } catch (RemoteException e) {
+      assertEquals(FileNotFoundException.class.getName(), e.getClassName());
+    }
+    Mockito.verify(nn1, Mockito.never()).getFileInfo("/missing");
+  }
+
+  @Test
+  public void testBackOffFromUnreachableStandby() throws Exception {
+    Mockito.when(nn2.getFileInfo("/foo")).thenThrow(
+        new ConnectException("unreachable"));
+    StandbyReadProxyProvider<NamenodeProtocols> provider = createProvider();
+
+    provider.getProxy().proxy.getFileInfo("/foo");
+    provider.getProxy().proxy.getFileInfo("/foo");
+    Mockito.verify(nn2, Mockito.times(1)).getFileInfo("/foo");
+    Mockito.verify(nn1, Mockito.times(2)).getFileInfo("/foo");
+  }
+
+  @Test
+  public void testReadsFollowFailover() throws Exception {
+    StandbyReadProxyProvider<NamenodeProtocols> provider = createProvider();
+    provider.performFailover(provider.getProxy().proxy);
+    NamenodeProtocols proxy = provider.getProxy().proxy;
+
+    proxy.getFileInfo("/foo");
+    proxy.mkdirs("/bar", FsPermission.getDefault(), true);
+    Mockito.verify(nn1).getFileInfo("/foo");
+    Mockito.verify(nn2).mkdirs("/bar", FsPermission.getDefault(), true);
+  }
+
+  /**
+   * A read sent to the standby observes a write completed on the active just
+   * before, even though the standby would not tail edits on its own yet.
+   */
+  @Test(timeout = 120000)
+  public void testConsistentReadsFromStandby() throws Exception {
+    Configuration clusterConf = createStandbyReadsConf();
+    MiniQJMHACluster.Builder builder =
+        new MiniQJMHACluster.Builder(clusterConf);
+    builder.getDfsBuilder().numDataNodes(1);
+    MiniQJMHACluster qjmhaCluster = builder.build();
+    MiniDFSCluster cluster = qjmhaCluster.getDfsCluster();
+    try {
+      cluster.transitionToActive(0);
+      cluster.waitActive();
+
+      Configuration clientConf = new Configuration(clusterConf);
+      clientConf.set(DFSConfigKeys.DFS_CLIENT_FAILOVER_PROXY_PROVIDER_KEY_PREFIX
+          + "." + MiniQJMHACluster.NAMESERVICE,
+          StandbyReadProxyProvider.class.getName());
+      FileSystem fs = FileSystem.get(
+          new URI("hdfs://" + MiniQJMHACluster.NAMESERVICE), clientConf);
+
+      Path dir = new Path("/consistent");
+      fs.mkdirs(dir);
+      long txid = cluster.getNameNode(0).getNamesystem().getFSImage()
+          .getEditLog().getLastWrittenTxId();
+      assertNotNull(fs.getFileStatus(dir));
+      assertTrue(cluster.getNameNode(1).getNamesystem().getFSImage()
+          .getLastAppliedTxId() >= txid);
+
+      Path file = new Path(dir, "file");
+      DFSTestUtil.writeFile(fs, file, "consistent");
+      assertEquals("consistent", DFSTestUtil.readFile(fs, file));
+    } finally {
+      qjmhaCluster.shutdown();
+    }
+  }
+
+  /**
+   * The standby serves only the listed reads, and only to clients sending the
+   * last transaction ID they have seen.
+   */
+  @Test(timeout = 120000)
+  public void testStandbyServesOnlyCoordinatedReads() throws Exception {
+    Configuration clusterConf = createStandbyReadsConf();
+    MiniQJMHACluster qjmhaCluster =
+        new MiniQJMHACluster.Builder(clusterConf).build();
+    MiniDFSCluster cluster = qjmhaCluster.getDfsCluster();
+    try {
+      cluster.transitionToActive(0);
+      InetSocketAddress standbyAddr =
+          cluster.getNameNode(1).getNameNodeAddress();
+      UserGroupInformation ugi = UserGroupInformation.getCurrentUser();
+
+      ClientProtocol plain = NameNodeProxies.createNonHAProxy(clusterConf,
+          standbyAddr, ClientProtocol.class, ugi, false).getProxy();
+      assertStandbyException(plain, "/");
+
+      ClientStateIdContext context = new ClientStateIdContext();
+      ClientProtocol active = NameNodeProxies.createNonHAProxy(clusterConf,
+          cluster.getNameNode(0).getNameNodeAddress(), ClientProtocol.class,
+          ugi, false, null, context).getProxy();
+      active.mkdirs("/coordinated", FsPermission.getDefault(), true);
+      assertTrue(context.getLastSeenStateId() >= cluster.getNameNode(0)
+          .getNamesystem().getFSImage().getEditLog().getLastWrittenTxId());
+
+      ClientProtocol standby = NameNodeProxies.createNonHAProxy(clusterConf,
+          standbyAddr, ClientProtocol.class, ugi, false, null, context)
+          .getProxy();
+      assertNotNull(standby.getFileInfo("/coordinated"));
+      try {
+        standby.getStats();
+        fail("The standby served a read which is not marked @ReadOnly");
+      } catch (RemoteException e) {
+        assertEquals(StandbyException.class.getName(), e.getClassName());
+      }
+    } finally {
+      qjmhaCluster.shutdown();
+    }
+  }
+
+  /**
+   * Standby reads require the in-progress edits to be tailed.
+   */
+  @Test
+  public void testStandbyReadsRequireInProgressTailing() throws Exception {
+    Configuration clusterConf = createStandbyReadsConf();
+    clusterConf.setBoolean(DFSConfigKeys.DFS_HA_TAILEDITS_INPROGRESS_KEY,
+        false);
+    MiniDFSCluster cluster = null;
+    try {
+      cluster = new MiniDFSCluster.Builder(clusterConf)
+          .nnTopology(MiniDFSNNTopology.simpleHATopology())
+          .numDataNodes(0)
+          .build();
+      fail("Started a NameNode serving standby reads without tailing "
+          + "in-progress edits");
+    } catch (IOException e) {
+      GenericTestUtils.assertExceptionContains(
+          DFSConfigKeys.DFS_HA_TAILEDITS_INPROGRESS_KEY, e);
+    } finally {
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+  }
+
+  private static Configuration createStandbyReadsConf() {
+    Configuration clusterConf = new Configuration();
+    clusterConf.setBoolean(DFSConfigKeys.DFS_HA_STANDBY_READS_ENABLED_KEY,
+        true);
+    clusterConf.setBoolean(DFSConfigKeys.DFS_HA_TAILEDITS_INPROGRESS_KEY,
+        true);
+    clusterConf.setLong(DFSConfigKeys.DFS_HA_STANDBY_READS_MAX_WAIT_MS_KEY,
+        30000);
+    // Reads wake the tailer up, it does not tail on its own in the test
+    clusterConf.setInt(DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_KEY, 600);
+    clusterConf.setInt(DFSConfigKeys.DFS_HA_LOGROLL_PERIOD_KEY, -1);
+    return clusterConf;
+  }
+
+  private static void assertStandbyException(ClientProtocol nn, String src)
+      throws IOException {
+    try {
+      nn.getFileInfo(src);
+      fail("The standby served a read without a client state ID");
+    } catch (RemoteException e) {
+      assertEquals(StandbyException.class.getName(), e.getClassName());
+    }
+  }
+}
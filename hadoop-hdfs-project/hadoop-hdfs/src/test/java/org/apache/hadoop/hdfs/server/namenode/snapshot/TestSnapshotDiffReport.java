@@ -60,6 +60,7 @@
 import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport;
 import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport.DiffReportEntry;
 import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport.DiffType;
+import org.apache.hadoop.hdfs.protocol.SnapshotDiffReportListing;
 import org.apache.hadoop.hdfs.server.namenode.AclFeature;
 import org.apache.hadoop.hdfs.server.namenode.AclTestHelpers;
 import org.apache.hadoop.hdfs.protocol.SnapshotException;
@@ -858,6 +859,65 @@ public void testDiffReportWithRename() throws Exception {
             .string2Bytes("dir1/foo/bar"), DFSUtil.string2Bytes("dir2/bar")));
   }
 
+  /**
+   * A diff listed in small pages, with renames whose source and target are
+   * on different pages, should match the diff computed in one call.
+   */
+  @Test
+  public void testDiffReportListingInPages() throws Exception {
+    final int limit = 2;
+    cluster.shutdown();
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_SNAPSHOT_DIFF_LISTING_LIMIT,
+        limit);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(REPLICATION)
+        .format(true).build();
+    cluster.waitActive();
+    hdfs = cluster.getFileSystem();
+
+    final Path root = new Path("/");
+    final Path sdir1 = new Path(root, "dir1");
+    final Path sdir2 = new Path(root, "dir2");
+    final Path foo = new Path(sdir1, "foo");
+    final Path bar = new Path(foo, "bar");
+    hdfs.mkdirs(bar);
+    hdfs.mkdirs(sdir2);
+    modifyAndCreateSnapshot(sdir1, new Path[]{root});
+
+    // /dir1/foo/bar -> /dir2/bar, /dir1/foo -> /dir2/bar/foo
+    final Path bar2 = new Path(sdir2, "bar");
+    hdfs.rename(bar, bar2);
+    hdfs.rename(foo, new Path(bar2, "foo"));
+    // /dir1/file10 -> /dir2/zfile10
+    hdfs.rename(new Path(sdir1, "file10"), new Path(sdir2, "zfile10"));
+    for (int i = 0; i < 5; i++) {
+      DFSTestUtil.createFile(hdfs, new Path(sdir2, "new" + i), BLOCKSIZE,
+          REPLICATION, SEED);
+    }
+    hdfs.delete(new Path(sdir1, "file13"), true);
+    hdfs.createSnapshot(root, "s3");
+
+    SnapshotDiffReportListing page = hdfs.getClient()
+        .getSnapshotDiffReportListing("/", "s0", "s3", DFSUtil.EMPTY_BYTES, 0);
+    assertTrue(page.hasMore());
+    assertEquals(limit, page.getModifyList().size()
+        + page.getCreateList().size() + page.getDeleteList().size());
+
+    final String[] snapshots = {"s0", "s1", "s2", "s3", ""};
+    for (String from : snapshots) {
+      for (String to : snapshots) {
+        SnapshotDiffReport expected =
+            hdfs.getClient().getSnapshotDiffReport("/", from, to);
+        SnapshotDiffReport report = hdfs.getSnapshotDiffReport(root, from, to);
+        LOG.info(report.toString());
+        assertEquals(expected.getDiffList().size(),
+            report.getDiffList().size());
+        for (DiffReportEntry entry : expected.getDiffList()) {
+          assertTrue(entry.toString(), report.getDiffList().contains(entry));
+        }
+      }
+    }
+  }
+
   /**
    * Rename a file/dir outside of the snapshottable dir should be reported as
    * deleted. Rename a file/dir from outside should be reported as created.
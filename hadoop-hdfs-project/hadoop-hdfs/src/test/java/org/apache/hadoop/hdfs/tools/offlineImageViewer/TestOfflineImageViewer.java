@@ -77,7 +77,10 @@
 import org.apache.hadoop.hdfs.DistributedFileSystem;
 import org.apache.hadoop.hdfs.MiniDFSCluster;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants.SafeModeAction;
+import org.apache.hadoop.hdfs.server.namenode.FSImageFormatProtobuf.SectionName;
 import org.apache.hadoop.hdfs.server.namenode.FSImageTestUtil;
+import org.apache.hadoop.hdfs.server.namenode.FSImageUtil;
+import org.apache.hadoop.hdfs.server.namenode.FsImageProto.FileSummary;
 import org.apache.hadoop.hdfs.server.namenode.NameNodeLayoutVersion;
 import org.apache.hadoop.hdfs.web.WebHdfsFileSystem;
 import org.apache.hadoop.io.IOUtils;
@@ -591,6 +594,98 @@ public void testFileDistributionCalculatorForException() throws Exception {
     assertEquals(0, status);
   }
 
+  @Test
+  public void testCompressedImageWithSubSections() throws Exception {
+    testCompressedImageWithSubSectionsHelper(
+        "org.apache.hadoop.io.compress.DefaultCodec");
+    testCompressedImageWithSubSectionsHelper(
+        "org.apache.hadoop.io.compress.GzipCodec");
+  }
+
+  private void testCompressedImageWithSubSectionsHelper(String codec)
+      throws Exception {
+    Configuration conf = new Configuration();
+    conf.setBoolean(DFSConfigKeys.DFS_IMAGE_COMPRESS_KEY, true);
+    conf.set(DFSConfigKeys.DFS_IMAGE_COMPRESSION_CODEC_KEY, codec);
+    conf.setBoolean(DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_KEY, true);
+    conf.setInt(DFSConfigKeys.DFS_IMAGE_PARALLEL_INODE_THRESHOLD_KEY, 5);
+    conf.setInt(DFSConfigKeys.DFS_IMAGE_PARALLEL_TARGET_SECTIONS_KEY, 4);
+    // keep the image of the other tests
+    conf.set(MiniDFSCluster.HDFS_MINIDFS_BASEDIR,
+        new File(tempDir, "compressed").getAbsolutePath());
+    File fsimageFile = null;
+    MiniDFSCluster cluster = null;
+    try {
+      cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+      cluster.waitActive();
+      DistributedFileSystem hdfs = cluster.getFileSystem();
+      for (int i = 0; i < NUM_DIRS; i++) {
+        for (int j = 0; j < FILES_PER_DIR; j++) {
+          DFSTestUtil.createFile(hdfs, new Path("/dir" + i + "/sub" + j +
+              "/f"), 10, (short) 1, 0);
+        }
+      }
+      hdfs.setSafeMode(SafeModeAction.SAFEMODE_ENTER, false);
+      hdfs.saveNamespace();
+      fsimageFile = FSImageTestUtil.findLatestImageFile(FSImageTestUtil
+          .getFSImage(cluster.getNameNode()).getStorage().getStorageDir(0));
+      if (fsimageFile == null) {
+        throw new RuntimeException("Didn't generate or can't find fsimage");
+      }
+    } finally {
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+
+    // each sub-section of the INODE section is compressed on its own
+    RandomAccessFile raFile = new RandomAccessFile(fsimageFile, "r");
+    int subSections = 0;
+    try {
+      FileSummary summary = FSImageUtil.loadSummary(raFile);
+      assertTrue(summary.hasCodec());
+      for (FileSummary.Section s : summary.getSectionsList()) {
+        if (SectionName.fromString(s.getName()) == SectionName.INODE_SUB) {
+          subSections++;
+        }
+      }
+    } finally {
+      raFile.close();
+    }
+    assertTrue(subSections > 1);
+
+    StringWriter output = new StringWriter();
+    PrintWriter o = new PrintWriter(output);
+    new PBImageXmlWriter(new Configuration(), o).visit(
+        new RandomAccessFile(fsimageFile, "r"));
+    o.close();
+    final String xml = output.getBuffer().toString();
+    SAXParserFactory.newInstance().newSAXParser().parse(
+        new InputSource(new StringReader(xml)), new DefaultHandler());
+    Matcher matcher = Pattern.compile("<name>f</name>").matcher(xml);
+    int files = 0;
+    while (matcher.find()) {
+      files++;
+    }
+    assertEquals(NUM_DIRS * FILES_PER_DIR, files);
+
+    FSImageLoader loader = FSImageLoader.load(fsimageFile.getAbsolutePath());
+    for (int i = 0; i < NUM_DIRS; i++) {
+      for (int j = 0; j < FILES_PER_DIR; j++) {
+        assertTrue(loader.getFileStatus("/dir" + i + "/sub" + j + "/f")
+            .contains("\"type\":\"FILE\""));
+      }
+    }
+
+    output = new StringWriter();
+    o = new PrintWriter(output);
+    new FileDistributionCalculator(new Configuration(), 0, 0, o)
+        .visit(new RandomAccessFile(fsimageFile, "r"));
+    o.close();
+    assertTrue(output.toString().contains(
+        "totalFiles = " + NUM_DIRS * FILES_PER_DIR + "\n"));
+  }
+
   /**
    * Tests that the ReverseXML processor doesn't accept XML files with the wrong
    * layoutVersion.
@@ -386,6 +386,51 @@ public int compare(Object o1, Object o2) {
     }
   }
 
+  @Test
+  public void testTailIteratorWithComparator() {
+    FoldedTreeSet<Holder> set = new FoldedTreeSet<>();
+    long[] longs = new long[32147];
+    for (int i = 0; i < longs.length; i++) {
+      Holder val = new Holder(srand.nextLong());
+      while (set.contains(val)) {
+        val = new Holder(srand.nextLong());
+      }
+      longs[i] = val.getId();
+      set.add(val);
+    }
+    Arrays.sort(longs);
+    Comparator<Object> cmp = new Comparator<Object>() {
+      @Override
+      public int compare(Object o1, Object o2) {
+        long lookup = (long) o1;
+        long stored = ((Holder) o2).getId();
+        return lookup < stored ? -1
+               : lookup > stored ? 1 : 0;
+      }
+    };
+
+    assertEquals(longs[0],
+        set.tailIterator(Long.MIN_VALUE, cmp).next().getId());
+    for (int i = 0; i < 1000; i++) {
+      // Alternate between stored keys and keys falling between entries
+      long key = i % 2 == 0 ? longs[srand.nextInt(longs.length)]
+                            : srand.nextLong();
+      int pos = Arrays.binarySearch(longs, key);
+      if (pos < 0) {
+        pos = -pos - 1;
+      }
+      Iterator<Holder> it = set.tailIterator(key, cmp);
+      for (int j = pos; j < longs.length && j < pos + 200; j++) {
+        assertTrue(it.hasNext());
+        assertEquals(longs[j], it.next().getId());
+      }
+      if (pos + 200 >= longs.length) {
+        assertFalse(it.hasNext());
+      }
+    }
+    assertFalse(new FoldedTreeSet<Holder>().tailIterator(0L, cmp).hasNext());
+  }
+
   @Test
   public void testGet() {
     FoldedTreeSet<Holder> set = new FoldedTreeSet<>();
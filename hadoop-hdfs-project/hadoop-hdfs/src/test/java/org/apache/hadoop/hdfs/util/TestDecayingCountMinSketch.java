@@ -0,0 +1,55 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestDecayingCountMinSketch {
+  @Test
+  public void testAddAndEstimate() {
+    DecayingCountMinSketch sketch = new DecayingCountMinSketch(4, 1000);
+    for (long key = 0; key < 100; key++) {
+      for (int i = 0; i <= key; i++) {
+        sketch.add(key);
+      }
+    }
+    for (long key = 0; key < 100; key++) {
+      // never underestimates
+      assertTrue(sketch.estimate(key) >= key + 1);
+    }
+    assertEquals(sketch.estimate(99L) + 1, sketch.add(99L));
+  }
+
+  @Test
+  public void testDecay() {
+    DecayingCountMinSketch sketch = new DecayingCountMinSketch(2, 16);
+    for (int i = 0; i < 10; i++) {
+      sketch.add(7L);
+    }
+    assertEquals(10, sketch.estimate(7L));
+    sketch.decay();
+    assertEquals(5, sketch.estimate(7L));
+    sketch.decay();
+    sketch.decay();
+    sketch.decay();
+    assertEquals(0, sketch.estimate(7L));
+  }
+}
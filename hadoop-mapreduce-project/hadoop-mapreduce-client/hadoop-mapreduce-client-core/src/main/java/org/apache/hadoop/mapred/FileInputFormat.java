@@ -34,11 +34,13 @@
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.fs.BatchListingOperations;
 import org.apache.hadoop.fs.BlockLocation;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.LocatedFileStatus;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PartialListing;
 import org.apache.hadoop.fs.PathFilter;
 import org.apache.hadoop.fs.RemoteIterator;
 import org.apache.hadoop.mapreduce.security.TokenCache;
@@ -254,6 +256,10 @@ private List<FileStatus> singleThreadedListStatus(JobConf job, Path[] dirs,
       PathFilter inputFilter, boolean recursive) throws IOException {
     List<FileStatus> result = new ArrayList<FileStatus>();
     List<IOException> errors = new ArrayList<IOException>();
+    // directories on a file system that can list them in batches, listed
+    // together when a match that cannot be added to the batch comes up
+    List<Path> batch = new ArrayList<Path>();
+    FileSystem batchFs = null;
     for (Path p: dirs) {
       FileSystem fs = p.getFileSystem(job); 
       FileStatus[] matches = fs.globStatus(p, inputFilter);
@@ -263,6 +269,16 @@ private List<FileStatus> singleThreadedListStatus(JobConf job, Path[] dirs,
         errors.add(new IOException("Input Pattern " + p + " matches 0 files"));
       } else {
         for (FileStatus globStat: matches) {
+          if (globStat.isDirectory() && fs instanceof BatchListingOperations) {
+            if (fs != batchFs) {
+              addInputDirectories(result, batchFs, batch, inputFilter,
+                  recursive);
+              batchFs = fs;
+            }
+            batch.add(globStat.getPath());
+            continue;
+          }
+          addInputDirectories(result, batchFs, batch, inputFilter, recursive);
           if (globStat.isDirectory()) {
             RemoteIterator<LocatedFileStatus> iter =
                 fs.listLocatedStatus(globStat.getPath());
@@ -283,12 +299,40 @@ private List<FileStatus> singleThreadedListStatus(JobConf job, Path[] dirs,
         }
       }
     }
+    addInputDirectories(result, batchFs, batch, inputFilter, recursive);
     if (!errors.isEmpty()) {
       throw new InvalidInputException(errors);
     }
     return result;
   }
 
+  /**
+   * Add the files in the given directories into the results, listing the
+   * directories in batches rather than one at a time. The list of
+   * directories is cleared afterwards.
+   */
+  private void addInputDirectories(List<FileStatus> result, FileSystem fs,
+      List<Path> dirs, PathFilter inputFilter, boolean recursive)
+      throws IOException {
+    if (dirs.isEmpty()) {
+      return;
+    }
+    RemoteIterator<PartialListing<LocatedFileStatus>> listings =
+        ((BatchListingOperations) fs).batchedListLocatedStatusIterator(dirs);
+    while (listings.hasNext()) {
+      for (LocatedFileStatus stat : listings.next().get()) {
+        if (inputFilter.accept(stat.getPath())) {
+          if (recursive && stat.isDirectory()) {
+            addInputPathRecursively(result, fs, stat.getPath(), inputFilter);
+          } else {
+            result.add(stat);
+          }
+        }
+      }
+    }
+    dirs.clear();
+  }
+
   /**
    * A factory that makes the split for this class. It can be overridden
    * by sub-classes to make sub-types
@@ -28,10 +28,12 @@
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BatchListingOperations;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.LocatedFileStatus;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PartialListing;
 import org.apache.hadoop.fs.PathFilter;
 import org.apache.hadoop.fs.BlockLocation;
 import org.apache.hadoop.fs.RemoteIterator;
@@ -288,6 +290,10 @@ private List<FileStatus> singleThreadedListStatus(JobContext job, Path[] dirs,
       PathFilter inputFilter, boolean recursive) throws IOException {
     List<FileStatus> result = new ArrayList<FileStatus>();
     List<IOException> errors = new ArrayList<IOException>();
+    // directories on a file system that can list them in batches, listed
+    // together when a match that cannot be added to the batch comes up
+    List<Path> batch = new ArrayList<Path>();
+    FileSystem batchFs = null;
     for (int i=0; i < dirs.length; ++i) {
       Path p = dirs[i];
       FileSystem fs = p.getFileSystem(job.getConfiguration()); 
@@ -298,6 +304,16 @@ private List<FileStatus> singleThreadedListStatus(JobContext job, Path[] dirs,
         errors.add(new IOException("Input Pattern " + p + " matches 0 files"));
       } else {
         for (FileStatus globStat: matches) {
+          if (globStat.isDirectory() && fs instanceof BatchListingOperations) {
+            if (fs != batchFs) {
+              addInputDirectories(result, batchFs, batch, inputFilter,
+                  recursive);
+              batchFs = fs;
+            }
+            batch.add(globStat.getPath());
+            continue;
+          }
+          addInputDirectories(result, batchFs, batch, inputFilter, recursive);
           if (globStat.isDirectory()) {
             RemoteIterator<LocatedFileStatus> iter =
                 fs.listLocatedStatus(globStat.getPath());
@@ -319,11 +335,39 @@ private List<FileStatus> singleThreadedListStatus(JobContext job, Path[] dirs,
       }
     }
 
+    addInputDirectories(result, batchFs, batch, inputFilter, recursive);
     if (!errors.isEmpty()) {
       throw new InvalidInputException(errors);
     }
     return result;
   }
+
+  /**
+   * Add the files in the given directories into the results, listing the
+   * directories in batches rather than one at a time. The list of
+   * directories is cleared afterwards.
+   */
+  private void addInputDirectories(List<FileStatus> result, FileSystem fs,
+      List<Path> dirs, PathFilter inputFilter, boolean recursive)
+      throws IOException {
+    if (dirs.isEmpty()) {
+      return;
+    }
+    RemoteIterator<PartialListing<LocatedFileStatus>> listings =
+        ((BatchListingOperations) fs).batchedListLocatedStatusIterator(dirs);
+    while (listings.hasNext()) {
+      for (LocatedFileStatus stat : listings.next().get()) {
+        if (inputFilter.accept(stat.getPath())) {
+          if (recursive && stat.isDirectory()) {
+            addInputPathRecursively(result, fs, stat.getPath(), inputFilter);
+          } else {
+            result.add(stat);
+          }
+        }
+      }
+    }
+    dirs.clear();
+  }
   
   /**
    * Add files in the input path recursively into the results.